@@ -0,0 +1,165 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.utils.Constants;
+import sk.baka.webvm.analyzer.utils.MemoryUsage2;
+
+/**
+ * Computes the delay before the next vmstat sample. While some metric is over {@link #getThresholdPercent()}% of its problem
+ * threshold the sampler bursts at {@link #burstDelayMs}; when everything is calm for {@link #CALM_MILLIS} it slows down to
+ * {@link #idleDelayMs}; otherwise it samples at the normal rate.
+ * <p></p>
+ * Not thread-safe - use from the sampler thread only; just {@link #configChanged(sk.baka.webvm.analyzer.config.Config)} may be
+ * called from any thread.
+ * @author Martin Vysny
+ */
+public final class AdaptiveSampling {
+
+    /**
+     * The sampler slows down to the idle rate after this many milliseconds without a hot metric.
+     */
+    public static final long CALM_MILLIS = 30000;
+    /**
+     * The sampling delay while some metric is close to its threshold.
+     */
+    public final int burstDelayMs;
+    /**
+     * The normal sampling delay.
+     */
+    public final int normalDelayMs;
+    /**
+     * The sampling delay when everything is calm.
+     */
+    public final int idleDelayMs;
+    /**
+     * A metric is hot when it reaches this percentage of its problem threshold.
+     */
+    private volatile int thresholdPercent;
+    private volatile int gcCpuTreshold;
+    private volatile int cpuTreshold;
+    private volatile int memUsageTreshold;
+    /**
+     * The time of the last hot sample; -1 if no sample was seen yet.
+     */
+    private long lastHot = -1;
+
+    /**
+     * Creates new policy.
+     * @param burstDelayMs the sampling delay while some metric is close to its threshold, 1 or greater.
+     * @param normalDelayMs the normal sampling delay, 1 or greater.
+     * @param idleDelayMs the sampling delay when everything is calm, 1 or greater.
+     * @param thresholdPercent a metric is hot when it reaches this percentage of its problem threshold.
+     * @param config the problem thresholds, not null.
+     */
+    public AdaptiveSampling(int burstDelayMs, int normalDelayMs, int idleDelayMs, int thresholdPercent, @NotNull Config config) {
+        if (burstDelayMs < 1 || normalDelayMs < 1 || idleDelayMs < 1) {
+            throw new IllegalArgumentException("Invalid delays: burst " + burstDelayMs + ", normal " + normalDelayMs + ", idle " + idleDelayMs + ": must be 1 or greater");
+        }
+        this.burstDelayMs = burstDelayMs;
+        this.normalDelayMs = normalDelayMs;
+        this.idleDelayMs = idleDelayMs;
+        this.thresholdPercent = thresholdPercent;
+        setThresholds(config);
+    }
+
+    private void setThresholds(Config config) {
+        gcCpuTreshold = config.gcCpuTreshold;
+        cpuTreshold = config.cpuTreshold;
+        memUsageTreshold = config.memUsageTreshold;
+    }
+
+    /**
+     * Updates the problem thresholds and the hot percentage in place, keeping the calm/hot state. The delays are not updated,
+     * see {@link #hasSameDelays(sk.baka.webvm.analyzer.AdaptiveSampling)}.
+     * @param config the new config, not null.
+     */
+    public void configChanged(@NotNull Config config) {
+        thresholdPercent = config.samplingBurstThresholdPercent;
+        setThresholds(config);
+    }
+
+    /**
+     * Checks whether given policy samples at the same rates as this one.
+     * @param other the other policy, may be null.
+     * @return true if the other policy is not null and has the same delays.
+     */
+    public boolean hasSameDelays(@Nullable AdaptiveSampling other) {
+        return other != null && other.burstDelayMs == burstDelayMs && other.normalDelayMs == normalDelayMs && other.idleDelayMs == idleDelayMs;
+    }
+
+    /**
+     * Returns the hot percentage.
+     * @return a metric is hot when it reaches this percentage of its problem threshold.
+     */
+    public int getThresholdPercent() {
+        return thresholdPercent;
+    }
+
+    /**
+     * Creates a policy as configured.
+     * @param config the config, not null.
+     * @param normalDelayMs the normal sampling delay.
+     * @return the policy, null if the adaptive sampling is turned off.
+     */
+    @Nullable
+    public static AdaptiveSampling fromConfig(@NotNull Config config, int normalDelayMs) {
+        if (config.samplingBurstDelayMs <= 0) {
+            return null;
+        }
+        final int idle = config.samplingIdleDelayMs <= 0 ? normalDelayMs : config.samplingIdleDelayMs;
+        return new AdaptiveSampling(config.samplingBurstDelayMs, normalDelayMs, idle, config.samplingBurstThresholdPercent, config);
+    }
+
+    /**
+     * Checks whether some metric of given sample is close to its problem threshold.
+     * @param sample the sample, not null.
+     * @return true if the sample is hot.
+     */
+    public boolean isHot(@NotNull HistorySample.Builder sample) {
+        if (isHot(sample.gcCpuUsage, gcCpuTreshold) || isHot(sample.cpuUsage.cpuMaxCoreUsage, cpuTreshold)) {
+            return true;
+        }
+        final MemoryUsage2 heap = sample.memPoolUsage.get(HistorySample.MemoryPools.Heap);
+        return heap != null && heap.getMax() > 0 && isHot((int) (heap.getUsed() * Constants.HUNDRED_PERCENT / heap.getMax()), memUsageTreshold);
+    }
+
+    private boolean isHot(int value, int threshold) {
+        return threshold > 0 && value * Constants.HUNDRED_PERCENT >= threshold * thresholdPercent;
+    }
+
+    /**
+     * Computes the delay before the next sample.
+     * @param sample the sample just taken, not null.
+     * @return the delay in milliseconds.
+     */
+    public int getNextDelay(@NotNull HistorySample.Builder sample) {
+        if (lastHot < 0) {
+            lastHot = sample.sampleTime;
+        }
+        if (isHot(sample)) {
+            lastHot = sample.sampleTime;
+            return burstDelayMs;
+        }
+        return sample.sampleTime - lastHot < CALM_MILLIS ? normalDelayMs : idleDelayMs;
+    }
+}
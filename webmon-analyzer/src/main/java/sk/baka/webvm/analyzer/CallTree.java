@@ -0,0 +1,327 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.utils.LongIntMap;
+import sk.baka.webvm.analyzer.utils.StringDictionary;
+
+/**
+ * Folds sampled stack traces into a call tree (a trie of frames, the root being the bottom-most frame). Frames are identified by
+ * the class and the method name (not by the line number) and interned; every node takes a few dozen bytes of primitive arrays.
+ * The number of nodes is capped by {@link #maxNodes}: once full, a stack which would need a new node is counted at its deepest
+ * existing node and also in {@link #getTruncatedSamples()}; the class and method names of such stacks are not interned either, so a
+ * full tree stops growing altogether.
+ * <p></p>
+ * Thread-safe.
+ * @author Martin Vysny
+ */
+public final class CallTree {
+
+    /**
+     * Maximum number of nodes, including the root.
+     */
+    public final int maxNodes;
+    private StringDictionary names;
+    /**
+     * Maps the class name index and the method name index to the frame ID.
+     */
+    private final LongIntMap frameIds = new LongIntMap(1024);
+    private int[] frameClass = new int[1024];
+    private int[] frameMethod = new int[1024];
+    private int frames = 0;
+    /**
+     * Maps the parent node and the frame ID to the child node.
+     */
+    private final LongIntMap children = new LongIntMap(1024);
+    private int[] parent = new int[1024];
+    private int[] frame = new int[1024];
+    /**
+     * Number of samples which ended in the node.
+     */
+    private long[] self = new long[1024];
+    /**
+     * Number of samples which passed through the node.
+     */
+    private long[] total = new long[1024];
+    private int nodes;
+    private long truncated;
+
+    /**
+     * Creates new tree.
+     * @param maxNodes maximum number of nodes, at least 2.
+     */
+    public CallTree(int maxNodes) {
+        if (maxNodes < 2) {
+            throw new IllegalArgumentException("Parameter maxNodes: invalid value " + maxNodes + ": must be 2 or greater");
+        }
+        this.maxNodes = maxNodes;
+        clear();
+    }
+
+    /**
+     * Adds a sampled stack. Allocates only when the tree grows.
+     * @param stack the stack trace, the top-most frame first, as returned by {@link Thread#getStackTrace()}.
+     */
+    public synchronized void add(@NotNull StackTraceElement[] stack) {
+        int node = 0;
+        total[0]++;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            final int child = getChild(node, stack[i]);
+            if (child < 0) {
+                truncated++;
+                break;
+            }
+            node = child;
+            total[node]++;
+        }
+        self[node]++;
+    }
+
+    /**
+     * Finds or creates the child node.
+     * @return the child, -1 if the tree is full.
+     */
+    private int getChild(int node, StackTraceElement element) {
+        final boolean full = nodes >= maxNodes;
+        final int classIndex = full ? names.indexOf(element.getClassName()) : names.intern(element.getClassName());
+        final int methodIndex = full ? names.indexOf(element.getMethodName()) : names.intern(element.getMethodName());
+        if (classIndex < 0 || methodIndex < 0) {
+            // an unknown name means a new frame, thus a new node
+            return -1;
+        }
+        final long frameKey = ((long) classIndex << 32) | methodIndex;
+        int frameId = frameIds.get(frameKey, -1);
+        if (frameId < 0) {
+            if (full) {
+                // a new frame means a new node
+                return -1;
+            }
+            frameId = frames++;
+            if (frameId == frameClass.length) {
+                frameClass = Arrays.copyOf(frameClass, frameId * 2);
+                frameMethod = Arrays.copyOf(frameMethod, frameId * 2);
+            }
+            frameClass[frameId] = (int) (frameKey >>> 32);
+            frameMethod[frameId] = (int) frameKey;
+            frameIds.put(frameKey, frameId);
+        }
+        final long childKey = ((long) node << 32) | frameId;
+        int child = children.get(childKey, -1);
+        if (child < 0) {
+            if (full) {
+                return -1;
+            }
+            child = nodes++;
+            if (child == parent.length) {
+                final int capacity = Math.min(maxNodes, child * 2);
+                parent = Arrays.copyOf(parent, capacity);
+                frame = Arrays.copyOf(frame, capacity);
+                self = Arrays.copyOf(self, capacity);
+                total = Arrays.copyOf(total, capacity);
+            }
+            parent[child] = node;
+            frame[child] = frameId;
+            self[child] = 0;
+            total[child] = 0;
+            children.put(childKey, child);
+        }
+        return child;
+    }
+
+    /**
+     * Removes all samples and frames.
+     */
+    public synchronized void clear() {
+        names = new StringDictionary();
+        frameIds.clear();
+        frames = 0;
+        children.clear();
+        nodes = 1;
+        parent[0] = -1;
+        frame[0] = -1;
+        self[0] = 0;
+        total[0] = 0;
+        truncated = 0;
+    }
+
+    /**
+     * Returns the number of samples.
+     * @return the number of samples.
+     */
+    public synchronized long getSamples() {
+        return total[0];
+    }
+
+    /**
+     * Returns the number of samples which did not fit into the tree and were counted at a shallower node.
+     * @return the number of truncated samples.
+     */
+    public synchronized long getTruncatedSamples() {
+        return truncated;
+    }
+
+    /**
+     * Returns the number of nodes.
+     * @return the number of nodes including the root, at most {@link #maxNodes}.
+     */
+    public synchronized int getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Returns the number of interned class and method names.
+     * @return the number of distinct names.
+     */
+    synchronized int getNameCount() {
+        return names.size();
+    }
+
+    private String getFrameName(int node) {
+        final int frameId = frame[node];
+        return names.get(frameClass[frameId]) + "." + names.get(frameMethod[frameId]);
+    }
+
+    /**
+     * The frame name under which {@link #toCollapsed()} reports samples whose bottom-most frame did not fit into the full tree.
+     */
+    public static final String TRUNCATED = "[truncated]";
+
+    /**
+     * Produces the collapsed-stack format consumed by the flame graph tools: one line per distinct stack, frames from the
+     * bottom-most one separated by a semicolon, followed by a space and the number of samples. Samples which were counted at the
+     * root, because not even their bottom-most frame fitted into the tree, are reported as a single {@link #TRUNCATED} stack, so
+     * that the line counts add up to {@link #getSamples()}.
+     * @return the collapsed stacks, never null.
+     */
+    @NotNull
+    public synchronized String toCollapsed() {
+        final StringBuilder sb = new StringBuilder();
+        if (self[0] > 0) {
+            sb.append(TRUNCATED).append(' ').append(self[0]).append('\n');
+        }
+        final List<String> path = new ArrayList<String>();
+        for (int node = 1; node < nodes; node++) {
+            if (self[node] == 0) {
+                continue;
+            }
+            path.clear();
+            for (int n = node; n > 0; n = parent[n]) {
+                path.add(getFrameName(n));
+            }
+            for (int i = path.size() - 1; i >= 0; i--) {
+                sb.append(path.get(i));
+                sb.append(i == 0 ? ' ' : ';');
+            }
+            sb.append(self[node]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Atomically produces the {@link #toCollapsed() collapsed stacks} and {@link #clear() clears} the tree, so that no sample is
+     * lost or reported twice.
+     * @return the collapsed stacks, never null.
+     */
+    @NotNull
+    public synchronized String toCollapsedAndClear() {
+        final String result = toCollapsed();
+        clear();
+        return result;
+    }
+
+    /**
+     * Copies the tree into immutable nodes, for display.
+     * @param minSamples nodes with fewer samples are omitted.
+     * @return the root node, with no frame name. Never null.
+     */
+    @NotNull
+    public synchronized Node getRoot(long minSamples) {
+        final List<List<Node>> nodeChildren = new ArrayList<List<Node>>(nodes);
+        for (int node = 0; node < nodes; node++) {
+            nodeChildren.add(null);
+        }
+        // children always have a higher index than the parent: build the tree bottom-up
+        final Node[] result = new Node[nodes];
+        for (int node = nodes - 1; node >= 0; node--) {
+            if (node > 0 && total[node] < minSamples) {
+                continue;
+            }
+            List<Node> c = nodeChildren.get(node);
+            if (c == null) {
+                c = Collections.emptyList();
+            } else {
+                Collections.sort(c, BY_TOTAL);
+            }
+            result[node] = new Node(node == 0 ? "" : getFrameName(node), self[node], total[node], Collections.unmodifiableList(c));
+            if (node > 0) {
+                List<Node> siblings = nodeChildren.get(parent[node]);
+                if (siblings == null) {
+                    siblings = new ArrayList<Node>();
+                    nodeChildren.set(parent[node], siblings);
+                }
+                siblings.add(result[node]);
+            }
+        }
+        return result[0];
+    }
+    private static final Comparator<Node> BY_TOTAL = new Comparator<Node>() {
+
+        public int compare(Node o1, Node o2) {
+            return o1.total < o2.total ? 1 : (o1.total == o2.total ? o1.name.compareTo(o2.name) : -1);
+        }
+    };
+
+    /**
+     * An immutable call tree node.
+     */
+    public static final class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * The frame: the class name and the method name.
+         */
+        public final String name;
+        /**
+         * Number of samples which ended in this frame.
+         */
+        public final long self;
+        /**
+         * Number of samples which passed through this frame.
+         */
+        public final long total;
+        /**
+         * The callees, the most frequent first.
+         */
+        public final List<Node> children;
+
+        private Node(String name, long self, long total, List<Node> children) {
+            this.name = name;
+            this.self = self;
+            this.total = total;
+            this.children = children;
+        }
+    }
+}
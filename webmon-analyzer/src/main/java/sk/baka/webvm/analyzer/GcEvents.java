@@ -0,0 +1,468 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.utils.Checks;
+import sk.baka.webvm.analyzer.utils.LatencyHistogram;
+import sk.baka.webvm.analyzer.utils.SimpleFixedSizeFIFO;
+
+/**
+ * Records every garbage collection, as announced by the GC notifications of the HotSpot {@link GarbageCollectorMXBean}s
+ * (available since Java 7u4). Unlike the polled collection time, this captures the duration of every single pause. The newest
+ * events are kept in a bounded ring; the pause durations of every collector are kept in a {@link LatencyHistogram}, both for
+ * the lifetime of the recorder and for the last completed {@link #rotateWindow() window}. Concurrent collection cycles (see
+ * {@link Event#isConcurrent()}) run alongside the application and are kept in the ring only, not in the pause statistics.
+ * <p></p>
+ * The notification payload is read as plain {@link CompositeData}, so that no <code>com.sun.management</code> class is
+ * required. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class GcEvents implements NotificationListener {
+
+    private static final Logger log = Logger.getLogger(GcEvents.class.getName());
+    /**
+     * The notification type emitted by HotSpot after a collection.
+     */
+    public static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    private final SimpleFixedSizeFIFO<Event> events;
+    private final Map<String, Collector> collectors = new LinkedHashMap<String, Collector>();
+    private final List<NotificationEmitter> subscribed = new ArrayList<NotificationEmitter>();
+    private final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private long allocatedBytes = HistoryBuffer.NOT_AVAILABLE;
+    private long promotedBytes = HistoryBuffer.NOT_AVAILABLE;
+    /**
+     * Eden usage after the newest collection, {@link HistoryBuffer#NOT_AVAILABLE} if not known.
+     */
+    private long lastEdenAfter = HistoryBuffer.NOT_AVAILABLE;
+
+    /**
+     * Creates new recorder. Call {@link #start()} to start recording.
+     * @param capacity maximum number of events to keep.
+     */
+    public GcEvents(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Parameter capacity: invalid value " + capacity + ": must be 1 or greater");
+        }
+        events = new SimpleFixedSizeFIFO<Event>(capacity);
+    }
+
+    /**
+     * Subscribes to the GC notifications of all garbage collectors.
+     * @return true if at least one collector emits notifications.
+     */
+    public synchronized boolean start() {
+        if (!subscribed.isEmpty()) {
+            return true;
+        }
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean instanceof NotificationEmitter) {
+                final NotificationEmitter emitter = (NotificationEmitter) bean;
+                emitter.addNotificationListener(this, null, null);
+                subscribed.add(emitter);
+            }
+        }
+        if (subscribed.isEmpty()) {
+            log.info("GC notifications are not supported by this JVM, individual GC pauses are not recorded");
+        }
+        return !subscribed.isEmpty();
+    }
+
+    /**
+     * Unsubscribes from the GC notifications. The recorded events are retained.
+     */
+    public synchronized void stop() {
+        for (NotificationEmitter emitter : subscribed) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException ex) {
+                log.log(Level.FINE, "Already unsubscribed", ex);
+            }
+        }
+        subscribed.clear();
+    }
+
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GC_NOTIFICATION.equals(notification.getType()) || !(notification.getUserData() instanceof CompositeData)) {
+            return;
+        }
+        try {
+            record(parse((CompositeData) notification.getUserData(), jvmStartTime));
+        } catch (RuntimeException ex) {
+            log.log(Level.FINE, "Failed to parse the GC notification", ex);
+        }
+    }
+
+    /**
+     * Parses the <code>GarbageCollectionNotificationInfo</code> composite data.
+     * @param info the notification user data, not null.
+     * @param jvmStartTime the JVM start time in millis since epoch; GC start times are relative to it.
+     * @return the event, never null.
+     */
+    @NotNull
+    static Event parse(@NotNull CompositeData info, long jvmStartTime) {
+        final CompositeData gcInfo = (CompositeData) info.get("gcInfo");
+        final SortedMap<String, long[]> pools = new TreeMap<String, long[]>();
+        readUsage((TabularData) gcInfo.get("memoryUsageBeforeGc"), pools, 0);
+        readUsage((TabularData) gcInfo.get("memoryUsageAfterGc"), pools, 1);
+        final String[] names = pools.keySet().toArray(new String[pools.size()]);
+        final long[] before = new long[names.length];
+        final long[] after = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            before[i] = pools.get(names[i])[0];
+            after[i] = pools.get(names[i])[1];
+        }
+        return new Event((String) info.get("gcName"), (String) info.get("gcAction"), (String) info.get("gcCause"),
+                (Long) gcInfo.get("id"), jvmStartTime + (Long) gcInfo.get("startTime"), (Long) gcInfo.get("duration"), names, before, after);
+    }
+
+    private static void readUsage(@Nullable TabularData usage, Map<String, long[]> pools, int index) {
+        if (usage == null) {
+            return;
+        }
+        for (Object row : usage.values()) {
+            final CompositeData entry = (CompositeData) row;
+            final String pool = (String) entry.get("key");
+            long[] used = pools.get(pool);
+            if (used == null) {
+                used = new long[]{HistoryBuffer.NOT_AVAILABLE, HistoryBuffer.NOT_AVAILABLE};
+                pools.put(pool, used);
+            }
+            used[index] = MemoryUsage.from((CompositeData) entry.get("value")).getUsed();
+        }
+    }
+
+    /**
+     * Records a collection.
+     * @param event the event, not null.
+     */
+    synchronized void record(@NotNull Event event) {
+        Checks.checkNotNull("event", event);
+        events.add(event);
+        if (event.isConcurrent()) {
+            // the duration of a concurrent cycle is not a pause, and the mutators keep allocating while it runs
+            return;
+        }
+        Collector collector = collectors.get(event.gcName);
+        if (collector == null) {
+            collector = new Collector(event.gcName);
+            collectors.put(event.gcName, collector);
+        }
+        collector.pauses.record(event.durationMillis);
+        final int eden = event.indexOfPool(true);
+        if (eden >= 0 && event.getUsedBefore(eden) >= 0 && event.getUsedAfter(eden) >= 0) {
+            // everything found in eden when a collection starts was allocated since the previous collection emptied it
+            if (lastEdenAfter >= 0) {
+                allocatedBytes = Math.max(allocatedBytes, 0) + Math.max(0, event.getUsedBefore(eden) - lastEdenAfter);
+            } else if (allocatedBytes < 0) {
+                allocatedBytes = 0;
+            }
+            lastEdenAfter = event.getUsedAfter(eden);
+        }
+        final int old = event.indexOfPool(false);
+        if (old >= 0 && event.gcAction != null && event.gcAction.contains("minor") && event.getUsedBefore(old) >= 0 && event.getUsedAfter(old) >= 0) {
+            // a minor collection does not collect the old generation, so all of its growth is promotion
+            promotedBytes = Math.max(promotedBytes, 0) + Math.max(0, event.getUsedAfter(old) - event.getUsedBefore(old));
+        }
+    }
+
+    /**
+     * Returns the total number of bytes allocated into eden, derived from the eden usage before a collection minus its usage
+     * after the previous collection.
+     * @return the allocated bytes since the first collection, {@link HistoryBuffer#NOT_AVAILABLE} if no collection of the
+     * young generation was recorded yet.
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the total number of bytes promoted into the old generation, derived from the old pool growth during minor
+     * collections.
+     * @return the promoted bytes, {@link HistoryBuffer#NOT_AVAILABLE} if no minor collection was recorded yet.
+     */
+    public synchronized long getPromotedBytes() {
+        return promotedBytes;
+    }
+
+    /**
+     * Checks whether given memory pool is the eden space of a generational collector.
+     * @param pool the pool name, not null.
+     * @return true for e.g. <code>PS Eden Space</code> or <code>G1 Eden Space</code>.
+     */
+    public static boolean isEdenPool(@NotNull String pool) {
+        return pool.contains("Eden");
+    }
+
+    /**
+     * Checks whether given memory pool is the old generation of a generational collector.
+     * @param pool the pool name, not null.
+     * @return true for e.g. <code>PS Old Gen</code>, <code>G1 Old Gen</code> or <code>Tenured Gen</code>.
+     */
+    public static boolean isOldPool(@NotNull String pool) {
+        return pool.contains("Old Gen") || pool.contains("Tenured");
+    }
+
+    /**
+     * Closes the current window: the pauses recorded since the previous call become the window statistics reported by
+     * {@link #getReport()}.
+     */
+    public synchronized void rotateWindow() {
+        for (Collector collector : collectors.values()) {
+            collector.window = collector.pauses.getIntervalSnapshot();
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the recorded events and pause statistics.
+     * @return the report, never null.
+     */
+    @NotNull
+    public synchronized Report getReport() {
+        final List<PauseStats> stats = new ArrayList<PauseStats>(collectors.size());
+        for (Collector collector : collectors.values()) {
+            stats.add(new PauseStats(collector.name, collector.pauses.getSnapshot(), collector.window));
+        }
+        return new Report(Collections.unmodifiableList(stats), Collections.unmodifiableList(events.toList()));
+    }
+
+    /**
+     * Accumulates pauses of a single collector.
+     */
+    private static final class Collector {
+
+        private final String name;
+        /**
+         * Pause durations, in milliseconds.
+         */
+        private final LatencyHistogram pauses = new LatencyHistogram();
+        private LatencyHistogram.Snapshot window = LatencyHistogram.Snapshot.EMPTY;
+
+        private Collector(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A single garbage collection. Immutable.
+     */
+    public static final class Event implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * The collector name, e.g. <code>G1 Young Generation</code>.
+         */
+        public final String gcName;
+        /**
+         * The action, e.g. <code>end of minor GC</code>.
+         */
+        public final String gcAction;
+        /**
+         * The cause, e.g. <code>Allocation Failure</code>.
+         */
+        public final String gcCause;
+        /**
+         * The collection number of this collector.
+         */
+        public final long id;
+        /**
+         * The start of the collection, in millis since epoch.
+         */
+        public final long startTime;
+        public final long durationMillis;
+        private final String[] pools;
+        private final long[] usedBefore;
+        private final long[] usedAfter;
+
+        Event(String gcName, String gcAction, String gcCause, long id, long startTime, long durationMillis, String[] pools, long[] usedBefore, long[] usedAfter) {
+            this.gcName = gcName;
+            this.gcAction = gcAction;
+            this.gcCause = gcCause;
+            this.id = id;
+            this.startTime = startTime;
+            this.durationMillis = durationMillis;
+            this.pools = pools;
+            this.usedBefore = usedBefore;
+            this.usedAfter = usedAfter;
+        }
+
+        /**
+         * Returns the number of memory pools.
+         * @return the number of pools.
+         */
+        public int getPoolCount() {
+            return pools.length;
+        }
+
+        /**
+         * Returns the name of given pool.
+         * @param index the pool index, 0..{@link #getPoolCount()}-1. Pools are sorted by name.
+         * @return the pool name.
+         */
+        public String getPoolName(int index) {
+            return pools[index];
+        }
+
+        /**
+         * Returns the pool usage before the collection.
+         * @param index the pool index.
+         * @return used bytes, {@link HistoryBuffer#NOT_AVAILABLE} if not known.
+         */
+        public long getUsedBefore(int index) {
+            return usedBefore[index];
+        }
+
+        /**
+         * Returns the pool usage after the collection.
+         * @param index the pool index.
+         * @return used bytes, {@link HistoryBuffer#NOT_AVAILABLE} if not known.
+         */
+        public long getUsedAfter(int index) {
+            return usedAfter[index];
+        }
+
+        /**
+         * Finds the eden or the old generation pool.
+         * @param eden true to find the eden, false to find the old generation.
+         * @return the pool index, -1 if the collection did not report such pool.
+         */
+        int indexOfPool(boolean eden) {
+            for (int i = 0; i < pools.length; i++) {
+                if (eden ? isEdenPool(pools[i]) : isOldPool(pools[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the number of bytes freed in all pools.
+         * @return freed bytes, negative if more memory was used after the collection (e.g. promoted into an old pool which is
+         * not collected by this collector).
+         */
+        public long getFreedBytes() {
+            long result = 0;
+            for (int i = 0; i < pools.length; i++) {
+                if (usedBefore[i] >= 0 && usedAfter[i] >= 0) {
+                    result += usedBefore[i] - usedAfter[i];
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Checks whether this event reports a concurrent collection cycle rather than a stop-the-world pause.
+         * @return true if the duration is the length of a concurrent cycle.
+         */
+        public boolean isConcurrent() {
+            return isConcurrent(gcName, gcAction);
+        }
+
+        /**
+         * Classifies a collection by its collector and action: ZGC and Shenandoah report their cycles with the
+         * <code>end of GC cycle</code> action from the <code>... Cycles</code> collectors, separately from the <code>... Pauses</code>;
+         * the CMS <code>ConcurrentMarkSweep</code> collector reports the whole concurrent cycle; the <code>G1 Concurrent GC</code>
+         * collector is concurrent too, except for its Remark and Cleanup pauses reported as <code>end of concurrent GC pause</code>.
+         * @param gcName the collector name, may be null.
+         * @param gcAction the action, may be null.
+         * @return true if the duration is the length of a concurrent cycle.
+         */
+        static boolean isConcurrent(@Nullable String gcName, @Nullable String gcAction) {
+            if (gcAction != null && gcAction.contains("cycle")) {
+                return true;
+            }
+            if (gcName == null) {
+                return false;
+            }
+            if (gcName.endsWith("Cycles")) {
+                return true;
+            }
+            return gcName.contains("Concurrent") && (gcAction == null || !gcAction.contains("pause"));
+        }
+
+        @Override
+        public String toString() {
+            return gcName + " #" + id + " (" + gcAction + ", " + gcCause + "): " + durationMillis + "ms";
+        }
+    }
+
+    /**
+     * Immutable pause statistics of a single collector.
+     */
+    public static final class PauseStats implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        public final String gcName;
+        /**
+         * All pauses since the recorder was created, in milliseconds.
+         */
+        public final LatencyHistogram.Snapshot pauses;
+        /**
+         * Pauses in the last completed window, in milliseconds.
+         */
+        public final LatencyHistogram.Snapshot window;
+
+        private PauseStats(String gcName, LatencyHistogram.Snapshot pauses, LatencyHistogram.Snapshot window) {
+            this.gcName = gcName;
+            this.pauses = pauses;
+            this.window = window;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the recorder.
+     */
+    public static final class Report implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * Pause statistics, per collector, in the order the collectors were first seen.
+         */
+        public final List<PauseStats> collectors;
+        /**
+         * The newest events, oldest first.
+         */
+        public final List<Event> events;
+
+        private Report(List<PauseStats> collectors, List<Event> events) {
+            this.collectors = collectors;
+            this.events = events;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.LinkedList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.utils.CompressedBlock;
+
+/**
+ * A compressed history of samples. Samples are encoded into {@link CompressedBlock}s of fixed sample count; the oldest blocks
+ * are dropped once the remaining blocks still hold {@link #historyLength} samples. Suitable for long, rarely-read history:
+ * reading decodes the samples into a {@link HistoryBuffer}. A row may carry {@link Metric} values after the vmstat columns;
+ * these are decoded into a {@link MetricHistory}.
+ * <p></p>
+ * Thread-safe. Threads are not retained.
+ * @author Martin Vysny
+ */
+public final class HistoryArchive {
+
+    /**
+     * Maximum number of samples visible to the readers.
+     */
+    public final int historyLength;
+    private final int blockSamples;
+    private final LinkedList<CompressedBlock> sealed = new LinkedList<CompressedBlock>();
+    private int sealedSamples = 0;
+    private final CompressedBlock.Encoder open;
+    /**
+     * Number of values in a row.
+     */
+    public final int columns;
+
+    /**
+     * Creates new archive of vmstat rows.
+     * @param historyLength maximum number of samples to keep, must be at least 1.
+     * @param blockSamples number of samples per compressed block, must be at least 1.
+     */
+    public HistoryArchive(int historyLength, int blockSamples) {
+        this(historyLength, blockSamples, HistoryBuffer.COLUMNS);
+    }
+
+    /**
+     * Creates new archive.
+     * @param historyLength maximum number of samples to keep, must be at least 1.
+     * @param blockSamples number of samples per compressed block, must be at least 1.
+     * @param columns number of values in a row, at least {@link HistoryBuffer#COLUMNS}. Values past the vmstat columns are
+     * the metric values.
+     */
+    public HistoryArchive(int historyLength, int blockSamples, int columns) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("Parameter historyLength: invalid value " + historyLength + ": must be 1 or greater");
+        }
+        if (blockSamples < 1) {
+            throw new IllegalArgumentException("Parameter blockSamples: invalid value " + blockSamples + ": must be 1 or greater");
+        }
+        if (columns < HistoryBuffer.COLUMNS) {
+            throw new IllegalArgumentException("Parameter columns: invalid value " + columns + ": must be " + HistoryBuffer.COLUMNS + " or greater");
+        }
+        this.historyLength = historyLength;
+        this.blockSamples = blockSamples;
+        this.columns = columns;
+        open = new CompressedBlock.Encoder(columns);
+    }
+
+    /**
+     * Appends a sample.
+     * @param sampleTime the sample time.
+     * @param row the metric values as produced by {@link HistoryBuffer#toRow(sk.baka.webvm.analyzer.HistorySample.Builder, long[])},
+     * followed by the metric values. Must be {@link #columns} long. Not retained.
+     */
+    public synchronized void add(long sampleTime, @NotNull long[] row) {
+        open.add(sampleTime, row);
+        if (open.size() < blockSamples) {
+            return;
+        }
+        final CompressedBlock block = open.seal();
+        sealed.add(block);
+        sealedSamples += block.count;
+        while (sealedSamples - sealed.getFirst().count >= historyLength) {
+            sealedSamples -= sealed.removeFirst().count;
+        }
+    }
+
+    /**
+     * Decodes the newest {@link #historyLength} samples.
+     * @return a view of the decoded history, oldest sample first. The view is not affected by subsequent additions.
+     */
+    @NotNull
+    public HistoryBuffer.View view() {
+        final HistoryBuffer result = new HistoryBuffer(historyLength);
+        decode(new Sink() {
+
+            @Override
+            void add(long sampleTime, long[] row) {
+                result.add(sampleTime, row, null);
+            }
+        });
+        return result.view();
+    }
+
+    /**
+     * Decodes the metric values of the newest {@link #historyLength} samples.
+     * @param metrics the metrics stored after the vmstat columns, not null. Must match the {@link #columns} count.
+     * @return a view of the decoded metric history, oldest sample first. The view is not affected by subsequent additions.
+     */
+    @NotNull
+    public MetricHistory.View metricView(@NotNull List<Metric> metrics) {
+        if (HistoryBuffer.COLUMNS + metrics.size() != columns) {
+            throw new IllegalArgumentException("Parameter metrics: " + metrics.size() + " metrics do not match " + columns + " columns");
+        }
+        final MetricHistory result = new MetricHistory(metrics, historyLength);
+        decode(new Sink() {
+
+            @Override
+            void add(long sampleTime, long[] row) {
+                result.add(sampleTime, row, HistoryBuffer.COLUMNS);
+            }
+        });
+        return result.view();
+    }
+
+    /**
+     * Receives the decoded rows.
+     */
+    private static abstract class Sink {
+
+        abstract void add(long sampleTime, long[] row);
+    }
+
+    private synchronized void decode(Sink sink) {
+        final long[] row = new long[columns];
+        int skip = Math.max(0, sealedSamples + open.size() - historyLength);
+        for (CompressedBlock block : sealed) {
+            if (skip >= block.count) {
+                skip -= block.count;
+                continue;
+            }
+            skip = decode(block.decoder(), skip, sink, row);
+        }
+        decode(open.decoder(), skip, sink, row);
+    }
+
+    private static int decode(CompressedBlock.Decoder decoder, int skip, Sink sink, long[] row) {
+        while (decoder.hasNext()) {
+            final long sampleTime = decoder.next(row);
+            if (skip > 0) {
+                skip--;
+            } else {
+                sink.add(sampleTime, row);
+            }
+        }
+        return skip;
+    }
+
+    /**
+     * Returns the memory taken by the encoded samples.
+     * @return the size in bytes.
+     */
+    public synchronized int getByteSize() {
+        int result = open.getByteSize();
+        for (CompressedBlock block : sealed) {
+            result += block.getByteSize();
+        }
+        return result;
+    }
+
+    /**
+     * Discards all samples.
+     */
+    public synchronized void clear() {
+        sealed.clear();
+        sealedSamples = 0;
+        open.reset();
+    }
+}
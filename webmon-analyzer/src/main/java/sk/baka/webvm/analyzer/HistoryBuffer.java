@@ -0,0 +1,469 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.hostos.CPUUsage;
+import sk.baka.webvm.analyzer.utils.MemoryUsage2;
+
+/**
+ * A fixed-size columnar ring buffer holding the vmstat history. Every metric is stored in its own preallocated primitive
+ * ring; adding a sample only overwrites the oldest slot and does not allocate.
+ * <p></p>
+ * The buffer may be written by a single thread only. Readers may obtain a {@link View} from any thread; the view is a
+ * consistent primitive copy of the ring, taken without locking the writer.
+ * <p></p>
+ * Only the thread snapshot of the newest sample is retained: a {@link ThreadMap} holds every thread of the JVM, so keeping one
+ * per sample would take historyLength times the thread count. The per-thread history is kept by {@link ThreadHistory}.
+ * @author Martin Vysny
+ */
+public final class HistoryBuffer {
+
+    /**
+     * The metrics stored in the buffer. Memory values are in MB, CPU usages are in percent, the allocation rate is in KB per
+     * second.
+     */
+    public static enum Column {
+
+        GC_CPU_USAGE, CPU_AVG_USAGE, CPU_MAX_CORE_USAGE, CPU_JAVA_USAGE, CPU_IO_USAGE, CLASSES_LOADED, THREAD_COUNT, DAEMON_THREAD_COUNT,
+        HEAP_INIT, HEAP_USED, HEAP_COMMITTED, HEAP_MAX,
+        NON_HEAP_INIT, NON_HEAP_USED, NON_HEAP_COMMITTED, NON_HEAP_MAX,
+        PHYS_MEM_INIT, PHYS_MEM_USED, PHYS_MEM_COMMITTED, PHYS_MEM_MAX,
+        SWAP_INIT, SWAP_USED, SWAP_COMMITTED, SWAP_MAX,
+        ALLOCATION_RATE;
+
+        /**
+         * Returns the "init" column of given memory pool.
+         * @param pool the pool, not null.
+         * @return the column, never null.
+         */
+        @NotNull
+        public static Column init(@NotNull HistorySample.MemoryPools pool) {
+            return VALUES[HEAP_INIT.ordinal() + pool.ordinal() * MEM_COLUMNS];
+        }
+
+        /**
+         * Returns the "used" column of given memory pool.
+         * @param pool the pool, not null.
+         * @return the column, never null.
+         */
+        @NotNull
+        public static Column used(@NotNull HistorySample.MemoryPools pool) {
+            return VALUES[HEAP_USED.ordinal() + pool.ordinal() * MEM_COLUMNS];
+        }
+
+        /**
+         * Returns the "committed" column of given memory pool.
+         * @param pool the pool, not null.
+         * @return the column, never null.
+         */
+        @NotNull
+        public static Column committed(@NotNull HistorySample.MemoryPools pool) {
+            return VALUES[HEAP_COMMITTED.ordinal() + pool.ordinal() * MEM_COLUMNS];
+        }
+
+        /**
+         * Returns the "max" column of given memory pool.
+         * @param pool the pool, not null.
+         * @return the column, never null.
+         */
+        @NotNull
+        public static Column max(@NotNull HistorySample.MemoryPools pool) {
+            return VALUES[HEAP_MAX.ordinal() + pool.ordinal() * MEM_COLUMNS];
+        }
+        private static final int MEM_COLUMNS = 4;
+        private static final Column[] VALUES = values();
+    }
+    /**
+     * Number of metrics, i.e. the length of a row passed to {@link #add(long, long[], sk.baka.webvm.analyzer.ThreadMap)}.
+     */
+    public static final int COLUMNS = Column.VALUES.length;
+    /**
+     * Marks an absent value, for example memory usage of a pool which is not available. Aggregations ignore negative values.
+     */
+    public static final long NOT_AVAILABLE = -1;
+    /**
+     * Maximum number of samples visible to the readers.
+     */
+    public final int historyLength;
+    /**
+     * The real ring size. Larger than {@link #historyLength} so that a concurrent write rarely invalidates a view being copied.
+     */
+    private final int capacity;
+    private final long[] sampleTime;
+    private final long[][] columns;
+    private final ThreadMap[] threads;
+    /**
+     * Number of samples written so far. Published after all columns of a sample are written.
+     */
+    private volatile long written = 0;
+
+    /**
+     * Creates new buffer.
+     * @param historyLength maximum number of samples to keep, must be at least 1.
+     */
+    public HistoryBuffer(int historyLength) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("Parameter historyLength: invalid value " + historyLength + ": must be 1 or greater");
+        }
+        this.historyLength = historyLength;
+        this.capacity = historyLength + Math.max(MIN_SLACK, historyLength / 8);
+        sampleTime = new long[capacity];
+        columns = new long[Column.VALUES.length][capacity];
+        threads = new ThreadMap[capacity];
+    }
+    private static final int MIN_SLACK = 16;
+
+    /**
+     * Converts the sample to a row of metric values.
+     * @param b the sample, not null.
+     * @param row the row to fill, must be {@link #COLUMNS} long.
+     */
+    public static void toRow(@NotNull HistorySample.Builder b, @NotNull long[] row) {
+        row[Column.GC_CPU_USAGE.ordinal()] = b.gcCpuUsage;
+        row[Column.CPU_AVG_USAGE.ordinal()] = b.cpuUsage.cpuAvgUsage;
+        row[Column.CPU_MAX_CORE_USAGE.ordinal()] = b.cpuUsage.cpuMaxCoreUsage;
+        row[Column.CPU_JAVA_USAGE.ordinal()] = b.cpuJavaUsage;
+        row[Column.CPU_IO_USAGE.ordinal()] = b.cpuIOUsage;
+        row[Column.CLASSES_LOADED.ordinal()] = b.classesLoaded;
+        row[Column.THREAD_COUNT.ordinal()] = b.threads == null ? 0 : b.threads.threadCount;
+        row[Column.DAEMON_THREAD_COUNT.ordinal()] = b.threads == null ? 0 : b.threads.daemonThreadCount;
+        row[Column.ALLOCATION_RATE.ordinal()] = b.allocationRate < 0 ? NOT_AVAILABLE : b.allocationRate;
+        for (HistorySample.MemoryPools pool : HistorySample.MemoryPools.values()) {
+            final MemoryUsage2 mu = b.memPoolUsage.get(pool);
+            row[Column.init(pool).ordinal()] = mu == null ? NOT_AVAILABLE : mu.getInit();
+            row[Column.used(pool).ordinal()] = mu == null ? NOT_AVAILABLE : mu.getUsed();
+            row[Column.committed(pool).ordinal()] = mu == null ? NOT_AVAILABLE : mu.getCommitted();
+            row[Column.max(pool).ordinal()] = mu == null ? NOT_AVAILABLE : mu.getMax();
+        }
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one when the buffer is full. Does not allocate. Not thread-safe - may be called
+     * from one thread only.
+     * @param sampleTime the time the sample was taken.
+     * @param row the metric values, indexed by {@link Column#ordinal()}. Not retained.
+     * @param threadMap the thread snapshot, may be null. Retained until the next sample is added.
+     */
+    public void add(long sampleTime, @NotNull long[] row, @Nullable ThreadMap threadMap) {
+        final long w = written;
+        final int slot = (int) (w % capacity);
+        this.sampleTime[slot] = sampleTime;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i][slot] = row[i];
+        }
+        threads[slot] = threadMap;
+        written = w + 1;
+        // drop the previous snapshot only after the new sample is published, see view()
+        threads[(int) (w == 0 ? capacity - 1 : (w - 1) % capacity)] = null;
+    }
+    private final long[] row = new long[COLUMNS];
+
+    /**
+     * Appends a sample, overwriting the oldest one when the buffer is full. Does not allocate. Not thread-safe - may be called
+     * from one thread only.
+     * @param b the sample to add, not null. The builder is not retained and can be reused for the next sample.
+     */
+    public void add(@NotNull HistorySample.Builder b) {
+        toRow(b, row);
+        add(b.sampleTime, row, b.threads);
+    }
+
+    /**
+     * Appends a sample. Convenience method, see {@link #add(sk.baka.webvm.analyzer.HistorySample.Builder)} for details.
+     * @param hs the sample to add, not null.
+     */
+    public void add(@NotNull HistorySample hs) {
+        add(new HistorySample.Builder().copy(hs));
+    }
+
+    /**
+     * Clears the history. Not thread-safe - may be called from the writer thread only.
+     */
+    public void clear() {
+        written = 0;
+        for (int i = 0; i < capacity; i++) {
+            threads[i] = null;
+        }
+    }
+
+    /**
+     * Returns a read-only snapshot of the current history. Thread-safe: copies the primitive columns without locking, and
+     * copies again if the writer wrapped over the copied samples meanwhile. Does not materialize {@link HistorySample}s.
+     * @return the view, never null, first item is the oldest one.
+     */
+    @NotNull
+    public View view() {
+        while (true) {
+            final long w = written;
+            final long start = Math.max(0, w - historyLength);
+            final int size = (int) (w - start);
+            final long[] viewSampleTime = new long[size];
+            final long[][] viewColumns = new long[columns.length][size];
+            final int first = (int) (start % capacity);
+            final int tail = Math.min(size, capacity - first);
+            copy(sampleTime, viewSampleTime, first, tail, size);
+            for (int i = 0; i < columns.length; i++) {
+                copy(columns[i], viewColumns[i], first, tail, size);
+            }
+            // null if the writer has published a newer sample meanwhile; never a snapshot of another sample, as the slot is
+            // reused only capacity samples later
+            final ThreadMap newestThreads = size == 0 ? null : threads[(int) ((w - 1) % capacity)];
+            // the writer publishes sample n after overwriting sample n - capacity; it may be writing sample "written" right now
+            if (written < start + capacity) {
+                return new View(historyLength, viewSampleTime, viewColumns, newestThreads, 0, size);
+            }
+        }
+    }
+
+    private static void copy(long[] ring, long[] dest, int first, int tail, int size) {
+        System.arraycopy(ring, first, dest, 0, tail);
+        System.arraycopy(ring, 0, dest, tail, size - tail);
+    }
+
+    /**
+     * Returns a read-only snapshot of samples taken at or after given time. Thread-safe, see {@link #view()}.
+     * @param since the time, in millis since epoch.
+     * @return the view, never null, first item is the oldest one.
+     */
+    @NotNull
+    public View view(long since) {
+        return view().since(since);
+    }
+
+    /**
+     * Returns the time of the oldest sample visible to the readers. Thread-safe, does not copy the history.
+     * @return the sample time in millis since epoch, -1 if the buffer is empty.
+     */
+    public long getOldestSampleTime() {
+        while (true) {
+            final long w = written;
+            if (w == 0) {
+                return -1;
+            }
+            final long start = Math.max(0, w - historyLength);
+            final long result = sampleTime[(int) (start % capacity)];
+            if (written < start + capacity) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the buffer holds {@link #historyLength} samples, i.e. older samples have been dropped or are about to be.
+     * @return true if the buffer is full.
+     */
+    public boolean isFull() {
+        return written >= historyLength;
+    }
+
+    /**
+     * Returns number of samples written so far, including those already dropped from the ring.
+     * @return number of samples ever written.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Copies given list of samples into a new buffer and returns its view. Returns the list itself if it already is a view.
+     * @param history the history, not null.
+     * @return a view, never null.
+     */
+    @NotNull
+    public static View viewOf(@NotNull List<HistorySample> history) {
+        if (history instanceof View) {
+            return (View) history;
+        }
+        final HistoryBuffer buffer = new HistoryBuffer(Math.max(1, history.size()));
+        for (HistorySample hs : history) {
+            buffer.add(hs);
+        }
+        return buffer.view();
+    }
+
+    /**
+     * A read-only snapshot of the buffer. Primitive accessors do not allocate; {@link #get(int)} materializes a new
+     * {@link HistorySample} for given index. Thread-safe, not affected by samples written after it was created.
+     */
+    public static final class View extends AbstractList<HistorySample> implements RandomAccess {
+
+        private final int historyLength;
+        private final long[] sampleTime;
+        private final long[][] columns;
+        /**
+         * The thread snapshot of the last sample in the arrays, may be null.
+         */
+        private final ThreadMap newestThreads;
+        private final int offset;
+        private final int size;
+
+        private View(int historyLength, long[] sampleTime, long[][] columns, ThreadMap newestThreads, int offset, int size) {
+            this.historyLength = historyLength;
+            this.sampleTime = sampleTime;
+            this.columns = columns;
+            this.newestThreads = newestThreads;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the maximum number of samples the underlying buffer holds. Graphs use this as the X axis length.
+         * @return the history length.
+         */
+        public int getHistoryLength() {
+            return historyLength;
+        }
+
+        /**
+         * Returns a view of samples taken at or after given time. Assumes the samples are ordered by their time.
+         * @param time the time, in millis since epoch.
+         * @return a view, never null.
+         */
+        @NotNull
+        public View since(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (getSampleTime(mid) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low == 0 ? this : new View(historyLength, sampleTime, columns, newestThreads, offset + low, size - low);
+        }
+
+        private int index(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return offset + index;
+        }
+
+        /**
+         * Returns the time given sample was taken.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the sample time, in millis since epoch.
+         */
+        public long getSampleTime(int index) {
+            return sampleTime[index(index)];
+        }
+
+        /**
+         * Returns a metric value.
+         * @param column the metric, not null.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the value. Memory values of a pool which was not available at that time are -1.
+         */
+        public long get(@NotNull Column column, int index) {
+            return columns[column.ordinal()][index(index)];
+        }
+
+        /**
+         * Returns a metric value as an int. Handy for percentages and counts.
+         * @param column the metric, not null.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the value.
+         */
+        public int getInt(@NotNull Column column, int index) {
+            return (int) get(column, index);
+        }
+
+        /**
+         * Returns the memory usage of given pool, in MB.
+         * @param pool the pool, not null.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the memory usage, null if the pool was not available. Allocates a new object.
+         */
+        @Nullable
+        public MemoryUsage2 getMemoryUsage(@NotNull HistorySample.MemoryPools pool, int index) {
+            final int i = index(index);
+            final long used = columns[Column.used(pool).ordinal()][i];
+            if (used == NOT_AVAILABLE) {
+                return null;
+            }
+            return new MemoryUsage2(columns[Column.init(pool).ordinal()][i], used, columns[Column.committed(pool).ordinal()][i],
+                    columns[Column.max(pool).ordinal()][i]);
+        }
+
+        /**
+         * Returns the thread snapshot of given sample. Only the newest sample of the buffer carries a snapshot, see
+         * {@link HistoryBuffer}.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the thread snapshot, null for older samples, or if the sample was built without it.
+         */
+        @Nullable
+        public ThreadMap getThreads(int index) {
+            return index(index) == sampleTime.length - 1 ? newestThreads : null;
+        }
+
+        /**
+         * Returns the maximum value of given metric in this view.
+         * @param column the metric, not null.
+         * @return the maximum value, 0 if the view is empty.
+         */
+        public long getMax(@NotNull Column column) {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result = Math.max(result, get(column, i));
+            }
+            return result;
+        }
+
+        @Override
+        public HistorySample get(int index) {
+            final HistorySample.Builder b = new HistorySample.Builder();
+            b.sampleTime = getSampleTime(index);
+            b.gcCpuUsage = getInt(Column.GC_CPU_USAGE, index);
+            b.cpuUsage = new CPUUsage(getInt(Column.CPU_AVG_USAGE, index), getInt(Column.CPU_MAX_CORE_USAGE, index));
+            b.cpuJavaUsage = getInt(Column.CPU_JAVA_USAGE, index);
+            b.cpuIOUsage = getInt(Column.CPU_IO_USAGE, index);
+            b.classesLoaded = getInt(Column.CLASSES_LOADED, index);
+            b.allocationRate = getInt(Column.ALLOCATION_RATE, index);
+            for (HistorySample.MemoryPools pool : HistorySample.MemoryPools.values()) {
+                final MemoryUsage2 mu = getMemoryUsage(pool, index);
+                if (mu != null) {
+                    b.memPoolUsage.put(pool, mu);
+                }
+            }
+            b.threads = getThreads(index);
+            return b.build();
+        }
+
+        /**
+         * Returns the newest sample.
+         * @return the newest sample, null if the view is empty.
+         */
+        @Nullable
+        public HistorySample getNewest() {
+            return size == 0 ? null : get(size - 1);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * A persistent ring of vmstat and {@link Metric} samples, stored in a memory-mapped file. The file survives JVM restarts (and crashes, as long as
+ * the OS itself does not crash), so that the history can be restored on startup.
+ * <p></p>
+ * The file starts with a {@value #HEADER_SIZE}-byte header (magic, version, column count, record size, capacity, write cursor,
+ * hash of the metric names), followed by {@link #capacity} fixed-size records. A record is the sample time (long) followed by all
+ * {@link HistoryBuffer.Column columns} and all metric values as ints. A file written with a different set of metrics is
+ * reinitialized. Writes go directly to the mapped buffer; the file is never forced to disk by
+ * the writer, the OS flushes dirty pages on its own.
+ * <p></p>
+ * Not thread-safe - the file may be accessed from one thread only.
+ * @author Martin Vysny
+ */
+public final class HistoryFile implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(HistoryFile.class.getName());
+    private static final int MAGIC = 0x574d4853;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_COLUMNS = 8;
+    private static final int OFFSET_RECORD_SIZE = 12;
+    private static final int OFFSET_CAPACITY = 16;
+    private static final int OFFSET_WRITTEN = 24;
+    private static final int OFFSET_METRICS = 32;
+    /**
+     * The file.
+     */
+    public final File file;
+    /**
+     * Maximum number of samples kept in the file.
+     */
+    public final int capacity;
+    /**
+     * Number of values in a record: the vmstat columns followed by the metric values.
+     */
+    public final int columns;
+    private final int recordSize;
+    private final MappedByteBuffer buffer;
+    /**
+     * Number of samples written so far, including samples written by previous JVM runs.
+     */
+    private long written;
+
+    private HistoryFile(File file, int capacity, int columns, MappedByteBuffer buffer, long written) {
+        this.file = file;
+        this.capacity = capacity;
+        this.columns = columns;
+        this.recordSize = getRecordSize(columns);
+        this.buffer = buffer;
+        this.written = written;
+    }
+
+    private static int getRecordSize(int columns) {
+        return 8 + 4 * columns;
+    }
+
+    private static int hash(List<Metric> metrics) {
+        int result = 1;
+        for (Metric metric : metrics) {
+            result = 31 * result + metric.name.hashCode();
+        }
+        return result;
+    }
+
+    /**
+     * Opens the vmstat history file, creating it if it does not exist. If the file exists but its format or capacity does not
+     * match, it is reinitialized and the old history is lost.
+     * @param file the file, not null.
+     * @param capacity maximum number of samples to keep, at least 1.
+     * @return the history file, never null.
+     * @throws IOException on I/O error.
+     */
+    @NotNull
+    public static HistoryFile open(@NotNull File file, int capacity) throws IOException {
+        return open(file, capacity, Collections.<Metric>emptyList());
+    }
+
+    /**
+     * Opens the history file, creating it if it does not exist. If the file exists but its format, capacity or metrics do not
+     * match, it is reinitialized and the old history is lost.
+     * @param file the file, not null.
+     * @param capacity maximum number of samples to keep, at least 1.
+     * @param metrics the metrics whose values follow the vmstat columns in the records, not null.
+     * @return the history file, never null.
+     * @throws IOException on I/O error.
+     */
+    @NotNull
+    public static HistoryFile open(@NotNull File file, int capacity, @NotNull List<Metric> metrics) throws IOException {
+        Checks.checkNotNull("file", file);
+        Checks.checkNotNull("metrics", metrics);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Parameter capacity: invalid value " + capacity + ": must be 1 or greater");
+        }
+        final int columns = HistoryBuffer.COLUMNS + metrics.size();
+        final int metricsHash = hash(metrics);
+        final long size = HEADER_SIZE + (long) capacity * getRecordSize(columns);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final MappedByteBuffer buffer;
+        try {
+            final boolean valid = raf.length() == size;
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (valid && buffer.getInt(OFFSET_MAGIC) == MAGIC && buffer.getInt(OFFSET_VERSION) == VERSION
+                    && buffer.getInt(OFFSET_COLUMNS) == columns && buffer.getInt(OFFSET_RECORD_SIZE) == getRecordSize(columns)
+                    && buffer.getInt(OFFSET_CAPACITY) == capacity && buffer.getLong(OFFSET_WRITTEN) >= 0
+                    && buffer.getInt(OFFSET_METRICS) == metricsHash) {
+                return new HistoryFile(file, capacity, columns, buffer, buffer.getLong(OFFSET_WRITTEN));
+            }
+            if (raf.length() > 0) {
+                LOG.info("History file " + file + " has incompatible format, reinitializing");
+            }
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putInt(OFFSET_COLUMNS, columns);
+        buffer.putInt(OFFSET_RECORD_SIZE, getRecordSize(columns));
+        buffer.putInt(OFFSET_CAPACITY, capacity);
+        buffer.putLong(OFFSET_WRITTEN, 0);
+        buffer.putInt(OFFSET_METRICS, metricsHash);
+        return new HistoryFile(file, capacity, columns, buffer, 0);
+    }
+
+    private int offset(long index) {
+        return HEADER_SIZE + (int) (index % capacity) * recordSize;
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one when the file is full. Does not allocate, does not flush.
+     * @param sampleTime the sample time.
+     * @param row the metric values as produced by {@link HistoryBuffer#toRow(sk.baka.webvm.analyzer.HistorySample.Builder, long[])},
+     * followed by the metric values. Must be {@link #columns} long. Values are stored as ints.
+     */
+    public void append(long sampleTime, @NotNull long[] row) {
+        int offset = offset(written);
+        buffer.putLong(offset, sampleTime);
+        offset += 8;
+        for (int i = 0; i < columns; i++, offset += 4) {
+            final long value = row[i];
+            buffer.putInt(offset, value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value);
+        }
+        // publish the cursor last, a crash in the middle of the write at worst loses the sample being written
+        written++;
+        buffer.putLong(OFFSET_WRITTEN, written);
+    }
+
+    /**
+     * Returns the number of samples available for reading.
+     * @return the number of samples, 0..{@link #capacity}.
+     */
+    public int size() {
+        return (int) Math.min(written, capacity);
+    }
+
+    /**
+     * Reads a sample.
+     * @param index the sample index, 0 is the oldest sample, {@link #size()}-1 is the newest one.
+     * @param row the row to fill with the metric values, must be {@link #columns} long.
+     * @return the sample time.
+     */
+    public long read(int index, @NotNull long[] row) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Parameter index: invalid value " + index + ": size is " + size());
+        }
+        int offset = offset(written - size() + index);
+        final long sampleTime = buffer.getLong(offset);
+        offset += 8;
+        for (int i = 0; i < columns; i++, offset += 4) {
+            row[i] = buffer.getInt(offset);
+        }
+        return sampleTime;
+    }
+
+    /**
+     * Flushes the file to the disk. Must not be called from the sampling thread. The mapping itself is released when this
+     * object is garbage-collected.
+     */
+    public void close() {
+        buffer.force();
+    }
+}
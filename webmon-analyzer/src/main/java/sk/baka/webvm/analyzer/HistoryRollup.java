@@ -0,0 +1,208 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * A downsampled history tier. Incoming samples are grouped into fixed-size time buckets; when a bucket is closed, its
+ * min/max/avg/last values of every vmstat column and every {@link Metric} are appended to four compressed {@link HistoryArchive}s.
+ * The memory usage is bounded, regardless of the sampling rate.
+ * <p></p>
+ * Negative values ({@link HistoryBuffer#NOT_AVAILABLE}) are ignored by the aggregations. Thread snapshots are not retained.
+ * Not thread-safe for writing - {@link #add(long, long[])} may be called from one thread only. Views may be obtained from
+ * any thread.
+ * @author Martin Vysny
+ */
+public final class HistoryRollup {
+
+    /**
+     * The aggregation function applied to samples within a bucket.
+     */
+    public static enum Aggregate {
+
+        MIN, MAX, AVG, LAST;
+    }
+    /**
+     * The bucket size, in milliseconds.
+     */
+    public final long bucketMillis;
+    private final HistoryArchive[] archives = new HistoryArchive[Aggregate.values().length];
+    /**
+     * The metrics stored after the vmstat columns.
+     */
+    private final List<Metric> metrics;
+    private final int columns;
+    private final long[] min;
+    private final long[] max;
+    private final long[] sum;
+    private final int[] count;
+    private final long[] last;
+    private final long[] avg;
+    /**
+     * Start of the bucket currently being accumulated, -1 if no sample was accumulated yet.
+     */
+    private long bucketStart = -1;
+
+    /**
+     * Creates new tier of vmstat rows.
+     * @param config {@link SamplerConfig#getHistoryLength()} is the number of buckets to keep,
+     * {@link SamplerConfig#getHistorySampleDelayMs()} is the bucket size.
+     */
+    public HistoryRollup(@NotNull SamplerConfig config) {
+        this(config, Collections.<Metric>emptyList());
+    }
+
+    /**
+     * Creates new tier.
+     * @param config {@link SamplerConfig#getHistoryLength()} is the number of buckets to keep,
+     * {@link SamplerConfig#getHistorySampleDelayMs()} is the bucket size.
+     * @param metrics the metrics whose values follow the vmstat columns in the rows, not null.
+     */
+    public HistoryRollup(@NotNull SamplerConfig config, @NotNull List<Metric> metrics) {
+        Checks.checkNotNull("config", config);
+        Checks.checkNotNull("metrics", metrics);
+        if (config.getHistorySampleDelayMs() < 1) {
+            throw new IllegalArgumentException("Parameter config: invalid bucket size " + config.getHistorySampleDelayMs());
+        }
+        bucketMillis = config.getHistorySampleDelayMs();
+        this.metrics = metrics;
+        columns = HistoryBuffer.COLUMNS + metrics.size();
+        min = new long[columns];
+        max = new long[columns];
+        sum = new long[columns];
+        count = new int[columns];
+        last = new long[columns];
+        avg = new long[columns];
+        for (int i = 0; i < archives.length; i++) {
+            archives[i] = new HistoryArchive(config.getHistoryLength(), BLOCK_SAMPLES, columns);
+        }
+        resetBucket();
+    }
+    private static final int BLOCK_SAMPLES = 64;
+
+    /**
+     * Returns the time span covered by this tier when full.
+     * @return the retention, in milliseconds.
+     */
+    public long getRetentionMillis() {
+        return bucketMillis * archives[0].historyLength;
+    }
+
+    /**
+     * Accumulates a sample. Closes the current bucket if the sample belongs to a newer one. Allocates only when a compressed
+     * block is sealed.
+     * @param sampleTime the sample time, in millis since epoch.
+     * @param row the metric values as produced by {@link HistoryBuffer#toRow(sk.baka.webvm.analyzer.HistorySample.Builder, long[])},
+     * followed by the values of the metrics passed to the constructor.
+     */
+    public void add(long sampleTime, @NotNull long[] row) {
+        final long bucket = sampleTime - sampleTime % bucketMillis;
+        if (bucketStart >= 0 && bucket != bucketStart) {
+            flush();
+        }
+        bucketStart = bucket;
+        for (int i = 0; i < columns; i++) {
+            final long value = row[i];
+            last[i] = value;
+            if (value < 0) {
+                continue;
+            }
+            min[i] = Math.min(min[i], value);
+            max[i] = Math.max(max[i], value);
+            sum[i] += value;
+            count[i]++;
+        }
+    }
+
+    private void flush() {
+        for (int i = 0; i < columns; i++) {
+            if (count[i] == 0) {
+                min[i] = HistoryBuffer.NOT_AVAILABLE;
+                max[i] = HistoryBuffer.NOT_AVAILABLE;
+                avg[i] = HistoryBuffer.NOT_AVAILABLE;
+            } else {
+                avg[i] = sum[i] / count[i];
+            }
+        }
+        archives[Aggregate.MIN.ordinal()].add(bucketStart, min);
+        archives[Aggregate.MAX.ordinal()].add(bucketStart, max);
+        archives[Aggregate.AVG.ordinal()].add(bucketStart, avg);
+        archives[Aggregate.LAST.ordinal()].add(bucketStart, last);
+        resetBucket();
+    }
+
+    private void resetBucket() {
+        Arrays.fill(min, Long.MAX_VALUE);
+        Arrays.fill(max, Long.MIN_VALUE);
+        Arrays.fill(sum, 0);
+        Arrays.fill(count, 0);
+    }
+
+    /**
+     * Returns the closed buckets. The bucket currently being accumulated is not included. Decodes the history - the view
+     * should be cached by the caller for the duration of a request.
+     * @param aggregate the aggregation function, not null.
+     * @return a view of the aggregated history, oldest bucket first. Sample time is the bucket start.
+     */
+    @NotNull
+    public HistoryBuffer.View view(@NotNull Aggregate aggregate) {
+        return archives[aggregate.ordinal()].view();
+    }
+
+    /**
+     * Returns the closed buckets of the metric values. The bucket currently being accumulated is not included. Decodes the
+     * history - the view should be cached by the caller for the duration of a request.
+     * @param aggregate the aggregation function, not null.
+     * @return a view of the aggregated metric history, oldest bucket first. Sample time is the bucket start.
+     */
+    @NotNull
+    public MetricHistory.View metricView(@NotNull Aggregate aggregate) {
+        return archives[aggregate.ordinal()].metricView(metrics);
+    }
+
+    /**
+     * Returns the memory taken by the compressed history.
+     * @return the size in bytes.
+     */
+    public int getByteSize() {
+        int result = 0;
+        for (HistoryArchive archive : archives) {
+            result += archive.getByteSize();
+        }
+        return result;
+    }
+
+    /**
+     * Clears the tier.
+     */
+    public void clear() {
+        for (HistoryArchive archive : archives) {
+            archive.clear();
+        }
+        resetBucket();
+        bucketStart = -1;
+    }
+}
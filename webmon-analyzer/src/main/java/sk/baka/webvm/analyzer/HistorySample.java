@@ -107,18 +107,23 @@ public final class HistorySample {
      * Shows the host OS CPU IO usage. A value of 0..100, 0 when not supported.
      */
     public final int cpuIOUsage;
+    /**
+     * The JVM-wide allocation rate in KB per second, -1 when not supported.
+     */
+    public final int allocationRate;
 
     private HistorySample(int gcCpuUsage, @NotNull EnumMap<MemoryPools, MemoryUsage2> memPoolUsage,
                           @NotNull ThreadMap threads, int classesLoaded, @NotNull CPUUsage cpuUsage,
-                          int cpuJavaUsage, int cpuIOUsage, long sampleTime) {
+                          int cpuJavaUsage, int cpuIOUsage, int allocationRate, long sampleTime) {
         this.sampleTime = sampleTime;
         this.gcCpuUsage = gcCpuUsage;
-        this.memPoolUsage = Collections.unmodifiableMap(memPoolUsage);
+        this.memPoolUsage = Collections.unmodifiableMap(new EnumMap<MemoryPools, MemoryUsage2>(memPoolUsage));
         this.threads = threads;
         this.classesLoaded = classesLoaded;
         this.cpuUsage = cpuUsage;
         this.cpuJavaUsage = cpuJavaUsage;
         this.cpuIOUsage = cpuIOUsage;
+        this.allocationRate = allocationRate;
     }
 
     /**
@@ -133,6 +138,7 @@ public final class HistorySample {
             this.cpuIOUsage = hs.cpuIOUsage;
             this.cpuJavaUsage = hs.cpuJavaUsage;
             this.cpuUsage = hs.cpuUsage;
+            this.allocationRate = hs.allocationRate;
             this.gcCpuUsage = hs.gcCpuUsage;
             this.memPoolUsage.clear();
             this.memPoolUsage.putAll(hs.memPoolUsage);
@@ -175,6 +181,10 @@ public final class HistorySample {
          * supported.
          */
         public int cpuIOUsage = 0;
+        /**
+         * The JVM-wide allocation rate in KB per second, -1 when not supported.
+         */
+        public int allocationRate = -1;
 
         public Builder setGcCpuUsage(int gcCpuUsage) {
             this.gcCpuUsage = gcCpuUsage;
@@ -201,6 +211,28 @@ public final class HistorySample {
             return this;
         }
 
+        public Builder setAllocationRate(int allocationRate) {
+            this.allocationRate = allocationRate;
+            return this;
+        }
+
+        /**
+         * Computes the {@link #allocationRate} from given thread snapshots.
+         * @param previous the previous snapshot, null if not available.
+         * @param current the current snapshot, null if not available.
+         * @return this
+         */
+        public Builder computeAllocationRate(ThreadMap previous, ThreadMap current) {
+            allocationRate = -1;
+            if (previous != null && current != null && current.takenAt > previous.takenAt) {
+                final long bytes = current.getAllocatedBytesSince(previous);
+                if (bytes >= 0) {
+                    allocationRate = (int) Math.min(Integer.MAX_VALUE, bytes * 1000 / 1024 / (current.takenAt - previous.takenAt));
+                }
+            }
+            return this;
+        }
+
         public Builder autodetectMeminfo(IMemoryInfoProvider meminfo) {
             memPoolUsage.put(MemoryPools.Heap, Memory.getHeapFromRuntime().getInMB());
             memPoolUsage.put(MemoryPools.NonHeap, Memory.getNonHeapSummary().getInMB());
@@ -222,7 +254,7 @@ public final class HistorySample {
         }
 
         public HistorySample build() {
-            return new HistorySample(gcCpuUsage, memPoolUsage, threads, classesLoaded, cpuUsage, cpuJavaUsage, cpuIOUsage, sampleTime);
+            return new HistorySample(gcCpuUsage, memPoolUsage, threads, classesLoaded, cpuUsage, cpuJavaUsage, cpuIOUsage, allocationRate, sampleTime);
         }
     }
 
@@ -255,7 +287,7 @@ public final class HistorySample {
         if (this.classesLoaded != other.classesLoaded) {
             return false;
         }
-        if (this.cpuUsage != other.cpuUsage) {
+        if (!this.cpuUsage.equals(other.cpuUsage)) {
             return false;
         }
         if (this.cpuJavaUsage != other.cpuJavaUsage) {
@@ -264,6 +296,9 @@ public final class HistorySample {
         if (this.cpuIOUsage != other.cpuIOUsage) {
             return false;
         }
+        if (this.allocationRate != other.allocationRate) {
+            return false;
+        }
         return true;
     }
     
@@ -273,6 +308,6 @@ public final class HistorySample {
                 ", memPoolUsage=" + memPoolUsage + ", classesLoaded=" + classesLoaded +
                 ", " + cpuUsage +
                 ", cpuJavaUsage=" + cpuJavaUsage
-                + ", cpuIOUsage=" + cpuIOUsage + '}';
+                + ", cpuIOUsage=" + cpuIOUsage + ", allocationRate=" + allocationRate + '}';
     }
 }
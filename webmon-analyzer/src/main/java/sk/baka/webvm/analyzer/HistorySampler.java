@@ -20,9 +20,14 @@ package sk.baka.webvm.analyzer;
 
 import sk.baka.webvm.analyzer.hostos.CPUUsage;
 import sk.baka.webvm.analyzer.hostos.ICpuUsageMeasureStrategy;
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -31,6 +36,10 @@ import sk.baka.webvm.analyzer.config.Config;
 import sk.baka.webvm.analyzer.hostos.Cpu;
 import sk.baka.webvm.analyzer.hostos.IMemoryInfoProvider;
 import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.metrics.GcRateSource;
+import sk.baka.webvm.analyzer.metrics.IMetricSource;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.metrics.MetricRegistry;
 import sk.baka.webvm.analyzer.utils.BackgroundService;
 import sk.baka.webvm.analyzer.utils.Constants;
 import sk.baka.webvm.analyzer.utils.INotificationDelivery;
@@ -52,7 +61,7 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
      * @param notificator the notificator, may be null if not needed. 
      */
     public HistorySampler(IProblemAnalyzer analyzer, INotificationDelivery notificator) {
-        this(HISTORY_VMSTAT, HISTORY_PROBLEMS, analyzer, notificator);
+        this(HISTORY_VMSTAT, HISTORY_PROBLEMS, HISTORY_ROLLUPS, analyzer, notificator);
     }
 
     /**
@@ -63,10 +72,32 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
      * @param notificator the notificator, may be null if not needed. 
      */
     public HistorySampler(final SamplerConfig vmstatConfig, final SamplerConfig problemConfig, final IProblemAnalyzer analyzer, INotificationDelivery notificator) {
+        this(vmstatConfig, problemConfig, HISTORY_ROLLUPS, analyzer, notificator);
+    }
+
+    /**
+     * Creates new sampler instance.
+     * @param vmstatConfig the vmstat sampler config
+     * @param problemConfig the problem sampler config
+     * @param rollupConfigs the downsampled vmstat history tiers, finest first. May be empty.
+     * @param analyzer a configured instance of the analyzer. May be null if this functionality is not required.
+     * @param notificator the notificator, may be null if not needed. 
+     */
+    public HistorySampler(final SamplerConfig vmstatConfig, final SamplerConfig problemConfig, final List<SamplerConfig> rollupConfigs, final IProblemAnalyzer analyzer, INotificationDelivery notificator) {
         super("Sampler", 1);
         this.vmstatConfig = vmstatConfig;
         this.problemConfig = problemConfig;
-        vmstatHistory = new SimpleFixedSizeFIFO<HistorySample>(vmstatConfig.getHistoryLength());
+        vmstatHistory = new HistoryBuffer(vmstatConfig.getHistoryLength());
+        threadHistory = new ThreadHistory(vmstatConfig.getHistoryLength());
+        lockContention = new LockContention(vmstatConfig.getHistoryLength());
+        waitProfile = new WaitProfile(vmstatConfig.getHistoryLength());
+        final List<IMetricSource> sources = MetricRegistry.discover();
+        sources.add(new GcRateSource(gcEvents));
+        metrics = new MetricRegistry(sources, vmstatConfig.getHistoryLength());
+        rollups = new ArrayList<HistoryRollup>(rollupConfigs.size());
+        for (SamplerConfig rollupConfig : rollupConfigs) {
+            rollups.add(new HistoryRollup(rollupConfig, metrics.getMetrics()));
+        }
         problemHistory = new SimpleFixedSizeFIFO<List<ProblemReport>>(problemConfig.getHistoryLength());
         this.analyzer = analyzer;
         this.notificator = notificator;
@@ -86,6 +117,45 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
         if (analyzer != null) {
             analyzer.configChanged(cfg);
         }
+        final ThreadSampler ts = threadSampler;
+        if (ts == null || ts.fullRefreshTicks != cfg.threadFullRefreshTicks || ts.topK != cfg.threadTopK) {
+            setThreadSampler(ThreadSampler.fromConfig(cfg));
+        }
+        final AdaptiveSampling as = adaptiveSampling;
+        final AdaptiveSampling configured = AdaptiveSampling.fromConfig(cfg, vmstatConfig.getHistorySampleDelayMs());
+        if (as != null && as.hasSameDelays(configured)) {
+            // keep the calm/hot state, just pick up the new thresholds
+            as.configChanged(cfg);
+        } else {
+            adaptiveSampling = configured;
+        }
+        metrics.configChanged(cfg);
+        lockContention.setIntervalMillis(cfg.locksIntervalMs);
+        waitProfile.setIntervalMillis(cfg.waitsIntervalMs);
+    }
+    /**
+     * Computes the vmstat sampling delay; null if the vmstat is sampled at a fixed rate.
+     */
+    private volatile AdaptiveSampling adaptiveSampling;
+
+    /**
+     * Sets the adaptive sampling policy.
+     * @param adaptiveSampling the policy, null to sample the vmstat at the fixed {@link SamplerConfig#getHistorySampleDelayMs()} rate.
+     */
+    public void setAdaptiveSampling(AdaptiveSampling adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+    }
+    /**
+     * Takes the thread snapshots; null if {@link ThreadMap#takeSnapshot()} is used.
+     */
+    private volatile ThreadSampler threadSampler;
+
+    /**
+     * Sets the sampler used to take thread snapshots.
+     * @param threadSampler the sampler, null to read all threads every sample using {@link ThreadMap#takeSnapshot()}.
+     */
+    public void setThreadSampler(ThreadSampler threadSampler) {
+        this.threadSampler = threadSampler;
     }
 
     @Override
@@ -93,27 +163,150 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
         if (notificator != null) {
             notificator.start();
         }
-        executor.scheduleWithFixedDelay(new Sampler(), vmstatConfig.getInitialDelay(), vmstatConfig.getHistorySampleDelayMs(), TimeUnit.MILLISECONDS);
+        gcEvents.start();
+        executor.schedule(new Sampler(executor), vmstatConfig.getInitialDelay(), TimeUnit.MILLISECONDS);
         if (analyzer != null) {
-        executor.scheduleWithFixedDelay(new ProblemSampler(), problemConfig.getInitialDelay(), problemConfig.getHistorySampleDelayMs(), TimeUnit.MILLISECONDS);
+        problemSampler = new ProblemSampler();
+        executor.scheduleWithFixedDelay(problemSampler, problemConfig.getInitialDelay(), problemConfig.getHistorySampleDelayMs(), TimeUnit.MILLISECONDS);
         }
     }
 
     @Override
     protected void stopped() {
+        gcEvents.stop();
+        metrics.stop();
         if (notificator != null) {
             notificator.stop();
         }
+        if (historyFile != null) {
+            historyFile.close();
+        }
     }
-    private final SimpleFixedSizeFIFO<HistorySample> vmstatHistory;
+    private volatile HistoryFile historyFile;
 
     /**
-     * Returns a snapshot of the history values.
-     * @return modifiable snapshot.
+     * Persists the vmstat and metric history into given file, so that it survives JVM restarts. The history stored in the file by
+     * a previous run is loaded into the vmstat history, the metric history and the downsampled tiers. Must be called before the
+     * sampler is started.
+     * @param file the file, created if it does not exist.
+     * @param capacity maximum number of samples to keep in the file.
+     * @throws IOException if the file cannot be opened.
      */
+    public synchronized void setHistoryFile(File file, int capacity) throws IOException {
+        if (getExecutor() != null) {
+            throw new IllegalStateException("Already started.");
+        }
+        final HistoryFile hf = HistoryFile.open(file, capacity, metrics.getMetrics());
+        final long[] row = new long[hf.columns];
+        for (int i = 0; i < hf.size(); i++) {
+            final long sampleTime = hf.read(i, row);
+            vmstatHistory.add(sampleTime, row, null);
+            metrics.restore(sampleTime, row, HistoryBuffer.COLUMNS);
+            for (HistoryRollup rollup : rollups) {
+                rollup.add(sampleTime, row);
+            }
+        }
+        LOG.info("Loaded " + hf.size() + " samples from " + file);
+        historyFile = hf;
+    }
+    private final HistoryBuffer vmstatHistory;
+
+    /**
+     * Returns a read-only snapshot of the history values. Copies the history, see {@link HistoryBuffer#view()}.
+     * @return read-only view.
+     */
+    @Override
+    public HistoryBuffer.View getVmstatHistory() {
+        return vmstatHistory.view();
+    }
+    private final ThreadHistory threadHistory;
+
+    @Override
+    public ThreadHistory.Table getThreadHistory() {
+        return threadHistory.getTable();
+    }
+    private final LockContention lockContention;
+
+    @Override
+    public LockContention.Report getLockContention() {
+        return lockContention.getReport();
+    }
+    private final WaitProfile waitProfile;
+
     @Override
-    public List<HistorySample> getVmstatHistory() {
-        return vmstatHistory.toList();
+    public WaitProfile.Report getWaitProfile() {
+        return waitProfile.getReport();
+    }
+    /**
+     * Samples the metric sources discovered by {@link MetricRegistry#discover()}.
+     */
+    private final MetricRegistry metrics;
+
+    @Override
+    public MetricHistory.View getMetricHistory() {
+        return metrics.getHistory();
+    }
+
+    @Override
+    public MetricHistory.View getMetricHistory(long rangeMillis, HistoryRollup.Aggregate aggregate) {
+        final long since = System.currentTimeMillis() - rangeMillis;
+        final HistoryRollup rollup = getRollup(since, rangeMillis);
+        return rollup == null ? metrics.getHistory().since(since) : rollup.metricView(aggregate).since(since);
+    }
+
+    @Override
+    public Map<String, String> getMetricReports() {
+        return metrics.getReports();
+    }
+    /**
+     * Records individual garbage collections.
+     */
+    private final GcEvents gcEvents = new GcEvents(GC_EVENTS);
+    private static final int GC_EVENTS = 256;
+
+    @Override
+    public GcEvents.Report getGcEvents() {
+        return gcEvents.getReport();
+    }
+    /**
+     * Measures the cost of the samplers.
+     */
+    private final SamplerOverhead overhead = new SamplerOverhead();
+
+    @Override
+    public SamplerOverhead.Report getOverhead() {
+        return overhead.getReport();
+    }
+    /**
+     * The downsampled vmstat history, finest first.
+     */
+    private final List<HistoryRollup> rollups;
+
+    @Override
+    public HistoryBuffer.View getVmstatHistory(long rangeMillis, HistoryRollup.Aggregate aggregate) {
+        final long since = System.currentTimeMillis() - rangeMillis;
+        final HistoryRollup rollup = getRollup(since, rangeMillis);
+        return rollup == null ? vmstatHistory.view(since) : rollup.view(aggregate).since(since);
+    }
+
+    /**
+     * Selects the downsampled tier to show given time range from. The raw history is used if its oldest sample is old enough, or
+     * if nothing has been dropped from it yet. Its time span is not derived from the nominal sample delay: while adaptive
+     * sampling bursts, the raw history covers a fraction of it.
+     * @param since the start of the time range, in millis since epoch.
+     * @param rangeMillis the time range, in milliseconds, ending now.
+     * @return the finest tier which covers the range, the coarsest one if none does, null if the raw history covers the range.
+     */
+    private HistoryRollup getRollup(long since, long rangeMillis) {
+        if (rollups.isEmpty() || !vmstatHistory.isFull() || vmstatHistory.getOldestSampleTime() <= since) {
+            return null;
+        }
+        for (HistoryRollup rollup : rollups) {
+            if (rollup.getRetentionMillis() >= rangeMillis) {
+                return rollup;
+            }
+        }
+        return rollups.get(rollups.size() - 1);
     }
     /**
      * Serves for Host OS CPU usage measurement.
@@ -131,36 +324,157 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
     
     /**
      * Invoked when the sample is taken. The default implementation does nothing.
+     * <p></p>
+     * The sample object is only created when this method is overridden, the history itself is stored in primitive arrays.
      * @param hs the sample taken, never null.
      */
     protected void onSample(HistorySample hs) {}
 
+    private final boolean onSampleOverridden = isOnSampleOverridden(getClass());
+
+    private static boolean isOnSampleOverridden(Class<?> clazz) {
+        for (Class<?> c = clazz; c != HistorySampler.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("onSample", HistorySample.class);
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // not declared here, try the superclass
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a vmstat sample and reschedules itself, with the delay given by the {@link #adaptiveSampling} policy.
+     */
     private final class Sampler implements Runnable {
 
+        private final ScheduledExecutorService executor;
+
+        Sampler(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Reused for every sample, to avoid allocating a new builder each second.
+         */
+        private final HistorySample.Builder builder = new HistorySample.Builder();
+        /**
+         * The vmstat columns followed by the metric values.
+         */
+        private final long[] row = new long[HistoryBuffer.COLUMNS + metrics.getMetrics().size()];
+
+        private final SamplerOverhead.Stage gcCpuStage = overhead.getStage("vmstat: GC CPU usage");
+        private final SamplerOverhead.Stage hostCpuStage = overhead.getStage("vmstat: host CPU usage");
+        private final SamplerOverhead.Stage javaCpuStage = overhead.getStage("vmstat: Java CPU usage");
+        private final SamplerOverhead.Stage hostIOStage = overhead.getStage("vmstat: host IO usage");
+        private final SamplerOverhead.Stage memoryStage = overhead.getStage("vmstat: memory");
+        private final SamplerOverhead.Stage classesStage = overhead.getStage("vmstat: classes loaded");
+        private final SamplerOverhead.Stage threadsStage = overhead.getStage("vmstat: thread snapshot");
+        private final SamplerOverhead.Stage locksStage = overhead.getStage("vmstat: lock contention");
+        private final SamplerOverhead.Stage waitsStage = overhead.getStage("vmstat: wait profile");
+        private final SamplerOverhead.Stage historyStage = overhead.getStage("vmstat: history");
+        private final SamplerOverhead.Stage rulesStage = overhead.getStage("vmstat: problem rules");
+        private final SamplerOverhead.Stage tickStage = overhead.getSummaryStage("vmstat: tick");
+        /**
+         * Start of the current latency window, -1 before the first sample.
+         */
+        private long windowStart = -1;
+        /**
+         * Created lazily, by the sampler thread.
+         */
+        private SamplerOverhead.Stopwatch stopwatch;
+
+        /**
+         * Closes the latency windows of the overhead and GC pause histograms once the vmstat history no longer holds the sample
+         * which opened the window, so that a window spans the raw history regardless of the adaptive sampling rate.
+         */
+        private void rotateWindow(long now) {
+            if (windowStart < 0) {
+                windowStart = now;
+            } else if (vmstatHistory.getOldestSampleTime() > windowStart) {
+                overhead.rotateWindow();
+                gcEvents.rotateWindow();
+                windowStart = now;
+            }
+        }
+
         @Override
         public void run() {
             try {
+                if (stopwatch == null) {
+                    stopwatch = overhead.newStopwatch();
+                }
+                stopwatch.start();
                 final CPUUsage cpuUsageByGC = gcCpuUsage.getCpuUsage();
                 assert cpuUsageByGC != null; // this info is always available.
+                stopwatch.lap(gcCpuStage);
                 CPUUsage usage = cpuOS.getCpuUsage();
                 usage = usage == null ? CPUUsage.ZERO : usage;
+                stopwatch.lap(hostCpuStage);
                 CPUUsage javaUsage = cpuJava.getCpuUsage();
                 javaUsage = javaUsage == null ? CPUUsage.ZERO : javaUsage;
+                stopwatch.lap(javaCpuStage);
                 CPUUsage ioUsage = cpuOSIO.getCpuUsage();
                 ioUsage = ioUsage == null ? CPUUsage.ZERO : ioUsage;
-                final HistorySample hs = new HistorySample.Builder().
-                        setGcCpuUsage(cpuUsageByGC.cpuAvgUsage)
+                stopwatch.lap(hostIOStage);
+                builder.sampleTime = System.currentTimeMillis();
+                builder.setGcCpuUsage(cpuUsageByGC.cpuAvgUsage)
                         .setCpuUsage(usage)
                         .setCpuIOUsage(ioUsage.cpuAvgUsage)
                         .setCpuJavaUsage(javaUsage.cpuAvgUsage)
-                        .autodetectMemClassesThreads(meminfo)
-                        .build();
-                vmstatHistory.add(hs);
-                onSample(hs);
+                        .autodetectMeminfo(meminfo);
+                stopwatch.lap(memoryStage);
+                builder.autodetectClassesLoaded();
+                stopwatch.lap(classesStage);
+                final ThreadSampler ts = threadSampler;
+                final ThreadMap previous = builder.threads;
+                builder.threads = ts == null ? ThreadMap.takeSnapshot() : ts.takeSnapshot();
+                builder.computeAllocationRate(previous, builder.threads);
+                // a single stack-less thread info read, shared by the aggregators; skipped if none of them samples on this tick
+                final WaitingThreads waiting = lockContention.isDue(builder.sampleTime) || waitProfile.isDue(builder.sampleTime)
+                        ? WaitingThreads.read(builder.threads) : null;
+                stopwatch.lap(threadsStage);
+                lockContention.sample(builder.sampleTime, waiting);
+                stopwatch.lap(locksStage);
+                waitProfile.sample(builder.sampleTime, waiting);
+                stopwatch.lap(waitsStage);
+                metrics.sample(builder.sampleTime, overhead, stopwatch);
+                HistoryBuffer.toRow(builder, row);
+                metrics.getRow(row, HistoryBuffer.COLUMNS);
+                vmstatHistory.add(builder.sampleTime, row, builder.threads);
+                threadHistory.add(builder.threads);
+                for (HistoryRollup rollup : rollups) {
+                    rollup.add(builder.sampleTime, row);
+                }
+                final HistoryFile hf = historyFile;
+                if (hf != null) {
+                    hf.append(builder.sampleTime, row);
+                }
+                if (onSampleOverridden) {
+                    onSample(builder.build());
+                }
+                stopwatch.lap(historyStage);
+                if (analyzer != null && analyzer.sample(builder)) {
+                    // a rule has just been triggered or cleared; do not wait for the next problem tick
+                    final ProblemSampler ps = problemSampler;
+                    if (ps != null) {
+                        executor.execute(ps);
+                    }
+                }
+                stopwatch.lap(rulesStage);
+                stopwatch.finish(tickStage);
+                rotateWindow(builder.sampleTime);
             } catch (Throwable e) {
-                // catch all throwables as the thread is going to terminate anyway
                 LOG.log(Level.SEVERE, "The Sampler thread failed", e);
             }
+            final AdaptiveSampling policy = adaptiveSampling;
+            final int delay = policy == null ? vmstatConfig.getHistorySampleDelayMs() : policy.getNextDelay(builder);
+            try {
+                executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                // the sampler has been stopped
+            }
         }
     }
     private SamplerConfig vmstatConfig;
@@ -209,12 +523,28 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
         }
     }
 
+    /**
+     * Created when the sampler is started, if there is an analyzer.
+     */
+    private volatile ProblemSampler problemSampler;
+
     private final class ProblemSampler implements Runnable {
 
+        private final SamplerOverhead.Stage notificationStage = overhead.getStage("problems: notification");
+        private final SamplerOverhead.Stage tickStage = overhead.getSummaryStage("problems: tick");
+        /**
+         * Created lazily, by the sampler thread.
+         */
+        private SamplerOverhead.Stopwatch stopwatch;
+
         @Override
         public void run() {
             try {
-                final List<ProblemReport> currentProblems = analyzer.getProblems(vmstatHistory.toList());
+                if (stopwatch == null) {
+                    stopwatch = overhead.newStopwatch();
+                }
+                stopwatch.start();
+                final List<ProblemReport> currentProblems = analyzer.getProblems(metrics.getHistory(), overhead, stopwatch);
                 final List<ProblemReport> last = problemHistory.getNewest();
                 if (last == null) {
                     if (!ProblemReport.isProblem(currentProblems)) {
@@ -229,9 +559,14 @@ public class HistorySampler extends BackgroundService implements IHistorySampler
                 if (notificator != null) {
                     notificator.deliverAsync(currentProblems);
                 }
+                stopwatch.lap(notificationStage);
             } catch (Throwable e) {
                 // catch all throwables as the thread is going to terminate anyway
                 LOG.log(Level.SEVERE, "The ProblemSampler timer failed", e);
+            } finally {
+                if (stopwatch != null) {
+                    stopwatch.finish(tickStage);
+                }
             }
         }
     }
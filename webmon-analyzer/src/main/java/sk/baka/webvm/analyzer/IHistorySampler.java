@@ -1,7 +1,11 @@
 package sk.baka.webvm.analyzer;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
 import sk.baka.webvm.analyzer.utils.IService;
 
 /**
@@ -19,7 +23,75 @@ public interface IHistorySampler extends IService {
      * Default Problems history.
      */
     public static final SamplerConfig HISTORY_PROBLEMS = new SamplerConfig(20, 10 * 1000, 500);
+    /**
+     * Default downsampled vmstat history tiers, finest first: one hour in 10 second buckets, one day in 1 minute buckets, 30 days
+     * in 1 hour buckets. The initial delay is ignored.
+     */
+    public static final List<SamplerConfig> HISTORY_ROLLUPS = Collections.unmodifiableList(Arrays.asList(
+            new SamplerConfig(360, 10 * 1000, 0),
+            new SamplerConfig(1440, 60 * 1000, 0),
+            new SamplerConfig(720, 60 * 60 * 1000, 0)));
     public void configChanged(Config cfg);
-    public List<HistorySample> getVmstatHistory();
+    /**
+     * Returns a read-only snapshot of the vmstat history. Copies the primitive columns of the whole raw history: callers should
+     * take one view per request and reuse it. Only the newest sample carries a thread snapshot.
+     * @return the history view, first item is the oldest one.
+     */
+    public HistoryBuffer.View getVmstatHistory();
+    /**
+     * Returns a read-only view of the vmstat history covering given time range. The raw history is used if it covers the range,
+     * otherwise the finest downsampled tier which covers the range is used (or the coarsest one if none does). Copies the raw
+     * history or decodes the tier: callers should take one view per request and reuse it.
+     * @param rangeMillis the time range, in milliseconds, ending now.
+     * @param aggregate the aggregation to use if a downsampled tier is selected.
+     * @return the history view, first item is the oldest one.
+     */
+    public HistoryBuffer.View getVmstatHistory(long rangeMillis, HistoryRollup.Aggregate aggregate);
+    /**
+     * Returns the per-thread state and CPU usage history, covering the raw vmstat history. The matrix is maintained by the
+     * sampler; this call only copies it.
+     * @return the thread history table.
+     */
+    public ThreadHistory.Table getThreadHistory();
+    /**
+     * Returns a read-only snapshot of the history of metrics provided by the pluggable
+     * {@link sk.baka.webvm.analyzer.metrics.IMetricSource}s. Covers the raw vmstat history.
+     * @return the history view, first item is the oldest one.
+     */
+    public MetricHistory.View getMetricHistory();
+    /**
+     * Returns a read-only snapshot of the metric history covering given time range. The tier is selected the same way as in
+     * {@link #getVmstatHistory(long, sk.baka.webvm.analyzer.HistoryRollup.Aggregate)}.
+     * @param rangeMillis the time range, in milliseconds, ending now.
+     * @param aggregate the aggregation to use if a downsampled tier is selected.
+     * @return the history view, first item is the oldest one.
+     */
+    public MetricHistory.View getMetricHistory(long rangeMillis, HistoryRollup.Aggregate aggregate);
+    /**
+     * Returns the reports of the metric sources which aggregate more than the metric history, e.g. the top-N tables of the JFR
+     * stream. See {@link sk.baka.webvm.analyzer.metrics.IManagedMetricSource#getReport()}.
+     * @return maps the source name to its report, never null.
+     */
+    public Map<String, String> getMetricReports();
     public List<List<ProblemReport>> getProblemHistory();
+    /**
+     * Returns the newest garbage collections and the pause statistics of every collector, as captured from the GC notifications.
+     * @return the GC report, empty if the JVM does not emit GC notifications.
+     */
+    public GcEvents.Report getGcEvents();
+    /**
+     * Returns the cost of the sampling itself, per sampling stage.
+     * @return the overhead report.
+     */
+    public SamplerOverhead.Report getOverhead();
+    /**
+     * Returns the locks contended during the vmstat history, the most contended first.
+     * @return the lock contention report.
+     */
+    public LockContention.Report getLockContention();
+    /**
+     * Returns the call sites threads waited in during the vmstat history, the longest waits first.
+     * @return the wait profile report.
+     */
+    public WaitProfile.Report getWaitProfile();
 }
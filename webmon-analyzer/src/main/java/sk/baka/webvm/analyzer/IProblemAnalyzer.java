@@ -2,6 +2,7 @@ package sk.baka.webvm.analyzer;
 
 import java.util.List;
 import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
 
 /**
  *
@@ -10,4 +11,32 @@ import sk.baka.webvm.analyzer.config.Config;
 public interface IProblemAnalyzer {
     void configChanged(Config config);
     public List<ProblemReport> getProblems(List<HistorySample> history);
+    /**
+     * Analyzes the history and the pluggable metrics, measuring the cost of every report.
+     * @param history the vmstat history.
+     * @param metrics the history of the pluggable metrics; a problem is reported for every metric which reached its
+     * {@link sk.baka.webvm.analyzer.metrics.Metric#problemThreshold}. May be null.
+     * @param overhead records the duration of every report into a stage named after the report class. May be null if stopwatch is null.
+     * @param stopwatch the stopwatch of the calling thread, already started. May be null.
+     * @return the problem reports.
+     */
+    public List<ProblemReport> getProblems(List<HistorySample> history, MetricHistory.View metrics, SamplerOverhead overhead, SamplerOverhead.Stopwatch stopwatch);
+    /**
+     * Updates the rolling state of the history-based rules with a new vmstat sample, in constant time. Expected to be called
+     * by the sampler for every vmstat sample.
+     * @param sample the sample, not null.
+     * @return true if a history-based rule has been triggered or cleared by this sample, i.e. the problems should be
+     * re-evaluated now.
+     */
+    public boolean sample(HistorySample.Builder sample);
+    /**
+     * Analyzes the vmstat history fed by {@link #sample(sk.baka.webvm.analyzer.HistorySample.Builder)} and the pluggable
+     * metrics, measuring the cost of every report. The history-based rules are evaluated in constant time.
+     * @param metrics the history of the pluggable metrics; a problem is reported for every metric which reached its
+     * {@link sk.baka.webvm.analyzer.metrics.Metric#problemThreshold}. May be null.
+     * @param overhead records the duration of every report into a stage named after the report class. May be null if stopwatch is null.
+     * @param stopwatch the stopwatch of the calling thread, already started. May be null.
+     * @return the problem reports.
+     */
+    public List<ProblemReport> getProblems(MetricHistory.View metrics, SamplerOverhead overhead, SamplerOverhead.Stopwatch stopwatch);
 }
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.hostos.linux.PerfData;
+import sk.baka.webvm.analyzer.metrics.IMetricSource;
+import sk.baka.webvm.analyzer.metrics.LocalJvmSource;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.metrics.MetricRegistry;
+import sk.baka.webvm.analyzer.utils.BackgroundService;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * Monitors all JVMs running on this machine, from the outside: discovers them by their {@link PerfData} files and samples each
+ * one with a {@link LocalJvmSource} into a separate metric history. One such sidecar process replaces an embedded webmon in
+ * every JVM; it sees only what the perf data and the OS reveal, though - no thread dumps, no problem analysis.
+ * <p></p>
+ * JVMs are discovered on every sample; JVMs which exit are dropped together with their history. A JVM is picked up once its
+ * perf data is initialized, see {@link PerfData#isAccessible(java.io.File)}; a perf data file which fails to open is retried
+ * after {@link #RETRY_MILLIS}. A JVM whose new counters change its list of metrics (see {@link LocalJvmSource#isMetricsChanged()}) is
+ * reopened with a new history. Only JVMs whose perf data is readable by the current user are found. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class LocalJvms extends BackgroundService {
+
+    private static final Logger log = Logger.getLogger(LocalJvms.class.getName());
+    /**
+     * A perf data file which failed to open is retried after this number of milliseconds.
+     */
+    public static final long RETRY_MILLIS = 60000;
+    private final SamplerConfig config;
+    private final int ownPid = PerfData.getOwnPid();
+    private volatile SortedMap<Integer, Jvm> jvms = new TreeMap<Integer, Jvm>();
+    /**
+     * Maps perf data files which failed to parse to the time of the failure. Accessed by the sampler thread only.
+     */
+    private final Map<File, Long> failed = new HashMap<File, Long>();
+
+    /**
+     * Creates new monitor.
+     * @param config the history length and the sampling delay of every JVM, not null.
+     */
+    public LocalJvms(@NotNull SamplerConfig config) {
+        super("LocalJvms", 1);
+        Checks.checkNotNull("config", config);
+        this.config = config;
+    }
+
+    @Override
+    protected void started(ScheduledExecutorService executor) {
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    sample();
+                } catch (Throwable t) {
+                    log.log(Level.SEVERE, "Failed to sample local JVMs", t);
+                }
+            }
+        }, config.getInitialDelay(), config.getHistorySampleDelayMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void stopped() {
+        jvms = new TreeMap<Integer, Jvm>();
+    }
+
+    /**
+     * Discovers new JVMs, drops the dead ones and samples the remaining ones.
+     */
+    void sample() {
+        final long now = System.currentTimeMillis();
+        final SortedMap<Integer, File> files = PerfData.discover();
+        failed.keySet().retainAll(files.values());
+        final SortedMap<Integer, Jvm> current = new TreeMap<Integer, Jvm>();
+        for (Map.Entry<Integer, File> entry : files.entrySet()) {
+            final int pid = entry.getKey();
+            final Long failedAt = failed.get(entry.getValue());
+            if (pid == ownPid || (failedAt != null && now - failedAt < RETRY_MILLIS)) {
+                continue;
+            }
+            Jvm jvm = jvms.get(pid);
+            if (jvm == null || !jvm.file.equals(entry.getValue()) || jvm.source.isMetricsChanged()) {
+                // a starting JVM creates the file before it fills it in
+                jvm = PerfData.isAccessible(entry.getValue()) ? open(pid, entry.getValue(), now) : null;
+            }
+            if (jvm != null) {
+                current.put(pid, jvm);
+            }
+        }
+        // the perf data file of a JVM which crashed is not deleted
+        for (Iterator<Jvm> i = current.values().iterator(); i.hasNext();) {
+            if (!new File("/proc/" + i.next().pid).exists() && new File("/proc/self").exists()) {
+                i.remove();
+            }
+        }
+        for (Jvm jvm : current.values()) {
+            jvm.metrics.sample(now, null, null);
+        }
+        jvms = current;
+    }
+
+    @Nullable
+    private Jvm open(int pid, File file, long now) {
+        try {
+            final Jvm result = new Jvm(pid, file, new PerfData(file), config.getHistoryLength());
+            failed.remove(file);
+            return result;
+        } catch (IOException ex) {
+            log.log(Level.FINE, "Failed to open " + file, ex);
+            failed.put(file, now);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the monitored JVMs.
+     * @return the JVMs sorted by the process ID, never null.
+     */
+    @NotNull
+    public List<Jvm> getJvms() {
+        return Collections.unmodifiableList(new ArrayList<Jvm>(jvms.values()));
+    }
+
+    /**
+     * Returns given JVM.
+     * @param pid the process ID.
+     * @return the JVM, null if there is no such monitored JVM.
+     */
+    @Nullable
+    public Jvm getJvm(int pid) {
+        return jvms.get(pid);
+    }
+
+    /**
+     * A monitored JVM.
+     */
+    public static final class Jvm {
+
+        public final int pid;
+        /**
+         * The main class and the program arguments, null if not known.
+         */
+        public final String command;
+        private final File file;
+        private final LocalJvmSource source;
+        private final MetricRegistry metrics;
+
+        private Jvm(int pid, File file, PerfData perfData, int historyLength) {
+            this.pid = pid;
+            this.file = file;
+            command = perfData.getString("sun.rt.javaCommand");
+            source = new LocalJvmSource(pid, perfData);
+            metrics = new MetricRegistry(Collections.<IMetricSource>singletonList(source), historyLength);
+        }
+
+        /**
+         * Returns the metric history of this JVM.
+         * @return the history view, first item is the oldest one.
+         */
+        @NotNull
+        public MetricHistory.View getHistory() {
+            return metrics.getHistory();
+        }
+
+        @Override
+        public String toString() {
+            return pid + " " + (command == null ? "?" : command);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Serializable;
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.utils.ThreadID;
+
+/**
+ * Aggregates the contended locks over the last {@link #historyLength} samples. Every sample records the lock every blocked
+ * thread waits for (the {@link LockInfo} identity), the owner of the lock and the owner's top-most {@link #OWNER_FRAMES} stack
+ * frames. Both monitors (threads in the {@link Thread.State#BLOCKED} state) and ownable java.util.concurrent synchronizers such
+ * as ReentrantLock (parked threads with a known lock owner) are tracked; plain {@link Object#wait()} and condition waits have no
+ * owner and are not counted.
+ * <p></p>
+ * The blocked threads are taken from the {@link WaitingThreads}, which are read once per tick; the stack traces are read for
+ * the lock owners only. The contention is sampled at most every {@link #setIntervalMillis(int) interval}, regardless of how
+ * often the vmstat is sampled.
+ * <p></p>
+ * The locks are ranked by the blocked-thread time: the sum of the number of threads blocked on the lock, multiplied by the time
+ * between samples. Thread-safe: {@link #sample(long, sk.baka.webvm.analyzer.WaitingThreads)} is expected to be called by the
+ * sampler thread, {@link #getReport()} from any thread.
+ * @author Martin Vysny
+ */
+public final class LockContention extends ThreadTimeRanking<LockContention.SampleLock, LockContention.Accumulator> {
+
+    /**
+     * Number of top-most stack frames of the lock owner to record.
+     */
+    public static final int OWNER_FRAMES = 3;
+    /**
+     * Maximum number of distinct locks recorded per sample.
+     */
+    public static final int MAX_LOCKS_PER_SAMPLE = 64;
+    /**
+     * The default {@link #setIntervalMillis(int) interval}.
+     */
+    public static final int DEFAULT_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Creates new aggregator.
+     * @param historyLength maximum number of samples to keep, at least 1.
+     */
+    public LockContention(int historyLength) {
+        super(historyLength, MAX_LOCKS_PER_SAMPLE, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    @NotNull
+    @Override
+    protected List<SampleLock> collect(@NotNull WaitingThreads threads) {
+        final List<ThreadInfo> blocked = new ArrayList<ThreadInfo>();
+        final List<Long> ownerIds = new ArrayList<Long>();
+        for (ThreadInfo info : threads.infos) {
+            if (info.getLockInfo() == null) {
+                continue;
+            }
+            if (info.getThreadState() == Thread.State.BLOCKED || info.getLockOwnerId() >= 0) {
+                blocked.add(info);
+                if (info.getLockOwnerId() >= 0 && !ownerIds.contains(info.getLockOwnerId())) {
+                    ownerIds.add(info.getLockOwnerId());
+                }
+            }
+        }
+        final Map<Long, ThreadInfo> owners = new HashMap<Long, ThreadInfo>();
+        if (!ownerIds.isEmpty()) {
+            final long[] ids = new long[ownerIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = ownerIds.get(i);
+            }
+            for (ThreadInfo info : ThreadMap.BEAN.getThreadInfo(ids, OWNER_FRAMES)) {
+                if (info != null) {
+                    owners.put(info.getThreadId(), info);
+                }
+            }
+        }
+        final List<SampleLock> result = new ArrayList<SampleLock>(blocked.size());
+        for (ThreadInfo info : blocked) {
+            result.add(new SampleLock(info.getLockInfo().toString(), info.getLockInfo().getClassName(),
+                    info.getThreadState() != Thread.State.BLOCKED, getOwner(info, owners.get(info.getLockOwnerId()))));
+        }
+        return result;
+    }
+
+    @Nullable
+    private static String getOwner(ThreadInfo blocked, @Nullable ThreadInfo owner) {
+        if (blocked.getLockOwnerId() < 0) {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append(new ThreadID(blocked.getLockOwnerId())).append(' ').append(blocked.getLockOwnerName());
+        if (owner != null) {
+            for (StackTraceElement frame : owner.getStackTrace()) {
+                sb.append("\n  at ").append(frame);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A lock contended in a single sample.
+     */
+    static final class SampleLock extends ThreadTimeRanking.Group {
+
+        private final String className;
+        private final boolean synchronizer;
+        /**
+         * The owner thread and its top-most frames, null if not known.
+         */
+        private final String owner;
+
+        private SampleLock(String lock, String className, boolean synchronizer, String owner) {
+            super(lock);
+            this.className = className;
+            this.synchronizer = synchronizer;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Ranks the locks contended in the recorded samples.
+     * @return the report, never null.
+     */
+    @NotNull
+    public Report getReport() {
+        final List<Accumulator> ranked = new ArrayList<Accumulator>();
+        final long span = rank(ranked);
+        final List<Entry> result = new ArrayList<Entry>(ranked.size());
+        for (Accumulator acc : ranked) {
+            String topOwner = null;
+            long max = -1;
+            for (Map.Entry<String, Long> owner : acc.owners.entrySet()) {
+                if (owner.getValue() > max) {
+                    max = owner.getValue();
+                    topOwner = owner.getKey();
+                }
+            }
+            result.add(new Entry(acc.group.key, acc.group.className, acc.group.synchronizer, acc.threadMillis, acc.samples,
+                    acc.maxThreads, topOwner));
+        }
+        return new Report(span, Collections.unmodifiableList(result));
+    }
+
+    @NotNull
+    @Override
+    protected Accumulator newAccumulator(@NotNull SampleLock lock) {
+        return new Accumulator(lock);
+    }
+
+    /**
+     * Sums up a single lock over all samples, together with the owners.
+     */
+    static final class Accumulator extends ThreadTimeRanking.Accumulator<SampleLock> {
+
+        /**
+         * Maps the owner to the time it blocked the other threads.
+         */
+        private final Map<String, Long> owners = new HashMap<String, Long>();
+
+        private Accumulator(SampleLock lock) {
+            super(lock);
+        }
+
+        @Override
+        void add(SampleLock lock, long blockedMillis) {
+            super.add(lock, blockedMillis);
+            if (lock.owner != null) {
+                final Long time = owners.get(lock.owner);
+                // count samples too, so that an owner is reported even if the blocked time is zero
+                owners.put(lock.owner, (time == null ? 0 : time) + blockedMillis + 1);
+            }
+        }
+    }
+
+    /**
+     * The contended locks, the most contended first.
+     */
+    public static final class Report implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * The time covered by the report, in milliseconds.
+         */
+        public final long spanMillis;
+        public final List<Entry> locks;
+
+        private Report(long spanMillis, List<Entry> locks) {
+            this.spanMillis = spanMillis;
+            this.locks = locks;
+        }
+    }
+
+    /**
+     * A contended lock.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * The lock identity, the class name and the identity hash code, see {@link LockInfo#toString()}.
+         */
+        public final String lock;
+        public final String className;
+        /**
+         * True for an ownable java.util.concurrent synchronizer, false for a monitor.
+         */
+        public final boolean synchronizer;
+        /**
+         * Sum of the time every blocked thread spent waiting for the lock, in milliseconds.
+         */
+        public final long blockedMillis;
+        /**
+         * Number of samples the lock was contended in.
+         */
+        public final int samples;
+        /**
+         * Maximum number of threads blocked on the lock at once.
+         */
+        public final int maxBlockedThreads;
+        /**
+         * The owner which blocked the other threads for the longest time, followed by its top-most stack frames, one per line.
+         * Null if the owner is not known.
+         */
+        public final String topOwner;
+
+        private Entry(String lock, String className, boolean synchronizer, long blockedMillis, int samples, int maxBlockedThreads, String topOwner) {
+            this.lock = lock;
+            this.className = className;
+            this.synchronizer = synchronizer;
+            this.blockedMillis = blockedMillis;
+            this.samples = samples;
+            this.maxBlockedThreads = maxBlockedThreads;
+            this.topOwner = topOwner;
+        }
+
+        @Override
+        public String toString() {
+            return lock + ": " + blockedMillis + "ms blocked, " + samples + " samples, max " + maxBlockedThreads + " threads";
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package sk.baka.webvm.analyzer;
 
+import java.io.File;
+import sk.baka.webvm.analyzer.config.Config;
 import sk.baka.webvm.analyzer.utils.TCPIPServer;
 
 /**
@@ -8,18 +10,49 @@ import sk.baka.webvm.analyzer.utils.TCPIPServer;
 public class Main {
     public static void main(String[] args) throws Exception {
         final SamplerConfig cfg = new SamplerConfig(20, 1000, 0);
-        final IHistorySampler hs = new HistorySampler(cfg, IHistorySampler.HISTORY_PROBLEMS, null, null);
+        final HistorySampler hs = new HistorySampler(cfg, IHistorySampler.HISTORY_PROBLEMS, null, null);
+        final String historyFile = System.getProperty("webmon.history.file");
+        if (historyFile != null) {
+            hs.setHistoryFile(new File(historyFile), Integer.getInteger("webmon.history.fileSamples", new Config().historyFileSamples));
+        }
         hs.start();
         final TCPIPServer webmonServer = new TCPIPServer(5455, 5456, hs);
+        LocalJvms jvms = null;
+        if (Boolean.getBoolean("webmon.jvms")) {
+            jvms = new LocalJvms(cfg);
+            jvms.start();
+            webmonServer.setLocalJvms(jvms);
+        }
+        StackProfiler profiler = null;
+        final int profilerHz = Integer.getInteger("webmon.profiler.hz", 0);
+        if (profilerHz > 0) {
+            final Config config = new Config();
+            profiler = new StackProfiler(profilerHz, config.profilerMaxNodes, config.profilerMaxDepth);
+            profiler.start();
+            webmonServer.setProfiler(profiler);
+        }
         webmonServer.start();
         System.out.println("========================================================");
         System.out.println("Webmon is running:");
         System.out.println("  * Point your browser to http://localhost:5456 to obtain a dump");
         System.out.println("  * nc localhost 5455   to gain access to a simple console");
+        if (jvms != null) {
+            System.out.println("  * Point your browser to http://localhost:5456/jvm to list the local JVMs");
+        }
+        if (profiler != null) {
+            System.out.println("  * Point your browser to http://localhost:5456/profile to obtain the collapsed stacks for a flame graph");
+            System.out.println("    (curl -X POST http://localhost:5456/profile   obtains them and starts over)");
+        }
         System.out.println("========================================================");
         System.out.println("Press Enter to terminate");
         System.in.read();
         webmonServer.stop();
+        if (jvms != null) {
+            jvms.stop();
+        }
+        if (profiler != null) {
+            profiler.stop();
+        }
         hs.stop();
     }
 }
@@ -22,6 +22,10 @@ import org.jetbrains.annotations.NotNull;
 import sk.baka.webvm.analyzer.config.Config;
 import sk.baka.webvm.analyzer.hostos.IMemoryInfoProvider;
 import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.metrics.BufferPoolSource;
+import sk.baka.webvm.analyzer.metrics.GcRateSource;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
 import sk.baka.webvm.analyzer.utils.Constants;
 import sk.baka.webvm.analyzer.utils.MemoryUsage2;
 import sk.baka.webvm.analyzer.utils.MemoryUsages;
@@ -46,6 +50,34 @@ public class ProblemAnalyzer implements IProblemAnalyzer {
     public ProblemAnalyzer(Config cfg, IMemoryInfoProvider meminfo) {
         this.config = cfg;
         this.meminfo = meminfo;
+        gcCpuStats = newRollingStats(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), cfg.gcCpuTreshold);
+        cpuStats = newRollingStats(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), cfg.cpuTreshold);
+    }
+
+    private static RollingStats newRollingStats(int windowLength, int threshold) {
+        return new RollingStats(windowLength, HistorySampler.HISTORY_VMSTAT.getHistorySampleDelayMs(), threshold);
+    }
+    /**
+     * The {@link #CLASS_GC_CPU_USAGE} rule state over the vmstat history, fed by {@link #sample(sk.baka.webvm.analyzer.HistorySample.Builder)}.
+     */
+    private final RollingStats gcCpuStats;
+    /**
+     * The {@link #CLASS_CPU_USAGE} rule state over the vmstat history, fed by {@link #sample(sk.baka.webvm.analyzer.HistorySample.Builder)}.
+     */
+    private final RollingStats cpuStats;
+    private boolean gcCpuTriggered = false;
+    private boolean cpuTriggered = false;
+
+    @Override
+    public synchronized boolean sample(HistorySample.Builder sample) {
+        gcCpuStats.add(sample.sampleTime, sample.gcCpuUsage);
+        cpuStats.add(sample.sampleTime, sample.cpuUsage.cpuMaxCoreUsage);
+        final boolean gcCpu = getStats(gcCpuStats, config.gcCpuTreshold, config.gcCpuTresholdSamples).isThresholdTriggered();
+        final boolean cpu = getStats(cpuStats, config.cpuTreshold, config.cpuTresholdSamples).isThresholdTriggered();
+        final boolean changed = gcCpu != gcCpuTriggered || cpu != cpuTriggered;
+        gcCpuTriggered = gcCpu;
+        cpuTriggered = cpu;
+        return changed;
     }
     
     private static final Logger LOG = Logger.getLogger(ProblemAnalyzer.class.getName());
@@ -167,6 +199,35 @@ public class ProblemAnalyzer implements IProblemAnalyzer {
         return "Triggered when host uses " + config.hostVirtMem + "% or more virtual memory";
     }
 
+    /**
+     * The "Promotion rate" problem class.
+     */
+    public static final String CLASS_PROMOTION_RATE = "Promotion rate";
+
+    private String getPromotionRateDesc() {
+        return "Triggered when objects are promoted into the old generation so fast that it fills up (and a full GC becomes inevitable) in less than "
+                + config.promotionFullGcMinutes + " minutes";
+    }
+
+    /**
+     * The "Direct memory" problem class.
+     */
+    public static final String CLASS_DIRECT_MEMORY = "Direct memory";
+
+    private String getDirectMemoryDesc() {
+        return "Triggered when the memory used by direct NIO buffers keeps growing and grew by "
+                + config.directMemGrowthTreshold + "% or more of MaxDirectMemorySize during the history";
+    }
+
+    /**
+     * The "Code cache" problem class.
+     */
+    public static final String CLASS_CODE_CACHE = "Code cache";
+
+    private String getCodeCacheDesc() {
+        return "Triggered when the code cache is " + config.codeCacheTreshold + "% or more full. The JIT compiler stops compiling once the code cache is full";
+    }
+
     /**
      * Diagnose the VM and returns a list of problem reports.
      * @param history current history.
@@ -174,18 +235,261 @@ public class ProblemAnalyzer implements IProblemAnalyzer {
      */
     @Override
     public List<ProblemReport> getProblems(final List<HistorySample> history) {
+        return getProblems(history, null, null, null);
+    }
+
+    @Override
+    public List<ProblemReport> getProblems(final List<HistorySample> history, MetricHistory.View metrics, SamplerOverhead overhead, SamplerOverhead.Stopwatch stopwatch) {
+        return getProblems(toRollingStats(history, GC_CPU_USAGE, config.gcCpuTreshold), toRollingStats(history, CPU_USAGE, config.cpuTreshold), metrics, overhead, stopwatch);
+    }
+
+    @Override
+    public synchronized List<ProblemReport> getProblems(MetricHistory.View metrics, SamplerOverhead overhead, SamplerOverhead.Stopwatch stopwatch) {
+        return getProblems(gcCpuStats, cpuStats, metrics, overhead, stopwatch);
+    }
+
+    private List<ProblemReport> getProblems(RollingStats gcCpu, RollingStats cpu, MetricHistory.View metrics, SamplerOverhead overhead, SamplerOverhead.Stopwatch stopwatch) {
+        final Stages stages = stopwatch == null ? Stages.NONE : getStages(overhead, metrics != null);
         final List<ProblemReport> result = new ArrayList<ProblemReport>();
         result.add(getDeadlockReport());
-        result.add(getGCCPUUsageReport(history));
-        result.add(getCPUUsageReport(history));
+        lap(stopwatch, stages.deadlocks);
+        result.add(getGCCPUUsageReport(gcCpu));
+        lap(stopwatch, stages.gcCpu);
+        result.add(getCPUUsageReport(cpu));
+        lap(stopwatch, stages.cpu);
         result.add(getMemStatReport());
+        lap(stopwatch, stages.memory);
         result.add(getGCMemUsageReport());
+        lap(stopwatch, stages.gcMemory);
         result.add(getFreeDiskspaceReport());
+        lap(stopwatch, stages.diskSpace);
         result.add(getHostVirtMemReport());
+        lap(stopwatch, stages.hostMemory);
+        result.add(getCodeCacheReport(Memory.getCodeCacheSummary()));
+        lap(stopwatch, stages.codeCache);
+        if (metrics != null) {
+            result.add(getPromotionRateReport(metrics));
+            lap(stopwatch, stages.promotionRate);
+            result.add(getDirectMemoryReport(metrics));
+            lap(stopwatch, stages.directMemory);
+            result.addAll(getMetricReports(metrics));
+            lap(stopwatch, stages.metrics);
+        }
+        return result;
+    }
+
+    private static void lap(SamplerOverhead.Stopwatch stopwatch, SamplerOverhead.Stage stage) {
+        if (stopwatch != null) {
+            stopwatch.lap(stage);
+        }
+    }
+
+    /**
+     * The overhead stages of the most recent {@link SamplerOverhead}; the problem sampler always passes the same instance so the
+     * stages are looked up just once.
+     */
+    private volatile Stages stages;
+
+    private Stages getStages(SamplerOverhead overhead, boolean withMetrics) {
+        Stages result = stages;
+        if (result == null || result.overhead != overhead || (withMetrics && result.metrics == null)) {
+            result = new Stages(overhead, withMetrics);
+            stages = result;
+        }
         return result;
     }
+
+    /**
+     * The overhead stages of all problem rules, in the order they are evaluated. The metric rule stages are only created when
+     * there is a metric history, so that they are not reported needlessly.
+     */
+    private static final class Stages {
+
+        /**
+         * No stages, used when the overhead is not measured.
+         */
+        static final Stages NONE = new Stages(null, false);
+        final SamplerOverhead overhead;
+        final SamplerOverhead.Stage deadlocks;
+        final SamplerOverhead.Stage gcCpu;
+        final SamplerOverhead.Stage cpu;
+        final SamplerOverhead.Stage memory;
+        final SamplerOverhead.Stage gcMemory;
+        final SamplerOverhead.Stage diskSpace;
+        final SamplerOverhead.Stage hostMemory;
+        final SamplerOverhead.Stage codeCache;
+        final SamplerOverhead.Stage promotionRate;
+        final SamplerOverhead.Stage directMemory;
+        final SamplerOverhead.Stage metrics;
+
+        Stages(SamplerOverhead overhead, boolean withMetrics) {
+            this.overhead = overhead;
+            if (overhead == null) {
+                deadlocks = gcCpu = cpu = memory = gcMemory = diskSpace = hostMemory = codeCache = promotionRate = directMemory = metrics = null;
+                return;
+            }
+            deadlocks = overhead.getStage("problems: " + CLASS_DEADLOCKED_THREADS);
+            gcCpu = overhead.getStage("problems: " + CLASS_GC_CPU_USAGE);
+            cpu = overhead.getStage("problems: " + CLASS_CPU_USAGE);
+            memory = overhead.getStage("problems: " + CLASS_MEMORY_USAGE);
+            gcMemory = overhead.getStage("problems: " + CLASS_GC_MEMORY_CLEANUP);
+            diskSpace = overhead.getStage("problems: " + CLASS_FREE_DISK_SPACE);
+            hostMemory = overhead.getStage("problems: " + CLASS_HOST_MEMORY_USAGE);
+            codeCache = overhead.getStage("problems: " + CLASS_CODE_CACHE);
+            promotionRate = withMetrics ? overhead.getStage("problems: " + CLASS_PROMOTION_RATE) : null;
+            directMemory = withMetrics ? overhead.getStage("problems: " + CLASS_DIRECT_MEMORY) : null;
+            metrics = withMetrics ? overhead.getStage("problems: metrics") : null;
+        }
+    }
     private static final Logger log = Logger.getLogger(ProblemAnalyzer.class.getName());
     private final IMemoryInfoProvider meminfo;
+    /**
+     * Prepares a report for every pluggable metric which has a {@link Metric#problemThreshold}. The problem class is the
+     * metric display name.
+     * @param metrics the metric history, not null.
+     * @return the reports, never null.
+     */
+    public static List<ProblemReport> getMetricReports(@NotNull MetricHistory.View metrics) {
+        final List<ProblemReport> result = new ArrayList<ProblemReport>();
+        for (int i = 0; i < metrics.getMetrics().size(); i++) {
+            final Metric metric = metrics.getMetrics().get(i);
+            if (!metric.hasThreshold()) {
+                continue;
+            }
+            final String desc = "Triggered when " + metric.displayName + " reaches " + metric.problemThreshold + " " + metric.unit;
+            final long value = metrics.getNewest(i);
+            if (value < 0) {
+                result.add(new ProblemReport(false, metric.displayName, "INFO: Not available", desc));
+            } else {
+                result.add(new ProblemReport(value >= metric.problemThreshold, metric.displayName, metric.displayName + ": " + value + " " + metric.unit, desc));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prepares the {@link #CLASS_PROMOTION_RATE} report, from the {@link GcRateSource#PROMOTION_RATE} history and the current
+     * free space of the old generation.
+     * @param metrics the metric history, not null.
+     * @return report
+     */
+    public ProblemReport getPromotionRateReport(@NotNull MetricHistory.View metrics) {
+        long freeKb = -1;
+        for (final MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+            final MemoryUsage usage = bean.isValid() && GcEvents.isOldPool(bean.getName()) ? bean.getUsage() : null;
+            if (usage != null && usage.getMax() > 0) {
+                freeKb = Math.max(0, usage.getMax() - usage.getUsed()) / Constants.KIBIBYTES;
+                break;
+            }
+        }
+        return getPromotionRateReport(metrics, freeKb);
+    }
+
+    /**
+     * Prepares the {@link #CLASS_PROMOTION_RATE} report.
+     * @param metrics the metric history, not null.
+     * @param freeKb free space in the old generation in kilobytes, -1 if not known.
+     * @return report
+     */
+    ProblemReport getPromotionRateReport(@NotNull MetricHistory.View metrics, long freeKb) {
+        final int metric = metrics.indexOf(GcRateSource.PROMOTION_RATE);
+        if (metric < 0 || freeKb < 0) {
+            return new ProblemReport(false, CLASS_PROMOTION_RATE, "INFO: Promotion rate unavailable", getPromotionRateDesc());
+        }
+        // average the rate over the whole history, weighted by the sample spacing
+        long promotedKbMillis = 0;
+        long millis = 0;
+        for (int i = 1; i < metrics.size(); i++) {
+            final long rate = metrics.get(metric, i);
+            if (rate < 0) {
+                continue;
+            }
+            final long delta = metrics.getSampleTime(i) - metrics.getSampleTime(i - 1);
+            promotedKbMillis += rate * delta;
+            millis += delta;
+        }
+        if (millis <= 0) {
+            return new ProblemReport(false, CLASS_PROMOTION_RATE, "INFO: Promotion rate unavailable", getPromotionRateDesc());
+        }
+        final long rateKb = promotedKbMillis / millis;
+        if (rateKb <= 0) {
+            return new ProblemReport(false, CLASS_PROMOTION_RATE, "No promotion into the old generation (" + freeKb + "KB free)", getPromotionRateDesc());
+        }
+        final long minutes = freeKb / rateKb / Constants.SECONDS_IN_MINUTE;
+        final boolean isProblem = config.promotionFullGcMinutes > 0 && minutes < config.promotionFullGcMinutes;
+        return new ProblemReport(isProblem, CLASS_PROMOTION_RATE, "Avg. promotion rate " + rateKb + "KB/s, " + freeKb
+                + "KB free in the old generation: full GC expected in " + minutes + " minutes", getPromotionRateDesc());
+    }
+
+    /**
+     * Prepares the {@link #CLASS_DIRECT_MEMORY} report, from the history of the direct buffer pool usage.
+     * @param metrics the metric history, not null.
+     * @return report
+     */
+    public ProblemReport getDirectMemoryReport(@NotNull MetricHistory.View metrics) {
+        final long max = Memory.getMaxDirectMemory();
+        return getDirectMemoryReport(metrics, max < 0 ? -1 : max / Constants.KIBIBYTES);
+    }
+
+    /**
+     * Prepares the {@link #CLASS_DIRECT_MEMORY} report.
+     * @param metrics the metric history, not null.
+     * @param maxKb the direct memory limit in kilobytes, -1 if not known.
+     * @return report
+     */
+    ProblemReport getDirectMemoryReport(@NotNull MetricHistory.View metrics, long maxKb) {
+        final int metric = metrics.indexOf(BufferPoolSource.getUsedMetric("direct"));
+        if (metric < 0 || maxKb <= 0) {
+            return new ProblemReport(false, CLASS_DIRECT_MEMORY, "INFO: Direct buffer pool unavailable", getDirectMemoryDesc());
+        }
+        int oldest = -1;
+        long peak = -1;
+        for (int i = 0; i < metrics.size(); i++) {
+            final long used = metrics.get(metric, i);
+            if (used < 0) {
+                continue;
+            }
+            if (oldest < 0) {
+                oldest = i;
+            }
+            peak = Math.max(peak, used);
+        }
+        final long newest = metrics.getNewest(metric);
+        if (oldest < 0 || newest < 0) {
+            return new ProblemReport(false, CLASS_DIRECT_MEMORY, "INFO: Direct buffer pool unavailable", getDirectMemoryDesc());
+        }
+        final long growth = newest - metrics.get(metric, oldest);
+        final long growthPerc = growth * Constants.HUNDRED_PERCENT / maxKb;
+        // growth which was released in the meantime is not sustained
+        final boolean isProblem = config.directMemGrowthTreshold > 0 && newest >= peak && growthPerc >= config.directMemGrowthTreshold;
+        final long seconds = (metrics.getSampleTime(metrics.size() - 1) - metrics.getSampleTime(oldest)) / Constants.MILLIS_IN_SECOND;
+        return new ProblemReport(isProblem, CLASS_DIRECT_MEMORY, "Direct buffers use " + newest + "KB of " + maxKb + "KB ("
+                + (newest * Constants.HUNDRED_PERCENT / maxKb) + "%), grew by " + growth + "KB (" + growthPerc + "% of the limit) in the last "
+                + seconds + " seconds", getDirectMemoryDesc());
+    }
+
+    /**
+     * Prepares the {@link #CLASS_CODE_CACHE} report.
+     * @param codeCache the {@link Memory#getCodeCacheSummary() code cache usage}, may be null.
+     * @return report
+     */
+    ProblemReport getCodeCacheReport(MemoryUsage2 codeCache) {
+        if (codeCache == null || codeCache.getMax() <= 0) {
+            return new ProblemReport(false, CLASS_CODE_CACHE, "INFO: Code cache usage unavailable", getCodeCacheDesc());
+        }
+        final long used = codeCache.getUsed() * Constants.HUNDRED_PERCENT / codeCache.getMax();
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Code cache: ").append(MemoryUsages.toString(codeCache, false));
+        final CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+        if (compilation != null && compilation.isCompilationTimeMonitoringSupported()) {
+            sb.append("; JIT compilation took ").append(compilation.getTotalCompilationTime()).append(" ms");
+        }
+        if (used >= config.codeCacheTreshold) {
+            sb.append("\nIncrease the code cache with -XX:ReservedCodeCacheSize");
+        }
+        return new ProblemReport(used >= config.codeCacheTreshold, CLASS_CODE_CACHE, sb.toString(), getCodeCacheDesc());
+    }
+
     /**
      * Prepares the {@link #CLASS_HOST_MEMORY_USAGE} report.
      * @return report
@@ -242,12 +546,11 @@ public class ProblemAnalyzer implements IProblemAnalyzer {
      * @return report
      */
     public ProblemReport getGCCPUUsageReport(final List<HistorySample> history) {
-        final Stats stats = getStats(history, new IntFunction() {
-            @Override
-            public int get(@NotNull HistorySample sample) {
-                return sample.gcCpuUsage;
-            }
-        }, config.gcCpuTreshold, config.gcCpuTresholdSamples);
+        return getGCCPUUsageReport(toRollingStats(history, GC_CPU_USAGE, config.gcCpuTreshold));
+    }
+
+    private ProblemReport getGCCPUUsageReport(RollingStats rollingStats) {
+        final Stats stats = getStats(rollingStats, config.gcCpuTreshold, config.gcCpuTresholdSamples);
         if (stats.isThresholdTriggered()) {
             return new ProblemReport(true, CLASS_GC_CPU_USAGE, "GC spent more than " + config.gcCpuTreshold + "% (avg. "
                     + stats.thresholdValueAvg + "%) of CPU for " + stats.thresholdViolationSeconds + " seconds",
@@ -264,12 +567,11 @@ public class ProblemAnalyzer implements IProblemAnalyzer {
      * @return report
      */
     public ProblemReport getCPUUsageReport(final List<HistorySample> history) {
-        final Stats stats = getStats(history, new IntFunction() {
-            @Override
-            public int get(@NotNull HistorySample sample) {
-                return sample.cpuUsage.cpuMaxCoreUsage;
-            }
-        }, config.cpuTreshold, config.cpuTresholdSamples);
+        return getCPUUsageReport(toRollingStats(history, CPU_USAGE, config.cpuTreshold));
+    }
+
+    private ProblemReport getCPUUsageReport(RollingStats rollingStats) {
+        final Stats stats = getStats(rollingStats, config.cpuTreshold, config.cpuTresholdSamples);
         if (stats.isThresholdTriggered()) {
             return new ProblemReport(true, CLASS_CPU_USAGE, "A CPU core spent more than " + config.cpuTreshold + "% (avg. "
                     + stats.thresholdValueAvg + "%) of CPU for " + stats.thresholdViolationSeconds + " seconds",
@@ -310,44 +612,55 @@ public class ProblemAnalyzer implements IProblemAnalyzer {
     private static interface IntFunction {
         int get(@NotNull HistorySample sample);
     }
+    private static final IntFunction GC_CPU_USAGE = new IntFunction() {
+        @Override
+        public int get(@NotNull HistorySample sample) {
+            return sample.gcCpuUsage;
+        }
+    };
+    private static final IntFunction CPU_USAGE = new IntFunction() {
+        @Override
+        public int get(@NotNull HistorySample sample) {
+            return sample.cpuUsage.cpuMaxCoreUsage;
+        }
+    };
 
     /**
-     * Spocita statistiku hodnoty
+     * Nahra celu historiu do novej {@link RollingStats}, pre analyzu historie ktora nebola priebezne vzorkovana cez
+     * {@link #sample(sk.baka.webvm.analyzer.HistorySample.Builder)}.
      * @param history historia, not null
      * @param f funkcia ktora vracia z history sample hodnotu, ktoru analyzujeme.
-     * @param thresholdValue ak je thresholdSamples poslednych hodnot viac alebo rovnych thresholdValue, problem.
-     * @param thresholdSamples ak je thresholdSamples poslednych hodnot viac alebo rovnych thresholdValue, problem.
+     * @param thresholdValue prah hodnoty.
+     * @return rolling stats covering the whole history, not null.
+     */
+    @NotNull
+    private static RollingStats toRollingStats(final List<HistorySample> history, @NotNull final IntFunction f, int thresholdValue) {
+        final RollingStats result = newRollingStats(Math.max(1, history.size()), thresholdValue);
+        for (HistorySample sample : history) {
+            result.add(sample.sampleTime, f.get(sample));
+        }
+        return result;
+    }
+
+    /**
+     * Spocita statistiku hodnoty. Dlzka trvania sa pocita z casov vzoriek, takze funguje aj s adaptivnym vzorkovanim; priemery
+     * su vazene dlzkou intervalu. Bezi v konstantnom case, ak sa prah nezmenil.
+     * @param stats priebezna statistika hodnoty, not null
+     * @param thresholdValue ak su posledne hodnoty za thresholdSamples sekund viac alebo rovne thresholdValue, problem.
+     * @param thresholdSamples ak su posledne hodnoty za thresholdSamples sekund viac alebo rovne thresholdValue, problem.
      * @return stats, not null.
      */
     @NotNull
-    private static Stats getStats(final List<HistorySample> history, @NotNull final IntFunction f, int thresholdValue, int thresholdSamples) {
-        if (history.isEmpty()) {
+    private static Stats getStats(@NotNull final RollingStats stats, int thresholdValue, int thresholdSamples) {
+        if (stats.size() == 0) {
             return Stats.ZERO;
         }
-        int total = 0;
-        int currentTresholdViolationCount = 0;
-        int currentTresholdViolationSum = 0;
-        for (int i = 0; i < history.size(); i++) {
-            final int val = f.get(history.get(i));
-            total += val;
-            if (val >= thresholdValue) {
-                currentTresholdViolationCount++;
-                currentTresholdViolationSum += val;
-            } else {
-                currentTresholdViolationCount = 0;
-                currentTresholdViolationSum = 0;
-            }
-        }
-        if (currentTresholdViolationCount < thresholdSamples) {
-            currentTresholdViolationCount = 0;
-            currentTresholdViolationSum = 0;
-        }
-        final int historyLengthInSeconds = history.size() * HistorySampler.HISTORY_VMSTAT.getHistorySampleDelayMs() / Constants.MILLIS_IN_SECOND;
-        final int thresholdViolationSeconds = currentTresholdViolationCount * HistorySampler.HISTORY_VMSTAT.getHistorySampleDelayMs() / Constants.MILLIS_IN_SECOND;
-        return new Stats(historyLengthInSeconds,
-                total / history.size(),
-                thresholdViolationSeconds,
-                currentTresholdViolationCount > 0 ? currentTresholdViolationSum / currentTresholdViolationCount : 0);
+        stats.setThreshold(thresholdValue);
+        final boolean violated = stats.getStreakMillis() >= thresholdSamples * stats.nominalIntervalMillis;
+        return new Stats((int) (stats.getTotalMillis() / Constants.MILLIS_IN_SECOND),
+                stats.getAvg(),
+                violated ? (int) (stats.getStreakMillis() / Constants.MILLIS_IN_SECOND) : 0,
+                violated ? stats.getStreakAvg() : 0);
     }
 
     /**
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+/**
+ * Rolling statistics of an integer value over the last {@link #windowLength} samples, maintained incrementally: both
+ * {@link #add(long, int)} and the getters run in constant time. Tracks the time-weighted average and the threshold streak - the
+ * newest run of samples whose value is equal to or greater than the threshold. Each sample covers the interval since the
+ * previous sample, so that the statistics are correct with adaptive sampling; the oldest sample of the window covers
+ * {@link #nominalIntervalMillis}.
+ * <p></p>
+ * Changing the threshold rescans the window. Not thread-safe.
+ * @author Martin Vysny
+ */
+public final class RollingStats {
+
+    /**
+     * Maximum number of samples in the window.
+     */
+    public final int windowLength;
+    /**
+     * The interval covered by the oldest sample and by samples not newer than the previous one, in milliseconds.
+     */
+    public final long nominalIntervalMillis;
+    private final int[] values;
+    private final long[] intervals;
+    /**
+     * Index of the oldest sample.
+     */
+    private int head = 0;
+    private int size = 0;
+    private long lastTime = 0;
+    private long total = 0;
+    private long totalMillis = 0;
+    private int threshold;
+    /**
+     * Number of the newest samples which reached the threshold.
+     */
+    private int streakLength = 0;
+    private long streakTotal = 0;
+    private long streakMillis = 0;
+
+    /**
+     * Creates empty statistics.
+     * @param windowLength maximum number of samples in the window, at least 1.
+     * @param nominalIntervalMillis the nominal sampling interval, at least 1.
+     * @param threshold the initial threshold.
+     */
+    public RollingStats(int windowLength, long nominalIntervalMillis, int threshold) {
+        if (windowLength < 1) {
+            throw new IllegalArgumentException("Parameter windowLength: invalid value " + windowLength + ": must be 1 or greater");
+        }
+        if (nominalIntervalMillis < 1) {
+            throw new IllegalArgumentException("Parameter nominalIntervalMillis: invalid value " + nominalIntervalMillis + ": must be 1 or greater");
+        }
+        this.windowLength = windowLength;
+        this.nominalIntervalMillis = nominalIntervalMillis;
+        this.threshold = threshold;
+        values = new int[windowLength];
+        intervals = new long[windowLength];
+    }
+
+    /**
+     * Adds a sample, evicting the oldest one if the window is full.
+     * @param sampleTime the sample time, in millis since epoch.
+     * @param value the sampled value.
+     */
+    public void add(long sampleTime, int value) {
+        if (size == windowLength) {
+            evictOldest();
+        }
+        long interval = sampleTime - lastTime;
+        if (size == 0 || interval <= 0) {
+            interval = nominalIntervalMillis;
+        }
+        lastTime = sampleTime;
+        final int index = (head + size) % windowLength;
+        values[index] = value;
+        intervals[index] = interval;
+        size++;
+        total += value * interval;
+        totalMillis += interval;
+        if (value >= threshold) {
+            streakLength++;
+            streakTotal += value * interval;
+            streakMillis += interval;
+        } else {
+            resetStreak();
+        }
+    }
+
+    private void evictOldest() {
+        final long weighted = values[head] * intervals[head];
+        total -= weighted;
+        totalMillis -= intervals[head];
+        if (streakLength == size) {
+            streakLength--;
+            streakTotal -= weighted;
+            streakMillis -= intervals[head];
+        }
+        head = (head + 1) % windowLength;
+        size--;
+        if (size > 0) {
+            // the new oldest sample covers the nominal interval
+            final long delta = nominalIntervalMillis - intervals[head];
+            total += values[head] * delta;
+            totalMillis += delta;
+            if (streakLength == size) {
+                streakTotal += values[head] * delta;
+                streakMillis += delta;
+            }
+            intervals[head] = nominalIntervalMillis;
+        }
+    }
+
+    private void resetStreak() {
+        streakLength = 0;
+        streakTotal = 0;
+        streakMillis = 0;
+    }
+
+    /**
+     * Sets the threshold, rescanning the window if it differs from the current one.
+     * @param threshold the new threshold.
+     */
+    public void setThreshold(int threshold) {
+        if (this.threshold == threshold) {
+            return;
+        }
+        this.threshold = threshold;
+        resetStreak();
+        for (int i = 0; i < size; i++) {
+            final int index = (head + i) % windowLength;
+            if (values[index] >= threshold) {
+                streakLength++;
+                streakTotal += values[index] * intervals[index];
+                streakMillis += intervals[index];
+            } else {
+                resetStreak();
+            }
+        }
+    }
+
+    /**
+     * Returns the current threshold.
+     * @return the threshold.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the number of samples in the window.
+     * @return the size, 0..{@link #windowLength}.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time covered by the window.
+     * @return the covered time, in milliseconds.
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Returns the time-weighted average of the window.
+     * @return the average, 0 if the window is empty.
+     */
+    public int getAvg() {
+        return totalMillis == 0 ? 0 : (int) (total / totalMillis);
+    }
+
+    /**
+     * Returns the time covered by the threshold streak.
+     * @return the time the value has been equal to or greater than the threshold, in milliseconds. 0 if the newest sample is below the threshold.
+     */
+    public long getStreakMillis() {
+        return streakMillis;
+    }
+
+    /**
+     * Returns the time-weighted average of the threshold streak.
+     * @return the average, 0 if there is no streak.
+     */
+    public int getStreakAvg() {
+        return streakMillis == 0 ? 0 : (int) (streakTotal / streakMillis);
+    }
+}
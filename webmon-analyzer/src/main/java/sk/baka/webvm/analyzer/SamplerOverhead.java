@@ -0,0 +1,328 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.utils.Checks;
+import sk.baka.webvm.analyzer.utils.LatencyHistogram;
+
+/**
+ * Measures the cost of the sampler itself: wall time and allocated bytes of every sampling stage. Durations are kept in
+ * {@link LatencyHistogram}s with microsecond resolution, both for the lifetime of the sampler and for the last completed
+ * {@link #rotateWindow() window}.
+ * <p></p>
+ * Thread-safe. A {@link Stopwatch} is owned by a single thread.
+ * @author Martin Vysny
+ */
+public final class SamplerOverhead {
+
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+    private final long createdAt = System.currentTimeMillis();
+
+    /**
+     * Returns the stage with given name, creating it if it does not exist yet. Stages are reported in the order of creation.
+     * @param name the stage name, not null.
+     * @return the stage, never null.
+     */
+    @NotNull
+    public synchronized Stage getStage(@NotNull String name) {
+        return getStage(name, false);
+    }
+
+    /**
+     * Returns the summary stage with given name, creating it if it does not exist yet. A summary stage measures a whole
+     * sampler tick, see {@link Stopwatch#finish(sk.baka.webvm.analyzer.SamplerOverhead.Stage)}; it is not counted by
+     * {@link Report#getTotalNanos()}.
+     * @param name the stage name, not null.
+     * @return the stage, never null.
+     */
+    @NotNull
+    public synchronized Stage getSummaryStage(@NotNull String name) {
+        return getStage(name, true);
+    }
+
+    private Stage getStage(String name, boolean summary) {
+        Checks.checkNotNull("name", name);
+        Stage result = stages.get(name);
+        if (result == null) {
+            result = new Stage(name, summary);
+            stages.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Closes the current window of every stage: the durations recorded since the previous call become the window statistics.
+     */
+    public void rotateWindow() {
+        final List<Stage> copy;
+        synchronized (this) {
+            copy = new ArrayList<Stage>(stages.values());
+        }
+        for (Stage stage : copy) {
+            stage.rotateWindow();
+        }
+    }
+
+    /**
+     * Creates a new stopwatch, to be used by the calling thread only.
+     * @return the stopwatch, never null.
+     */
+    @NotNull
+    public Stopwatch newStopwatch() {
+        return new Stopwatch();
+    }
+
+    /**
+     * Returns an immutable snapshot of all stages.
+     * @return the report, never null.
+     */
+    @NotNull
+    public Report getReport() {
+        final List<Stage> copy;
+        synchronized (this) {
+            copy = new ArrayList<Stage>(stages.values());
+        }
+        final List<StageStats> result = new ArrayList<StageStats>(copy.size());
+        for (Stage stage : copy) {
+            result.add(stage.getStats());
+        }
+        return new Report(System.currentTimeMillis() - createdAt, Collections.unmodifiableList(result));
+    }
+
+    /**
+     * Accumulates measurements of a single stage.
+     */
+    public static final class Stage {
+
+        public final String name;
+        public final boolean summary;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long allocatedBytes = 0;
+        /**
+         * Durations, in microseconds.
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private LatencyHistogram.Snapshot window = LatencyHistogram.Snapshot.EMPTY;
+
+        private Stage(String name, boolean summary) {
+            this.name = name;
+            this.summary = summary;
+        }
+
+        /**
+         * Records a single execution of the stage. Does not allocate.
+         * @param nanos the duration, in nanoseconds.
+         * @param bytes bytes allocated by the stage, negative if not known.
+         */
+        public synchronized void record(long nanos, long bytes) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (bytes < 0 || allocatedBytes < 0) {
+                allocatedBytes = -1;
+            } else {
+                allocatedBytes += bytes;
+            }
+            latency.record(nanos / 1000);
+        }
+
+        private synchronized void rotateWindow() {
+            window = latency.getIntervalSnapshot();
+        }
+
+        private synchronized StageStats getStats() {
+            return new StageStats(name, summary, count, totalNanos, maxNanos, allocatedBytes, latency.getSnapshot(), window);
+        }
+    }
+
+    /**
+     * Measures consecutive stages. Not thread-safe: every sampler thread needs its own stopwatch.
+     */
+    public static final class Stopwatch {
+
+        private long startNanos;
+        private long startBytes;
+        private long tickStartNanos;
+        private long tickStartBytes;
+        /**
+         * Bytes allocated by reading the allocated bytes counter itself.
+         */
+        private final long readCost;
+        private final long threadId = Thread.currentThread().getId();
+
+        private Stopwatch() {
+            final long first = ThreadMap.getAllocatedBytes(threadId);
+            final long second = ThreadMap.getAllocatedBytes(threadId);
+            readCost = first < 0 ? 0 : second - first;
+        }
+
+        /**
+         * Starts measuring the first stage.
+         */
+        public void start() {
+            startBytes = ThreadMap.getAllocatedBytes(threadId);
+            startNanos = System.nanoTime();
+            tickStartBytes = startBytes;
+            tickStartNanos = startNanos;
+        }
+
+        /**
+         * Records the time and allocations since the last {@link #start()} into given summary stage.
+         * @param stage the summary stage, not null.
+         */
+        public void finish(@NotNull Stage stage) {
+            final long now = System.nanoTime();
+            final long bytes = ThreadMap.getAllocatedBytes(threadId);
+            stage.record(now - tickStartNanos, bytes < 0 || tickStartBytes < 0 ? -1 : Math.max(0, bytes - tickStartBytes - readCost));
+        }
+
+        /**
+         * Records the time and allocations since the last {@link #start()} or {@link #lap(sk.baka.webvm.analyzer.SamplerOverhead.Stage)}
+         * into given stage, and starts measuring the next stage.
+         * @param stage the stage which has just finished, not null.
+         */
+        public void lap(@NotNull Stage stage) {
+            final long now = System.nanoTime();
+            final long bytes = ThreadMap.getAllocatedBytes(threadId);
+            stage.record(now - startNanos, bytes < 0 || startBytes < 0 ? -1 : Math.max(0, bytes - startBytes - readCost));
+            startBytes = ThreadMap.getAllocatedBytes(threadId);
+            startNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Immutable statistics of a single stage.
+     */
+    public static final class StageStats implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        public final String name;
+        /**
+         * True if this is a summary stage, measuring a whole sampler tick.
+         */
+        public final boolean summary;
+        /**
+         * Number of executions.
+         */
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        /**
+         * Total bytes allocated by the stage, -1 if not known.
+         */
+        public final long allocatedBytes;
+        /**
+         * All durations, in microseconds.
+         */
+        public final LatencyHistogram.Snapshot latency;
+        /**
+         * Durations in the last completed window, in microseconds.
+         */
+        public final LatencyHistogram.Snapshot window;
+
+        private StageStats(String name, boolean summary, long count, long totalNanos, long maxNanos, long allocatedBytes, LatencyHistogram.Snapshot latency, LatencyHistogram.Snapshot window) {
+            this.name = name;
+            this.summary = summary;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.latency = latency;
+            this.window = window;
+        }
+
+        /**
+         * Returns the average duration.
+         * @return the duration in nanoseconds, 0 if the stage never ran.
+         */
+        public long getAvgNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Returns the average bytes allocated per execution.
+         * @return the bytes, -1 if not known.
+         */
+        public long getAvgAllocatedBytes() {
+            return allocatedBytes < 0 ? -1 : (count == 0 ? 0 : allocatedBytes / count);
+        }
+    }
+
+    /**
+     * An immutable snapshot of all stages.
+     */
+    public static final class Report implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * Time since the measurement started.
+         */
+        public final long elapsedMillis;
+        /**
+         * The stages, in the order they were created.
+         */
+        public final List<StageStats> stages;
+
+        private Report(long elapsedMillis, List<StageStats> stages) {
+            this.elapsedMillis = elapsedMillis;
+            this.stages = stages;
+        }
+
+        /**
+         * Returns the total time spent in all stages, not counting the summary stages.
+         * @return the time, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            long result = 0;
+            for (StageStats stage : stages) {
+                if (!stage.summary) {
+                    result += stage.totalNanos;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the time spent per second of wall time.
+         * @param nanos the total time, in nanoseconds.
+         * @return microseconds per second.
+         */
+        public long getMicrosPerSecond(long nanos) {
+            return elapsedMillis <= 0 ? 0 : nanos / elapsedMillis;
+        }
+
+        /**
+         * Returns the allocation rate of given stage.
+         * @param bytes the total bytes allocated.
+         * @return kilobytes per second of wall time.
+         */
+        public long getAllocatedKbPerSecond(long bytes) {
+            return elapsedMillis <= 0 ? 0 : bytes * 1000 / 1024 / elapsedMillis;
+        }
+    }
+}
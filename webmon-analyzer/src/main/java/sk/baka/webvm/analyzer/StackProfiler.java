@@ -0,0 +1,173 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.lang.management.ThreadInfo;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.utils.BackgroundService;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * An always-on sampling profiler: periodically samples the stacks of {@link Thread.State#RUNNABLE} threads and folds them into
+ * a {@link CallTree} with a fixed memory cap. Thread states are read first without stacks, so that the stacks are walked for the
+ * runnable threads only. Note that threads blocked in native I/O are reported as runnable by the JVM.
+ * <p></p>
+ * Samples are taken at safepoints, so the profile is biased towards safepoint polls; it is good enough to find hot code paths
+ * in production where a native profiler cannot be attached. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class StackProfiler extends BackgroundService {
+
+    private static final Logger log = Logger.getLogger(StackProfiler.class.getName());
+    private volatile int hz;
+    private volatile int maxDepth;
+    private volatile CallTree tree;
+    private volatile long samplingNanos = 0;
+    private volatile long ticks = 0;
+
+    /**
+     * Creates new profiler.
+     * @param hz number of samples per second, 0 to disable the profiler.
+     * @param maxNodes maximum number of call tree nodes, at least 2.
+     * @param maxDepth maximum number of top-most frames sampled, at least 1.
+     */
+    public StackProfiler(int hz, int maxNodes, int maxDepth) {
+        super("Profiler", 1);
+        if (hz < 0) {
+            throw new IllegalArgumentException("Parameter hz: invalid value " + hz + ": must be 0 or greater");
+        }
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Parameter maxDepth: invalid value " + maxDepth + ": must be 1 or greater");
+        }
+        this.hz = hz;
+        this.maxDepth = maxDepth;
+        this.tree = new CallTree(maxNodes);
+    }
+
+    /**
+     * Creates a profiler as configured.
+     * @param config the config, not null.
+     */
+    public StackProfiler(@NotNull Config config) {
+        this(config.profilerHz, config.profilerMaxNodes, config.profilerMaxDepth);
+    }
+
+    /**
+     * Applies the new configuration. The sampling rate takes effect after the profiler is restarted; a new node cap clears the
+     * call tree.
+     * @param config the new config, not null.
+     */
+    public void configChanged(@NotNull Config config) {
+        Checks.checkNotNull("config", config);
+        hz = config.profilerHz;
+        maxDepth = config.profilerMaxDepth;
+        if (tree.maxNodes != config.profilerMaxNodes) {
+            tree = new CallTree(config.profilerMaxNodes);
+        }
+    }
+
+    /**
+     * Checks whether the profiler samples the stacks when started.
+     * @return true if the sampling rate is greater than zero.
+     */
+    public boolean isEnabled() {
+        return hz > 0;
+    }
+
+    /**
+     * Returns the sampling rate.
+     * @return number of samples per second, 0 if disabled.
+     */
+    public int getHz() {
+        return hz;
+    }
+
+    @Override
+    protected void started(ScheduledExecutorService executor) {
+        if (hz <= 0) {
+            return;
+        }
+        executor.scheduleAtFixedRate(new Runnable() {
+
+            public void run() {
+                try {
+                    sample();
+                } catch (Throwable t) {
+                    log.log(Level.SEVERE, "Failed to sample thread stacks", t);
+                }
+            }
+        }, 0, TimeUnit.SECONDS.toMicros(1) / hz, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    protected void stopped() {
+    }
+
+    /**
+     * Samples the stacks of all runnable threads except the current one.
+     */
+    void sample() {
+        final long start = System.nanoTime();
+        final long[] ids = ThreadMap.BEAN.getAllThreadIds();
+        final ThreadInfo[] infos = ThreadMap.BEAN.getThreadInfo(ids);
+        final long self = Thread.currentThread().getId();
+        final long[] runnable = new long[ids.length];
+        int count = 0;
+        for (ThreadInfo info : infos) {
+            if (info != null && info.getThreadState() == Thread.State.RUNNABLE && info.getThreadId() != self) {
+                runnable[count++] = info.getThreadId();
+            }
+        }
+        if (count > 0) {
+            final CallTree t = tree;
+            for (ThreadInfo info : ThreadMap.BEAN.getThreadInfo(Arrays.copyOf(runnable, count), maxDepth)) {
+                // the thread may have blocked meanwhile
+                if (info != null && info.getThreadState() == Thread.State.RUNNABLE) {
+                    t.add(info.getStackTrace());
+                }
+            }
+        }
+        samplingNanos += System.nanoTime() - start;
+        ticks++;
+    }
+
+    /**
+     * Returns the call tree the samples are folded into.
+     * @return the call tree, never null.
+     */
+    @NotNull
+    public CallTree getCallTree() {
+        return tree;
+    }
+
+    /**
+     * Returns the average cost of a single sampling tick.
+     * @return the average tick duration in microseconds, 0 if nothing was sampled yet.
+     */
+    public long getAvgTickMicros() {
+        final long t = ticks;
+        return t == 0 ? 0 : samplingNanos / t / 1000;
+    }
+}
@@ -0,0 +1,477 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.utils.LongIntMap;
+
+/**
+ * The per-thread state and CPU usage matrix, maintained incrementally as thread snapshots arrive. Every thread seen during the
+ * last {@link #historyLength} snapshots owns a row of primitive rings; a snapshot only writes one column of every row.
+ * <p></p>
+ * Thread-safe: {@link #add(sk.baka.webvm.analyzer.ThreadMap)} is expected to be called by the sampler thread, {@link #getTable()}
+ * from any thread.
+ * @author Martin Vysny
+ */
+public final class ThreadHistory {
+
+    /**
+     * Marks an unknown CPU usage, blocked or waited percentage.
+     */
+    public static final byte CPU_UNKNOWN = -1;
+    private static final Thread.State[] STATES = Thread.State.values();
+    /**
+     * Maximum number of snapshots to keep.
+     */
+    public final int historyLength;
+    private final LongIntMap rowIndex = new LongIntMap(64);
+    private long[] threadIds = new long[0];
+    private String[] names = new String[0];
+    /**
+     * Thread state ordinal plus one; 0 if the thread was not present in the snapshot.
+     */
+    private byte[][] states = new byte[0][];
+    /**
+     * CPU usage in percent, {@link #CPU_UNKNOWN} if not known.
+     */
+    private byte[][] cpu = new byte[0][];
+    private long[] cpuTimeNanos = new long[0];
+    /**
+     * Percentage of time the thread spent blocked, {@link #CPU_UNKNOWN} if not known.
+     */
+    private byte[][] blocked = new byte[0][];
+    /**
+     * Percentage of time the thread spent waiting or timed-waiting, {@link #CPU_UNKNOWN} if not known.
+     */
+    private byte[][] waited = new byte[0][];
+    /**
+     * The last known total blocked/waited times and counts, see {@link ThreadMap#getBlockedTimeMillis(int)} etc.
+     */
+    private long[] blockedTimeMillis = new long[0];
+    private long[] blockedCount = new long[0];
+    private long[] waitedTimeMillis = new long[0];
+    private long[] waitedCount = new long[0];
+    /**
+     * Time of the snapshot the blocked/waited totals were last known in, -1 if never.
+     */
+    private long[] contentionAt = new long[0];
+    /**
+     * Number of blocks/waits since the previous measurement, -1 if not measured in the newest snapshot.
+     */
+    private long[] blocks = new long[0];
+    private long[] waits = new long[0];
+    private long[] allocatedBytes = new long[0];
+    /**
+     * Bytes allocated per second since the previous snapshot, -1 if not known.
+     */
+    private long[] allocationRate = new long[0];
+    /**
+     * Index of the snapshot the thread was last seen in, -1 if the row is free.
+     */
+    private long[] lastSeen = new long[0];
+    /**
+     * Number of threads per state ordinal and snapshot; -1 if the snapshot was not available.
+     */
+    private final int[][] stateCounts;
+    private int rows = 0;
+    private long written = 0;
+    private long lastTakenAt;
+
+    /**
+     * Creates new history.
+     * @param historyLength maximum number of snapshots to keep, at least 1.
+     */
+    public ThreadHistory(int historyLength) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("Parameter historyLength: invalid value " + historyLength + ": must be 1 or greater");
+        }
+        this.historyLength = historyLength;
+        stateCounts = new int[STATES.length][historyLength];
+    }
+
+    /**
+     * Computes the thread history from given samples. Samples without threads are recorded as empty snapshots.
+     * @param samples the samples, oldest first.
+     * @return the history, never null.
+     */
+    @NotNull
+    public static ThreadHistory of(@NotNull List<HistorySample> samples) {
+        final ThreadHistory result = new ThreadHistory(Math.max(1, samples.size()));
+        for (HistorySample sample : samples) {
+            result.add(sample.threads);
+        }
+        return result;
+    }
+
+    /**
+     * Records a thread snapshot. Allocates only when a new thread appears.
+     * @param snapshot the snapshot, null if not available.
+     */
+    public synchronized void add(@Nullable ThreadMap snapshot) {
+        final int column = (int) (written % historyLength);
+        final long deltaMillis = snapshot == null || written == 0 ? 0 : snapshot.takenAt - lastTakenAt;
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                final long threadId = snapshot.getThreadId(i);
+                final long cpuTime = snapshot.getCpuTimeNanos(i);
+                final long allocated = snapshot.getAllocatedBytes(i);
+                int row = rowIndex.get(threadId, -1);
+                final boolean wasPresent = row >= 0 && lastSeen[row] == written - 1;
+                if (row < 0) {
+                    row = allocateRow(threadId);
+                }
+                states[row][column] = (byte) (snapshot.getState(i).ordinal() + 1);
+                byte usage = CPU_UNKNOWN;
+                if (wasPresent && deltaMillis > 0 && cpuTime >= 0 && cpuTimeNanos[row] >= 0) {
+                    usage = (byte) Math.max(0, Math.min(Byte.MAX_VALUE, ((cpuTime - cpuTimeNanos[row]) / 10000L) / deltaMillis));
+                }
+                cpu[row][column] = usage;
+                cpuTimeNanos[row] = cpuTime;
+                allocationRate[row] = -1;
+                if (wasPresent && deltaMillis > 0 && allocated >= 0 && allocatedBytes[row] >= 0) {
+                    allocationRate[row] = Math.max(0, allocated - allocatedBytes[row]) * 1000 / deltaMillis;
+                }
+                allocatedBytes[row] = allocated;
+                addContention(snapshot, i, row, column);
+                names[row] = snapshot.getName(i);
+                lastSeen[row] = written;
+            }
+            lastTakenAt = snapshot.takenAt;
+        }
+        for (int state = 0; state < STATES.length; state++) {
+            stateCounts[state][column] = snapshot == null ? -1 : snapshot.getStateCount(STATES[state]);
+        }
+        for (int row = 0; row < rows; row++) {
+            if (lastSeen[row] < 0 || lastSeen[row] == written) {
+                continue;
+            }
+            if (lastSeen[row] <= written - historyLength) {
+                // the thread is dead for the whole history
+                rowIndex.remove(threadIds[row]);
+                lastSeen[row] = -1;
+                names[row] = null;
+                continue;
+            }
+            states[row][column] = 0;
+            cpu[row][column] = CPU_UNKNOWN;
+            blocked[row][column] = CPU_UNKNOWN;
+            waited[row][column] = CPU_UNKNOWN;
+        }
+        written++;
+    }
+
+    /**
+     * Records the blocked and waited times of a thread. The thread info may not be read in every snapshot (see
+     * {@link ThreadSampler}); the percentages are then computed over the whole time since the last measurement.
+     */
+    private void addContention(ThreadMap snapshot, int index, int row, int column) {
+        blocked[row][column] = CPU_UNKNOWN;
+        waited[row][column] = CPU_UNKNOWN;
+        blocks[row] = -1;
+        waits[row] = -1;
+        if (snapshot.getWaitedCount(index) < 0) {
+            // not measured in this snapshot
+            return;
+        }
+        final long span = snapshot.takenAt - contentionAt[row];
+        if (contentionAt[row] >= 0 && span > 0) {
+            blocked[row][column] = getPercentage(snapshot.getBlockedTimeMillis(index), blockedTimeMillis[row], span);
+            waited[row][column] = getPercentage(snapshot.getWaitedTimeMillis(index), waitedTimeMillis[row], span);
+            blocks[row] = Math.max(0, snapshot.getBlockedCount(index) - blockedCount[row]);
+            waits[row] = Math.max(0, snapshot.getWaitedCount(index) - waitedCount[row]);
+        }
+        blockedTimeMillis[row] = snapshot.getBlockedTimeMillis(index);
+        blockedCount[row] = snapshot.getBlockedCount(index);
+        waitedTimeMillis[row] = snapshot.getWaitedTimeMillis(index);
+        waitedCount[row] = snapshot.getWaitedCount(index);
+        contentionAt[row] = snapshot.takenAt;
+    }
+
+    private static byte getPercentage(long millis, long previousMillis, long spanMillis) {
+        if (millis < 0 || previousMillis < 0) {
+            return CPU_UNKNOWN;
+        }
+        return (byte) Math.max(0, Math.min(100, (millis - previousMillis) * 100 / spanMillis));
+    }
+
+    private int allocateRow(long threadId) {
+        int row = 0;
+        while (row < rows && lastSeen[row] >= 0) {
+            row++;
+        }
+        if (row == rows) {
+            if (rows == threadIds.length) {
+                final int capacity = Math.max(16, rows * 2);
+                threadIds = Arrays.copyOf(threadIds, capacity);
+                names = Arrays.copyOf(names, capacity);
+                states = Arrays.copyOf(states, capacity);
+                cpu = Arrays.copyOf(cpu, capacity);
+                cpuTimeNanos = Arrays.copyOf(cpuTimeNanos, capacity);
+                blocked = Arrays.copyOf(blocked, capacity);
+                waited = Arrays.copyOf(waited, capacity);
+                blockedTimeMillis = Arrays.copyOf(blockedTimeMillis, capacity);
+                blockedCount = Arrays.copyOf(blockedCount, capacity);
+                waitedTimeMillis = Arrays.copyOf(waitedTimeMillis, capacity);
+                waitedCount = Arrays.copyOf(waitedCount, capacity);
+                contentionAt = Arrays.copyOf(contentionAt, capacity);
+                blocks = Arrays.copyOf(blocks, capacity);
+                waits = Arrays.copyOf(waits, capacity);
+                allocatedBytes = Arrays.copyOf(allocatedBytes, capacity);
+                allocationRate = Arrays.copyOf(allocationRate, capacity);
+                lastSeen = Arrays.copyOf(lastSeen, capacity);
+            }
+            states[row] = new byte[historyLength];
+            cpu[row] = new byte[historyLength];
+            blocked[row] = new byte[historyLength];
+            waited[row] = new byte[historyLength];
+            rows++;
+        } else {
+            Arrays.fill(states[row], (byte) 0);
+        }
+        Arrays.fill(cpu[row], CPU_UNKNOWN);
+        Arrays.fill(blocked[row], CPU_UNKNOWN);
+        Arrays.fill(waited[row], CPU_UNKNOWN);
+        contentionAt[row] = -1;
+        threadIds[row] = threadId;
+        rowIndex.put(threadId, row);
+        return row;
+    }
+
+    /**
+     * Returns an immutable snapshot of the matrix, with rows sorted by the thread ID.
+     * @return the table, never null.
+     */
+    @NotNull
+    public synchronized Table getTable() {
+        final int columns = (int) Math.min(written, historyLength);
+        final int start = (int) (written % historyLength);
+        final List<Row> result = new ArrayList<Row>(rowIndex.size());
+        for (int row = 0; row < rows; row++) {
+            if (lastSeen[row] < 0) {
+                continue;
+            }
+            final boolean alive = lastSeen[row] == written - 1;
+            result.add(new Row(threadIds[row], names[row], unroll(states[row], start, columns), unroll(cpu[row], start, columns),
+                    unroll(blocked[row], start, columns), unroll(waited[row], start, columns), alive ? allocationRate[row] : -1,
+                    alive ? blocks[row] : -1, alive ? waits[row] : -1));
+        }
+        Collections.sort(result, BY_ID);
+        final int[][] counts = new int[STATES.length][];
+        for (int state = 0; state < STATES.length; state++) {
+            counts[state] = unroll(stateCounts[state], start, columns);
+        }
+        return new Table(columns, Collections.unmodifiableList(result), counts);
+    }
+
+    private int[] unroll(int[] ring, int start, int columns) {
+        final int[] result = new int[columns];
+        if (columns < historyLength) {
+            System.arraycopy(ring, 0, result, 0, columns);
+        } else {
+            System.arraycopy(ring, start, result, 0, historyLength - start);
+            System.arraycopy(ring, 0, result, historyLength - start, start);
+        }
+        return result;
+    }
+
+    private byte[] unroll(byte[] ring, int start, int columns) {
+        final byte[] result = new byte[columns];
+        if (columns < historyLength) {
+            System.arraycopy(ring, 0, result, 0, columns);
+        } else {
+            System.arraycopy(ring, start, result, 0, historyLength - start);
+            System.arraycopy(ring, 0, result, historyLength - start, start);
+        }
+        return result;
+    }
+    private static final Comparator<Row> BY_ID = new Comparator<Row>() {
+
+        public int compare(Row o1, Row o2) {
+            return o1.threadId < o2.threadId ? -1 : (o1.threadId == o2.threadId ? 0 : 1);
+        }
+    };
+
+    /**
+     * An immutable snapshot of the thread matrix.
+     */
+    public static final class Table implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Number of snapshots, i.e. the length of every row.
+         */
+        public final int columns;
+        /**
+         * The threads, sorted by the thread ID.
+         */
+        public final List<Row> rows;
+        private final int[][] stateCounts;
+
+        private Table(int columns, List<Row> rows, int[][] stateCounts) {
+            this.columns = columns;
+            this.rows = rows;
+            this.stateCounts = stateCounts;
+        }
+
+        /**
+         * Returns the number of threads in given state.
+         * @param state the thread state, not null.
+         * @param index the snapshot index, 0 is the oldest one.
+         * @return the number of threads, -1 if the snapshot was not available.
+         */
+        public int getStateCount(@NotNull Thread.State state, int index) {
+            return stateCounts[state.ordinal()][index];
+        }
+    }
+
+    /**
+     * History of a single thread, oldest snapshot first.
+     */
+    public static final class Row implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final long threadId;
+        /**
+         * The most recent thread name.
+         */
+        public final String name;
+        /**
+         * Bytes allocated per second by the thread between the two newest snapshots, -1 if not known or the thread is dead.
+         */
+        public final long allocationRate;
+        /**
+         * Number of times the thread blocked on entering a monitor between the two newest measurements, -1 if not known or the
+         * thread is dead.
+         */
+        public final long blockedCount;
+        /**
+         * Number of times the thread waited between the two newest measurements, -1 if not known or the thread is dead.
+         */
+        public final long waitedCount;
+        private final byte[] states;
+        private final byte[] cpu;
+        private final byte[] blocked;
+        private final byte[] waited;
+
+        private Row(long threadId, String name, byte[] states, byte[] cpu, byte[] blocked, byte[] waited, long allocationRate,
+                long blockedCount, long waitedCount) {
+            this.threadId = threadId;
+            this.name = name;
+            this.states = states;
+            this.cpu = cpu;
+            this.blocked = blocked;
+            this.waited = waited;
+            this.allocationRate = allocationRate;
+            this.blockedCount = blockedCount;
+            this.waitedCount = waitedCount;
+        }
+
+        /**
+         * Returns the number of snapshots.
+         * @return the number of snapshots, equal to {@link Table#columns}.
+         */
+        public int size() {
+            return states.length;
+        }
+
+        /**
+         * Returns the thread state in given snapshot.
+         * @param index the snapshot index, 0 is the oldest one.
+         * @return the state, null if the thread was not present in the snapshot.
+         */
+        @Nullable
+        public Thread.State getState(int index) {
+            final int state = states[index];
+            return state == 0 ? null : STATES[state - 1];
+        }
+
+        /**
+         * Returns the thread state in the newest snapshot.
+         * @return the state, null if the thread is dead.
+         */
+        @Nullable
+        public Thread.State getNewestState() {
+            return states.length == 0 ? null : getState(states.length - 1);
+        }
+
+        /**
+         * Returns the CPU usage of the thread since the previous snapshot.
+         * @param index the snapshot index, 0 is the oldest one.
+         * @return the CPU usage in percent, {@link ThreadHistory#CPU_UNKNOWN} if not known.
+         */
+        public int getCpuUsage(int index) {
+            return cpu[index];
+        }
+
+        /**
+         * Returns the percentage of time the thread spent blocked on entering a monitor, since the previous snapshot.
+         * @param index the snapshot index, 0 is the oldest one.
+         * @return the percentage, {@link ThreadHistory#CPU_UNKNOWN} if not known.
+         */
+        public int getBlockedPercent(int index) {
+            return blocked[index];
+        }
+
+        /**
+         * Returns the percentage of time the thread spent waiting or timed-waiting, since the previous snapshot.
+         * @param index the snapshot index, 0 is the oldest one.
+         * @return the percentage, {@link ThreadHistory#CPU_UNKNOWN} if not known.
+         */
+        public int getWaitedPercent(int index) {
+            return waited[index];
+        }
+
+        /**
+         * Returns the average percentage of time the thread spent blocked, over the whole history.
+         * @return the percentage, {@link ThreadHistory#CPU_UNKNOWN} if not known.
+         */
+        public int getAvgBlockedPercent() {
+            return average(blocked);
+        }
+
+        /**
+         * Returns the average percentage of time the thread spent waiting or timed-waiting, over the whole history.
+         * @return the percentage, {@link ThreadHistory#CPU_UNKNOWN} if not known.
+         */
+        public int getAvgWaitedPercent() {
+            return average(waited);
+        }
+
+        private static int average(byte[] percentages) {
+            int sum = 0;
+            int count = 0;
+            for (byte percentage : percentages) {
+                if (percentage != CPU_UNKNOWN) {
+                    sum += percentage;
+                    count++;
+                }
+            }
+            return count == 0 ? CPU_UNKNOWN : sum / count;
+        }
+    }
+}
@@ -3,15 +3,14 @@ package sk.baka.webvm.analyzer;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import sk.baka.webvm.analyzer.utils.StringDictionary;
 
 /**
- * A snapshot of thread state. Immutable, thread-safe.
+ * A snapshot of thread state, stored as compact primitive columns. Immutable, thread-safe.
  * @author Martin Vysny
  */
 public final class ThreadMap {
@@ -31,124 +30,374 @@ public final class ThreadMap {
                 }
             }
         }
+        if (BEAN.isThreadContentionMonitoringSupported()) {
+            if (!BEAN.isThreadContentionMonitoringEnabled()) {
+                BEAN.setThreadContentionMonitoringEnabled(true);
+            }
+        } else {
+            log.info("ThreadMXBean claims thread contention monitoring is not supported, blocked and waited times are not measured");
+        }
+        Method allocatedBytes = null;
+        Method threadAllocatedBytes = null;
+        try {
+            final Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+            if (clazz.isInstance(BEAN) && (Boolean) clazz.getMethod("isThreadAllocatedMemorySupported").invoke(BEAN)) {
+                clazz.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(BEAN, true);
+                allocatedBytes = clazz.getMethod("getThreadAllocatedBytes", long[].class);
+                threadAllocatedBytes = clazz.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (Exception ex) {
+            log.log(Level.INFO, "Thread allocation measurement unavailable", ex);
+        }
+        GET_THREAD_ALLOCATED_BYTES = allocatedBytes;
+        GET_SINGLE_THREAD_ALLOCATED_BYTES = threadAllocatedBytes;
     }
+    private static final Method GET_THREAD_ALLOCATED_BYTES;
+    private static final Method GET_SINGLE_THREAD_ALLOCATED_BYTES;
 
-    public static final class Item {
-
-        public final long threadId;
-        public final ThreadInfo info;
-        /**
-         * Total CPU time eaten by a thread, in nanoseconds. -1 if the
-         * measurement is not supported.
-         */
-        public final long totalCpuTimeNanos;
-        /**
-         * CPU usage in percent since last measure. null if not known.
-         */
-        public final Integer lastCpuUsagePerc;
-
-        public Item(long threadId, ThreadInfo info, long totalCpuTimeNanos, Integer lastCpuUsagePerc) {
-            this.threadId = threadId;
-            this.info = info;
-            this.totalCpuTimeNanos = totalCpuTimeNanos;
-            this.lastCpuUsagePerc = lastCpuUsagePerc;
+    /**
+     * Reads the number of bytes allocated by given thread.
+     * @param threadId the thread ID.
+     * @return the allocated bytes, -1 if the thread is dead or the measurement is not supported.
+     */
+    static long getAllocatedBytes(long threadId) {
+        if (GET_SINGLE_THREAD_ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) GET_SINGLE_THREAD_ALLOCATED_BYTES.invoke(BEAN, threadId);
+        } catch (Exception ex) {
+            log.log(Level.FINE, "Failed to read thread allocated bytes", ex);
+            return -1;
         }
+    }
 
-        public Item setLastCpuUsagePerc(int lastCpuUsagePerc) {
-            return new Item(threadId, info, totalCpuTimeNanos, lastCpuUsagePerc);
+    /**
+     * Reads the number of bytes allocated by given threads, using a single batched call.
+     * @param ids the thread IDs.
+     * @return the allocated bytes, -1 for a dead thread; null if the measurement is not supported.
+     */
+    static long[] getAllocatedBytes(long[] ids) {
+        if (GET_THREAD_ALLOCATED_BYTES == null) {
+            return null;
+        }
+        try {
+            return (long[]) GET_THREAD_ALLOCATED_BYTES.invoke(BEAN, ids);
+        } catch (Exception ex) {
+            log.log(Level.FINE, "Failed to read thread allocated bytes", ex);
+            return null;
         }
     }
-    private final CopyOnWriteArrayList<Item> items = new CopyOnWriteArrayList<ThreadMap.Item>();
+
+    /**
+     * Thread names of all snapshots share this dictionary. A new dictionary is started once it grows over
+     * {@link #MAX_DICTIONARY_SIZE}, so that names of long-dead threads do not leak; older snapshots keep the old one.
+     */
+    private static volatile StringDictionary dictionary = new StringDictionary();
+    private static final int MAX_DICTIONARY_SIZE = 16384;
+    /**
+     * Thread IDs, sorted ascending.
+     */
+    private final long[] threadIds;
+    private final byte[] states;
+    /**
+     * True if the thread was executing native code, see {@link ThreadInfo#isInNative()}.
+     */
+    private final boolean[] inNative;
+    /**
+     * Total CPU time eaten by a thread, in nanoseconds. -1 if the measurement is not supported.
+     */
+    private final long[] cpuTimeNanos;
+    /**
+     * Total number of bytes allocated by a thread. -1 if the measurement is not supported.
+     */
+    private final long[] allocatedBytes;
+    /**
+     * Total time a thread spent in the {@link Thread.State#BLOCKED} state, in milliseconds. -1 if not measured.
+     */
+    private final long[] blockedTimeMillis;
+    /**
+     * Total number of times a thread blocked to enter a monitor. -1 if not measured.
+     */
+    private final long[] blockedCount;
+    /**
+     * Total time a thread spent in the {@link Thread.State#WAITING} or {@link Thread.State#TIMED_WAITING} state, in
+     * milliseconds. -1 if not measured.
+     */
+    private final long[] waitedTimeMillis;
+    /**
+     * Total number of times a thread waited for a notification. -1 if not measured.
+     */
+    private final long[] waitedCount;
+    private final int[] nameIndices;
+    private final StringDictionary names;
     public final int threadCount;
     public final int daemonThreadCount;
     public final long takenAt;
+    private static final Thread.State[] STATES = Thread.State.values();
 
+    /**
+     * Takes a snapshot of all threads, using one {@link ThreadInfo} and one CPU time call per thread. See {@link ThreadSampler}
+     * for a cheaper way on JVMs with many threads.
+     * @return the snapshot, never null.
+     */
     public static ThreadMap takeSnapshot() {
-        return new ThreadMap();
+        final long takenAt = System.currentTimeMillis();
+        final long[] ids = BEAN.getAllThreadIds();
+        // ThreadInfos are returned in the order of the IDs
+        Arrays.sort(ids);
+        final ThreadInfo[] threadInfos = BEAN.getThreadInfo(ids);
+        final long[] allocated = getAllocatedBytes(ids);
+        final int daemonThreadCount = BEAN.getDaemonThreadCount();
+        final StringDictionary dict = getDictionary();
+        int count = 0;
+        for (ThreadInfo info : threadInfos) {
+            if (info != null) {
+                count++;
+            }
+        }
+        final long[] threadIds = new long[count];
+        final byte[] states = new byte[count];
+        final boolean[] inNative = new boolean[count];
+        final long[] cpuTimeNanos = new long[count];
+        final long[] allocatedBytes = new long[count];
+        final long[] blockedTimeMillis = new long[count];
+        final long[] blockedCount = new long[count];
+        final long[] waitedTimeMillis = new long[count];
+        final long[] waitedCount = new long[count];
+        final int[] nameIndices = new int[count];
+        int index = 0;
+        for (int i = 0; i < threadInfos.length; i++) {
+            final ThreadInfo info = threadInfos[i];
+            if (info == null) {
+                continue;
+            }
+            threadIds[index] = info.getThreadId();
+            states[index] = (byte) info.getThreadState().ordinal();
+            inNative[index] = info.isInNative();
+            cpuTimeNanos[index] = BEAN.getThreadCpuTime(info.getThreadId());
+            allocatedBytes[index] = allocated == null ? -1 : allocated[i];
+            blockedTimeMillis[index] = info.getBlockedTime();
+            blockedCount[index] = info.getBlockedCount();
+            waitedTimeMillis[index] = info.getWaitedTime();
+            waitedCount[index] = info.getWaitedCount();
+            nameIndices[index] = dict.intern(info.getThreadName());
+            index++;
+        }
+        return new ThreadMap(takenAt, threadIds, states, inNative, cpuTimeNanos, allocatedBytes, blockedTimeMillis, blockedCount,
+                waitedTimeMillis, waitedCount, nameIndices, dict, threadInfos.length, daemonThreadCount);
     }
 
-    public long[] getThreadIDs() {
-        final long[] result = new long[items.size()];
-        int index = 0;
-        for (Item item : items) {
-            result[index++] = item.threadId;
+    /**
+     * Returns the dictionary new snapshots should intern the thread names into.
+     * @return the dictionary, never null.
+     */
+    static StringDictionary getDictionary() {
+        StringDictionary dict = dictionary;
+        if (dict.size() > MAX_DICTIONARY_SIZE) {
+            dict = new StringDictionary();
+            dictionary = dict;
         }
-        return result;
+        return dict;
+    }
+
+    /**
+     * Creates new snapshot. The arrays are not copied and must not be modified afterwards.
+     */
+    ThreadMap(long takenAt, long[] threadIds, byte[] states, boolean[] inNative, long[] cpuTimeNanos, long[] allocatedBytes,
+            long[] blockedTimeMillis, long[] blockedCount, long[] waitedTimeMillis, long[] waitedCount, int[] nameIndices,
+            StringDictionary names, int threadCount, int daemonThreadCount) {
+        this.takenAt = takenAt;
+        this.threadIds = threadIds;
+        this.states = states;
+        this.inNative = inNative;
+        this.cpuTimeNanos = cpuTimeNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.blockedTimeMillis = blockedTimeMillis;
+        this.blockedCount = blockedCount;
+        this.waitedTimeMillis = waitedTimeMillis;
+        this.waitedCount = waitedCount;
+        this.nameIndices = nameIndices;
+        this.names = names;
+        this.threadCount = threadCount;
+        this.daemonThreadCount = daemonThreadCount;
+    }
+
+    /**
+     * Returns the number of live threads in this snapshot.
+     * @return the number of threads.
+     */
+    public int size() {
+        return threadIds.length;
+    }
+
+    /**
+     * Returns the ID of given thread.
+     * @param index the thread index, 0..{@link #size()}-1. Threads are sorted by their ID.
+     * @return the thread ID.
+     */
+    public long getThreadId(int index) {
+        return threadIds[index];
+    }
+
+    /**
+     * Returns the state of given thread at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the thread state, never null. May be carried over from an earlier snapshot, see {@link #isStateFresh(int)}.
+     */
+    public Thread.State getState(int index) {
+        return STATES[states[index]];
     }
 
-    public Item get(long threadId) {
-        for (Item item : items) {
-            if (item.threadId == threadId) {
-                return item;
+    /**
+     * Checks whether given thread was executing native code at the time its state was read. The JVM reports e.g. a thread
+     * blocked in a socket read as {@link Thread.State#RUNNABLE} in native code.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return true if the thread was in native code.
+     */
+    public boolean isInNative(int index) {
+        return inNative[index];
+    }
+
+    /**
+     * Checks whether the thread info of given thread was read when this snapshot was taken. {@link ThreadSampler} carries the
+     * state of the threads it did not refresh over from an earlier tick; such threads report their blocked/waited counters as
+     * not measured.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return true if {@link #getState(int)} is current, false if it may be stale.
+     */
+    public boolean isStateFresh(int index) {
+        // ThreadInfo.getBlockedCount() is always measured, it is -1 only when the thread info was not read in this snapshot
+        return blockedCount[index] >= 0;
+    }
+
+    /**
+     * Returns the total CPU time eaten by given thread at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the CPU time in nanoseconds, -1 if the measurement is not supported.
+     */
+    public long getCpuTimeNanos(int index) {
+        return cpuTimeNanos[index];
+    }
+
+    /**
+     * Returns the total number of bytes allocated by given thread at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the allocated bytes, -1 if the measurement is not supported.
+     */
+    public long getAllocatedBytes(int index) {
+        return allocatedBytes[index];
+    }
+
+    /**
+     * Returns the total time given thread spent blocked on entering a monitor, at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the time in milliseconds, -1 if not measured.
+     */
+    public long getBlockedTimeMillis(int index) {
+        return blockedTimeMillis[index];
+    }
+
+    /**
+     * Returns the total number of times given thread blocked on entering a monitor, at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the number of times, -1 if not measured.
+     */
+    public long getBlockedCount(int index) {
+        return blockedCount[index];
+    }
+
+    /**
+     * Returns the total time given thread spent waiting or timed-waiting, at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the time in milliseconds, -1 if not measured.
+     */
+    public long getWaitedTimeMillis(int index) {
+        return waitedTimeMillis[index];
+    }
+
+    /**
+     * Returns the total number of times given thread waited or timed-waited, at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the number of times, -1 if not measured.
+     */
+    public long getWaitedCount(int index) {
+        return waitedCount[index];
+    }
+
+    /**
+     * Counts the threads in given state.
+     * @param state the state, not null.
+     * @return the number of threads of this snapshot in given state.
+     */
+    public int getStateCount(Thread.State state) {
+        final byte ordinal = (byte) state.ordinal();
+        int result = 0;
+        for (byte s : states) {
+            if (s == ordinal) {
+                result++;
             }
         }
-        return null;
+        return result;
     }
 
-    private ThreadMap() {
-        takenAt = System.currentTimeMillis();
-        final ThreadInfo[] threadInfos = BEAN.getThreadInfo(BEAN.getAllThreadIds());
-        daemonThreadCount = BEAN.getDaemonThreadCount();
-        final List<Item> items = new ArrayList<Item>(threadInfos.length);
-        for (ThreadInfo info : threadInfos) {
-            if (info == null) {
-                continue;
+    /**
+     * Computes the number of bytes allocated since given snapshot, by threads present in both snapshots. Threads which died
+     * or were started in between are not counted.
+     * @param previous the older snapshot, not null.
+     * @return the allocated bytes, -1 if the measurement is not supported.
+     */
+    public long getAllocatedBytesSince(ThreadMap previous) {
+        long result = -1;
+        int j = 0;
+        for (int i = 0; i < threadIds.length; i++) {
+            while (j < previous.threadIds.length && previous.threadIds[j] < threadIds[i]) {
+                j++;
             }
-            final long threadId = info.getThreadId();
-            items.add(new Item(threadId, info, BEAN.getThreadCpuTime(threadId), null));
-        }
-        this.items.addAll(items);
-        threadCount = threadInfos.length;
-    }
-
-    public static SortedMap<Long, List<Item>> historyToTable(List<HistorySample> samples) {
-        final SortedMap<Long, List<Item>> history = new TreeMap<Long, List<Item>>();
-        // compute the map
-        int i = 0;
-        for (final HistorySample sample : samples) {
-            for (Item info : sample.threads.items) {
-                if (info == null) {
-                    continue;
-                }
-                List<Item> list = history.get(info.threadId);
-                if (list == null) {
-                    list = new ArrayList<Item>(samples.size());
-                    history.put(info.threadId, list);
-                }
-                ensureSize(list, i);
-                final Item last = list.isEmpty() ? null : list.get(list.size() - 1);
-                if (last != null) {
-                    final long newLastMeasurementTimeMillis = sample.threads.takenAt;
-                    final long lastMeasurementTimeMillis = samples.get(i - 1).threads.takenAt;
-                    if (newLastMeasurementTimeMillis != lastMeasurementTimeMillis) {
-                        final long newTotalCpuTimeNanos = info.totalCpuTimeNanos;
-                        final long totalCpuTimeNanos = last.totalCpuTimeNanos;
-                        final int lastCpuUsagePerc = (int) (((newTotalCpuTimeNanos - totalCpuTimeNanos) / 10000L) / (newLastMeasurementTimeMillis - lastMeasurementTimeMillis));
-                        info = info.setLastCpuUsagePerc(lastCpuUsagePerc);
-                    }
-                }
-                list.add(info);
+            if (j == previous.threadIds.length) {
+                break;
             }
-            i++;
-        }
-        // align dead threads' list for a proper length.
-        for (final List<Item> infos : history.values()) {
-            ensureSize(infos, i);
+            if (previous.threadIds[j] != threadIds[i] || allocatedBytes[i] < 0 || previous.allocatedBytes[j] < 0) {
+                continue;
+            }
+            result = Math.max(result, 0) + Math.max(0, allocatedBytes[i] - previous.allocatedBytes[j]);
         }
-        return history;
+        return result;
     }
 
     /**
-     * Ensures that the given list is of given size, appending nulls as
-     * necessary.
-     *
-     * @param list the list to enlarge. Will be modified.
-     * @param size the desired size
-     * @return the list itself.
+     * Returns the name of given thread.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the thread name, never null.
      */
-    private static <T> void ensureSize(List<? super T> list, final int size) {
-        while (list.size() < size) {
-            list.add(null);
-        }
+    public String getName(int index) {
+        return names.get(nameIndices[index]);
+    }
+
+    /**
+     * Materializes the full, current thread info. The info is not retained in the snapshot; it reflects the state of the thread
+     * now, not at the time the snapshot was taken.
+     * @param index the thread index, 0..{@link #size()}-1.
+     * @return the thread info, null if the thread is no longer alive.
+     */
+    public ThreadInfo getThreadInfo(int index) {
+        return BEAN.getThreadInfo(threadIds[index]);
+    }
+
+    /**
+     * Returns a copy of all thread IDs.
+     * @return the thread IDs, sorted ascending.
+     */
+    public long[] getThreadIDs() {
+        return threadIds.clone();
+    }
+
+    /**
+     * Finds the thread with given ID.
+     * @param threadId the thread ID.
+     * @return the thread index, negative if the thread is not present in this snapshot.
+     */
+    public int indexOf(long threadId) {
+        return Arrays.binarySearch(threadIds, threadId);
     }
 }
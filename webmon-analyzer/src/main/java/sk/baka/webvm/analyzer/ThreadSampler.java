@@ -0,0 +1,289 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.utils.LongIntMap;
+import sk.baka.webvm.analyzer.utils.StringDictionary;
+import sk.baka.webvm.analyzer.utils.TopK;
+
+/**
+ * Takes thread snapshots cheaply on JVMs with thousands of threads. CPU times of all threads are read with a single
+ * batched call of com.sun.management.ThreadMXBean; {@link ThreadInfo}s (thread name and state) are read only every
+ * {@link #fullRefreshTicks} ticks for all threads, and in between only for new threads and for the top-K threads which consumed
+ * most CPU since the previous tick. States of the remaining threads may thus be up to {@link #fullRefreshTicks} ticks old; their
+ * blocked and waited times are reported as not measured in such ticks.
+ * <p></p>
+ * Falls back to {@link ThreadMap#takeSnapshot()} if the batched calls are not available. Not thread-safe - use from a single
+ * sampler thread.
+ * @author Martin Vysny
+ */
+public final class ThreadSampler {
+
+    private static final Logger LOG = Logger.getLogger(ThreadSampler.class.getName());
+    private static final Method GET_THREAD_CPU_TIME;
+
+    static {
+        Method cpuTime = null;
+        try {
+            final Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+            if (clazz.isInstance(ThreadMap.BEAN)) {
+                cpuTime = clazz.getMethod("getThreadCpuTime", long[].class);
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.INFO, "Batched thread CPU time measurement unavailable", ex);
+        }
+        GET_THREAD_CPU_TIME = cpuTime;
+    }
+
+    /**
+     * Checks whether the batched CPU time calls are available in this JVM.
+     * @return true if available.
+     */
+    public static boolean isBatchSupported() {
+        return GET_THREAD_CPU_TIME != null;
+    }
+    /**
+     * All threads are refreshed every this number of ticks.
+     */
+    public final int fullRefreshTicks;
+    /**
+     * Thread infos of this number of the busiest threads are refreshed every tick.
+     */
+    public final int topK;
+    private final TopK busiest;
+    private final LongIntMap slots = new LongIntMap(256);
+    private long[] slotThread = new long[0];
+    private String[] slotName = new String[0];
+    private byte[] slotState = new byte[0];
+    private boolean[] slotInNative = new boolean[0];
+    private long[] slotCpuTime = new long[0];
+    private long[] slotLastSeen = new long[0];
+    /**
+     * The tick the thread info was last read in.
+     */
+    private long[] slotInfoTick = new long[0];
+    private long[] slotBlockedTime = new long[0];
+    private long[] slotBlockedCount = new long[0];
+    private long[] slotWaitedTime = new long[0];
+    private long[] slotWaitedCount = new long[0];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[0];
+    private int freeSlotCount = 0;
+    private long tick = 0;
+    private long[] refresh = new long[0];
+
+    /**
+     * Creates new sampler.
+     * @param fullRefreshTicks all thread infos are refreshed every this number of ticks, 1 or greater.
+     * @param topK thread infos of this number of threads with the highest CPU usage are refreshed every tick.
+     */
+    public ThreadSampler(int fullRefreshTicks, int topK) {
+        if (fullRefreshTicks < 1) {
+            throw new IllegalArgumentException("Parameter fullRefreshTicks: invalid value " + fullRefreshTicks + ": must be 1 or greater");
+        }
+        this.fullRefreshTicks = fullRefreshTicks;
+        this.topK = topK;
+        this.busiest = new TopK(topK);
+    }
+
+    /**
+     * Creates a sampler as configured.
+     * @param config the config, not null.
+     * @return the sampler, null if the batched sampling is turned off.
+     */
+    @Nullable
+    public static ThreadSampler fromConfig(@NotNull Config config) {
+        return config.threadFullRefreshTicks > 0 ? new ThreadSampler(config.threadFullRefreshTicks, config.threadTopK) : null;
+    }
+
+    /**
+     * Takes a thread snapshot.
+     * @return the snapshot, never null.
+     */
+    @NotNull
+    public ThreadMap takeSnapshot() {
+        if (!isBatchSupported()) {
+            return ThreadMap.takeSnapshot();
+        }
+        final long takenAt = System.currentTimeMillis();
+        final long[] ids = ThreadMap.BEAN.getAllThreadIds();
+        Arrays.sort(ids);
+        final long[] cpuTimes;
+        try {
+            cpuTimes = (long[]) GET_THREAD_CPU_TIME.invoke(ThreadMap.BEAN, ids);
+        } catch (Exception ex) {
+            LOG.log(Level.INFO, "Batched thread CPU time measurement failed", ex);
+            return ThreadMap.takeSnapshot();
+        }
+        final long[] allocated = ThreadMap.getAllocatedBytes(ids);
+        final int daemonThreadCount = ThreadMap.BEAN.getDaemonThreadCount();
+        final boolean full = tick % fullRefreshTicks == 0;
+        final int[] threadSlots = new int[ids.length];
+        int refreshCount = 0;
+        busiest.clear();
+        for (int i = 0; i < ids.length; i++) {
+            int slot = slots.get(ids[i], -1);
+            if (slot < 0 || full) {
+                if (slot < 0) {
+                    slot = allocateSlot(ids[i]);
+                }
+                refreshCount = addRefresh(refreshCount, ids[i]);
+            } else if (cpuTimes[i] >= 0 && slotCpuTime[slot] >= 0) {
+                busiest.offer(cpuTimes[i] - slotCpuTime[slot], i);
+            }
+            threadSlots[i] = slot;
+            slotCpuTime[slot] = cpuTimes[i];
+            slotLastSeen[slot] = tick;
+        }
+        for (int i = 0; i < busiest.size(); i++) {
+            refreshCount = addRefresh(refreshCount, ids[busiest.getValue(i)]);
+        }
+        refreshThreadInfos(refreshCount);
+        final ThreadMap result = newSnapshot(takenAt, ids, threadSlots, cpuTimes, allocated, daemonThreadCount);
+        releaseDeadSlots();
+        tick++;
+        return result;
+    }
+
+    private int addRefresh(int refreshCount, long threadId) {
+        if (refreshCount == refresh.length) {
+            refresh = Arrays.copyOf(refresh, Math.max(16, refreshCount * 2));
+        }
+        refresh[refreshCount] = threadId;
+        return refreshCount + 1;
+    }
+
+    private void refreshThreadInfos(int refreshCount) {
+        if (refreshCount == 0) {
+            return;
+        }
+        final ThreadInfo[] infos = ThreadMap.BEAN.getThreadInfo(Arrays.copyOf(refresh, refreshCount));
+        for (int i = 0; i < refreshCount; i++) {
+            final int slot = slots.get(refresh[i], -1);
+            if (infos[i] == null) {
+                // the thread died meanwhile
+                slotState[slot] = (byte) Thread.State.TERMINATED.ordinal();
+            } else {
+                slotState[slot] = (byte) infos[i].getThreadState().ordinal();
+                slotInNative[slot] = infos[i].isInNative();
+                slotName[slot] = infos[i].getThreadName();
+                slotBlockedTime[slot] = infos[i].getBlockedTime();
+                slotBlockedCount[slot] = infos[i].getBlockedCount();
+                slotWaitedTime[slot] = infos[i].getWaitedTime();
+                slotWaitedCount[slot] = infos[i].getWaitedCount();
+                slotInfoTick[slot] = tick;
+            }
+        }
+    }
+
+    private ThreadMap newSnapshot(long takenAt, long[] ids, int[] threadSlots, long[] cpuTimes, long[] allocated, int daemonThreadCount) {
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (slotName[threadSlots[i]] != null) {
+                count++;
+            }
+        }
+        final StringDictionary dict = ThreadMap.getDictionary();
+        final long[] threadIds = new long[count];
+        final byte[] states = new byte[count];
+        final boolean[] inNative = new boolean[count];
+        final long[] cpu = new long[count];
+        final long[] alloc = new long[count];
+        final long[] blockedTime = new long[count];
+        final long[] blockedCount = new long[count];
+        final long[] waitedTime = new long[count];
+        final long[] waitedCount = new long[count];
+        final int[] names = new int[count];
+        int index = 0;
+        for (int i = 0; i < ids.length; i++) {
+            final int slot = threadSlots[i];
+            if (slotName[slot] == null) {
+                // the thread died before its name was read
+                continue;
+            }
+            threadIds[index] = ids[i];
+            states[index] = slotState[slot];
+            inNative[index] = slotInNative[slot];
+            cpu[index] = cpuTimes[i];
+            alloc[index] = allocated == null ? -1 : allocated[i];
+            final boolean refreshed = slotInfoTick[slot] == tick;
+            blockedTime[index] = refreshed ? slotBlockedTime[slot] : -1;
+            blockedCount[index] = refreshed ? slotBlockedCount[slot] : -1;
+            waitedTime[index] = refreshed ? slotWaitedTime[slot] : -1;
+            waitedCount[index] = refreshed ? slotWaitedCount[slot] : -1;
+            names[index] = dict.intern(slotName[slot]);
+            index++;
+        }
+        return new ThreadMap(takenAt, threadIds, states, inNative, cpu, alloc, blockedTime, blockedCount, waitedTime, waitedCount, names, dict,
+                ids.length, daemonThreadCount);
+    }
+
+    private int allocateSlot(long threadId) {
+        final int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            slot = slotCount;
+            if (slotCount == slotThread.length) {
+                final int capacity = Math.max(64, slotCount * 2);
+                slotThread = Arrays.copyOf(slotThread, capacity);
+                slotName = Arrays.copyOf(slotName, capacity);
+                slotState = Arrays.copyOf(slotState, capacity);
+                slotInNative = Arrays.copyOf(slotInNative, capacity);
+                slotCpuTime = Arrays.copyOf(slotCpuTime, capacity);
+                slotLastSeen = Arrays.copyOf(slotLastSeen, capacity);
+                slotInfoTick = Arrays.copyOf(slotInfoTick, capacity);
+                slotBlockedTime = Arrays.copyOf(slotBlockedTime, capacity);
+                slotBlockedCount = Arrays.copyOf(slotBlockedCount, capacity);
+                slotWaitedTime = Arrays.copyOf(slotWaitedTime, capacity);
+                slotWaitedCount = Arrays.copyOf(slotWaitedCount, capacity);
+            }
+            slotCount++;
+        }
+        slotThread[slot] = threadId;
+        slotName[slot] = null;
+        slotState[slot] = (byte) Thread.State.NEW.ordinal();
+        slotInNative[slot] = false;
+        slotInfoTick[slot] = -1;
+        slots.put(threadId, slot);
+        return slot;
+    }
+
+    private void releaseDeadSlots() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotLastSeen[slot] >= 0 && slotLastSeen[slot] != tick) {
+                slots.remove(slotThread[slot]);
+                slotLastSeen[slot] = -1;
+                slotName[slot] = null;
+                if (freeSlotCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeSlotCount * 2));
+                }
+                freeSlots[freeSlotCount++] = slot;
+            }
+        }
+    }
+}
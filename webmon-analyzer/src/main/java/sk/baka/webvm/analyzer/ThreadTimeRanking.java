@@ -0,0 +1,245 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Ranks groups of waiting threads (the contended locks, the call sites threads wait in) over the last {@link #historyLength}
+ * samples. Every sample groups the {@link WaitingThreads} by a key; the groups are ranked by the thread time: the sum of the
+ * number of threads in the group, multiplied by the time between samples. The aggregator is sampled at most every
+ * {@link #setIntervalMillis(int) interval}, regardless of how often the vmstat is sampled.
+ * <p></p>
+ * Thread-safe: {@link #sample(long, sk.baka.webvm.analyzer.WaitingThreads)} is expected to be called by the sampler thread, the
+ * reports are computed from any thread.
+ * @param <G> the group recorded in a single sample.
+ * @param <A> the group summed up over all samples.
+ * @author Martin Vysny
+ */
+abstract class ThreadTimeRanking<G extends ThreadTimeRanking.Group, A extends ThreadTimeRanking.Accumulator<G>> {
+
+    /**
+     * Maximum number of samples to keep.
+     */
+    public final int historyLength;
+    private final int maxGroupsPerSample;
+    private final Object[][] samples;
+    private final long[] durations;
+    private long written = 0;
+    private long lastTime = -1;
+    private volatile int intervalMillis;
+
+    /**
+     * Creates new aggregator.
+     * @param historyLength maximum number of samples to keep, at least 1.
+     * @param maxGroupsPerSample maximum number of distinct groups recorded per sample.
+     * @param intervalMillis the initial {@link #setIntervalMillis(int) interval}.
+     */
+    ThreadTimeRanking(int historyLength, int maxGroupsPerSample, int intervalMillis) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("Parameter historyLength: invalid value " + historyLength + ": must be 1 or greater");
+        }
+        this.historyLength = historyLength;
+        this.maxGroupsPerSample = maxGroupsPerSample;
+        samples = new Object[historyLength][];
+        durations = new long[historyLength];
+        setIntervalMillis(intervalMillis);
+    }
+
+    /**
+     * Sets the sampling interval.
+     * @param intervalMillis the aggregator is sampled at most every this number of milliseconds; 0 turns the sampling off.
+     */
+    public void setIntervalMillis(int intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Parameter intervalMillis: invalid value " + intervalMillis + ": must be 0 or greater");
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Checks whether a sample taken at given time would be recorded. Expected to be called by the sampler thread, so that the
+     * {@link WaitingThreads} are read only if some aggregator needs them.
+     * @param time the sample time, in millis since epoch.
+     * @return false if the sampling is off or the previous sample is more recent than the {@link #setIntervalMillis(int) interval}.
+     */
+    boolean isDue(long time) {
+        final int interval = intervalMillis;
+        if (interval == 0) {
+            // the time while the sampling is off is not accounted
+            lastTime = -1;
+            return false;
+        }
+        // tolerate the jitter of the sampler, which is scheduled at the same interval
+        return lastTime < 0 || time - lastTime >= interval - interval / 10;
+    }
+
+    /**
+     * Records given waiting threads. Does nothing if the sample is not {@link #isDue(long) due}.
+     * @param time the sample time, in millis since epoch. The thread time is accounted from the previous sample.
+     * @param threads the waiting threads, null if not available.
+     */
+    public final void sample(long time, @Nullable WaitingThreads threads) {
+        if (!isDue(time)) {
+            return;
+        }
+        final long duration = lastTime < 0 ? 0 : Math.max(0, time - lastTime);
+        lastTime = time;
+        add(duration, threads == null || threads.infos.isEmpty() ? Collections.<G>emptyList() : collect(threads));
+    }
+
+    /**
+     * Creates the groups of given waiting threads.
+     * @param threads the waiting threads, not empty.
+     * @return one group per thread, the threads which are not recorded omitted. The groups are merged by their
+     * {@link Group#key}.
+     */
+    @NotNull
+    protected abstract List<G> collect(@NotNull WaitingThreads threads);
+
+    private synchronized void add(long duration, List<G> threads) {
+        final Map<String, G> groups = new LinkedHashMap<String, G>();
+        for (G thread : threads) {
+            G group = groups.get(thread.key);
+            if (group == null) {
+                if (groups.size() >= maxGroupsPerSample) {
+                    continue;
+                }
+                group = thread;
+                groups.put(group.key, group);
+            }
+            group.threads++;
+        }
+        final int index = (int) (written % historyLength);
+        samples[index] = groups.values().toArray();
+        durations[index] = duration;
+        written++;
+    }
+
+    /**
+     * A group of threads in a single sample.
+     */
+    abstract static class Group {
+
+        /**
+         * The groups with an equal key are merged.
+         */
+        final String key;
+        /**
+         * Number of threads in the group.
+         */
+        int threads;
+
+        Group(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Sums up a single group over all samples.
+     * @param <G> the group recorded in a single sample.
+     */
+    static class Accumulator<G extends Group> {
+
+        /**
+         * The first recorded group.
+         */
+        final G group;
+        /**
+         * Sum of the time every thread spent in the group, in milliseconds.
+         */
+        long threadMillis;
+        /**
+         * Number of samples the group was recorded in.
+         */
+        int samples;
+        /**
+         * Maximum number of threads in the group at once.
+         */
+        int maxThreads;
+
+        Accumulator(G group) {
+            this.group = group;
+        }
+
+        /**
+         * Adds the group recorded in a single sample.
+         * @param group the group, not null.
+         * @param threadMillis the time the threads of the group spent in the sample.
+         */
+        void add(G group, long threadMillis) {
+            this.threadMillis += threadMillis;
+            samples++;
+            maxThreads = Math.max(maxThreads, group.threads);
+        }
+    }
+
+    /**
+     * Creates the accumulator of given group.
+     * @param group the first recorded group, not null.
+     * @return the accumulator, not null.
+     */
+    @NotNull
+    protected abstract A newAccumulator(@NotNull G group);
+
+    /**
+     * Ranks the groups recorded in the samples.
+     * @param result filled with the groups, the longest thread time first.
+     * @return the time covered by the samples, in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    protected final synchronized long rank(@NotNull List<A> result) {
+        final int count = (int) Math.min(written, historyLength);
+        final Map<String, A> accumulators = new HashMap<String, A>();
+        long span = 0;
+        for (int i = 0; i < count; i++) {
+            span += durations[i];
+            for (Object o : samples[i]) {
+                final G group = (G) o;
+                A acc = accumulators.get(group.key);
+                if (acc == null) {
+                    acc = newAccumulator(group);
+                    accumulators.put(group.key, acc);
+                }
+                acc.add(group, durations[i] * group.threads);
+            }
+        }
+        final List<A> ranked = new ArrayList<A>(accumulators.values());
+        Collections.sort(ranked, BY_THREAD_TIME);
+        result.addAll(ranked);
+        return span;
+    }
+    private static final Comparator<Accumulator<?>> BY_THREAD_TIME = new Comparator<Accumulator<?>>() {
+
+        public int compare(Accumulator<?> o1, Accumulator<?> o2) {
+            if (o1.threadMillis != o2.threadMillis) {
+                return o1.threadMillis > o2.threadMillis ? -1 : 1;
+            }
+            return o2.samples - o1.samples;
+        }
+    };
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.Serializable;
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An off-CPU profile: aggregates the time threads spend waiting over the last {@link #historyLength} samples, keyed by the
+ * call site the thread waits in. The call site is the top-most application frame, i.e. the first frame outside of the JDK
+ * (see {@link #isJdkFrame(java.lang.StackTraceElement)}), so that e.g. a socket read, a JDBC call or a connection pool borrow is
+ * attributed to the code which issued it rather than to {@link java.util.concurrent.locks.LockSupport#park()}. If the whole
+ * walked stack is JDK code (typically an idle pool worker), the top-most frame is used instead.
+ * <p></p>
+ * Threads in the {@link Thread.State#BLOCKED}, {@link Thread.State#WAITING} and {@link Thread.State#TIMED_WAITING} states are
+ * counted, together with the class of the {@link LockInfo} they wait for. The JVM reports threads blocked in native I/O as
+ * {@link Thread.State#RUNNABLE}; such threads are counted as well when the top-most frame is a native networking or I/O method.
+ * <p></p>
+ * Reading stack traces is expensive, so the threads are filtered by their state first: the stacks are read only for the
+ * {@link WaitingThreads}, which are read once per tick without the stack traces, still waiting or runnable in native code. The
+ * profile is sampled at most every {@link #setIntervalMillis(int) interval}, regardless of how often the vmstat is sampled.
+ * <p></p>
+ * The call sites are ranked by the waiting-thread time: the sum of the number of threads waiting at the call site, multiplied by
+ * the time between samples. Thread-safe: {@link #sample(long, sk.baka.webvm.analyzer.WaitingThreads)} is expected to be called
+ * by the sampler thread, {@link #getReport()} from any thread.
+ * @author Martin Vysny
+ */
+public final class WaitProfile extends ThreadTimeRanking<WaitProfile.SampleSite, ThreadTimeRanking.Accumulator<WaitProfile.SampleSite>> {
+
+    /**
+     * Number of top-most stack frames walked when looking for the application frame.
+     */
+    public static final int MAX_DEPTH = 32;
+    /**
+     * Maximum number of distinct call sites recorded per sample.
+     */
+    public static final int MAX_SITES_PER_SAMPLE = 64;
+    /**
+     * The default {@link #setIntervalMillis(int) interval}.
+     */
+    public static final int DEFAULT_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Creates new aggregator.
+     * @param historyLength maximum number of samples to keep, at least 1.
+     */
+    public WaitProfile(int historyLength) {
+        super(historyLength, MAX_SITES_PER_SAMPLE, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Reads the stack traces of the waiting threads still waiting or runnable in native code, at most {@link #MAX_DEPTH} frames
+     * deep, and groups them by the call site.
+     */
+    @NotNull
+    @Override
+    protected List<SampleSite> collect(@NotNull WaitingThreads threads) {
+        final long[] candidates = new long[threads.infos.size()];
+        int count = 0;
+        for (ThreadInfo info : threads.infos) {
+            if (WaitingThreads.isCandidate(info.getThreadState(), info.isInNative())) {
+                candidates[count++] = info.getThreadId();
+            }
+        }
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        final List<SampleSite> result = new ArrayList<SampleSite>(count);
+        for (ThreadInfo info : ThreadMap.BEAN.getThreadInfo(Arrays.copyOf(candidates, count), MAX_DEPTH)) {
+            if (info != null && info.getStackTrace().length > 0 && isWaiting(info)) {
+                result.add(newSite(info));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the thread waits, i.e. does not burn the CPU.
+     * @param info the thread info with the stack trace, not null.
+     * @return true if the thread is blocked, waiting or runnable in a native I/O method.
+     */
+    static boolean isWaiting(@NotNull ThreadInfo info) {
+        if (info.getThreadState() != Thread.State.RUNNABLE) {
+            return info.getThreadState() != Thread.State.NEW && info.getThreadState() != Thread.State.TERMINATED;
+        }
+        final StackTraceElement top = info.getStackTrace()[0];
+        if (!top.isNativeMethod()) {
+            return false;
+        }
+        for (String prefix : NATIVE_IO_PREFIXES) {
+            if (top.getClassName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Classes whose native methods block in I/O.
+     */
+    private static final String[] NATIVE_IO_PREFIXES = {"java.net.", "java.io.", "sun.nio.ch.", "sun.net."};
+
+    /**
+     * Checks whether given frame belongs to the JDK.
+     * @param frame the frame, not null.
+     * @return true if the frame's class is a JDK class.
+     */
+    static boolean isJdkFrame(@NotNull StackTraceElement frame) {
+        final String className = frame.getClassName();
+        for (String prefix : JDK_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private static final String[] JDK_PREFIXES = {"java.", "javax.", "jdk.", "sun.", "com.sun."};
+
+    /**
+     * Formats given frame as <code>class.method(file:line)</code>, without the module and class loader prefix newer JVMs add.
+     */
+    private static String format(StackTraceElement frame) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(frame.getClassName()).append('.').append(frame.getMethodName()).append('(');
+        if (frame.isNativeMethod()) {
+            sb.append("Native Method");
+        } else if (frame.getFileName() == null) {
+            sb.append("Unknown Source");
+        } else {
+            sb.append(frame.getFileName());
+            if (frame.getLineNumber() >= 0) {
+                sb.append(':').append(frame.getLineNumber());
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    private static SampleSite newSite(ThreadInfo info) {
+        final StackTraceElement[] stack = info.getStackTrace();
+        StackTraceElement callSite = null;
+        for (StackTraceElement frame : stack) {
+            if (!isJdkFrame(frame)) {
+                callSite = frame;
+                break;
+            }
+        }
+        final boolean application = callSite != null;
+        if (!application) {
+            callSite = stack[0];
+        }
+        final String lockClassName = info.getLockInfo() == null ? null : info.getLockInfo().getClassName();
+        final String site = format(callSite);
+        return new SampleSite(site + '\n' + lockClassName + '\n' + info.getThreadState(), site, application,
+                stack[0].getClassName() + "." + stack[0].getMethodName(), lockClassName, info.getThreadState());
+    }
+
+    /**
+     * A call site threads waited in during a single sample.
+     */
+    static final class SampleSite extends ThreadTimeRanking.Group {
+
+        private final String callSite;
+        private final boolean application;
+        private final String waitFrame;
+        private final String lockClassName;
+        private final Thread.State state;
+
+        private SampleSite(String key, String callSite, boolean application, String waitFrame, String lockClassName, Thread.State state) {
+            super(key);
+            this.callSite = callSite;
+            this.application = application;
+            this.waitFrame = waitFrame;
+            this.lockClassName = lockClassName;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Ranks the call sites threads waited in during the recorded samples.
+     * @return the report, never null.
+     */
+    @NotNull
+    public Report getReport() {
+        final List<Accumulator<SampleSite>> ranked = new ArrayList<Accumulator<SampleSite>>();
+        final long span = rank(ranked);
+        final List<Entry> result = new ArrayList<Entry>(ranked.size());
+        for (Accumulator<SampleSite> acc : ranked) {
+            final SampleSite site = acc.group;
+            result.add(new Entry(site.callSite, site.application, site.waitFrame, site.lockClassName, site.state, acc.threadMillis,
+                    acc.samples, acc.maxThreads));
+        }
+        return new Report(span, Collections.unmodifiableList(result));
+    }
+
+    @NotNull
+    @Override
+    protected Accumulator<SampleSite> newAccumulator(@NotNull SampleSite site) {
+        return new Accumulator<SampleSite>(site);
+    }
+
+    /**
+     * The call sites threads waited in, the longest waits first.
+     */
+    public static final class Report implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * The time covered by the report, in milliseconds.
+         */
+        public final long spanMillis;
+        public final List<Entry> sites;
+
+        private Report(long spanMillis, List<Entry> sites) {
+            this.spanMillis = spanMillis;
+            this.sites = sites;
+        }
+    }
+
+    /**
+     * A call site threads waited in.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * The top-most application frame, formatted as <code>class.method(file:line)</code>.
+         */
+        public final String callSite;
+        /**
+         * False if the stack contained JDK frames only and the call site is the top-most frame.
+         */
+        public final boolean application;
+        /**
+         * The top-most frame, the method the thread actually waits in, e.g. <code>jdk.internal.misc.Unsafe.park</code>.
+         */
+        public final String waitFrame;
+        /**
+         * The class of the lock the threads waited for, null if none (native I/O, {@link Thread#sleep(long)}).
+         */
+        public final String lockClassName;
+        /**
+         * The thread state; {@link Thread.State#RUNNABLE} denotes a native I/O wait.
+         */
+        public final Thread.State state;
+        /**
+         * Sum of the time every thread spent waiting at the call site, in milliseconds.
+         */
+        public final long waitMillis;
+        /**
+         * Number of samples a thread waited at the call site in.
+         */
+        public final int samples;
+        /**
+         * Maximum number of threads waiting at the call site at once.
+         */
+        public final int maxThreads;
+
+        private Entry(String callSite, boolean application, String waitFrame, String lockClassName, Thread.State state, long waitMillis, int samples, int maxThreads) {
+            this.callSite = callSite;
+            this.application = application;
+            this.waitFrame = waitFrame;
+            this.lockClassName = lockClassName;
+            this.state = state;
+            this.waitMillis = waitMillis;
+            this.samples = samples;
+            this.maxThreads = maxThreads;
+        }
+
+        /**
+         * Returns a short description of the wait kind.
+         * @return "native I/O" for I/O waits, the thread state otherwise.
+         */
+        @NotNull
+        public String getKind() {
+            return state == Thread.State.RUNNABLE ? "native I/O" : state.toString();
+        }
+
+        @Override
+        public String toString() {
+            return callSite + " (" + getKind() + (lockClassName == null ? "" : " on " + lockClassName) + "): " + waitMillis
+                    + "ms waited, " + samples + " samples, max " + maxThreads + " threads";
+        }
+    }
+}
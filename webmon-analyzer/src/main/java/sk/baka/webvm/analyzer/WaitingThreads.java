@@ -0,0 +1,98 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The thread infos of the threads a {@link ThreadMap} snapshot saw waiting, read without the stack traces. The infos are read
+ * once per vmstat tick and shared by the {@link LockContention} and the {@link WaitProfile}, so that the JVM-wide thread info
+ * read is not repeated by every aggregator.
+ * <p></p>
+ * A thread is read if the snapshot saw it blocked, waiting or runnable in native code, see
+ * {@link #isCandidate(java.lang.Thread.State, boolean)}. A state which the snapshot carried over from an earlier tick (see
+ * {@link ThreadMap#isStateFresh(int)}) is not re-read: re-reading the stale states would read most of the threads on every tick
+ * and defeat the batching of the {@link ThreadSampler}. Such threads are picked up on the next full-refresh tick, when all
+ * states are fresh.
+ * @author Martin Vysny
+ */
+public final class WaitingThreads {
+
+    /**
+     * No waiting threads.
+     */
+    public static final WaitingThreads EMPTY = new WaitingThreads(Collections.<ThreadInfo>emptyList());
+    /**
+     * The thread infos without the stack traces, never null. The infos carry the current state, which may differ from the
+     * snapshot state.
+     */
+    public final List<ThreadInfo> infos;
+
+    private WaitingThreads(List<ThreadInfo> infos) {
+        this.infos = infos;
+    }
+
+    /**
+     * Reads the thread infos of the threads given snapshot saw waiting, except the current thread.
+     * @param snapshot the thread snapshot, null if not available.
+     * @return the waiting threads, never null.
+     */
+    @NotNull
+    public static WaitingThreads read(@Nullable ThreadMap snapshot) {
+        if (snapshot == null) {
+            return EMPTY;
+        }
+        final long self = Thread.currentThread().getId();
+        final long[] candidates = new long[snapshot.size()];
+        int count = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.isStateFresh(i) && snapshot.getThreadId(i) != self && isCandidate(snapshot.getState(i), snapshot.isInNative(i))) {
+                candidates[count++] = snapshot.getThreadId(i);
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        final List<ThreadInfo> infos = new ArrayList<ThreadInfo>(count);
+        // reading the thread infos without the stack traces does not stop the JVM
+        for (ThreadInfo info : ThreadMap.BEAN.getThreadInfo(Arrays.copyOf(candidates, count))) {
+            if (info != null) {
+                infos.add(info);
+            }
+        }
+        return new WaitingThreads(Collections.unmodifiableList(infos));
+    }
+
+    /**
+     * Checks whether a thread in given state may wait.
+     * @param state the thread state, not null.
+     * @param inNative true if the thread executes native code.
+     * @return true if the thread is blocked, waiting, or runnable in native code (which may be a native I/O wait).
+     */
+    static boolean isCandidate(@NotNull Thread.State state, boolean inNative) {
+        return state == Thread.State.BLOCKED || state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING
+                || (state == Thread.State.RUNNABLE && inNative);
+    }
+}
@@ -55,6 +55,10 @@ public class Config implements Serializable {
      * The jabber settings group.
      */
     public static final int GROUP_JABBER = 3;
+    /**
+     * The history settings group.
+     */
+    public static final int GROUP_HISTORY = 4;
     /**
      * Triggers a problem when there is less than minFreeDiskSpaceMb of free space on some drive
      */
@@ -98,6 +102,23 @@ public class Config implements Serializable {
      */
     @Bind(key = "hostMemUsageTreshold", min = 0, max = 100, group = GROUP_PROBLEMS)
     public int hostVirtMem = 90;
+    /**
+     * Triggered when objects are promoted into the old generation so fast that it fills up in less than this number of minutes.
+     * 0 disables the check.
+     */
+    @Bind(key = "promotionFullGcMinutes", min = 0, group = GROUP_PROBLEMS)
+    public int promotionFullGcMinutes = 10;
+    /**
+     * Triggered when the memory used by the direct NIO buffers keeps growing and grew by this percentage of
+     * <code>-XX:MaxDirectMemorySize</code> during the vmstat history. 0 disables the check.
+     */
+    @Bind(key = "directMemGrowthTreshold", min = 0, max = 100, group = GROUP_PROBLEMS)
+    public int directMemGrowthTreshold = 10;
+    /**
+     * Triggered when the code cache usage goes above this value: the JIT compiler stops once the code cache is full.
+     */
+    @Bind(key = "codeCacheTreshold", min = 0, max = 100, group = GROUP_PROBLEMS)
+    public int codeCacheTreshold = 90;
     /**
      * The SMTP server host/port. If this is commented then no mails are sent.
      */
@@ -153,4 +174,77 @@ public class Config implements Serializable {
      */
     @Bind(key = "jabber.recipients", required = false, group = GROUP_JABBER)
     public String jabberRecipients;
+    /**
+     * If set, the vmstat and metric history is persisted into this file and restored after a JVM restart.
+     */
+    @Bind(key = "history.file", required = false, group = GROUP_HISTORY)
+    public String historyFile;
+    /**
+     * Maximum number of samples kept in the {@link #historyFile}. A sample takes about 100 bytes plus 4 bytes per metric; the default 100000 samples take about 11 MB plus 0.4 MB per metric.
+     */
+    @Bind(key = "history.fileSamples", min = 1, group = GROUP_HISTORY)
+    public int historyFileSamples = 100000;
+    /**
+     * If greater than zero, thread CPU times are read with a single batched call and thread states of all threads are refreshed
+     * only every this number of samples. Reduces the sampling overhead on JVMs with thousands of threads. 0 reads all
+     * threads every sample.
+     */
+    @Bind(key = "threads.fullRefreshTicks", min = 0, group = GROUP_HISTORY)
+    public int threadFullRefreshTicks = 0;
+    /**
+     * With batched thread sampling, states of this number of threads with the highest CPU usage are refreshed every sample.
+     */
+    @Bind(key = "threads.topK", min = 0, group = GROUP_HISTORY)
+    public int threadTopK = 50;
+    /**
+     * If greater than zero, enables the adaptive sampling: vmstat is sampled each samplingBurstDelayMs milliseconds while some
+     * metric is over {@link #samplingBurstThresholdPercent}% of its problem threshold. 0 samples at a fixed rate.
+     */
+    @Bind(key = "sampling.burstDelayMs", min = 0, group = GROUP_HISTORY)
+    public int samplingBurstDelayMs = 0;
+    /**
+     * With the adaptive sampling, vmstat is sampled each samplingIdleDelayMs milliseconds when everything is calm. 0 keeps the
+     * normal rate.
+     */
+    @Bind(key = "sampling.idleDelayMs", min = 0, group = GROUP_HISTORY)
+    public int samplingIdleDelayMs = 5000;
+    /**
+     * With the adaptive sampling, the sampler bursts when gcCpuTreshold, cpuTreshold or memUsageTreshold is reached up to
+     * this percentage.
+     */
+    @Bind(key = "sampling.burstThresholdPercent", min = 0, max = 100, group = GROUP_HISTORY)
+    public int samplingBurstThresholdPercent = 80;
+    /**
+     * Comma-separated names of metric sources to switch off, e.g. <code>gc,os</code>. Disabled sources are not sampled.
+     */
+    @Bind(key = "metrics.disabled", required = false, group = GROUP_HISTORY)
+    public String metricsDisabled;
+    /**
+     * If greater than zero, stacks of runnable threads are sampled this many times per second and folded into a call tree.
+     * 0 turns the profiler off.
+     */
+    @Bind(key = "profiler.hz", min = 0, max = 1000, group = GROUP_HISTORY)
+    public int profilerHz = 0;
+    /**
+     * Maximum number of call tree nodes kept by the profiler; a node takes about 50 bytes.
+     */
+    @Bind(key = "profiler.maxNodes", min = 2, group = GROUP_HISTORY)
+    public int profilerMaxNodes = 65536;
+    /**
+     * Maximum number of top-most stack frames sampled by the profiler.
+     */
+    @Bind(key = "profiler.maxDepth", min = 1, group = GROUP_HISTORY)
+    public int profilerMaxDepth = 128;
+    /**
+     * The wait profile (the call sites threads wait in) is sampled at most every this number of milliseconds. It reads the stack
+     * traces of all waiting threads, so on JVMs with thousands of threads a longer interval saves overhead. 0 turns it off.
+     */
+    @Bind(key = "waits.intervalMs", min = 0, group = GROUP_HISTORY)
+    public int waitsIntervalMs = 1000;
+    /**
+     * The lock contention is sampled at most every this number of milliseconds. It reads the thread infos of all blocked and
+     * waiting threads, so on JVMs with thousands of threads a longer interval saves overhead. 0 turns it off.
+     */
+    @Bind(key = "locks.intervalMs", min = 0, group = GROUP_HISTORY)
+    public int locksIntervalMs = 1000;
 }
@@ -1,21 +1,32 @@
 package sk.baka.webvm.analyzer.dump;
 
+import sk.baka.webvm.analyzer.GcEvents;
+import sk.baka.webvm.analyzer.HistoryBuffer;
 import sk.baka.webvm.analyzer.HistorySample;
+import sk.baka.webvm.analyzer.IHistorySampler;
+import sk.baka.webvm.analyzer.LocalJvms;
+import sk.baka.webvm.analyzer.LockContention;
+import sk.baka.webvm.analyzer.WaitProfile;
 import sk.baka.webvm.analyzer.ProblemAnalyzer;
 import sk.baka.webvm.analyzer.ProblemReport;
-import sk.baka.webvm.analyzer.ThreadMap;
+import sk.baka.webvm.analyzer.SamplerOverhead;
+import sk.baka.webvm.analyzer.ThreadHistory;
 import sk.baka.webvm.analyzer.classloader.CLEnum;
 import sk.baka.webvm.analyzer.classloader.ClassLoaderUtils;
 import sk.baka.webvm.analyzer.config.Config;
 import sk.baka.webvm.analyzer.hostos.Architecture;
+import sk.baka.webvm.analyzer.hostos.BufferPool;
 import sk.baka.webvm.analyzer.hostos.Memory;
 import sk.baka.webvm.analyzer.hostos.OS;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.utils.Constants;
 import sk.baka.webvm.analyzer.utils.MemoryUsage2;
 import sk.baka.webvm.analyzer.utils.MemoryUsages;
 
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -27,7 +38,99 @@ public abstract class AbstractDump {
 
     protected abstract void printProperties(StringBuilder sb, Map<?, ?> env);
 
-    public String dump(List<HistorySample> history) {
+    /**
+     * Dumps the VM state. The per-thread history is computed from the samples.
+     * @param list the vmstat history.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list) {
+        return dump(list, ThreadHistory.of(list).getTable());
+    }
+
+    /**
+     * Dumps the VM state.
+     * @param list the vmstat history.
+     * @param threads the per-thread history, as maintained by the sampler.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list, ThreadHistory.Table threads) {
+        return dump(list, threads, null);
+    }
+
+    /**
+     * Dumps the VM state.
+     * @param list the vmstat history.
+     * @param threads the per-thread history, as maintained by the sampler.
+     * @param overhead the cost of the sampler itself, may be null.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list, ThreadHistory.Table threads, SamplerOverhead.Report overhead) {
+        return dump(list, threads, overhead, null);
+    }
+
+    /**
+     * Dumps the VM state.
+     * @param list the vmstat history.
+     * @param threads the per-thread history, as maintained by the sampler.
+     * @param overhead the cost of the sampler itself, may be null.
+     * @param metrics the history of the pluggable metrics, may be null.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list, ThreadHistory.Table threads, SamplerOverhead.Report overhead, MetricHistory.View metrics) {
+        return dump(list, threads, overhead, metrics, null);
+    }
+
+    /**
+     * Dumps the VM state, with everything the sampler tracks.
+     * @param sampler the sampler, not null.
+     * @param list the vmstat history, e.g. {@link IHistorySampler#getVmstatHistory()}.
+     * @return the dump.
+     */
+    public String dump(IHistorySampler sampler, List<HistorySample> list) {
+        return dump(list, sampler.getThreadHistory(), sampler.getOverhead(), sampler.getMetricHistory(), sampler.getGcEvents(),
+                sampler.getLockContention(), sampler.getWaitProfile());
+    }
+
+    /**
+     * Dumps the VM state.
+     * @param list the vmstat history.
+     * @param threads the per-thread history, as maintained by the sampler.
+     * @param overhead the cost of the sampler itself, may be null.
+     * @param metrics the history of the pluggable metrics, may be null.
+     * @param gc the recorded garbage collections, may be null.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list, ThreadHistory.Table threads, SamplerOverhead.Report overhead, MetricHistory.View metrics, GcEvents.Report gc) {
+        return dump(list, threads, overhead, metrics, gc, null);
+    }
+
+    /**
+     * Dumps the VM state.
+     * @param list the vmstat history.
+     * @param threads the per-thread history, as maintained by the sampler.
+     * @param overhead the cost of the sampler itself, may be null.
+     * @param metrics the history of the pluggable metrics, may be null.
+     * @param gc the recorded garbage collections, may be null.
+     * @param locks the contended locks, may be null.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list, ThreadHistory.Table threads, SamplerOverhead.Report overhead, MetricHistory.View metrics, GcEvents.Report gc, LockContention.Report locks) {
+        return dump(list, threads, overhead, metrics, gc, locks, null);
+    }
+
+    /**
+     * Dumps the VM state.
+     * @param list the vmstat history.
+     * @param threads the per-thread history, as maintained by the sampler.
+     * @param overhead the cost of the sampler itself, may be null.
+     * @param metrics the history of the pluggable metrics, may be null.
+     * @param gc the recorded garbage collections, may be null.
+     * @param locks the contended locks, may be null.
+     * @param waits the call sites threads waited in, may be null.
+     * @return the dump.
+     */
+    public String dump(List<HistorySample> list, ThreadHistory.Table threads, SamplerOverhead.Report overhead, MetricHistory.View metrics, GcEvents.Report gc, LockContention.Report locks, WaitProfile.Report waits) {
+        final HistoryBuffer.View history = HistoryBuffer.viewOf(list);
         final StringBuilder sb = new StringBuilder();
         printHeader(sb, "VM Dump Report");
         sb.append("OS: ").append(OS.get());
@@ -38,8 +141,30 @@ public abstract class AbstractDump {
         newLine(sb);
         printMemoryUsageHistory(sb, history);
         newLine(sb);
-        printThreadCPUUsage(sb, history);
+        printBufferPools(sb);
         newLine(sb);
+        if (metrics != null) {
+            printMetricHistory(sb, metrics);
+            newLine(sb);
+        }
+        printThreadCPUUsage(sb, threads);
+        newLine(sb);
+        if (locks != null) {
+            printLocks(sb, locks);
+            newLine(sb);
+        }
+        if (waits != null) {
+            printWaits(sb, waits);
+            newLine(sb);
+        }
+        if (gc != null) {
+            printGcPauses(sb, gc);
+            newLine(sb);
+        }
+        if (overhead != null) {
+            printOverhead(sb, overhead);
+            newLine(sb);
+        }
         printThreadStacktraceDump(sb);
         newLine(sb);
         printHeader(sb, "Environment dump");
@@ -76,7 +201,7 @@ public abstract class AbstractDump {
         sb.append(clashes);
         newLine(sb);
         printHeader(sb, "Problems report");
-        final List<ProblemReport> problems = new ProblemAnalyzer(new Config(), Memory.getOSMemoryInfoProvider()).getProblems(history);
+        final List<ProblemReport> problems = new ProblemAnalyzer(new Config(), Memory.getOSMemoryInfoProvider()).getProblems(history, metrics, null, null);
         for (ProblemReport problem : problems) {
             sb.append(problem);
             newLine(sb);
@@ -84,6 +209,98 @@ public abstract class AbstractDump {
         return sb.toString();
     }
 
+    /**
+     * Dumps the most contended locks.
+     * @param locks the lock contention report, not null.
+     * @return the dump.
+     */
+    public String dumpLocks(LockContention.Report locks) {
+        final StringBuilder sb = new StringBuilder();
+        printLocks(sb, locks);
+        return sb.toString();
+    }
+
+    /**
+     * Dumps the call sites threads waited in the most.
+     * @param waits the wait profile report, not null.
+     * @return the dump.
+     */
+    public String dumpWaits(WaitProfile.Report waits) {
+        final StringBuilder sb = new StringBuilder();
+        printWaits(sb, waits);
+        return sb.toString();
+    }
+
+    /**
+     * Dumps the reports of the metric sources, see {@link IHistorySampler#getMetricReports()}.
+     * @param reports maps the source name to its report, not null.
+     * @return the dump.
+     */
+    public String dumpMetricReports(Map<String, String> reports) {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> report : reports.entrySet()) {
+            printHeader(sb, "Metric source " + report.getKey());
+            sb.append(report.getValue());
+            newLine(sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Dumps the cost of the sampler itself.
+     * @param overhead the overhead report, not null.
+     * @return the dump.
+     */
+    public String dumpOverhead(SamplerOverhead.Report overhead) {
+        final StringBuilder sb = new StringBuilder();
+        printOverhead(sb, overhead);
+        return sb.toString();
+    }
+
+    /**
+     * Lists the JVMs monitored by a {@link LocalJvms} sidecar.
+     * @param jvms the JVMs, not null.
+     * @return the dump.
+     */
+    public String dumpJvms(List<LocalJvms.Jvm> jvms) {
+        final StringBuilder sb = new StringBuilder();
+        printHeader(sb, "Local JVMs");
+        final Table table = newTable(5);
+        table.setVerticalContentsSeparator(false);
+        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(5, Boolean.TRUE));
+        rightAlign.set(1, Boolean.FALSE);
+        table.add(Arrays.asList("PID", "Command", "CPU %", "Heap used KB", "Live threads"), rightAlign);
+        for (LocalJvms.Jvm jvm : jvms) {
+            final MetricHistory.View history = jvm.getHistory();
+            table.add(Arrays.asList(Integer.toString(jvm.pid), jvm.command == null ? "?" : truncate(jvm.command, MAX_COMMAND_LENGTH),
+                    getNewest(history, "process.cpu"), getNewest(history, "heap.used"), getNewest(history, "threads.live")), rightAlign);
+        }
+        sb.append(table.toString());
+        return sb.toString();
+    }
+    private static final int MAX_COMMAND_LENGTH = 64;
+
+    private static String getNewest(MetricHistory.View history, String metric) {
+        final int index = history.indexOf(metric);
+        final long value = index < 0 ? -1 : history.getNewest(index);
+        return value < 0 ? "?" : Long.toString(value);
+    }
+
+    /**
+     * Dumps the history of a JVM monitored by a {@link LocalJvms} sidecar.
+     * @param jvm the JVM, not null.
+     * @return the dump.
+     */
+    public String dumpJvm(LocalJvms.Jvm jvm) {
+        final StringBuilder sb = new StringBuilder();
+        printHeader(sb, "JVM " + jvm.pid);
+        sb.append("Command: ").append(jvm.command == null ? "?" : jvm.command);
+        newLine(sb);
+        newLine(sb);
+        printMetricHistory(sb, jvm.getHistory());
+        return sb.toString();
+    }
+
     protected abstract void printHeader(StringBuilder sb, String header);
 
     protected abstract void printThreadStacktraceDump(StringBuilder sb);
@@ -98,7 +315,7 @@ public abstract class AbstractDump {
         void add(List<String> row, List<Boolean> rightAlign);
     }
 
-    private void printVMHistoryOverview(StringBuilder sb, List<HistorySample> history) {
+    private void printVMHistoryOverview(StringBuilder sb, HistoryBuffer.View history) {
         printHeader(sb, "History of VM overview");
         final List<String> header = new ArrayList<String>(Collections.nCopies(history.size() + 1, ""));
         header.set(1, "old");
@@ -121,15 +338,19 @@ public abstract class AbstractDump {
         hostiousage.add("Host IO Usage %");
         final List<String> classcount = new ArrayList<String>();
         classcount.add("Loaded Classes");
-        for (HistorySample hs : history) {
-            gccpuusage.add("" + hs.gcCpuUsage);
-            threadcount.add("" + hs.threads.threadCount);
-            daemonthreadcount.add("" + hs.threads.daemonThreadCount);
-            hostcpuusage.add("" + hs.cpuUsage.cpuAvgUsage);
-            javacpuusage.add("" + hs.cpuJavaUsage);
-            hostiousage.add("" + hs.cpuIOUsage);
-            classcount.add("" + hs.classesLoaded);
-            cpucoreusage.add("" + hs.cpuUsage.cpuMaxCoreUsage);
+        final List<String> allocationrate = new ArrayList<String>();
+        allocationrate.add("Allocation Rate MB/s");
+        for (int i = 0; i < history.size(); i++) {
+            gccpuusage.add("" + history.get(HistoryBuffer.Column.GC_CPU_USAGE, i));
+            threadcount.add("" + history.get(HistoryBuffer.Column.THREAD_COUNT, i));
+            daemonthreadcount.add("" + history.get(HistoryBuffer.Column.DAEMON_THREAD_COUNT, i));
+            hostcpuusage.add("" + history.get(HistoryBuffer.Column.CPU_AVG_USAGE, i));
+            javacpuusage.add("" + history.get(HistoryBuffer.Column.CPU_JAVA_USAGE, i));
+            hostiousage.add("" + history.get(HistoryBuffer.Column.CPU_IO_USAGE, i));
+            classcount.add("" + history.get(HistoryBuffer.Column.CLASSES_LOADED, i));
+            cpucoreusage.add("" + history.get(HistoryBuffer.Column.CPU_MAX_CORE_USAGE, i));
+            final long rate = history.get(HistoryBuffer.Column.ALLOCATION_RATE, i);
+            allocationrate.add(rate < 0 ? "?" : String.format(Locale.ENGLISH, "%.1f", rate / 1024.0));
         }
         final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(history.size() + 1, Boolean.TRUE));
         table.add(header, rightAlign);
@@ -141,43 +362,198 @@ public abstract class AbstractDump {
         table.add(threadcount, rightAlign);
         table.add(daemonthreadcount, rightAlign);
         table.add(classcount, rightAlign);
+        table.add(allocationrate, rightAlign);
+        sb.append(table.toString());
+    }
+
+    private void printBufferPools(StringBuilder sb) {
+        printHeader(sb, "NIO buffer pools");
+        final long maxDirect = Memory.getMaxDirectMemory();
+        sb.append("MaxDirectMemorySize: ").append(maxDirect < 0 ? "?" : (maxDirect / Constants.MEBIBYTES) + "M");
+        newLine(sb);
+        final Table table = newTable(4);
+        table.setVerticalContentsSeparator(false);
+        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(4, Boolean.TRUE));
+        rightAlign.set(0, Boolean.FALSE);
+        table.add(Arrays.asList("Pool", "Buffers", "Used KB", "Capacity KB"), rightAlign);
+        for (BufferPool pool : Memory.getBufferPools()) {
+            table.add(Arrays.asList(pool.name, Long.toString(pool.count), Long.toString(pool.memoryUsed / Constants.KIBIBYTES),
+                    Long.toString(pool.totalCapacity / Constants.KIBIBYTES)), rightAlign);
+        }
+        sb.append(table.toString());
+    }
+
+    private void printMetricHistory(StringBuilder sb, MetricHistory.View metrics) {
+        printHeader(sb, "Metrics history");
+        final List<String> header = new ArrayList<String>(Collections.nCopies(metrics.size() + 1, ""));
+        if (metrics.size() > 0) {
+            header.set(1, "old");
+            header.set(header.size() - 1, "new");
+        }
+        final Table table = newTable(metrics.size() + 1);
+        table.setVerticalContentsSeparator(false);
+        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(metrics.size() + 1, Boolean.TRUE));
+        table.add(header, rightAlign);
+        for (int m = 0; m < metrics.getMetrics().size(); m++) {
+            final List<String> row = new ArrayList<String>(metrics.size() + 1);
+            row.add(metrics.getMetrics().get(m).toString());
+            for (int i = 0; i < metrics.size(); i++) {
+                final long value = metrics.get(m, i);
+                row.add(value < 0 ? "?" : Long.toString(value));
+            }
+            table.add(row, rightAlign);
+        }
         sb.append(table.toString());
     }
 
-    private void printThreadCPUUsage(StringBuilder sb, List<HistorySample> history) {
+    private void printThreadCPUUsage(StringBuilder sb, ThreadHistory.Table threads) {
         printHeader(sb, "Per-Thread CPU Usage history");
-        final List<String> header = new ArrayList<String>(Collections.nCopies(history.size() + 1, ""));
-        header.set(1, "old");
-        header.set(header.size() - 1, "new");
-        final Table table = newTable(history.size() + 1);
+        final int columns = threads.columns + THREAD_SUMMARY_COLUMNS + 1;
+        final List<String> header = new ArrayList<String>(Collections.nCopies(columns, ""));
+        if (threads.columns > 0) {
+            header.set(1, "old");
+            header.set(threads.columns, "new");
+        }
+        header.set(threads.columns + 1, "Allocation");
+        header.set(threads.columns + 2, "Blocked%");
+        header.set(threads.columns + 3, "Blocks");
+        header.set(threads.columns + 4, "Waited%");
+        header.set(threads.columns + 5, "Waits");
+        final Table table = newTable(columns);
         table.setVerticalContentsSeparator(false);
-        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(history.size() + 1, Boolean.TRUE));
+        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(columns, Boolean.TRUE));
         table.add(header, rightAlign);
-        final SortedMap<Long, List<ThreadMap.Item>> threadTable = ThreadMap.historyToTable(history);
-        for (List<ThreadMap.Item> row : threadTable.values()) {
-            final List<String> contentRow = new ArrayList<String>();
-            final String threadName = getThreadName(row);
-            if (threadName == null) {
-                continue;
+        long totalRate = -1;
+        for (ThreadHistory.Row row : threads.rows) {
+            final List<String> contentRow = new ArrayList<String>(columns);
+            contentRow.add(truncate("0x" + row.threadId + " " + row.name, MAX_THREAD_NAME_LENGTH));
+            for (int i = 0; i < threads.columns; i++) {
+                final int cpu = row.getCpuUsage(i);
+                contentRow.add(row.getState(i) == null ? "" : (cpu == ThreadHistory.CPU_UNKNOWN ? "?" : Integer.toString(cpu)));
             }
-            for (ThreadMap.Item item : row) {
-                if (contentRow.isEmpty()) {
-                    contentRow.add(threadName);
-                }
-                contentRow.add(item == null ? "" : (item.lastCpuUsagePerc == null ? "?" : item.lastCpuUsagePerc.toString()));
+            contentRow.add(MemoryUsages.getRatePerSec(row.allocationRate));
+            contentRow.add(orUnknown(row.getAvgBlockedPercent()));
+            contentRow.add(orUnknown(row.blockedCount));
+            contentRow.add(orUnknown(row.getAvgWaitedPercent()));
+            contentRow.add(orUnknown(row.waitedCount));
+            if (row.allocationRate >= 0) {
+                totalRate = Math.max(totalRate, 0) + row.allocationRate;
             }
             table.add(contentRow, rightAlign);
         }
+        final List<String> total = new ArrayList<String>(Collections.nCopies(columns, ""));
+        total.set(0, "Total");
+        total.set(threads.columns + 1, MemoryUsages.getRatePerSec(totalRate));
+        table.add(total, rightAlign);
+        for (Thread.State state : THREAD_STATES) {
+            final List<String> counts = new ArrayList<String>(Collections.nCopies(columns, ""));
+            counts.set(0, state.toString());
+            for (int i = 0; i < threads.columns; i++) {
+                counts.set(i + 1, orUnknown(threads.getStateCount(state, i)));
+            }
+            table.add(counts, rightAlign);
+        }
         sb.append(table.toString());
     }
+    /**
+     * Allocation rate, blocked %, blocks, waited %, waits.
+     */
+    private static final int THREAD_SUMMARY_COLUMNS = 5;
+    private static final Thread.State[] THREAD_STATES = {Thread.State.RUNNABLE, Thread.State.BLOCKED, Thread.State.WAITING, Thread.State.TIMED_WAITING};
 
-    private String getThreadName(Collection<ThreadMap.Item> items) {
-        for (ThreadMap.Item item : items) {
-            if (item != null) {
-                return truncate("0x" + item.info.getThreadId() + " " + item.info.getThreadName(), MAX_THREAD_NAME_LENGTH);
-            }
+    private static String orUnknown(long value) {
+        return value < 0 ? "?" : Long.toString(value);
+    }
+
+    private void printLocks(StringBuilder sb, LockContention.Report locks) {
+        printHeader(sb, "Lock contention");
+        final List<Boolean> align = Arrays.asList(Boolean.FALSE, Boolean.FALSE, Boolean.TRUE, Boolean.TRUE, Boolean.TRUE, Boolean.FALSE);
+        final Table table = newTable(6);
+        table.setVerticalContentsSeparator(false);
+        table.add(Arrays.asList("Lock", "Kind", "Blocked thread-ms", "Samples", "Max blocked", "Top owner"), align);
+        for (int i = 0; i < Math.min(MAX_LOCKS, locks.locks.size()); i++) {
+            final LockContention.Entry lock = locks.locks.get(i);
+            table.add(Arrays.asList(lock.lock, lock.synchronizer ? "j.u.c" : "monitor", Long.toString(lock.blockedMillis),
+                    Integer.toString(lock.samples), Integer.toString(lock.maxBlockedThreads),
+                    lock.topOwner == null ? "?" : lock.topOwner.replace("\n  at ", " / ")), align);
+        }
+        sb.append(table.toString());
+        sb.append("Measured over ").append(locks.spanMillis / 1000).append(" seconds");
+        newLine(sb);
+    }
+    private static final int MAX_LOCKS = 20;
+
+    private void printWaits(StringBuilder sb, WaitProfile.Report waits) {
+        printHeader(sb, "Where threads wait");
+        final List<Boolean> align = Arrays.asList(Boolean.FALSE, Boolean.FALSE, Boolean.FALSE, Boolean.FALSE, Boolean.TRUE, Boolean.TRUE, Boolean.TRUE);
+        final Table table = newTable(7);
+        table.setVerticalContentsSeparator(false);
+        table.add(Arrays.asList("Call site", "Waits in", "Kind", "Lock class", "Waiting thread-ms", "Samples", "Max threads"), align);
+        for (int i = 0; i < Math.min(MAX_WAITS, waits.sites.size()); i++) {
+            final WaitProfile.Entry site = waits.sites.get(i);
+            table.add(Arrays.asList((site.application ? "" : "(jdk) ") + site.callSite, site.waitFrame, site.getKind(),
+                    site.lockClassName == null ? "-" : site.lockClassName, Long.toString(site.waitMillis),
+                    Integer.toString(site.samples), Integer.toString(site.maxThreads)), align);
         }
-        return null;
+        sb.append(table.toString());
+        sb.append("Measured over ").append(waits.spanMillis / 1000).append(" seconds");
+        newLine(sb);
+    }
+    private static final int MAX_WAITS = 20;
+
+    private void printGcPauses(StringBuilder sb, GcEvents.Report gc) {
+        printHeader(sb, "GC pauses");
+        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(10, Boolean.TRUE));
+        rightAlign.set(0, Boolean.FALSE);
+        Table table = newTable(10);
+        table.setVerticalContentsSeparator(false);
+        table.add(Arrays.asList("Collector", "Count", "Avg ms", "p50 ms", "p99 ms", "p999 ms", "Max ms", "Window count", "Window p99 ms", "Window max ms"), rightAlign);
+        for (GcEvents.PauseStats stats : gc.collectors) {
+            table.add(Arrays.asList(stats.gcName, Long.toString(stats.pauses.count), Long.toString(stats.pauses.getMean()),
+                    Long.toString(stats.pauses.getPercentile(50)), Long.toString(stats.pauses.getPercentile(99)),
+                    Long.toString(stats.pauses.getPercentile(99.9)), Long.toString(stats.pauses.max), Long.toString(stats.window.count),
+                    Long.toString(stats.window.getPercentile(99)), Long.toString(stats.window.max)), rightAlign);
+        }
+        sb.append(table.toString());
+        newLine(sb);
+        sb.append("Recent collections");
+        newLine(sb);
+        table = newTable(6);
+        table.setVerticalContentsSeparator(false);
+        final List<Boolean> leftAlign = new ArrayList<Boolean>(Collections.nCopies(6, Boolean.FALSE));
+        leftAlign.set(4, Boolean.TRUE);
+        leftAlign.set(5, Boolean.TRUE);
+        table.add(Arrays.asList("Time", "Collector", "Action", "Cause", "Pause ms", "Freed MB"), leftAlign);
+        final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        for (int i = Math.max(0, gc.events.size() - MAX_GC_EVENTS); i < gc.events.size(); i++) {
+            final GcEvents.Event event = gc.events.get(i);
+            table.add(Arrays.asList(format.format(new Date(event.startTime)), event.gcName, event.gcAction, event.gcCause,
+                    Long.toString(event.durationMillis), Long.toString(event.getFreedBytes() / Constants.MEBIBYTES)), leftAlign);
+        }
+        sb.append(table.toString());
+    }
+    private static final int MAX_GC_EVENTS = 20;
+
+    private void printOverhead(StringBuilder sb, SamplerOverhead.Report overhead) {
+        printHeader(sb, "Sampler overhead");
+        final Table table = newTable(12);
+        table.setVerticalContentsSeparator(false);
+        final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(12, Boolean.TRUE));
+        rightAlign.set(0, Boolean.FALSE);
+        table.add(Arrays.asList("Stage", "Count", "Avg us", "p50 us", "p99 us", "p999 us", "Max us", "Window p99 us", "Window max us",
+                "us/s", "Avg alloc B", "Alloc KB/s"), rightAlign);
+        for (SamplerOverhead.StageStats stage : overhead.stages) {
+            table.add(Arrays.asList(stage.name, Long.toString(stage.count), Long.toString(stage.getAvgNanos() / 1000),
+                    Long.toString(stage.latency.getPercentile(50)), Long.toString(stage.latency.getPercentile(99)),
+                    Long.toString(stage.latency.getPercentile(99.9)), Long.toString(stage.maxNanos / 1000),
+                    Long.toString(stage.window.getPercentile(99)), Long.toString(stage.window.max),
+                    Long.toString(overhead.getMicrosPerSecond(stage.totalNanos)),
+                    stage.allocatedBytes < 0 ? "?" : Long.toString(stage.getAvgAllocatedBytes()),
+                    stage.allocatedBytes < 0 ? "?" : Long.toString(overhead.getAllocatedKbPerSecond(stage.allocatedBytes))), rightAlign);
+        }
+        sb.append(table.toString());
+        sb.append("Total: ").append(overhead.getMicrosPerSecond(overhead.getTotalNanos())).append(" us of sampler time per second");
+        newLine(sb);
     }
 
     private static final int MAX_THREAD_NAME_LENGTH = 48;
@@ -186,7 +562,7 @@ public abstract class AbstractDump {
         return str.length() > maxlen ? str.substring(0, maxlen) : str;
     }
 
-    private void printMemoryUsageHistory(StringBuilder sb, List<HistorySample> history) {
+    private void printMemoryUsageHistory(StringBuilder sb, HistoryBuffer.View history) {
         final List<String> header = new ArrayList<String>(Collections.nCopies(history.size() + 1, ""));
         header.set(0, "Memory Used %");
         header.set(1, "old");
@@ -196,19 +572,18 @@ public abstract class AbstractDump {
         final List<Boolean> rightAlign = new ArrayList<Boolean>(Collections.nCopies(history.size() + 1, Boolean.TRUE));
         table.add(header, rightAlign);
         final List<List<String>> content = new ArrayList<List<String>>();
-        final HistorySample last = history.isEmpty() ? null : history.get(history.size() - 1);
         for (HistorySample.MemoryPools pool: HistorySample.MemoryPools.values()) {
             content.add(new ArrayList<String>(Collections.singletonList(pool.displayable)));
-            if (last != null) {
+            if (!history.isEmpty()) {
                 sb.append(content.get(content.size() - 1).get(0)).append(": ");
-                sb.append(MemoryUsages.toString(last.memPoolUsage.get(pool), true));
+                sb.append(MemoryUsages.toString(history.getMemoryUsage(pool, history.size() - 1), true));
                 newLine(sb);
             }
         }
         newLine(sb);
         for (int i = 0; i < history.size(); i++) {
             for (int j = 0; j < HistorySample.MemoryPools.values().length; j++) {
-                content.get(j).add(MemoryUsage2.getUsagePerc(history.get(i).memPoolUsage.get(HistorySample.MemoryPools.values()[j])));
+                content.get(j).add(MemoryUsage2.getUsagePerc(history.getMemoryUsage(HistorySample.MemoryPools.values()[j], i)));
             }
         }
         for (int i = 0; i < HistorySample.MemoryPools.values().length; i++) {
@@ -1,8 +1,15 @@
 package sk.baka.webvm.analyzer.dump;
 
+import sk.baka.webvm.analyzer.GcEvents;
 import sk.baka.webvm.analyzer.HistorySample;
+import sk.baka.webvm.analyzer.LocalJvms;
+import sk.baka.webvm.analyzer.LockContention;
+import sk.baka.webvm.analyzer.WaitProfile;
 import sk.baka.webvm.analyzer.ProblemAnalyzer;
 import sk.baka.webvm.analyzer.ProblemReport;
+import sk.baka.webvm.analyzer.SamplerOverhead;
+import sk.baka.webvm.analyzer.ThreadHistory;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
 import sk.baka.webvm.analyzer.utils.Threads;
 
 import java.util.*;
@@ -84,13 +91,25 @@ public class HTMLDump extends AbstractDump {
         }
     }
 
-    @Override public String dump(List<HistorySample> history) {
+    @Override public String dump(List<HistorySample> history, ThreadHistory.Table threads, SamplerOverhead.Report overhead, MetricHistory.View metrics, GcEvents.Report gc, LockContention.Report locks, WaitProfile.Report waits) {
+        return toPage(super.dump(history, threads, overhead, metrics, gc, locks, waits));
+    }
+
+    @Override public String dumpJvms(List<LocalJvms.Jvm> jvms) {
+        return toPage(super.dumpJvms(jvms));
+    }
+
+    @Override public String dumpJvm(LocalJvms.Jvm jvm) {
+        return toPage(super.dumpJvm(jvm));
+    }
+
+    private static String toPage(String body) {
         return "<html><head><style type='text/css'>table {\n"
                 + "    border-collapse: collapse;\n"
                 + "}\n"
                 + "\n"
                 + "table, th, td {\n"
                 + "    border: 1px solid black;\n"
-                + "}</style></head><body>" + super.dump(history) + "</body></html>";
+                + "}</style></head><body>" + body + "</body></html>";
     }
 }
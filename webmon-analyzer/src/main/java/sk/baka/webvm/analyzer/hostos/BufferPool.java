@@ -0,0 +1,68 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.hostos;
+
+import java.io.Serializable;
+
+/**
+ * An immutable snapshot of a NIO buffer pool (<code>direct</code> or <code>mapped</code>), as reported by the
+ * <code>java.nio:type=BufferPool</code> MBeans (available since Java 7). The memory is allocated outside of the Java heap and
+ * is not reported by the memory pools.
+ * @author Martin Vysny
+ */
+public final class BufferPool implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * The pool name, e.g. <code>direct</code>.
+     */
+    public final String name;
+    /**
+     * The number of buffers in the pool, -1 if not known.
+     */
+    public final long count;
+    /**
+     * The memory used by the JVM for the buffers, in bytes, -1 if not known. May differ from {@link #totalCapacity} due to
+     * the page alignment.
+     */
+    public final long memoryUsed;
+    /**
+     * The total capacity of the buffers, in bytes, -1 if not known.
+     */
+    public final long totalCapacity;
+
+    /**
+     * Creates new snapshot.
+     * @param name the pool name.
+     * @param count the number of buffers.
+     * @param memoryUsed the memory used, in bytes.
+     * @param totalCapacity the total capacity, in bytes.
+     */
+    public BufferPool(String name, long count, long memoryUsed, long totalCapacity) {
+        this.name = name;
+        this.count = count;
+        this.memoryUsed = memoryUsed;
+        this.totalCapacity = totalCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + count + " buffers, " + memoryUsed + " bytes used, " + totalCapacity + " bytes capacity";
+    }
+}
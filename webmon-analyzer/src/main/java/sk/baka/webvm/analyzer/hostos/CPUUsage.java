@@ -40,15 +40,21 @@ public final class CPUUsage implements Serializable {
     @NotNull
 	public static final CPUUsage ZERO = new CPUUsage(0, 0);
 
+    /**
+     * Returns the usage with both the average and the max core usage set to given value.
+     * @param cpuUsage the CPU usage. Clamped to 0..100: a usage computed from two measurements may slightly exceed the
+     * bounds, e.g. when the GC time is reported with a coarser resolution than the sampling period.
+     * @return the usage, never null.
+     */
     @NotNull
     public static CPUUsage of(int cpuUsage) {
-        return CACHE[cpuUsage];
+        return CACHE[Math.max(0, Math.min(100, cpuUsage))];
     }
 
-    private static final CPUUsage[] CACHE = new CPUUsage[100];
+    private static final CPUUsage[] CACHE = new CPUUsage[101];
     static {
         CACHE[0] = ZERO;
-        for (int i = 1; i < 100; i++) {
+        for (int i = 1; i <= 100; i++) {
             CACHE[i] = new CPUUsage(i, i);
         }
     }
@@ -19,6 +19,7 @@
 package sk.baka.webvm.analyzer.hostos;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import sk.baka.webvm.analyzer.hostos.linux.LinuxProcessMemoryProvider;
 import sk.baka.webvm.analyzer.hostos.linux.MemoryLinuxStrategy;
 import sk.baka.webvm.analyzer.hostos.windows.MemoryWindowsStrategy;
@@ -26,12 +27,22 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import sk.baka.webvm.analyzer.hostos.windows.WMIUtils;
 import sk.baka.webvm.analyzer.utils.MemoryUsage2;
 
@@ -112,6 +123,35 @@ public class Memory {
         }
         return result;
     }
+
+    /**
+     * Checks whether given memory pool holds the JIT-compiled code: <code>Code Cache</code> until Java 8, the
+     * <code>CodeHeap '...'</code> segments since Java 9.
+     * @param pool the pool name, not null.
+     * @return true if the pool is (a part of) the code cache.
+     */
+    public static boolean isCodeCachePool(@NotNull String pool) {
+        return pool.equals("Code Cache") || pool.startsWith("CodeHeap");
+    }
+
+    /**
+     * Sums up all code cache pools and return their memory usage. When the code cache fills up, the JIT compiler stops.
+     * @return memory usage, null if there is no code cache pool.
+     */
+    @Nullable
+    public static MemoryUsage2 getCodeCacheSummary() {
+        MemoryUsage2 result = null;
+        for (final MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (!bean.isValid() || !isCodeCachePool(bean.getName())) {
+                continue;
+            }
+            final MemoryUsage2 usage = MemoryUsage2.from(bean.getUsage());
+            if (usage != null) {
+                result = result == null ? usage : result.add(usage);
+            }
+        }
+        return result;
+    }
     private static final boolean IS_NON_HEAP;
 
     private static final Logger log = Logger.getLogger(Memory.class.getName());
@@ -166,6 +206,71 @@ public class Memory {
         MEMORY_POOLS = Collections.unmodifiableSortedMap(pools);
     }
 
+    /**
+     * Returns the NIO buffer pools (<code>direct</code>, <code>mapped</code>). The pools are read from the platform MBean
+     * server, so that the code runs on Java 6 as well.
+     * @return the pools sorted by name, never null, empty if not supported by this JVM.
+     */
+    @NotNull
+    public static List<BufferPool> getBufferPools() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final List<BufferPool> result = new ArrayList<BufferPool>();
+        try {
+            for (final ObjectName name : new TreeSet<ObjectName>(server.queryNames(BUFFER_POOLS, null))) {
+                final AttributeList attributes = server.getAttributes(name, BUFFER_POOL_ATTRIBUTES);
+                final Map<String, Object> values = new HashMap<String, Object>();
+                for (final Object attribute : attributes) {
+                    values.put(((Attribute) attribute).getName(), ((Attribute) attribute).getValue());
+                }
+                result.add(new BufferPool((String) values.get("Name"), toLong(values.get("Count")), toLong(values.get("MemoryUsed")),
+                        toLong(values.get("TotalCapacity"))));
+            }
+        } catch (Exception ex) {
+            log.log(Level.FINE, "Failed to read the buffer pools", ex);
+        }
+        return result;
+    }
+    private static final ObjectName BUFFER_POOLS;
+    private static final String[] BUFFER_POOL_ATTRIBUTES = new String[]{"Name", "Count", "MemoryUsed", "TotalCapacity"};
+
+    static {
+        try {
+            BUFFER_POOLS = new ObjectName("java.nio:type=BufferPool,*");
+        } catch (MalformedObjectNameException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    /**
+     * Returns the maximum amount of memory the direct buffers may allocate, as set by <code>-XX:MaxDirectMemorySize</code>.
+     * The HotSpot default is the maximum heap size.
+     * @return the limit in bytes, -1 if not known.
+     */
+    public static long getMaxDirectMemory() {
+        return MAX_DIRECT_MEMORY;
+    }
+    private static final long MAX_DIRECT_MEMORY;
+
+    static {
+        long maxDirectMemory = -1;
+        try {
+            final CompositeData option = (CompositeData) ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName("com.sun.management:type=HotSpotDiagnostic"),
+                    "getVMOption", new Object[]{"MaxDirectMemorySize"}, new String[]{String.class.getName()});
+            maxDirectMemory = Long.parseLong((String) option.get("value"));
+            if (maxDirectMemory <= 0) {
+                final long maxHeap = Runtime.getRuntime().maxMemory();
+                maxDirectMemory = maxHeap == Long.MAX_VALUE ? -1 : maxHeap;
+            }
+        } catch (Exception ex) {
+            log.log(Level.FINE, "Failed to read MaxDirectMemorySize", ex);
+        }
+        MAX_DIRECT_MEMORY = maxDirectMemory;
+    }
+
     /**
      * Returns all known memory pools which are garbage-collectable and provide meaningful usage information.
      * @return map of memory pools, never null, may be empty.
@@ -0,0 +1,354 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.hostos.linux;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * Reads the HotSpot performance counters (the <code>jstat</code> data) from the <code>/tmp/hsperfdata_&lt;user&gt;/&lt;pid&gt;</code>
+ * file. The file is memory-mapped once and its entry table is decoded once; afterwards {@link #getLong(int)} reads the
+ * counter straight from the mapped buffer, without any JMX call nor allocation.
+ * <p></p>
+ * Only the <code>long</code> and string counters are exposed. Counters created after the file was opened are not visible, see
+ * {@link #hasNewEntries()}. The counters are updated by the JVM concurrently; a single <code>long</code> read is atomic on 64bit
+ * platforms. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class PerfData {
+
+    private static final Logger log = Logger.getLogger(PerfData.class.getName());
+    private static final int MAGIC = 0xcafec0c0;
+    /**
+     * The prologue flag the JVM sets once the perf data is initialized.
+     */
+    private static final int ACCESSIBLE = 7;
+    private static final int ENTRY_OFFSET = 24;
+    private static final int NUM_ENTRIES = 28;
+    private static final byte TYPE_LONG = 'J';
+    private static final byte TYPE_BYTE = 'B';
+    /**
+     * The {@link #getUnits(int) unit} of counters holding a duration in ticks, see {@link #getTickFrequency()}.
+     */
+    public static final int UNITS_TICKS = 3;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    /**
+     * Maps names of the string counters to the absolute offset and maximum length.
+     */
+    private final Map<String, int[]> strings = new HashMap<String, int[]>();
+    /**
+     * Absolute offsets of the counter values within the buffer.
+     */
+    private final int[] offsets;
+    private final byte[] units;
+    private final long tickFrequency;
+    /**
+     * The number of entries decoded.
+     */
+    private final int entryCount;
+
+    /**
+     * Maps and decodes given perf data file.
+     * @param file the <code>hsperfdata</code> file, not null.
+     * @throws IOException if the file cannot be read, is not a valid perf data file or is not initialized yet, see
+     * {@link #isAccessible(java.io.File)}.
+     */
+    public PerfData(@NotNull File file) throws IOException {
+        Checks.checkNotNull("file", file);
+        this.file = file;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < NUM_ENTRIES + 4 || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + ": not a perf data file");
+        }
+        if (buffer.get(ACCESSIBLE) == 0) {
+            throw new IOException(file + ": not initialized yet");
+        }
+        buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        final int count = buffer.getInt(NUM_ENTRIES);
+        entryCount = count;
+        final List<Integer> valueOffsets = new ArrayList<Integer>(count);
+        final List<Byte> valueUnits = new ArrayList<Byte>(count);
+        int entry = buffer.getInt(ENTRY_OFFSET);
+        for (int i = 0; i < count; i++) {
+            if (entry < 0 || entry + 20 > buffer.capacity()) {
+                throw new IOException(file + ": corrupted entry table");
+            }
+            final int entryLength = buffer.getInt(entry);
+            final int nameOffset = buffer.getInt(entry + 4);
+            final int vectorLength = buffer.getInt(entry + 8);
+            final byte type = buffer.get(entry + 12);
+            final byte unit = buffer.get(entry + 14);
+            final int dataOffset = buffer.getInt(entry + 16);
+            if (entryLength <= 0) {
+                throw new IOException(file + ": corrupted entry table");
+            }
+            if (type == TYPE_LONG && vectorLength == 0) {
+                final String name = readString(entry + nameOffset, Integer.MAX_VALUE);
+                index.put(name, names.size());
+                names.add(name);
+                valueOffsets.add(entry + dataOffset);
+                valueUnits.add(unit);
+            } else if (type == TYPE_BYTE && vectorLength > 0) {
+                strings.put(readString(entry + nameOffset, Integer.MAX_VALUE), new int[]{entry + dataOffset, vectorLength});
+            }
+            entry += entryLength;
+        }
+        offsets = new int[valueOffsets.size()];
+        units = new byte[valueOffsets.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = valueOffsets.get(i);
+            units[i] = valueUnits.get(i);
+        }
+        final int frequency = indexOf("sun.os.hrt.frequency");
+        tickFrequency = frequency < 0 ? -1 : getLong(frequency);
+    }
+
+    /**
+     * Checks whether the JVM has finished initializing given perf data file. A JVM which is just starting creates the file
+     * first and fills in the entry table afterwards.
+     * @param file the <code>hsperfdata</code> file, not null.
+     * @return true if the file can be decoded, false if it is not initialized yet or cannot be read.
+     */
+    public static boolean isAccessible(@NotNull File file) {
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return raf.length() > NUM_ENTRIES + 4 && raf.readInt() == MAGIC && raf.skipBytes(ACCESSIBLE - 4) == ACCESSIBLE - 4
+                        && raf.readByte() != 0;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ex) {
+            log.log(Level.FINE, "Failed to read " + file, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the JVM created new counters since this file was decoded. Does not allocate.
+     * @return true if the file should be decoded again to see all counters.
+     */
+    public boolean hasNewEntries() {
+        return buffer.getInt(NUM_ENTRIES) != entryCount;
+    }
+
+    /**
+     * Returns the perf data file.
+     * @return the file, never null.
+     */
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    private String readString(int offset, int maxLength) {
+        final StringBuilder sb = new StringBuilder();
+        final int end = (int) Math.min(buffer.capacity(), (long) offset + maxLength);
+        for (int i = offset; i < end; i++) {
+            final byte b = buffer.get(i);
+            if (b == 0) {
+                break;
+            }
+            sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the perf data file of given JVM. HotSpot always uses <code>/tmp</code>, regardless of <code>java.io.tmpdir</code>.
+     * @param user the user running the JVM, not null.
+     * @param pid the JVM process ID.
+     * @return the file, may not exist (e.g. when the JVM runs with <code>-XX:-UsePerfData</code>).
+     */
+    @NotNull
+    public static File getFile(@NotNull String user, int pid) {
+        return new File("/tmp/hsperfdata_" + user, Integer.toString(pid));
+    }
+
+    /**
+     * Opens the perf data of this JVM.
+     * @return the perf data, null if not available.
+     */
+    @Nullable
+    public static PerfData openSelf() {
+        final int pid = getOwnPid();
+        if (pid < 0) {
+            return null;
+        }
+        final File file = getFile(System.getProperty("user.name"), pid);
+        if (!file.exists()) {
+            log.fine(file + " does not exist, perf data unavailable");
+            return null;
+        }
+        try {
+            return new PerfData(file);
+        } catch (IOException ex) {
+            log.log(Level.INFO, "Failed to read " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the process ID of this JVM, parsed from the runtime name.
+     * @return the PID, -1 if not known.
+     */
+    public static int getOwnPid() {
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+        final int at = name.indexOf('@');
+        try {
+            return Integer.parseInt(at < 0 ? name : name.substring(0, at));
+        } catch (NumberFormatException ex) {
+            log.log(Level.FINE, "Failed to parse the PID from " + name, ex);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the names of all long counters.
+     * @return the counter names, in the order of the counter indices.
+     */
+    @NotNull
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Finds given counter.
+     * @param name the counter name, e.g. <code>sun.rt.safepointTime</code>.
+     * @return the counter index, -1 if there is no such long counter.
+     */
+    public int indexOf(@NotNull String name) {
+        final Integer result = index.get(name);
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * Reads the current value of given counter. Does not allocate.
+     * @param counter the counter index, see {@link #indexOf(java.lang.String)}.
+     * @return the counter value.
+     */
+    public long getLong(int counter) {
+        return buffer.getLong(offsets[counter]);
+    }
+
+    /**
+     * Reads the current value of given string counter, e.g. <code>sun.rt.javaCommand</code>. Allocates.
+     * @param name the counter name, not null.
+     * @return the value, null if there is no such string counter.
+     */
+    @Nullable
+    public String getString(@NotNull String name) {
+        final int[] entry = strings.get(name);
+        return entry == null ? null : readString(entry[0], entry[1]);
+    }
+
+    /**
+     * Lists perf data files of all JVMs on this machine which are readable by the current user.
+     * @return maps the process ID to the perf data file, sorted by the PID. Never null, empty if there is no perf data.
+     */
+    @NotNull
+    public static SortedMap<Integer, File> discover() {
+        final SortedMap<Integer, File> result = new TreeMap<Integer, File>();
+        final File[] dirs = new File("/tmp").listFiles();
+        if (dirs == null) {
+            return result;
+        }
+        for (File dir : dirs) {
+            if (!dir.getName().startsWith("hsperfdata_") || !dir.isDirectory()) {
+                continue;
+            }
+            final File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (!file.canRead()) {
+                    continue;
+                }
+                try {
+                    result.put(Integer.parseInt(file.getName()), file);
+                } catch (NumberFormatException ex) {
+                    // not a perf data file
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the unit of given counter.
+     * @param counter the counter index.
+     * @return the HotSpot unit ID, e.g. {@link #UNITS_TICKS}.
+     */
+    public int getUnits(int counter) {
+        return units[counter];
+    }
+
+    /**
+     * Returns the frequency of the ticks.
+     * @return number of ticks per second, -1 if not known.
+     */
+    public long getTickFrequency() {
+        return tickFrequency;
+    }
+
+    /**
+     * Converts ticks to milliseconds.
+     * @param ticks the ticks, see {@link #UNITS_TICKS}.
+     * @return the milliseconds, -1 if the tick frequency is not known.
+     */
+    public long ticksToMillis(long ticks) {
+        if (tickFrequency <= 0) {
+            return -1;
+        }
+        return tickFrequency >= 1000 ? ticks / (tickFrequency / 1000) : ticks * 1000 / tickFrequency;
+    }
+
+    @Override
+    public String toString() {
+        return "PerfData{" + file + ", " + names.size() + " counters}";
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.hostos.BufferPool;
+import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.utils.Constants;
+
+/**
+ * Buffer count, used memory and total capacity of the NIO buffer pools (direct, mapped). This memory lives outside of the
+ * Java heap and the non-heap memory pools. Memory values are in kilobytes.
+ * @author Martin Vysny
+ */
+public final class BufferPoolSource implements IMetricSource {
+
+    /**
+     * Names of the pools, in the order of the metrics.
+     */
+    private final List<String> pools = new ArrayList<String>();
+
+    public String getName() {
+        return "buffers";
+    }
+
+    /**
+     * Returns the name of the metric holding the memory used by given pool.
+     * @param pool the pool name, e.g. <code>direct</code>.
+     * @return the metric name.
+     */
+    public static String getUsedMetric(String pool) {
+        return "buffer." + pool.replace(' ', '_') + ".used";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>();
+        for (BufferPool pool : Memory.getBufferPools()) {
+            pools.add(pool.name);
+            final String name = "buffer." + pool.name.replace(' ', '_');
+            final String group = pool.name + " buffers (KB)";
+            result.add(new Metric(name + ".count", pool.name + " buffer count", "buffers", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, "NIO buffers"));
+            result.add(new Metric(getUsedMetric(pool.name), pool.name + " buffers used", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, group));
+            result.add(new Metric(name + ".capacity", pool.name + " buffers capacity", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, group));
+        }
+        return result;
+    }
+
+    public void sample(long[] values) {
+        for (BufferPool pool : Memory.getBufferPools()) {
+            final int index = pools.indexOf(pool.name) * 3;
+            if (index < 0) {
+                continue;
+            }
+            values[index] = pool.count < 0 ? HistoryBuffer.NOT_AVAILABLE : pool.count;
+            values[index + 1] = pool.memoryUsed < 0 ? HistoryBuffer.NOT_AVAILABLE : pool.memoryUsed / Constants.KIBIBYTES;
+            values[index + 2] = pool.totalCapacity < 0 ? HistoryBuffer.NOT_AVAILABLE : pool.totalCapacity / Constants.KIBIBYTES;
+        }
+    }
+}
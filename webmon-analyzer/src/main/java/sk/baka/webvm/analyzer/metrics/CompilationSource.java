@@ -0,0 +1,62 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.utils.Constants;
+import sk.baka.webvm.analyzer.utils.MemoryUsage2;
+
+/**
+ * The time spent by the JIT compiler, as reported by the {@link CompilationMXBean}, and the code cache fill. A high compilation
+ * rate after a deploy means the application is still warming up; a full code cache stops the compiler altogether.
+ * @author Martin Vysny
+ */
+public final class CompilationSource implements IMetricSource {
+
+    private final CompilationMXBean bean = ManagementFactory.getCompilationMXBean();
+    private final boolean compilationTime = bean != null && bean.isCompilationTimeMonitoringSupported();
+
+    public String getName() {
+        return "jit";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>(2);
+        if (compilationTime) {
+            result.add(new Metric("jit.compilationTime", "JIT compilation time", "ms/s", Metric.Kind.COUNTER));
+        }
+        result.add(new Metric("jit.codeCache", "Code cache used", "%", Metric.Kind.GAUGE));
+        return result;
+    }
+
+    public void sample(long[] values) {
+        int index = 0;
+        if (compilationTime) {
+            values[index++] = bean.getTotalCompilationTime();
+        }
+        final MemoryUsage2 codeCache = Memory.getCodeCacheSummary();
+        values[index] = codeCache == null || codeCache.getMax() <= 0 ? HistoryBuffer.NOT_AVAILABLE
+                : codeCache.getUsed() * Constants.HUNDRED_PERCENT / codeCache.getMax();
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+
+/**
+ * Collection count and collection time of every garbage collector, as reported by the {@link GarbageCollectorMXBean}s.
+ * @author Martin Vysny
+ */
+public final class GarbageCollectorSource implements IMetricSource {
+
+    private final List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+
+    public String getName() {
+        return "gc";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>(beans.size() * 2);
+        for (GarbageCollectorMXBean bean : beans) {
+            final String name = bean.getName().replace(' ', '_');
+            result.add(new Metric("gc." + name + ".count", bean.getName() + " collections", "1/s", Metric.Kind.COUNTER));
+            result.add(new Metric("gc." + name + ".time", bean.getName() + " collection time", "ms/s", Metric.Kind.COUNTER));
+        }
+        return result;
+    }
+
+    public void sample(long[] values) {
+        for (int i = 0; i < beans.size(); i++) {
+            final GarbageCollectorMXBean bean = beans.get(i);
+            if (!bean.isValid()) {
+                continue;
+            }
+            final long count = bean.getCollectionCount();
+            final long time = bean.getCollectionTime();
+            values[i * 2] = count < 0 ? HistoryBuffer.NOT_AVAILABLE : count;
+            values[i * 2 + 1] = time < 0 ? HistoryBuffer.NOT_AVAILABLE : time;
+        }
+    }
+}
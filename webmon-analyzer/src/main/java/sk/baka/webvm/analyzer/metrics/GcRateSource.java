@@ -0,0 +1,78 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.GcEvents;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.utils.Checks;
+import sk.baka.webvm.analyzer.utils.Constants;
+
+/**
+ * The JVM-wide allocation rate (into eden) and promotion rate (into the old generation), derived from the pool usage
+ * transitions reported by the GC notifications. The rates are in kilobytes per second.
+ * <p></p>
+ * Requires a running {@link GcEvents} recorder, thus it is not discovered via the {@link java.util.ServiceLoader} but registered
+ * by the {@link sk.baka.webvm.analyzer.HistorySampler}.
+ * @author Martin Vysny
+ */
+public final class GcRateSource implements IMetricSource {
+
+    /**
+     * The allocation rate metric name.
+     */
+    public static final String ALLOCATION_RATE = "gc.allocationRate";
+    /**
+     * The promotion rate metric name.
+     */
+    public static final String PROMOTION_RATE = "gc.promotionRate";
+    private final GcEvents events;
+
+    /**
+     * Creates new source.
+     * @param events the GC event recorder, not null.
+     */
+    public GcRateSource(@NotNull GcEvents events) {
+        Checks.checkNotNull("events", events);
+        this.events = events;
+    }
+
+    public String getName() {
+        return "gcrates";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>(2);
+        final String group = "GC rates (KB/s)";
+        result.add(new Metric(PROMOTION_RATE, "Promotion rate", "KB/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, group));
+        result.add(new Metric(ALLOCATION_RATE, "Allocation rate", "KB/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, group));
+        return result;
+    }
+
+    public void sample(long[] values) {
+        values[0] = toKb(events.getPromotedBytes());
+        values[1] = toKb(events.getAllocatedBytes());
+    }
+
+    private static long toKb(long bytes) {
+        return bytes < 0 ? HistoryBuffer.NOT_AVAILABLE : bytes / Constants.KIBIBYTES;
+    }
+}
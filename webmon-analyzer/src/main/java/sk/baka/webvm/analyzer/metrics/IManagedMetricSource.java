@@ -0,0 +1,52 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A metric source which holds resources, e.g. a background recording. {@link MetricRegistry} starts the source lazily, before
+ * the first sample taken while the source is enabled, and stops it when the source is switched off by
+ * {@link sk.baka.webvm.analyzer.config.Config#metricsDisabled} or when the registry is stopped. {@link #getMetrics()} must
+ * not start the source.
+ * <p></p>
+ * {@link #start()}, {@link #stop()} and {@link #sample(long[])} are called from the sampler thread only;
+ * {@link #getReport()} may be called from any thread.
+ * @author Martin Vysny
+ */
+public interface IManagedMetricSource extends IMetricSource {
+
+    /**
+     * Starts the source. Called only if the source is stopped.
+     * @return true if the source is running, false if it failed to start. A failed source is retried on the next sample.
+     */
+    boolean start();
+
+    /**
+     * Stops the source and releases its resources. The source may be started again later.
+     */
+    void stop();
+
+    /**
+     * Returns additional data aggregated by the source which do not fit into the metric history, e.g. top-N tables.
+     * @return a human-readable report, null if there is nothing to report.
+     */
+    @Nullable
+    String getReport();
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.List;
+
+/**
+ * Provides additional metrics to the sampler. Implementations are discovered by {@link java.util.ServiceLoader}: list them in
+ * <code>META-INF/services/sk.baka.webvm.analyzer.metrics.IMetricSource</code> and provide a public no-arg constructor.
+ * <p></p>
+ * {@link #sample(long[])} is called from the sampler thread only.
+ * @author Martin Vysny
+ */
+public interface IMetricSource {
+
+    /**
+     * Returns the source name, used to switch the source off in the configuration.
+     * @return the name, not null.
+     */
+    String getName();
+
+    /**
+     * Returns the metrics provided by this source. Called once, when the source is registered.
+     * @return the metrics, not null, may be empty if the source is not supported on this JVM.
+     */
+    List<Metric> getMetrics();
+
+    /**
+     * Samples the metrics. Should not allocate.
+     * @param values fill with values of {@link #getMetrics()}, in the same order. Use
+     * {@link sk.baka.webvm.analyzer.HistoryBuffer#NOT_AVAILABLE} for unknown values. Counters are filled with their total value.
+     */
+    void sample(long[] values);
+}
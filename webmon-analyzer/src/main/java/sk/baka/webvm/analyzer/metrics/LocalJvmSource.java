@@ -0,0 +1,241 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.hostos.CPUUsage;
+import sk.baka.webvm.analyzer.hostos.IMemoryInfoProvider;
+import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.hostos.linux.PerfData;
+import sk.baka.webvm.analyzer.hostos.linux.ProcessCpuUsageLinuxStrategy;
+import sk.baka.webvm.analyzer.utils.Checks;
+import sk.baka.webvm.analyzer.utils.Constants;
+import sk.baka.webvm.analyzer.utils.MemoryUsage2;
+
+/**
+ * Heap, GC, thread, class and CPU metrics of another JVM running on this machine. The JVM counters are read from its
+ * {@link PerfData}; the CPU usage and the resident memory are read from the OS. Memory values are in kilobytes.
+ * <p></p>
+ * When the JVM creates new counters the perf data is decoded again and the counters are looked up again; if that changes the
+ * list of metrics, the source stops sampling and reports {@link #isMetricsChanged()}.
+ * @author Martin Vysny
+ */
+public final class LocalJvmSource implements IMetricSource {
+
+    private static final Logger log = Logger.getLogger(LocalJvmSource.class.getName());
+    /**
+     * Number of heap generations: young and old.
+     */
+    private static final int GENERATIONS = 2;
+    public final int pid;
+    private PerfData perfData;
+    private final ProcessCpuUsageLinuxStrategy cpu;
+    private final IMemoryInfoProvider memory;
+    private Object previousCpu;
+    private int[] heapUsed = new int[0];
+    private int[] heapCapacity = new int[0];
+    private int[] heapMax = new int[0];
+    /**
+     * Perf data counters sampled one-to-one, in the order of the metrics following the summed heap metrics.
+     */
+    private int[] counters = new int[0];
+    private boolean[] ticks = new boolean[0];
+    /**
+     * Names of the metrics listed by {@link #getMetrics()}.
+     */
+    private List<String> metricNames = Collections.emptyList();
+    private volatile boolean metricsChanged = false;
+
+    /**
+     * Creates new source.
+     * @param pid the process ID of the JVM.
+     * @param perfData the perf data of the JVM, not null.
+     */
+    public LocalJvmSource(int pid, @NotNull PerfData perfData) {
+        Checks.checkNotNull("perfData", perfData);
+        this.pid = pid;
+        this.perfData = perfData;
+        cpu = ProcessCpuUsageLinuxStrategy.isAvailable() ? new ProcessCpuUsageLinuxStrategy(pid) : null;
+        memory = Memory.newProcessMemoryInfo(pid);
+    }
+
+    public String getName() {
+        return "jvm-" + pid;
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>();
+        result.add(new Metric("process.cpu", "Process CPU usage", "%", Metric.Kind.GAUGE));
+        result.add(new Metric("process.rss", "Process resident memory", "KB", Metric.Kind.GAUGE));
+        final List<Integer> used = new ArrayList<Integer>();
+        final List<Integer> capacity = new ArrayList<Integer>();
+        final List<Integer> max = new ArrayList<Integer>();
+        for (int gen = 0; gen < GENERATIONS; gen++) {
+            final String prefix = "sun.gc.generation." + gen + ".";
+            addIfPresent(capacity, prefix + "capacity");
+            addIfPresent(max, prefix + "maxCapacity");
+            for (int space = 0; perfData.indexOf(prefix + "space." + space + ".used") >= 0; space++) {
+                used.add(perfData.indexOf(prefix + "space." + space + ".used"));
+            }
+        }
+        heapUsed = toArray(used);
+        heapCapacity = toArray(capacity);
+        heapMax = toArray(max);
+        result.add(new Metric("heap.used", "Heap used", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, "Heap (KB)"));
+        result.add(new Metric("heap.committed", "Heap committed", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, "Heap (KB)"));
+        result.add(new Metric("heap.max", "Heap max", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, "Heap (KB)"));
+        final List<Integer> present = new ArrayList<Integer>();
+        for (int i = 0; perfData.indexOf("sun.gc.collector." + i + ".invocations") >= 0; i++) {
+            String name = perfData.getString("sun.gc.collector." + i + ".name");
+            name = name == null ? "collector " + i : name;
+            present.add(perfData.indexOf("sun.gc.collector." + i + ".invocations"));
+            result.add(new Metric("gc." + name.replace(' ', '_') + ".count", name + " collections", "1/s", Metric.Kind.COUNTER));
+            final int time = perfData.indexOf("sun.gc.collector." + i + ".time");
+            if (time >= 0 && perfData.getTickFrequency() > 0) {
+                present.add(time);
+                result.add(new Metric("gc." + name.replace(' ', '_') + ".time", name + " collection time", "ms/s", Metric.Kind.COUNTER));
+            }
+        }
+        addCounter(present, result, "java.threads.live", new Metric("threads.live", "Live threads", "threads", Metric.Kind.GAUGE));
+        addCounter(present, result, "java.threads.daemon", new Metric("threads.daemon", "Daemon threads", "threads", Metric.Kind.GAUGE));
+        addCounter(present, result, "java.cls.loadedClasses", new Metric("classes.loaded", "Loaded classes", "1/s", Metric.Kind.COUNTER));
+        if (perfData.getTickFrequency() > 0) {
+            addCounter(present, result, "sun.rt.safepointTime", new Metric("perf.safepointTime", "Time at safepoints", "ms/s", Metric.Kind.COUNTER));
+        }
+        counters = toArray(present);
+        ticks = new boolean[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            ticks[i] = perfData.getUnits(counters[i]) == PerfData.UNITS_TICKS;
+        }
+        metricNames = getNames(result);
+        return result;
+    }
+
+    private static List<String> getNames(List<Metric> metrics) {
+        final List<String> result = new ArrayList<String>(metrics.size());
+        for (Metric metric : metrics) {
+            result.add(metric.name);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the JVM created counters which changed the list of metrics. Such source no longer samples anything and
+     * should be replaced by a new one.
+     * @return true if {@link #getMetrics()} now lists different metrics than before.
+     */
+    public boolean isMetricsChanged() {
+        return metricsChanged;
+    }
+
+    /**
+     * Decodes the perf data again and looks the counters up again.
+     * @return false if the list of metrics changed and the sample must not be taken.
+     */
+    private boolean reopen() {
+        final PerfData reopened;
+        try {
+            reopened = new PerfData(perfData.getFile());
+        } catch (IOException ex) {
+            // the JVM may be adding entries just now; keep the old counters and retry in the next sample
+            log.log(Level.FINE, "Failed to reopen the perf data of " + pid, ex);
+            return true;
+        }
+        final List<String> names = metricNames;
+        perfData = reopened;
+        if (!getNames(getMetrics()).equals(names)) {
+            metricsChanged = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void addIfPresent(List<Integer> indices, String counter) {
+        final int index = perfData.indexOf(counter);
+        if (index >= 0) {
+            indices.add(index);
+        }
+    }
+
+    private void addCounter(List<Integer> indices, List<Metric> metrics, String counter, Metric metric) {
+        final int index = perfData.indexOf(counter);
+        if (index >= 0) {
+            indices.add(index);
+            metrics.add(metric);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    public void sample(long[] values) {
+        if (metricsChanged || (perfData.hasNewEntries() && !reopen())) {
+            return;
+        }
+        values[0] = sampleCpu();
+        final MemoryUsage2 rss = memory.getPhysicalMemory();
+        values[1] = rss == null ? HistoryBuffer.NOT_AVAILABLE : rss.getUsed() / Constants.KIBIBYTES;
+        values[2] = sum(heapUsed);
+        values[3] = sum(heapCapacity);
+        values[4] = sum(heapMax);
+        for (int i = 0; i < counters.length; i++) {
+            final long value = perfData.getLong(counters[i]);
+            values[5 + i] = ticks[i] ? perfData.ticksToMillis(value) : value;
+        }
+    }
+
+    private long sampleCpu() {
+        if (cpu == null) {
+            return HistoryBuffer.NOT_AVAILABLE;
+        }
+        try {
+            final Object current = cpu.measure();
+            final CPUUsage usage = previousCpu == null ? null : cpu.getAvgCpuUsage(previousCpu, current);
+            previousCpu = current;
+            return usage == null ? HistoryBuffer.NOT_AVAILABLE : usage.cpuAvgUsage;
+        } catch (Exception ex) {
+            log.log(Level.FINE, "Failed to measure CPU usage of " + pid, ex);
+            previousCpu = null;
+            return HistoryBuffer.NOT_AVAILABLE;
+        }
+    }
+
+    private long sum(int[] indices) {
+        if (indices.length == 0) {
+            return HistoryBuffer.NOT_AVAILABLE;
+        }
+        long result = 0;
+        for (int index : indices) {
+            result += perfData.getLong(index);
+        }
+        return result / Constants.KIBIBYTES;
+    }
+}
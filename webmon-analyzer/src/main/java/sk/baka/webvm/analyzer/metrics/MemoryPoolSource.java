@@ -0,0 +1,77 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.utils.Constants;
+
+/**
+ * Usage of every memory pool (Eden, Survivor, Old Gen, Metaspace, Code Cache...), as reported by the {@link MemoryPoolMXBean}s:
+ * the usage after the last collection (for pools managed by a garbage collector), the current usage and the committed size.
+ * All values are in kilobytes.
+ * @author Martin Vysny
+ */
+public final class MemoryPoolSource implements IMetricSource {
+
+    private final List<MemoryPoolMXBean> beans = ManagementFactory.getMemoryPoolMXBeans();
+    /**
+     * Whether given pool reports the collection usage.
+     */
+    private final boolean[] collectionUsage = new boolean[beans.size()];
+
+    public String getName() {
+        return "pools";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>(beans.size() * 3);
+        for (int i = 0; i < beans.size(); i++) {
+            final MemoryPoolMXBean bean = beans.get(i);
+            final String name = "pool." + bean.getName().replace(' ', '_');
+            final String group = bean.getName() + " (KB)";
+            collectionUsage[i] = bean.getCollectionUsage() != null;
+            if (collectionUsage[i]) {
+                result.add(new Metric(name + ".afterGc", bean.getName() + " used after GC", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, group));
+            }
+            result.add(new Metric(name + ".used", bean.getName() + " used", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, group));
+            result.add(new Metric(name + ".committed", bean.getName() + " committed", "KB", Metric.Kind.GAUGE, Metric.NO_THRESHOLD, group));
+        }
+        return result;
+    }
+
+    public void sample(long[] values) {
+        int index = 0;
+        for (int i = 0; i < beans.size(); i++) {
+            final MemoryPoolMXBean bean = beans.get(i);
+            final boolean valid = bean.isValid();
+            if (collectionUsage[i]) {
+                final MemoryUsage afterGc = valid ? bean.getCollectionUsage() : null;
+                values[index++] = afterGc == null ? HistoryBuffer.NOT_AVAILABLE : afterGc.getUsed() / Constants.KIBIBYTES;
+            }
+            final MemoryUsage usage = valid ? bean.getUsage() : null;
+            values[index++] = usage == null ? HistoryBuffer.NOT_AVAILABLE : usage.getUsed() / Constants.KIBIBYTES;
+            values[index++] = usage == null ? HistoryBuffer.NOT_AVAILABLE : usage.getCommitted() / Constants.KIBIBYTES;
+        }
+    }
+}
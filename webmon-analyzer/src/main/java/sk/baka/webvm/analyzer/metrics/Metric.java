@@ -0,0 +1,138 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.io.Serializable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * Describes a single metric provided by a {@link IMetricSource}. Immutable.
+ * @author Martin Vysny
+ */
+public final class Metric implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The metric kind.
+     */
+    public static enum Kind {
+
+        /**
+         * An instantaneous value, stored as-is.
+         */
+        GAUGE,
+        /**
+         * A monotonically increasing value. The history stores its increase per second.
+         */
+        COUNTER;
+    }
+    /**
+     * Marks a metric without a problem threshold.
+     */
+    public static final long NO_THRESHOLD = Long.MAX_VALUE;
+    /**
+     * Unique name, e.g. <code>gc.PS_Scavenge.time</code>.
+     */
+    @NotNull
+    public final String name;
+    /**
+     * Human-readable name.
+     */
+    @NotNull
+    public final String displayName;
+    /**
+     * The unit of the stored value, e.g. <code>ms/s</code>.
+     */
+    @NotNull
+    public final String unit;
+    @NotNull
+    public final Kind kind;
+    /**
+     * A problem is reported when the newest stored value reaches this value. {@link #NO_THRESHOLD} if the metric never
+     * triggers a problem.
+     */
+    public final long problemThreshold;
+    /**
+     * Metrics with the same group are shown in a single graph, in the order of the metrics. The values should be ascending in
+     * this order. Null if the metric has its own graph.
+     */
+    @Nullable
+    public final String group;
+
+    /**
+     * Creates a metric without a problem threshold.
+     * @param name unique name, not null.
+     * @param displayName human-readable name, not null.
+     * @param unit the unit of the stored value, not null.
+     * @param kind the metric kind, not null.
+     */
+    public Metric(@NotNull String name, @NotNull String displayName, @NotNull String unit, @NotNull Kind kind) {
+        this(name, displayName, unit, kind, NO_THRESHOLD);
+    }
+
+    /**
+     * Creates a metric.
+     * @param name unique name, not null.
+     * @param displayName human-readable name, not null.
+     * @param unit the unit of the stored value, not null.
+     * @param kind the metric kind, not null.
+     * @param problemThreshold a problem is reported when the newest stored value reaches this value.
+     */
+    public Metric(@NotNull String name, @NotNull String displayName, @NotNull String unit, @NotNull Kind kind, long problemThreshold) {
+        this(name, displayName, unit, kind, problemThreshold, null);
+    }
+
+    /**
+     * Creates a metric.
+     * @param name unique name, not null.
+     * @param displayName human-readable name, not null.
+     * @param unit the unit of the stored value, not null.
+     * @param kind the metric kind, not null.
+     * @param problemThreshold a problem is reported when the newest stored value reaches this value.
+     * @param group metrics with the same group are shown in a single graph. May be null.
+     */
+    public Metric(@NotNull String name, @NotNull String displayName, @NotNull String unit, @NotNull Kind kind, long problemThreshold, @Nullable String group) {
+        Checks.checkNotNull("name", name);
+        Checks.checkNotNull("displayName", displayName);
+        Checks.checkNotNull("unit", unit);
+        Checks.checkNotNull("kind", kind);
+        this.name = name;
+        this.displayName = displayName;
+        this.unit = unit;
+        this.kind = kind;
+        this.problemThreshold = problemThreshold;
+        this.group = group;
+    }
+
+    /**
+     * Checks whether this metric may trigger a problem.
+     * @return true if the metric has a problem threshold.
+     */
+    public boolean hasThreshold() {
+        return problemThreshold != NO_THRESHOLD;
+    }
+
+    @Override
+    public String toString() {
+        return displayName + " (" + unit + ")";
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+
+/**
+ * A fixed-size columnar ring buffer holding the history of {@link Metric}s. Every metric is stored in its own preallocated
+ * primitive ring; adding a sample does not allocate.
+ * <p></p>
+ * The buffer may be written by a single thread only. Readers may obtain a {@link View} snapshot from any thread, see
+ * {@link HistoryBuffer#view()} for details.
+ * @author Martin Vysny
+ */
+public final class MetricHistory {
+
+    /**
+     * The metrics, in the column order.
+     */
+    public final List<Metric> metrics;
+    /**
+     * Maximum number of samples visible to the readers.
+     */
+    public final int historyLength;
+    /**
+     * The real ring size. Larger than {@link #historyLength} so that a concurrent write rarely invalidates a view being copied.
+     */
+    private final int capacity;
+    private final long[] sampleTime;
+    private final long[][] columns;
+    private volatile long written = 0;
+
+    /**
+     * Creates new buffer.
+     * @param metrics the metrics, not null.
+     * @param historyLength maximum number of samples to keep, must be at least 1.
+     */
+    public MetricHistory(@NotNull List<Metric> metrics, int historyLength) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("Parameter historyLength: invalid value " + historyLength + ": must be 1 or greater");
+        }
+        this.metrics = metrics;
+        this.historyLength = historyLength;
+        this.capacity = historyLength + Math.max(MIN_SLACK, historyLength / 8);
+        sampleTime = new long[capacity];
+        columns = new long[metrics.size()][capacity];
+    }
+    private static final int MIN_SLACK = 16;
+
+    /**
+     * Appends a sample, overwriting the oldest one when the buffer is full. Does not allocate.
+     * @param time the time the sample was taken.
+     * @param row the metric values, in the order of {@link #metrics}. Not retained.
+     */
+    public void add(long time, @NotNull long[] row) {
+        add(time, row, 0);
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one when the buffer is full. Does not allocate.
+     * @param time the time the sample was taken.
+     * @param row holds the metric values, in the order of {@link #metrics}. Not retained.
+     * @param offset index of the value of the first metric in the row.
+     */
+    public void add(long time, @NotNull long[] row, int offset) {
+        final long w = written;
+        final int slot = (int) (w % capacity);
+        sampleTime[slot] = time;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i][slot] = row[offset + i];
+        }
+        written = w + 1;
+    }
+
+    /**
+     * Returns a read-only snapshot of the current history. Thread-safe: copies the columns without locking, and copies again
+     * if the writer wrapped over the copied samples meanwhile.
+     * @return the view, never null, first item is the oldest one.
+     */
+    @NotNull
+    public View view() {
+        while (true) {
+            final long w = written;
+            final long start = Math.max(0, w - historyLength);
+            final int size = (int) (w - start);
+            final long[] viewSampleTime = new long[size];
+            final long[][] viewColumns = new long[columns.length][size];
+            final int first = (int) (start % capacity);
+            final int tail = Math.min(size, capacity - first);
+            copy(sampleTime, viewSampleTime, first, tail, size);
+            for (int i = 0; i < columns.length; i++) {
+                copy(columns[i], viewColumns[i], first, tail, size);
+            }
+            // the writer publishes sample n after overwriting sample n - capacity; it may be writing sample "written" right now
+            if (written < start + capacity) {
+                return new View(viewSampleTime, viewColumns, 0, size);
+            }
+        }
+    }
+
+    private static void copy(long[] ring, long[] dest, int first, int tail, int size) {
+        System.arraycopy(ring, first, dest, 0, tail);
+        System.arraycopy(ring, 0, dest, tail, size - tail);
+    }
+
+    /**
+     * Returns a read-only snapshot of samples taken at or after given time. Thread-safe, see {@link #view()}.
+     * @param since the time, in millis since epoch.
+     * @return the view, never null, first item is the oldest one.
+     */
+    @NotNull
+    public View view(long since) {
+        return view().since(since);
+    }
+
+    /**
+     * A read-only snapshot of the buffer. Thread-safe.
+     */
+    public final class View {
+
+        private final long[] sampleTime;
+        private final long[][] columns;
+        private final int offset;
+        private final int size;
+
+        private View(long[] sampleTime, long[][] columns, int offset, int size) {
+            this.sampleTime = sampleTime;
+            this.columns = columns;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Returns the number of samples.
+         * @return the number of samples.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the metrics, in the column order.
+         * @return the metrics, never null.
+         */
+        @NotNull
+        public List<Metric> getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Returns the maximum number of samples the underlying buffer holds.
+         * @return the history length.
+         */
+        public int getHistoryLength() {
+            return historyLength;
+        }
+
+        /**
+         * Finds the metric with given name.
+         * @param name the metric name.
+         * @return the metric index, -1 if there is no such metric.
+         */
+        public int indexOf(String name) {
+            for (int i = 0; i < metrics.size(); i++) {
+                if (metrics.get(i).name.equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns a view of samples taken at or after given time. Assumes the samples are ordered by their time.
+         * @param time the time, in millis since epoch.
+         * @return a view, never null.
+         */
+        @NotNull
+        public View since(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (getSampleTime(mid) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low == 0 ? this : new View(sampleTime, columns, offset + low, size - low);
+        }
+
+        private int index(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return offset + index;
+        }
+
+        /**
+         * Returns the time given sample was taken.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the sample time, in millis since epoch.
+         */
+        public long getSampleTime(int index) {
+            return sampleTime[index(index)];
+        }
+
+        /**
+         * Returns a metric value.
+         * @param metric the metric index.
+         * @param index the sample index, 0 is the oldest one.
+         * @return the value, {@link HistoryBuffer#NOT_AVAILABLE} if not known.
+         */
+        public long get(int metric, int index) {
+            return columns[metric][index(index)];
+        }
+
+        /**
+         * Returns the newest value of given metric.
+         * @param metric the metric index.
+         * @return the value, {@link HistoryBuffer#NOT_AVAILABLE} if not known or the view is empty.
+         */
+        public long getNewest(int metric) {
+            return size == 0 ? HistoryBuffer.NOT_AVAILABLE : get(metric, size - 1);
+        }
+
+        /**
+         * Returns the maximum value of given metric in this view.
+         * @param metric the metric index.
+         * @return the maximum value, 0 if the view is empty.
+         */
+        public long getMax(int metric) {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result = Math.max(result, get(metric, i));
+            }
+            return result;
+        }
+    }
+}
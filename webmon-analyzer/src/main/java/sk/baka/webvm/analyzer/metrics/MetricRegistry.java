@@ -0,0 +1,318 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.SamplerOverhead;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.utils.Checks;
+
+/**
+ * Samples a fixed set of {@link IMetricSource}s into a {@link MetricHistory}. Counters are converted to their increase per
+ * second. Sources may be switched off by {@link Config#metricsDisabled}; values of a disabled or failing source are stored as
+ * {@link HistoryBuffer#NOT_AVAILABLE}.
+ * <p></p>
+ * {@link IManagedMetricSource}s are started by the first sample taken while they are enabled, and stopped when they are
+ * switched off or by {@link #stop()}.
+ * <p></p>
+ * {@link #sample(long, sk.baka.webvm.analyzer.SamplerOverhead, sk.baka.webvm.analyzer.SamplerOverhead.Stopwatch)} must be
+ * called from a single thread; the history may be read from any thread.
+ * @author Martin Vysny
+ */
+public final class MetricRegistry {
+
+    private static final Logger LOG = Logger.getLogger(MetricRegistry.class.getName());
+
+    /**
+     * Finds all metric sources registered in <code>META-INF/services/sk.baka.webvm.analyzer.metrics.IMetricSource</code>. A
+     * source which fails to load is logged and skipped.
+     * @return the sources, never null.
+     */
+    @NotNull
+    public static List<IMetricSource> discover() {
+        final List<IMetricSource> result = new ArrayList<IMetricSource>();
+        final Iterator<IMetricSource> i = ServiceLoader.load(IMetricSource.class, IMetricSource.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!i.hasNext()) {
+                    break;
+                }
+                result.add(i.next());
+            } catch (ServiceConfigurationError ex) {
+                LOG.log(Level.WARNING, "Failed to load a metric source", ex);
+            }
+        }
+        return result;
+    }
+    private final IMetricSource[] sources;
+    /**
+     * Index of the first metric of given source in the row.
+     */
+    private final int[] offsets;
+    private final String[] stageNames;
+    private final Metric[] metrics;
+    private final MetricHistory history;
+    private volatile boolean[] disabled;
+    /**
+     * Marks the started {@link IManagedMetricSource}s. Accessed by the sampler thread only.
+     */
+    private final boolean[] started;
+    /**
+     * Per-source buffers handed to {@link IMetricSource#sample(long[])}.
+     */
+    private final long[][] values;
+    private final long[] raw;
+    private final long[] previousRaw;
+    private final long[] row;
+    private long previousTime = -1;
+
+    /**
+     * Creates new registry.
+     * @param sources the sources, not null. Sources without metrics are ignored.
+     * @param historyLength maximum number of samples to keep, at least 1.
+     */
+    public MetricRegistry(@NotNull List<IMetricSource> sources, int historyLength) {
+        Checks.checkNotNull("sources", sources);
+        final List<IMetricSource> active = new ArrayList<IMetricSource>(sources.size());
+        final List<Metric> allMetrics = new ArrayList<Metric>();
+        final List<Integer> offsetList = new ArrayList<Integer>();
+        for (IMetricSource source : sources) {
+            final List<Metric> m;
+            try {
+                m = source.getMetrics();
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, "Metric source " + source.getName() + " failed to list its metrics", t);
+                continue;
+            }
+            if (m.isEmpty()) {
+                continue;
+            }
+            active.add(source);
+            offsetList.add(allMetrics.size());
+            allMetrics.addAll(m);
+        }
+        this.sources = active.toArray(new IMetricSource[active.size()]);
+        offsets = new int[this.sources.length + 1];
+        stageNames = new String[this.sources.length];
+        for (int i = 0; i < this.sources.length; i++) {
+            offsets[i] = offsetList.get(i);
+            stageNames[i] = "metrics: " + this.sources[i].getName();
+        }
+        offsets[this.sources.length] = allMetrics.size();
+        metrics = allMetrics.toArray(new Metric[allMetrics.size()]);
+        history = new MetricHistory(Collections.unmodifiableList(allMetrics), historyLength);
+        disabled = new boolean[this.sources.length];
+        started = new boolean[this.sources.length];
+        values = new long[this.sources.length][];
+        for (int i = 0; i < this.sources.length; i++) {
+            values[i] = new long[offsets[i + 1] - offsets[i]];
+        }
+        raw = new long[metrics.length];
+        previousRaw = new long[metrics.length];
+        Arrays.fill(previousRaw, HistoryBuffer.NOT_AVAILABLE);
+        row = new long[metrics.length];
+    }
+
+    /**
+     * Switches off sources listed in {@link Config#metricsDisabled}.
+     * @param cfg the new config, not null.
+     */
+    public void configChanged(@NotNull Config cfg) {
+        final Set<String> names = new HashSet<String>();
+        if (cfg.metricsDisabled != null) {
+            for (String name : cfg.metricsDisabled.split(",")) {
+                names.add(name.trim());
+            }
+        }
+        final boolean[] d = new boolean[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            d[i] = names.contains(sources[i].getName());
+        }
+        disabled = d;
+    }
+
+    /**
+     * Returns names of the registered sources.
+     * @return the source names, never null.
+     */
+    @NotNull
+    public List<String> getSourceNames() {
+        final List<String> result = new ArrayList<String>(sources.length);
+        for (IMetricSource source : sources) {
+            result.add(source.getName());
+        }
+        return result;
+    }
+
+    /**
+     * Samples all enabled sources and appends the values to the history.
+     * @param time the sample time, in millis since epoch.
+     * @param overhead if not null, the cost of every source is recorded as a <code>metrics: name</code> stage.
+     * @param stopwatch the stopwatch to use, may be null only if the overhead is null.
+     */
+    public void sample(long time, @Nullable SamplerOverhead overhead, @Nullable SamplerOverhead.Stopwatch stopwatch) {
+        final boolean[] d = disabled;
+        for (int i = 0; i < sources.length; i++) {
+            final int from = offsets[i];
+            final int to = offsets[i + 1];
+            Arrays.fill(raw, from, to, HistoryBuffer.NOT_AVAILABLE);
+            try {
+                sample(i, d[i], from);
+            } finally {
+                // also bills stopping and starting the source, e.g. starting a JFR recording, to the source's own stage
+                if (overhead != null) {
+                    stopwatch.lap(overhead.getStage(stageNames[i]));
+                }
+            }
+        }
+        final long delta = previousTime < 0 ? 0 : time - previousTime;
+        for (int i = 0; i < metrics.length; i++) {
+            if (metrics[i].kind == Metric.Kind.GAUGE) {
+                row[i] = raw[i];
+            } else if (delta <= 0 || raw[i] < 0 || previousRaw[i] < 0 || raw[i] < previousRaw[i]) {
+                row[i] = HistoryBuffer.NOT_AVAILABLE;
+            } else {
+                row[i] = (raw[i] - previousRaw[i]) * 1000 / delta;
+            }
+        }
+        System.arraycopy(raw, 0, previousRaw, 0, raw.length);
+        previousTime = time;
+        history.add(time, row);
+    }
+
+    private void sample(int index, boolean disabled, int from) {
+        if (disabled) {
+            stop(index);
+            return;
+        }
+        if (!started[index] && sources[index] instanceof IManagedMetricSource) {
+            try {
+                started[index] = ((IManagedMetricSource) sources[index]).start();
+            } catch (Throwable t) {
+                LOG.log(Level.INFO, "Metric source " + sources[index].getName() + " failed to start", t);
+            }
+            if (!started[index]) {
+                return;
+            }
+        }
+        final long[] v = values[index];
+        Arrays.fill(v, HistoryBuffer.NOT_AVAILABLE);
+        try {
+            sources[index].sample(v);
+            System.arraycopy(v, 0, raw, from, v.length);
+        } catch (Throwable t) {
+            LOG.log(Level.FINE, "Metric source " + sources[index].getName() + " failed", t);
+        }
+    }
+
+    private void stop(int index) {
+        if (!started[index]) {
+            return;
+        }
+        started[index] = false;
+        try {
+            ((IManagedMetricSource) sources[index]).stop();
+        } catch (Throwable t) {
+            LOG.log(Level.INFO, "Metric source " + sources[index].getName() + " failed to stop", t);
+        }
+    }
+
+    /**
+     * Stops all started {@link IManagedMetricSource}s. Must be called from the sampler thread, or after the sampler thread
+     * has terminated. The sources are started again by the next sample.
+     */
+    public void stop() {
+        for (int i = 0; i < sources.length; i++) {
+            stop(i);
+        }
+    }
+
+    /**
+     * Returns the reports of the enabled {@link IManagedMetricSource}s, see {@link IManagedMetricSource#getReport()}.
+     * @return maps the source name to its report, never null. Sources with nothing to report are omitted.
+     */
+    @NotNull
+    public Map<String, String> getReports() {
+        final Map<String, String> result = new LinkedHashMap<String, String>();
+        final boolean[] d = disabled;
+        for (int i = 0; i < sources.length; i++) {
+            if (d[i] || !(sources[i] instanceof IManagedMetricSource)) {
+                continue;
+            }
+            final String report = ((IManagedMetricSource) sources[i]).getReport();
+            if (report != null) {
+                result.put(sources[i].getName(), report);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a read-only snapshot of the metric history.
+     * @return the history view, first item is the oldest one.
+     */
+    @NotNull
+    public MetricHistory.View getHistory() {
+        return history.view();
+    }
+
+    /**
+     * Returns the metrics of all sources, in the order of the row values.
+     * @return the metrics, never null.
+     */
+    @NotNull
+    public List<Metric> getMetrics() {
+        return history.metrics;
+    }
+
+    /**
+     * Copies the values of the newest sample, with counters converted to rates. Must be called from the sampler thread.
+     * @param target the array to fill, not null.
+     * @param offset index of the first metric value in the target array.
+     */
+    public void getRow(@NotNull long[] target, int offset) {
+        System.arraycopy(row, 0, target, offset, row.length);
+    }
+
+    /**
+     * Appends a sample restored from a persisted history. Must be called before the first
+     * {@link #sample(long, sk.baka.webvm.analyzer.SamplerOverhead, sk.baka.webvm.analyzer.SamplerOverhead.Stopwatch)}.
+     * @param time the sample time, in millis since epoch.
+     * @param values holds the metric values as produced by {@link #getRow(long[], int)}. Not retained.
+     * @param offset index of the first metric value in the values array.
+     */
+    public void restore(long time, @NotNull long[] values, int offset) {
+        history.add(time, values, offset);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.utils.Constants;
+
+/**
+ * The system load average and, on Unix HotSpot, the number of open file descriptors.
+ * @author Martin Vysny
+ */
+public final class OperatingSystemSource implements IMetricSource {
+
+    private static final Logger log = Logger.getLogger(OperatingSystemSource.class.getName());
+    private final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+    private Method openFileDescriptorCount;
+    private long maxFileDescriptorCount = -1;
+
+    public OperatingSystemSource() {
+        try {
+            final Class<?> clazz = Class.forName("com.sun.management.UnixOperatingSystemMXBean");
+            if (clazz.isInstance(bean)) {
+                openFileDescriptorCount = clazz.getMethod("getOpenFileDescriptorCount");
+                maxFileDescriptorCount = (Long) clazz.getMethod("getMaxFileDescriptorCount").invoke(bean);
+            }
+        } catch (Exception ex) {
+            log.log(Level.FINE, "File descriptor count unavailable", ex);
+            openFileDescriptorCount = null;
+        }
+    }
+
+    public String getName() {
+        return "os";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>(2);
+        result.add(new Metric("os.loadAverage", "System load average", "% of CPUs", Metric.Kind.GAUGE));
+        if (openFileDescriptorCount != null) {
+            final long threshold = maxFileDescriptorCount > 0 ? maxFileDescriptorCount * 9 / 10 : Metric.NO_THRESHOLD;
+            result.add(new Metric("os.openFileDescriptors", "Open file descriptors", "files", Metric.Kind.GAUGE, threshold));
+        }
+        return result;
+    }
+
+    public void sample(long[] values) {
+        final double load = bean.getSystemLoadAverage();
+        values[0] = load < 0 ? HistoryBuffer.NOT_AVAILABLE : (long) (load * Constants.HUNDRED_PERCENT / bean.getAvailableProcessors());
+        if (openFileDescriptorCount != null) {
+            try {
+                values[1] = (Long) openFileDescriptorCount.invoke(bean);
+            } catch (Exception ex) {
+                log.log(Level.FINE, "Failed to read the open file descriptor count", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import sk.baka.webvm.analyzer.hostos.linux.PerfData;
+
+/**
+ * JVM-internal counters read from the HotSpot perf data (see {@link PerfData}): safepoints, class loading and initialization,
+ * and JIT compilation. Durations are converted to milliseconds; as counters, the history stores them as milliseconds spent per
+ * second. The sampling does not perform any JMX call nor allocation.
+ * @author Martin Vysny
+ */
+public final class PerfDataSource implements IMetricSource {
+
+    /**
+     * The counters to read: counter name, metric name, display name.
+     */
+    private static final String[][] COUNTERS = new String[][]{
+        {"sun.rt.safepoints", "perf.safepoints", "Safepoints"},
+        {"sun.rt.safepointTime", "perf.safepointTime", "Time at safepoints"},
+        {"sun.rt.safepointSyncTime", "perf.safepointSyncTime", "Time to reach safepoints"},
+        {"sun.cls.time", "perf.classLoadTime", "Class loading time"},
+        {"sun.cls.classInitTime", "perf.classInitTime", "Class initialization time"},
+        {"sun.ci.totalTime", "perf.jitTime", "JIT compilation time"}
+    };
+    private final PerfData perfData = PerfData.openSelf();
+    /**
+     * Indices of the counters present in the perf data.
+     */
+    private int[] counters = new int[0];
+    private boolean[] ticks = new boolean[0];
+
+    public String getName() {
+        return "perfdata";
+    }
+
+    public List<Metric> getMetrics() {
+        final List<Metric> result = new ArrayList<Metric>(COUNTERS.length);
+        if (perfData == null) {
+            return result;
+        }
+        final List<Integer> present = new ArrayList<Integer>(COUNTERS.length);
+        for (String[] counter : COUNTERS) {
+            final int index = perfData.indexOf(counter[0]);
+            if (index < 0) {
+                continue;
+            }
+            final boolean isTicks = perfData.getUnits(index) == PerfData.UNITS_TICKS;
+            if (isTicks && perfData.getTickFrequency() <= 0) {
+                continue;
+            }
+            present.add(index);
+            result.add(new Metric(counter[1], counter[2], isTicks ? "ms/s" : "1/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD,
+                    isTicks ? "JVM internals (ms/s)" : null));
+        }
+        counters = new int[present.size()];
+        ticks = new boolean[present.size()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = present.get(i);
+            ticks[i] = perfData.getUnits(counters[i]) == PerfData.UNITS_TICKS;
+        }
+        return result;
+    }
+
+    public void sample(long[] values) {
+        for (int i = 0; i < counters.length; i++) {
+            final long value = perfData.getLong(counters[i]);
+            values[i] = ticks[i] ? perfData.ticksToMillis(value) : value;
+        }
+    }
+}
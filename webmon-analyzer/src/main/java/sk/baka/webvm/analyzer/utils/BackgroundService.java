@@ -22,7 +22,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 /**
  * Executes various tasks in background thread.
@@ -75,18 +77,32 @@ public abstract class BackgroundService implements IService {
     }
 
     /**
-     * Disposes of this sampler. This instance is no longer usable and cannot be started again.
+     * Disposes of this sampler. This instance is no longer usable and cannot be started again. Waits up to
+     * {@link #TERMINATION_TIMEOUT_SECONDS} for the running task to finish.
      */
     public final synchronized void stop() {
         if (executor != null) {
             executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warning("The " + name + " task did not finish in " + TERMINATION_TIMEOUT_SECONDS + " seconds");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
             executor = null;
             stopped();
         }
     }
+    /**
+     * Maximum time {@link #stop()} waits for the running task to finish.
+     */
+    public static final int TERMINATION_TIMEOUT_SECONDS = 10;
+    private static final Logger LOG = Logger.getLogger(BackgroundService.class.getName());
 
     /**
-     * Invoked after the service has been stopped.
+     * Invoked after the service has been stopped and its running task has finished (or {@link #TERMINATION_TIMEOUT_SECONDS}
+     * elapsed), so that the resources used by the tasks can be safely released.
      */
     protected abstract void stopped();
 
@@ -0,0 +1,295 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An immutable compressed block of time series samples. A sample is a timestamp plus a fixed number of long values.
+ * <p></p>
+ * The encoding is streaming and row-oriented. The first sample stores the timestamp and all values as zig-zag varints. Every
+ * following sample stores:
+ * <ul><li>the delta-of-delta of the timestamp as a zig-zag varint - a single byte for a regular sampling rate,</li>
+ * <li>a bit mask of changed values, one varint per 64 values - a single byte if nothing changed,</li>
+ * <li>for every changed value the delta from the previous sample as a zig-zag varint.</li></ul>
+ * A sample where nothing changed takes two bytes.
+ * @author Martin Vysny
+ */
+public final class CompressedBlock {
+
+    /**
+     * Number of values per sample.
+     */
+    public final int columns;
+    /**
+     * Number of samples in this block.
+     */
+    public final int count;
+    /**
+     * Timestamp of the first sample, undefined if the block is empty.
+     */
+    public final long firstTime;
+    /**
+     * Timestamp of the last sample, undefined if the block is empty.
+     */
+    public final long lastTime;
+    private final byte[] data;
+    private final int length;
+
+    private CompressedBlock(int columns, int count, long firstTime, long lastTime, byte[] data, int length) {
+        this.columns = columns;
+        this.count = count;
+        this.firstTime = firstTime;
+        this.lastTime = lastTime;
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Returns the size of the encoded data.
+     * @return the size in bytes.
+     */
+    public int getByteSize() {
+        return length;
+    }
+
+    /**
+     * Returns a new decoder, positioned before the first sample.
+     * @return the decoder, never null.
+     */
+    @NotNull
+    public Decoder decoder() {
+        return new Decoder(columns, count, data, length);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int words(int columns) {
+        return (columns + 63) / 64;
+    }
+
+    /**
+     * Encodes samples into a block. Not thread-safe.
+     */
+    public static final class Encoder {
+
+        private final int columns;
+        private final long[] prev;
+        private final long[] masks;
+        private byte[] buf;
+        private int length = 0;
+        private int count = 0;
+        private long firstTime;
+        private long prevTime;
+        private long prevDelta;
+
+        /**
+         * Creates new encoder.
+         * @param columns number of values per sample.
+         */
+        public Encoder(int columns) {
+            this.columns = columns;
+            prev = new long[columns];
+            masks = new long[words(columns)];
+            buf = new byte[Math.max(64, columns * 4)];
+        }
+
+        /**
+         * Appends a sample.
+         * @param time the timestamp.
+         * @param row the values, must be {@link #columns} long. Not retained.
+         */
+        public void add(long time, @NotNull long[] row) {
+            ensureCapacity(10 * (1 + masks.length + columns));
+            if (count == 0) {
+                firstTime = time;
+                writeVarLong(zigzag(time));
+                for (int i = 0; i < columns; i++) {
+                    writeVarLong(zigzag(row[i]));
+                }
+                prevDelta = 0;
+            } else {
+                final long delta = time - prevTime;
+                writeVarLong(zigzag(delta - prevDelta));
+                prevDelta = delta;
+                Arrays.fill(masks, 0);
+                for (int i = 0; i < columns; i++) {
+                    if (row[i] != prev[i]) {
+                        masks[i >>> 6] |= 1L << (i & 63);
+                    }
+                }
+                for (long mask : masks) {
+                    writeVarLong(mask);
+                }
+                for (int i = 0; i < columns; i++) {
+                    if (row[i] != prev[i]) {
+                        writeVarLong(zigzag(row[i] - prev[i]));
+                    }
+                }
+            }
+            System.arraycopy(row, 0, prev, 0, columns);
+            prevTime = time;
+            count++;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + additional));
+            }
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buf[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[length++] = (byte) value;
+        }
+
+        /**
+         * Returns the number of samples encoded so far.
+         * @return the sample count.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes encoded so far.
+         * @return the size in bytes.
+         */
+        public int getByteSize() {
+            return length;
+        }
+
+        /**
+         * Returns a decoder over the samples encoded so far. The decoder must not be used after the encoder is modified.
+         * @return the decoder, never null.
+         */
+        @NotNull
+        public Decoder decoder() {
+            return new Decoder(columns, count, buf, length);
+        }
+
+        /**
+         * Seals the samples encoded so far into an immutable block and resets this encoder.
+         * @return the block, never null.
+         */
+        @NotNull
+        public CompressedBlock seal() {
+            final CompressedBlock result = new CompressedBlock(columns, count, firstTime, prevTime, Arrays.copyOf(buf, length), length);
+            reset();
+            return result;
+        }
+
+        /**
+         * Discards all samples.
+         */
+        public void reset() {
+            length = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Decodes samples one by one. Not thread-safe.
+     */
+    public static final class Decoder {
+
+        private final int columns;
+        private final int count;
+        private final byte[] data;
+        private final int length;
+        private final long[] prev;
+        private final long[] masks;
+        private int position = 0;
+        private int decoded = 0;
+        private long prevTime;
+        private long prevDelta;
+
+        private Decoder(int columns, int count, byte[] data, int length) {
+            this.columns = columns;
+            this.count = count;
+            this.data = data;
+            this.length = length;
+            prev = new long[columns];
+            masks = new long[words(columns)];
+        }
+
+        /**
+         * Checks whether there is another sample to decode.
+         * @return true if {@link #next(long[])} can be called.
+         */
+        public boolean hasNext() {
+            return decoded < count;
+        }
+
+        /**
+         * Decodes the next sample.
+         * @param row filled with the values, must be at least {@link CompressedBlock#columns} long.
+         * @return the sample timestamp.
+         */
+        public long next(@NotNull long[] row) {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (decoded == 0) {
+                prevTime = unzigzag(readVarLong());
+                prevDelta = 0;
+                for (int i = 0; i < columns; i++) {
+                    prev[i] = unzigzag(readVarLong());
+                }
+            } else {
+                prevDelta += unzigzag(readVarLong());
+                prevTime += prevDelta;
+                for (int i = 0; i < masks.length; i++) {
+                    masks[i] = readVarLong();
+                }
+                for (int i = 0; i < columns; i++) {
+                    if ((masks[i >>> 6] & (1L << (i & 63))) != 0) {
+                        prev[i] += unzigzag(readVarLong());
+                    }
+                }
+            }
+            decoded++;
+            System.arraycopy(prev, 0, row, 0, columns);
+            return prevTime;
+        }
+
+        private long readVarLong() {
+            long result = 0;
+            for (int shift = 0; position < length; shift += 7) {
+                final byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("Truncated block");
+        }
+    }
+}
@@ -31,6 +31,10 @@ public final class Constants {
      * Number of millis in a second.
      */
     public static final int MILLIS_IN_SECOND = 1000;
+    /**
+     * Number of seconds in a minute.
+     */
+    public static final int SECONDS_IN_MINUTE = 60;
     /**
      * Hundred (full) percent.
      */
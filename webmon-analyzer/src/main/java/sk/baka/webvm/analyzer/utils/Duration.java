@@ -142,4 +142,42 @@ public final class Duration implements Serializable, Comparable<Duration> {
     public static Duration seconds(long i) {
         return new Duration(i, TimeUnit.SECONDS);
     }
+
+    /**
+     * Parses a duration such as <code>90s</code>, <code>10m</code>, <code>6h</code>, <code>2d</code> or <code>1w</code>. A number without
+     * the unit is considered to be in milliseconds.
+     * @param duration the duration string, not null.
+     * @return the duration, never null.
+     * @throws IllegalArgumentException if the string is not a valid duration.
+     */
+    public static Duration parse(String duration) {
+        final String d = duration.trim();
+        if (d.length() == 0) {
+            throw new IllegalArgumentException("Parameter duration: invalid value " + duration + ": empty");
+        }
+        final char unit = Character.toLowerCase(d.charAt(d.length() - 1));
+        final long value;
+        try {
+            value = Long.parseLong(Character.isDigit(unit) ? d : d.substring(0, d.length() - 1));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Parameter duration: invalid value " + duration, ex);
+        }
+        switch (unit) {
+            case 's':
+                return seconds(value);
+            case 'm':
+                return minutes(value);
+            case 'h':
+                return hours(value);
+            case 'd':
+                return days(value);
+            case 'w':
+                return weeks(value);
+            default:
+                if (Character.isDigit(unit)) {
+                    return millis(value);
+                }
+                throw new IllegalArgumentException("Parameter duration: invalid value " + duration + ": unknown unit " + unit);
+        }
+    }
 }
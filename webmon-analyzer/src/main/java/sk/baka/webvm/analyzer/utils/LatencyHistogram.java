@@ -0,0 +1,221 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A histogram of non-negative values (typically latencies) with log-linear buckets: every power-of-two range is split into
+ * {@link #SUB_BUCKETS} linear buckets, so a bucket is at most 1/{@link #SUB_BUCKETS} of its value wide. Values below
+ * 2*{@link #SUB_BUCKETS} are counted exactly.
+ * <p></p>
+ * Recording is lock-free and does not allocate: it is an atomic add into a fixed array. Snapshots are consistent per bucket
+ * only. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    /**
+     * Number of linear buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Total number of buckets, covering the whole non-negative long range.
+     */
+    public static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong intervalMax = new AtomicLong();
+    /**
+     * Bucket counts at the time of the last {@link #getIntervalSnapshot()}.
+     */
+    private long[] intervalStart = new long[BUCKETS];
+    private long intervalStartSum = 0;
+
+    /**
+     * Returns the bucket the value falls into.
+     * @param value the value, negative values are counted as 0.
+     * @return the bucket index, 0..{@link #BUCKETS}-1.
+     */
+    public static int getBucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return magnitude * SUB_BUCKETS + (int) (value >>> magnitude);
+    }
+
+    /**
+     * Returns the smallest value counted by given bucket.
+     * @param bucket the bucket index.
+     * @return the lower bound, inclusive.
+     */
+    public static long getLowerBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        final int magnitude = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket - magnitude * SUB_BUCKETS) << magnitude;
+    }
+
+    /**
+     * Returns the largest value counted by given bucket.
+     * @param bucket the bucket index.
+     * @return the upper bound, inclusive.
+     */
+    public static long getUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        final int magnitude = bucket / SUB_BUCKETS - 1;
+        return getLowerBound(bucket) + (1L << magnitude) - 1;
+    }
+
+    /**
+     * Records a value. Lock-free, does not allocate.
+     * @param value the value, negative values are counted as 0.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(getBucket(v));
+        sum.addAndGet(v);
+        updateMax(max, v);
+        updateMax(intervalMax, v);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns all values recorded so far.
+     * @return the snapshot, never null.
+     */
+    @NotNull
+    public Snapshot getSnapshot() {
+        final long[] c = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = counts.get(i);
+        }
+        return new Snapshot(c, sum.get(), max.get());
+    }
+
+    /**
+     * Returns values recorded since the previous call of this method (or since the histogram was created), and starts a new
+     * interval.
+     * @return the snapshot of the interval, never null.
+     */
+    @NotNull
+    public synchronized Snapshot getIntervalSnapshot() {
+        final long[] c = new long[BUCKETS];
+        final long[] current = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            current[i] = counts.get(i);
+            c[i] = current[i] - intervalStart[i];
+        }
+        final long currentSum = sum.get();
+        final Snapshot result = new Snapshot(c, currentSum - intervalStartSum, intervalMax.getAndSet(0));
+        intervalStart = current;
+        intervalStartSum = currentSum;
+        return result;
+    }
+
+    /**
+     * An immutable histogram snapshot.
+     */
+    public static final class Snapshot implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        /**
+         * An empty snapshot.
+         */
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0);
+        private final long[] counts;
+        /**
+         * Number of recorded values.
+         */
+        public final long count;
+        /**
+         * Sum of the recorded values.
+         */
+        public final long sum;
+        /**
+         * The greatest recorded value, 0 if there is none.
+         */
+        public final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long c = 0;
+            for (long count : counts) {
+                c += count;
+            }
+            this.count = c;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of values which fell into given bucket.
+         * @param bucket the bucket, 0..{@link LatencyHistogram#BUCKETS}-1.
+         * @return the count.
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * Returns the mean value.
+         * @return the mean, 0 if there are no values.
+         */
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Estimates given percentile, as the upper bound of the bucket the percentile falls into (but at most {@link #max}).
+         * @param percentile the percentile, 0..100, e.g. 99.9.
+         * @return the value, 0 if there are no values.
+         */
+        public long getPercentile(double percentile) {
+            final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, getUpperBound(i));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", p999=" + getPercentile(99.9) + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.util.Arrays;
+
+/**
+ * A primitive long-to-int hash map with open addressing and linear probing. Does not box keys nor values and does not allocate
+ * unless it grows. {@link Long#MIN_VALUE} cannot be used as a key. Not thread-safe.
+ * @author Martin Vysny
+ */
+public final class LongIntMap {
+
+    private static final long FREE = Long.MIN_VALUE;
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    /**
+     * Creates new map.
+     * @param expectedSize the expected number of entries.
+     */
+    public LongIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slot(long key) {
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the value mapped to given key.
+     * @param key the key.
+     * @param defaultValue returned when the key is not mapped.
+     * @return the value or defaultValue.
+     */
+    public int get(long key, int defaultValue) {
+        final int slot = slot(key);
+        return keys[slot] == FREE ? defaultValue : values[slot];
+    }
+
+    /**
+     * Maps given key to given value.
+     * @param key the key, must not be {@link Long#MIN_VALUE}.
+     * @param value the value.
+     */
+    public void put(long key, int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Parameter key: invalid value " + key);
+        }
+        int slot = slot(key);
+        if (keys[slot] == FREE) {
+            if ((size + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Removes the mapping for given key.
+     * @param key the key.
+     * @return true if the key was mapped.
+     */
+    public boolean remove(long key) {
+        final int mask = keys.length - 1;
+        int slot = slot(key);
+        if (keys[slot] == FREE) {
+            return false;
+        }
+        // backward-shift deletion keeps the probe sequences intact without tombstones
+        int next = (slot + 1) & mask;
+        while (keys[next] != FREE) {
+            final int ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = FREE;
+        size--;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                final int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of mappings.
+     * @return the size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+}
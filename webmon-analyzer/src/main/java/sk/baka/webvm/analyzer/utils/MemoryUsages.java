@@ -20,6 +20,7 @@ package sk.baka.webvm.analyzer.utils;
 
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryUsage;
+import java.util.Locale;
 import java.util.SortedMap;
 import java.util.logging.Logger;
 import sk.baka.webvm.analyzer.hostos.IMemoryInfoProvider;
@@ -77,4 +78,16 @@ public final class MemoryUsages {
         }
         return (HUNDRED_PERCENT - (mu.getUsed() * HUNDRED_PERCENT / mu.getMax())) + "%";
     }
+
+    /**
+     * Formats an allocation rate in the following format: x.y MB/s
+     * @param bytesPerSecond the rate in bytes per second, negative if not known.
+     * @return formatted rate; "?" if not known
+     */
+    public static String getRatePerSec(final long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            return "?";
+        }
+        return String.format(Locale.ENGLISH, "%.1f MB/s", bytesPerSecond / (1024.0 * 1024.0));
+    }
 }
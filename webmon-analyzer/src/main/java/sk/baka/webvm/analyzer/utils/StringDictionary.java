@@ -0,0 +1,84 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An append-only dictionary of strings, mapping each distinct string to a small int index. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class StringDictionary {
+
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private String[] strings = new String[16];
+    private int size = 0;
+
+    /**
+     * Returns the index of given string, adding it to the dictionary if necessary.
+     * @param string the string, not null.
+     * @return the index, 0 or greater.
+     */
+    public synchronized int intern(@NotNull String string) {
+        final Integer result = index.get(string);
+        if (result != null) {
+            return result;
+        }
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = string;
+        index.put(string, size);
+        return size++;
+    }
+
+    /**
+     * Returns the index of given string, without adding it to the dictionary.
+     * @param string the string, not null.
+     * @return the index, -1 if the string is not in the dictionary.
+     */
+    public synchronized int indexOf(@NotNull String string) {
+        final Integer result = index.get(string);
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * Returns the string with given index.
+     * @param index the index as returned by {@link #intern(java.lang.String)}.
+     * @return the string, never null.
+     */
+    @NotNull
+    public synchronized String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Parameter index: invalid value " + index + ": size is " + size);
+        }
+        return strings[index];
+    }
+
+    /**
+     * Returns the number of distinct strings.
+     * @return the size.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
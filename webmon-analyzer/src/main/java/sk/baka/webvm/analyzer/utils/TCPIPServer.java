@@ -18,6 +18,7 @@ import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import org.jetbrains.annotations.NotNull;
 import sk.baka.webvm.analyzer.*;
+import sk.baka.webvm.analyzer.dump.AbstractDump;
 import sk.baka.webvm.analyzer.dump.HTMLDump;
 import sk.baka.webvm.analyzer.dump.TextDump;
 
@@ -38,6 +39,26 @@ public class TCPIPServer {
         this.port = port;
         this.sampler = sampler;
     }
+    private volatile LocalJvms jvms = null;
+
+    /**
+     * Serves the JVMs monitored by given sidecar as well: via the <code>/jvm</code> HTTP context and the <code>jvms</code> and
+     * <code>jvm</code> console commands.
+     * @param jvms the monitor, null to disable.
+     */
+    public void setLocalJvms(LocalJvms jvms) {
+        this.jvms = jvms;
+    }
+    private volatile StackProfiler profiler = null;
+
+    /**
+     * Serves the call tree of given profiler in the collapsed-stack format: via the <code>/profile</code> HTTP context and the
+     * <code>profile</code> console command. A <code>POST</code> to <code>/profile</code> returns the stacks and clears the tree.
+     * @param profiler the profiler, null to disable.
+     */
+    public void setProfiler(StackProfiler profiler) {
+        this.profiler = profiler;
+    }
     private volatile ServerSocket serverSocket = null;
     private volatile HttpServer serverHttp = null;
 
@@ -84,7 +105,98 @@ public class TCPIPServer {
         serverHttp = HttpServer.create(new InetSocketAddress(httpPort), 10);
         serverHttp.createContext("/", new HttpHandler() {
             @Override public void handle(HttpExchange exchange) throws IOException {
-                final byte[] response = new HTMLDump().dump(sampler.getVmstatHistory()).getBytes("UTF-8");
+                final String query = exchange.getRequestURI().getQuery();
+                final byte[] response;
+                try {
+                    response = new HTMLDump().dump(sampler, getHistory(getParameter(query, "range"), getParameter(query, "aggregate"))).getBytes("UTF-8");
+                } catch (IllegalArgumentException ex) {
+                    final byte[] error = ex.getMessage().getBytes("UTF-8");
+                    exchange.sendResponseHeaders(400, error.length);
+                    exchange.getResponseBody().write(error);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        serverHttp.createContext("/overhead", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                final byte[] response = new TextDump().dumpOverhead(sampler.getOverhead()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        serverHttp.createContext("/locks", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                final byte[] response = new TextDump().dumpLocks(sampler.getLockContention()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        serverHttp.createContext("/reports", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                final byte[] response = new TextDump().dumpMetricReports(sampler.getMetricReports()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        serverHttp.createContext("/waits", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                final byte[] response = new TextDump().dumpWaits(sampler.getWaitProfile()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        serverHttp.createContext("/jvm", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                final String pid = getParameter(exchange.getRequestURI().getQuery(), "pid");
+                final byte[] response;
+                try {
+                    response = dumpJvm(new HTMLDump(), pid).getBytes("UTF-8");
+                } catch (IllegalArgumentException ex) {
+                    final byte[] error = ex.getMessage().getBytes("UTF-8");
+                    exchange.sendResponseHeaders(404, error.length);
+                    exchange.getResponseBody().write(error);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        serverHttp.createContext("/profile", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                if (getParameter(exchange.getRequestURI().getQuery(), "reset") != null) {
+                    // a GET must not change the state: a crawler or a browser prefetch would lose the samples
+                    final byte[] error = "Use POST /profile to obtain the stacks and clear them".getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Allow", "GET, POST");
+                    exchange.sendResponseHeaders(405, error.length);
+                    exchange.getResponseBody().write(error);
+                    exchange.close();
+                    return;
+                }
+                final byte[] response;
+                try {
+                    response = getProfile("POST".equals(exchange.getRequestMethod())).getBytes("UTF-8");
+                } catch (IllegalArgumentException ex) {
+                    final byte[] error = ex.getMessage().getBytes("UTF-8");
+                    exchange.sendResponseHeaders(404, error.length);
+                    exchange.getResponseBody().write(error);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
                 exchange.sendResponseHeaders(200, response.length);
                 exchange.getResponseBody().write(response);
                 exchange.close();
@@ -96,6 +208,69 @@ public class TCPIPServer {
 
     private static final Logger log = Logger.getLogger(TCPIPServer.class.getName());
 
+    /**
+     * Returns the vmstat history covering given range.
+     * @param range the range, parsed by {@link Duration#parse(java.lang.String)}. If null, the raw history is returned.
+     * @param aggregate the {@link HistoryRollup.Aggregate} name, defaults to {@link HistoryRollup.Aggregate#AVG} if null.
+     * @return the history, never null.
+     */
+    private HistoryBuffer.View getHistory(String range, String aggregate) {
+        if (range == null) {
+            return sampler.getVmstatHistory();
+        }
+        final HistoryRollup.Aggregate a = aggregate == null ? HistoryRollup.Aggregate.AVG : HistoryRollup.Aggregate.valueOf(aggregate.toUpperCase());
+        return sampler.getVmstatHistory(Duration.parse(range).millis, a);
+    }
+
+    /**
+     * Dumps a JVM monitored by the {@link #setLocalJvms(sk.baka.webvm.analyzer.LocalJvms) sidecar}.
+     * @param dump the dump format.
+     * @param pid the process ID, null to list all JVMs.
+     * @return the dump, never null.
+     * @throws IllegalArgumentException if there is no such JVM or the sidecar is disabled.
+     */
+    private String dumpJvm(AbstractDump dump, String pid) {
+        final LocalJvms j = jvms;
+        if (j == null) {
+            throw new IllegalArgumentException("Local JVM monitoring is disabled");
+        }
+        if (pid == null) {
+            return dump.dumpJvms(j.getJvms());
+        }
+        final LocalJvms.Jvm jvm = j.getJvm(Integer.parseInt(pid));
+        if (jvm == null) {
+            throw new IllegalArgumentException("No such JVM: " + pid);
+        }
+        return dump.dumpJvm(jvm);
+    }
+
+    /**
+     * Returns the stacks sampled by the {@link #setProfiler(sk.baka.webvm.analyzer.StackProfiler) profiler}.
+     * @param reset if true, the call tree is cleared atomically with taking the stacks.
+     * @return the collapsed stacks.
+     */
+    private String getProfile(boolean reset) {
+        final StackProfiler p = profiler;
+        if (p == null) {
+            throw new IllegalArgumentException("The profiler is disabled");
+        }
+        final CallTree tree = p.getCallTree();
+        return reset ? tree.toCollapsedAndClear() : tree.toCollapsed();
+    }
+
+    private static String getParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String param : query.split("&")) {
+            final int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).equals(name)) {
+                return param.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
     public synchronized void stop() {
         if (serverSocket == null) {
             return;
@@ -117,7 +292,7 @@ public class TCPIPServer {
 
     private void handle(Socket s) throws IOException {
         try {
-            s.getOutputStream().write(new TextDump().dump(sampler.getVmstatHistory()).getBytes("UTF-8"));
+            s.getOutputStream().write(new TextDump().dump(sampler, sampler.getVmstatHistory()).getBytes("UTF-8"));
             s.getOutputStream().flush();
             final PrintWriter w = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), "ASCII"));
             final BufferedReader r = new BufferedReader(new InputStreamReader(s.getInputStream()));
@@ -135,9 +310,33 @@ public class TCPIPServer {
                     final String cmd = args[0];
                     if ("help".equals(cmd)) {
                         w.println("help - displays this help");
+                        w.println("dump [range] [min|max|avg|last] - dumps the history covering given range, e.g. 'dump 1d max'");
+                        w.println("overhead - shows the cost of the sampler itself, per sampling stage");
+                        w.println("locks - ranks the most contended locks by blocked-thread time");
+                        w.println("reports - shows the reports of the metric sources, e.g. the JFR top-N tables");
+                        w.println("waits - ranks the call sites threads wait in (blocked, waiting, native I/O) by waiting-thread time");
+                        w.println("profile [reset] - prints the stacks sampled by the profiler in the collapsed format for flame graphs, optionally clears them");
+                        w.println("jvms - lists the local JVMs monitored by this sidecar");
+                        w.println("jvm 1234 - dumps the history of the local JVM with given PID");
                         w.println("getResources java/lang/String.class  - calls Thread.currentThread().getContextClassLoader().getResources()");
                         w.println("getResourceAsStream java/lang/String.class  - calls Thread.currentThread().getContextClassLoader().getResources() and dumps each URL here");
                         w.println("getResourceAsStreamBase64 java/lang/String.class  - calls Thread.currentThread().getContextClassLoader().getResources() and dumps each URL here");
+                    } else if ("dump".equals(cmd)) {
+                        w.print(new TextDump().dump(sampler, getHistory(args.length > 1 ? args[1] : null, args.length > 2 ? args[2] : null)));
+                    } else if ("overhead".equals(cmd)) {
+                        w.print(new TextDump().dumpOverhead(sampler.getOverhead()));
+                    } else if ("locks".equals(cmd)) {
+                        w.print(new TextDump().dumpLocks(sampler.getLockContention()));
+                    } else if ("reports".equals(cmd)) {
+                        w.print(new TextDump().dumpMetricReports(sampler.getMetricReports()));
+                    } else if ("waits".equals(cmd)) {
+                        w.print(new TextDump().dumpWaits(sampler.getWaitProfile()));
+                    } else if ("profile".equals(cmd)) {
+                        w.print(getProfile(args.length > 1 && "reset".equals(args[1])));
+                    } else if ("jvms".equals(cmd)) {
+                        w.print(dumpJvm(new TextDump(), null));
+                    } else if ("jvm".equals(cmd)) {
+                        w.print(dumpJvm(new TextDump(), args[1]));
                     } else if ("getResources".equals(cmd)) {
                         final Enumeration<URL> urls = Thread.currentThread().getContextClassLoader().getResources(args[1]);
                         if (urls == null || !urls.hasMoreElements()) {
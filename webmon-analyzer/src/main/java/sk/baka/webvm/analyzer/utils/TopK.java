@@ -0,0 +1,125 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+/**
+ * Selects k entries with the greatest keys, using a bounded binary min-heap of primitive key/value pairs. Offering an entry
+ * is O(log k) and does not allocate. Not thread-safe.
+ * @author Martin Vysny
+ */
+public final class TopK {
+
+    private final long[] keys;
+    private final int[] values;
+    private int size = 0;
+
+    /**
+     * Creates new selector.
+     * @param k maximum number of entries to keep, 0 or greater.
+     */
+    public TopK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Parameter k: invalid value " + k + ": must be 0 or greater");
+        }
+        keys = new long[k];
+        values = new int[k];
+    }
+
+    /**
+     * Offers an entry. The entry is kept if there are less than k entries, or if its key is greater than the smallest kept key.
+     * @param key the key.
+     * @param value the value.
+     */
+    public void offer(long key, int value) {
+        if (size < keys.length) {
+            int i = size++;
+            // sift up
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                values[i] = values[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            values[i] = value;
+        } else if (size > 0 && key > keys[0]) {
+            // replace the root and sift down
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Returns the number of entries kept.
+     * @return the size, 0..k.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of a kept entry. Entries are not sorted.
+     * @param index the index, 0..{@link #size()}-1.
+     * @return the value.
+     */
+    public int getValue(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Parameter index: invalid value " + index + ": size is " + size);
+        }
+        return values[index];
+    }
+
+    /**
+     * Returns the key of a kept entry. Entries are not sorted.
+     * @param index the index, 0..{@link #size()}-1.
+     * @return the key.
+     */
+    public long getKey(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Parameter index: invalid value " + index + ": size is " + size);
+        }
+        return keys[index];
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import org.junit.Test;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.hostos.CPUUsage;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link AdaptiveSampling} class.
+ * @author Martin Vysny
+ */
+public class AdaptiveSamplingTest {
+
+    private static HistorySample.Builder sample(long time, int gcCpuUsage, int cpuMaxCoreUsage) {
+        final HistorySample.Builder result = new HistorySample.Builder();
+        result.sampleTime = time;
+        return result.setGcCpuUsage(gcCpuUsage).setCpuUsage(new CPUUsage(cpuMaxCoreUsage, cpuMaxCoreUsage));
+    }
+
+    @Test
+    public void testBurstNormalIdle() {
+        final Config config = new Config();
+        final AdaptiveSampling policy = new AdaptiveSampling(200, 1000, 5000, 80, config);
+        assertEquals(1000, policy.getNextDelay(sample(0, 0, 0)));
+        // 80% of the GC threshold
+        assertEquals(200, policy.getNextDelay(sample(1000, config.gcCpuTreshold * 8 / 10, 0)));
+        assertEquals(200, policy.getNextDelay(sample(1200, 0, config.cpuTreshold)));
+        assertEquals(1000, policy.getNextDelay(sample(1400, 0, 0)));
+        assertEquals(1000, policy.getNextDelay(sample(1200 + AdaptiveSampling.CALM_MILLIS - 1, 0, 0)));
+        assertEquals(5000, policy.getNextDelay(sample(1200 + AdaptiveSampling.CALM_MILLIS, 0, 0)));
+    }
+
+    @Test
+    public void testFromConfig() {
+        final Config config = new Config();
+        assertNull(AdaptiveSampling.fromConfig(config, 1000));
+        config.samplingBurstDelayMs = 250;
+        config.samplingIdleDelayMs = 0;
+        final AdaptiveSampling policy = AdaptiveSampling.fromConfig(config, 1000);
+        assertEquals(250, policy.burstDelayMs);
+        assertEquals(1000, policy.idleDelayMs);
+    }
+
+    @Test
+    public void testConfigChangedKeepsState() {
+        final Config config = new Config();
+        final AdaptiveSampling policy = new AdaptiveSampling(200, 1000, 5000, 80, config);
+        assertEquals(200, policy.getNextDelay(sample(0, 0, config.cpuTreshold)));
+        config.cpuTreshold = 100;
+        config.samplingBurstThresholdPercent = 90;
+        policy.configChanged(config);
+        assertEquals(90, policy.getThresholdPercent());
+        assertEquals(1000, policy.getNextDelay(sample(1000, 0, 85)));
+        // the policy still remembers the hot sample at 0
+        assertEquals(5000, policy.getNextDelay(sample(AdaptiveSampling.CALM_MILLIS, 0, 0)));
+        assertTrue(policy.hasSameDelays(new AdaptiveSampling(200, 1000, 5000, 50, config)));
+        assertFalse(policy.hasSameDelays(new AdaptiveSampling(250, 1000, 5000, 80, config)));
+        assertFalse(policy.hasSameDelays(null));
+    }
+}
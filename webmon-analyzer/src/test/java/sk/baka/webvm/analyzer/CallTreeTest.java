@@ -0,0 +1,126 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link CallTree} class.
+ * @author Martin Vysny
+ */
+public class CallTreeTest {
+
+    private static StackTraceElement[] stack(String... methods) {
+        final StackTraceElement[] result = new StackTraceElement[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            result[i] = new StackTraceElement("C", methods[i], "C.java", i);
+        }
+        return result;
+    }
+
+    @Test
+    public void testCollapsed() {
+        final CallTree tree = new CallTree(100);
+        tree.add(stack("c", "b", "main"));
+        tree.add(stack("c", "b", "main"));
+        tree.add(stack("b", "main"));
+        tree.add(stack("d", "main"));
+        assertEquals(4, tree.getSamples());
+        assertEquals(5, tree.getNodeCount());
+        assertEquals("C.main;C.b 1\nC.main;C.b;C.c 2\nC.main;C.d 1\n", tree.toCollapsed());
+        final CallTree.Node root = tree.getRoot(1);
+        assertEquals(4, root.total);
+        final CallTree.Node main = root.children.get(0);
+        assertEquals("C.main", main.name);
+        assertEquals(0, main.self);
+        assertEquals("C.b", main.children.get(0).name);
+        assertEquals(3, main.children.get(0).total);
+        assertEquals(1, tree.getRoot(2).children.get(0).children.size());
+        tree.clear();
+        assertEquals(0, tree.getSamples());
+        assertEquals("", tree.toCollapsed());
+    }
+
+    @Test
+    public void testNodeCap() {
+        final CallTree tree = new CallTree(3);
+        tree.add(stack("b", "main"));
+        tree.add(stack("c", "main"));
+        assertEquals(3, tree.getNodeCount());
+        assertEquals(1, tree.getTruncatedSamples());
+        assertEquals("C.main 1\nC.main;C.b 1\n", tree.toCollapsed());
+        // a full tree does not intern the names of the stacks it cannot hold
+        final int names = tree.getNameCount();
+        for (int i = 0; i < 100; i++) {
+            tree.add(stack("m" + i, "main"));
+        }
+        assertEquals(names, tree.getNameCount());
+        assertEquals(101, tree.getTruncatedSamples());
+        assertEquals(3, tree.getNodeCount());
+    }
+
+    @Test
+    public void testTruncatedAtRootIsReported() {
+        final CallTree tree = new CallTree(2);
+        tree.add(stack("b", "main"));
+        tree.add(stack("b", "other"));
+        tree.add(stack("b", "other"));
+        assertEquals(2, tree.getNodeCount());
+        assertEquals("[truncated] 2\nC.main 1\n", tree.toCollapsed());
+        long sum = 0;
+        for (String line : tree.toCollapsed().split("\n")) {
+            sum += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(tree.getSamples(), sum);
+    }
+
+    @Test
+    public void testCollapsedAndClear() {
+        final CallTree tree = new CallTree(100);
+        tree.add(stack("b", "main"));
+        assertEquals("C.main;C.b 1\n", tree.toCollapsedAndClear());
+        assertEquals(0, tree.getSamples());
+        assertEquals(1, tree.getNodeCount());
+        assertEquals("", tree.toCollapsed());
+    }
+
+    @Test
+    public void testProfilerSamplesRunnableThreads() {
+        final StackProfiler profiler = new StackProfiler(20, 1000, 64);
+        final Thread current = Thread.currentThread();
+        // sampled from another thread, so that the current thread is runnable
+        final Thread sampler = new Thread() {
+
+            @Override
+            public void run() {
+                profiler.sample();
+            }
+        };
+        long spin = 0;
+        sampler.start();
+        while (sampler.isAlive()) {
+            spin++;
+        }
+        assertTrue(spin > 0);
+        assertTrue(profiler.getCallTree().toCollapsed(), profiler.getCallTree().toCollapsed().contains("CallTreeTest.testProfilerSamplesRunnableThreads"));
+        assertNotNull(current);
+    }
+}
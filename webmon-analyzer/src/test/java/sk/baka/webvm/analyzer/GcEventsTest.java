@@ -0,0 +1,134 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests the {@link GcEvents} class.
+ * @author Martin Vysny
+ */
+public class GcEventsTest {
+
+    private static GcEvents.Event event(String gcName, long id, long durationMillis) {
+        return new GcEvents.Event(gcName, "end of minor GC", "Allocation Failure", id, id * 1000, durationMillis,
+                new String[]{"Eden", "Old"}, new long[]{100, 50}, new long[]{0, 70});
+    }
+
+    @Test
+    public void testPauseDistribution() {
+        final GcEvents events = new GcEvents(3);
+        for (int i = 0; i < 99; i++) {
+            events.record(event("Young", i, 3));
+        }
+        events.record(event("Young", 99, 900));
+        events.record(event("Old", 100, 0));
+        final GcEvents.Report report = events.getReport();
+        assertEquals(2, report.collectors.size());
+        final GcEvents.PauseStats young = report.collectors.get(0);
+        assertEquals("Young", young.gcName);
+        assertEquals(100, young.pauses.count);
+        assertEquals(900, young.pauses.max);
+        assertEquals(3, young.pauses.getPercentile(50));
+        assertEquals(3, young.pauses.getPercentile(99));
+        assertEquals(900, young.pauses.getPercentile(99.9));
+        assertEquals(0, report.collectors.get(1).pauses.getPercentile(99));
+        assertEquals(0, young.window.count);
+        // the ring is bounded
+        assertEquals(3, report.events.size());
+        assertEquals(100, report.events.get(2).id);
+        assertEquals(80, report.events.get(2).getFreedBytes());
+        events.rotateWindow();
+        events.record(event("Young", 101, 5));
+        final GcEvents.PauseStats rotated = events.getReport().collectors.get(0);
+        assertEquals(100, rotated.window.count);
+        assertEquals(900, rotated.window.max);
+        assertEquals(101, rotated.pauses.count);
+    }
+
+    @Test
+    public void testAllocationAndPromotion() {
+        final GcEvents events = new GcEvents(3);
+        assertEquals(-1, events.getAllocatedBytes());
+        assertEquals(-1, events.getPromotedBytes());
+        final String[] pools = new String[]{"PS Eden Space", "PS Old Gen", "PS Survivor Space"};
+        events.record(new GcEvents.Event("PS Scavenge", "end of minor GC", "Allocation Failure", 1, 1000, 5, pools,
+                new long[]{1000, 500, 0}, new long[]{0, 600, 100}));
+        assertEquals(0, events.getAllocatedBytes());
+        assertEquals(100, events.getPromotedBytes());
+        events.record(new GcEvents.Event("PS Scavenge", "end of minor GC", "Allocation Failure", 2, 2000, 5, pools,
+                new long[]{2000, 600, 100}, new long[]{10, 650, 120}));
+        assertEquals(2000, events.getAllocatedBytes());
+        assertEquals(150, events.getPromotedBytes());
+        // a major collection shrinks the old generation: no promotion counted
+        events.record(new GcEvents.Event("PS MarkSweep", "end of major GC", "Ergonomics", 1, 3000, 50, pools,
+                new long[]{510, 650, 120}, new long[]{0, 100, 0}));
+        assertEquals(2500, events.getAllocatedBytes());
+        assertEquals(150, events.getPromotedBytes());
+    }
+
+    @Test
+    public void testConcurrentCyclesAreNotPauses() {
+        assertTrue(GcEvents.Event.isConcurrent("ZGC Cycles", "end of GC cycle"));
+        assertFalse(GcEvents.Event.isConcurrent("ZGC Pauses", "end of GC pause"));
+        assertTrue(GcEvents.Event.isConcurrent("Shenandoah Cycles", "end of GC cycle"));
+        assertFalse(GcEvents.Event.isConcurrent("Shenandoah Pauses", "end of GC pause"));
+        assertTrue(GcEvents.Event.isConcurrent("ConcurrentMarkSweep", "end of major GC"));
+        assertTrue(GcEvents.Event.isConcurrent("G1 Concurrent GC", "end of concurrent GC"));
+        assertFalse(GcEvents.Event.isConcurrent("G1 Concurrent GC", "end of concurrent GC pause"));
+        assertFalse(GcEvents.Event.isConcurrent("G1 Young Generation", "end of minor GC"));
+        assertFalse(GcEvents.Event.isConcurrent("PS MarkSweep", "end of major GC"));
+        final GcEvents events = new GcEvents(10);
+        final String[] pools = new String[]{"ZHeap"};
+        events.record(new GcEvents.Event("ZGC Cycles", "end of GC cycle", "Allocation Rate", 1, 1000, 800, pools,
+                new long[]{1000}, new long[]{400}));
+        events.record(new GcEvents.Event("ZGC Pauses", "end of GC pause", "Allocation Rate", 1, 1000, 1, pools,
+                new long[]{1000}, new long[]{1000}));
+        final GcEvents.Report report = events.getReport();
+        assertEquals(2, report.events.size());
+        assertEquals(1, report.collectors.size());
+        assertEquals("ZGC Pauses", report.collectors.get(0).gcName);
+        assertEquals(1, report.collectors.get(0).pauses.max);
+    }
+
+    @Test
+    public void testCapturesCollections() throws Exception {
+        final GcEvents events = new GcEvents(16);
+        assumeTrue(events.start());
+        try {
+            for (int i = 0; i < 50 && events.getReport().events.isEmpty(); i++) {
+                System.gc();
+                Thread.sleep(100);
+            }
+        } finally {
+            events.stop();
+        }
+        final GcEvents.Report report = events.getReport();
+        assertFalse(report.events.isEmpty());
+        final GcEvents.Event event = report.events.get(0);
+        assertNotNull(event.gcName);
+        assertNotNull(event.gcCause);
+        assertTrue(event.durationMillis >= 0);
+        assertTrue(event.getPoolCount() > 0);
+        assertFalse(report.collectors.isEmpty());
+    }
+}
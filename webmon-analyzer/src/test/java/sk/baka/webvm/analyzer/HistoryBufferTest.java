@@ -0,0 +1,152 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import org.junit.Test;
+import sk.baka.webvm.analyzer.hostos.CPUUsage;
+import sk.baka.webvm.analyzer.utils.MemoryUsage2;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HistoryBuffer} class.
+ * @author Martin Vysny
+ */
+public class HistoryBufferTest {
+
+    private static HistorySample.Builder sample(int i) {
+        final HistorySample.Builder b = new HistorySample.Builder().setClassesLoaded(i).setCpuUsage(new CPUUsage(i % 100, 50)).setGcCpuUsage(i % 100);
+        b.sampleTime = 1000L * i;
+        b.memPoolUsage.put(HistorySample.MemoryPools.Heap, new MemoryUsage2(-1, i, i * 2, 10000));
+        return b;
+    }
+
+    @Test
+    public void testEmptyView() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        assertTrue(buffer.view().isEmpty());
+        assertNull(buffer.view().getNewest());
+    }
+
+    @Test
+    public void testOldSamplesAreDropped() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(sample(i));
+        }
+        final HistoryBuffer.View view = buffer.view();
+        assertEquals(10, view.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(90 + i, view.get(HistoryBuffer.Column.CLASSES_LOADED, i));
+            assertEquals(1000L * (90 + i), view.getSampleTime(i));
+        }
+        assertEquals(99, view.getMax(HistoryBuffer.Column.CLASSES_LOADED));
+    }
+
+    @Test
+    public void testOnlyNewestThreadsAreRetained() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        final long[] row = new long[HistoryBuffer.COLUMNS];
+        for (int i = 0; i < 25; i++) {
+            buffer.add(1000L * i, row, ThreadMap.takeSnapshot());
+        }
+        final HistoryBuffer.View view = buffer.view();
+        for (int i = 0; i < view.size() - 1; i++) {
+            assertNull(view.getThreads(i));
+        }
+        assertNotNull(view.getThreads(view.size() - 1));
+        assertNotNull(view.getNewest().threads);
+        assertNotNull(view.since(20000).getThreads(4));
+        assertNull(view.since(20000).getThreads(3));
+        // the snapshot stays with the view, it is not taken over by a newer sample
+        buffer.add(25000, row, ThreadMap.takeSnapshot());
+        assertNotNull(view.getThreads(view.size() - 1));
+        assertNull(buffer.view().getThreads(view.size() - 2));
+    }
+
+    @Test
+    public void testOldestSampleTime() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        assertEquals(-1, buffer.getOldestSampleTime());
+        assertFalse(buffer.isFull());
+        for (int i = 0; i < 10; i++) {
+            buffer.add(sample(i));
+        }
+        assertTrue(buffer.isFull());
+        assertEquals(0, buffer.getOldestSampleTime());
+        for (int i = 10; i < 100; i++) {
+            buffer.add(sample(i));
+        }
+        assertEquals(90000, buffer.getOldestSampleTime());
+    }
+
+    @Test
+    public void testMaterializedSampleEqualsOriginal() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        buffer.add(sample(5));
+        final HistorySample hs = buffer.view().get(0);
+        assertEquals(sample(5).build(), hs);
+        assertEquals(1, hs.memPoolUsage.size());
+        assertNull(buffer.view().getMemoryUsage(HistorySample.MemoryPools.Swap, 0));
+        assertEquals(-1, buffer.view().get(HistoryBuffer.Column.used(HistorySample.MemoryPools.Swap), 0));
+        assertEquals(10, buffer.view().get(HistoryBuffer.Column.committed(HistorySample.MemoryPools.Heap), 0));
+    }
+
+    @Test
+    public void testViewIsNotAffectedByNewSamples() {
+        final HistoryBuffer buffer = new HistoryBuffer(100);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(sample(i));
+        }
+        final HistoryBuffer.View view = buffer.view();
+        buffer.add(sample(100));
+        assertEquals(100, view.size());
+        assertEquals(0, view.get(HistoryBuffer.Column.CLASSES_LOADED, 0));
+        assertEquals(99, view.get(HistoryBuffer.Column.CLASSES_LOADED, 99));
+    }
+
+    @Test
+    public void testSince() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        for (int i = 0; i < 20; i++) {
+            buffer.add(sample(i));
+        }
+        assertEquals(10, buffer.view(0).size());
+        assertEquals(3, buffer.view(17000).size());
+        assertEquals(3, buffer.view(16500).size());
+        assertEquals(17, buffer.view(17000).get(HistoryBuffer.Column.CLASSES_LOADED, 0));
+        assertTrue(buffer.view(20000).isEmpty());
+    }
+
+    @Test
+    public void testViewSurvivesWrap() {
+        final HistoryBuffer buffer = new HistoryBuffer(10);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(sample(i));
+        }
+        final HistoryBuffer.View view = buffer.view();
+        for (int i = 0; i < 100; i++) {
+            buffer.add(sample(100 + i));
+        }
+        assertEquals(0, view.get(HistoryBuffer.Column.CLASSES_LOADED, 0));
+        assertEquals(9000, view.getSampleTime(9));
+        assertEquals(9, view.since(9000).get(HistoryBuffer.Column.CLASSES_LOADED, 0));
+        assertEquals(190, buffer.view().get(HistoryBuffer.Column.CLASSES_LOADED, 0));
+    }
+}
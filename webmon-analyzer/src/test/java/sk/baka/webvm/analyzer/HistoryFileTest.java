@@ -0,0 +1,132 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HistoryFile} class.
+ * @author Martin Vysny
+ */
+public class HistoryFileTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("webmon", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static long[] row(long value) {
+        return row(value, 0);
+    }
+
+    private static long[] row(long value, int metrics) {
+        final long[] row = new long[HistoryBuffer.COLUMNS + metrics];
+        for (int i = 0; i < metrics; i++) {
+            row[HistoryBuffer.COLUMNS + i] = value + i;
+        }
+        row[HistoryBuffer.Column.CLASSES_LOADED.ordinal()] = value;
+        row[HistoryBuffer.Column.SWAP_USED.ordinal()] = HistoryBuffer.NOT_AVAILABLE;
+        return row;
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        HistoryFile hf = HistoryFile.open(file, 10);
+        assertEquals(0, hf.size());
+        for (int i = 0; i < 25; i++) {
+            hf.append(1000L * i, row(i));
+        }
+        hf.close();
+        hf = HistoryFile.open(file, 10);
+        assertEquals(10, hf.size());
+        final long[] row = new long[HistoryBuffer.COLUMNS];
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1000L * (15 + i), hf.read(i, row));
+            assertEquals(15 + i, row[HistoryBuffer.Column.CLASSES_LOADED.ordinal()]);
+            assertEquals(HistoryBuffer.NOT_AVAILABLE, row[HistoryBuffer.Column.SWAP_USED.ordinal()]);
+        }
+        // appending continues at the cursor
+        hf.append(25000, row(25));
+        assertEquals(16000, hf.read(0, row));
+        assertEquals(25000, hf.read(9, row));
+    }
+
+    @Test
+    public void testCapacityChangeReinitializes() throws Exception {
+        final HistoryFile hf = HistoryFile.open(file, 10);
+        hf.append(0, row(0));
+        hf.close();
+        assertEquals(0, HistoryFile.open(file, 20).size());
+    }
+
+    @Test
+    public void testMetricsChangeReinitializes() throws Exception {
+        final List<Metric> metrics = Arrays.asList(new Metric("a", "A", "KB", Metric.Kind.GAUGE), new Metric("b", "B", "KB", Metric.Kind.GAUGE));
+        HistoryFile hf = HistoryFile.open(file, 10, metrics);
+        hf.append(0, row(7, 2));
+        hf.close();
+        hf = HistoryFile.open(file, 10, metrics);
+        assertEquals(1, hf.size());
+        final long[] row = new long[hf.columns];
+        hf.read(0, row);
+        assertEquals(8, row[HistoryBuffer.COLUMNS + 1]);
+        hf.close();
+        final List<Metric> other = Arrays.asList(new Metric("a", "A", "KB", Metric.Kind.GAUGE), new Metric("c", "C", "KB", Metric.Kind.GAUGE));
+        assertEquals(0, HistoryFile.open(file, 10, other).size());
+    }
+
+    @Test
+    public void testSamplerRestoresHistory() throws Exception {
+        final HistorySampler hs = new HistorySampler(new SamplerConfig(20, 1000, 0), IHistorySampler.HISTORY_PROBLEMS, null, null);
+        final List<Metric> metrics = hs.getMetricHistory().getMetrics();
+        final HistoryFile hf = HistoryFile.open(file, 100, metrics);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            hf.append(now - 50000 + i * 1000, row(i, metrics.size()));
+        }
+        hf.close();
+        hs.setHistoryFile(file, 100);
+        assertEquals(20, hs.getVmstatHistory().size());
+        assertEquals(49, hs.getVmstatHistory().getNewest().classesLoaded);
+        final MetricHistory.View restored = hs.getMetricHistory();
+        assertEquals(20, restored.size());
+        assertEquals(now - 1000, restored.getSampleTime(19));
+        for (int i = 0; i < metrics.size(); i++) {
+            assertEquals(49 + i, restored.getNewest(i));
+        }
+    }
+}
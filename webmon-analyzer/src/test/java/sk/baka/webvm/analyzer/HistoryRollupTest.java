@@ -0,0 +1,142 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Test;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.utils.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HistoryRollup} class.
+ * @author Martin Vysny
+ */
+public class HistoryRollupTest {
+
+    private static long[] row(long classes, long heapUsed) {
+        final long[] row = new long[HistoryBuffer.COLUMNS];
+        row[HistoryBuffer.Column.CLASSES_LOADED.ordinal()] = classes;
+        row[HistoryBuffer.Column.HEAP_USED.ordinal()] = heapUsed;
+        return row;
+    }
+
+    @Test
+    public void testAggregates() {
+        final HistoryRollup rollup = new HistoryRollup(new SamplerConfig(10, 10000, 0));
+        rollup.add(10000, row(1, 10));
+        rollup.add(13000, row(5, HistoryBuffer.NOT_AVAILABLE));
+        rollup.add(19999, row(3, 20));
+        assertTrue(rollup.view(HistoryRollup.Aggregate.AVG).isEmpty());
+        // closes the first bucket
+        rollup.add(20000, row(7, 7));
+        final HistoryBuffer.Column c = HistoryBuffer.Column.CLASSES_LOADED;
+        final HistoryBuffer.Column h = HistoryBuffer.Column.HEAP_USED;
+        assertEquals(1, rollup.view(HistoryRollup.Aggregate.MIN).get(c, 0));
+        assertEquals(5, rollup.view(HistoryRollup.Aggregate.MAX).get(c, 0));
+        assertEquals(3, rollup.view(HistoryRollup.Aggregate.AVG).get(c, 0));
+        assertEquals(3, rollup.view(HistoryRollup.Aggregate.LAST).get(c, 0));
+        assertEquals(10, rollup.view(HistoryRollup.Aggregate.MIN).get(h, 0));
+        assertEquals(15, rollup.view(HistoryRollup.Aggregate.AVG).get(h, 0));
+        assertEquals(10000, rollup.view(HistoryRollup.Aggregate.AVG).getSampleTime(0));
+        // a bucket with no available value
+        rollup.add(30000, row(7, HistoryBuffer.NOT_AVAILABLE));
+        rollup.add(40000, row(7, 7));
+        assertEquals(3, rollup.view(HistoryRollup.Aggregate.AVG).size());
+        assertEquals(HistoryBuffer.NOT_AVAILABLE, rollup.view(HistoryRollup.Aggregate.AVG).get(h, 2));
+        assertEquals(HistoryBuffer.NOT_AVAILABLE, rollup.view(HistoryRollup.Aggregate.MAX).get(h, 2));
+    }
+
+    @Test
+    public void testMetrics() {
+        final HistoryRollup rollup = new HistoryRollup(new SamplerConfig(10, 10000, 0), Arrays.asList(new Metric("rate", "Rate", "KB/s", Metric.Kind.COUNTER)));
+        final long[] row = new long[HistoryBuffer.COLUMNS + 1];
+        row[HistoryBuffer.COLUMNS] = 100;
+        rollup.add(10000, row);
+        row[HistoryBuffer.COLUMNS] = HistoryBuffer.NOT_AVAILABLE;
+        rollup.add(12000, row);
+        row[HistoryBuffer.COLUMNS] = 300;
+        rollup.add(14000, row);
+        rollup.add(20000, row);
+        final MetricHistory.View avg = rollup.metricView(HistoryRollup.Aggregate.AVG);
+        assertEquals(1, avg.size());
+        assertEquals(10000, avg.getSampleTime(0));
+        assertEquals(200, avg.get(0, 0));
+        assertEquals(300, rollup.metricView(HistoryRollup.Aggregate.MAX).get(0, 0));
+        assertEquals(10, avg.getHistoryLength());
+        // the vmstat columns are unaffected
+        assertEquals(1, rollup.view(HistoryRollup.Aggregate.AVG).size());
+    }
+
+    @Test
+    public void testFixedSize() {
+        final HistoryRollup rollup = new HistoryRollup(new SamplerConfig(10, 1000, 0));
+        for (int i = 0; i < 10000; i++) {
+            rollup.add(i * 100L, row(i, i));
+        }
+        assertEquals(10, rollup.view(HistoryRollup.Aggregate.MAX).size());
+        assertEquals(9989, rollup.view(HistoryRollup.Aggregate.MAX).get(HistoryBuffer.Column.CLASSES_LOADED, 9));
+        assertEquals(10000, rollup.getRetentionMillis());
+    }
+
+    @Test
+    public void testSamplerPicksTier() throws Exception {
+        final HistorySampler hs = new HistorySampler(new SamplerConfig(10, 1000, 0), IHistorySampler.HISTORY_PROBLEMS, null, null);
+        // nothing has been dropped from the raw history yet
+        assertTrue(hs.getVmstatHistory(Duration.minutes(1).millis, HistoryRollup.Aggregate.AVG).isEmpty());
+        assertEquals(10, hs.getVmstatHistory(Duration.hours(1).millis, HistoryRollup.Aggregate.AVG).getHistoryLength());
+        // a full raw history sampled at the burst rate of 200ms covers 2 seconds only
+        final File file = File.createTempFile("webmon", ".bin");
+        try {
+            final HistoryFile hf = HistoryFile.open(file, 100, hs.getMetricHistory().getMetrics());
+            final long[] row = new long[hf.columns];
+            final long now = System.currentTimeMillis();
+            for (int i = 0; i < 20; i++) {
+                hf.append(now - 4000 + i * 200, row);
+            }
+            hf.close();
+            hs.setHistoryFile(file, 100);
+        } finally {
+            file.delete();
+        }
+        assertEquals(10, hs.getVmstatHistory(Duration.seconds(1).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+        assertEquals(360, hs.getVmstatHistory(Duration.seconds(5).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+        assertEquals(360, hs.getVmstatHistory(Duration.hours(1).millis, HistoryRollup.Aggregate.AVG).getHistoryLength());
+        assertEquals(1440, hs.getVmstatHistory(Duration.days(1).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+        assertEquals(720, hs.getVmstatHistory(Duration.days(60).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+        assertEquals(1440, hs.getMetricHistory(Duration.days(1).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+        assertEquals(10, hs.getMetricHistory(Duration.seconds(1).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+        assertEquals(360, hs.getMetricHistory(Duration.seconds(5).millis, HistoryRollup.Aggregate.MAX).getHistoryLength());
+    }
+
+    @Test
+    public void testParseDuration() {
+        assertEquals(Duration.minutes(10), Duration.parse("10m"));
+        assertEquals(Duration.days(1), Duration.parse("1d"));
+        assertEquals(Duration.millis(250), Duration.parse("250"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidDuration() {
+        Duration.parse("10x");
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LockContention} class.
+ * @author Martin Vysny
+ */
+public class LockContentionTest {
+
+    private static Thread startThread(final Runnable runnable, Thread.State awaitState) throws InterruptedException {
+        final Thread t = new Thread(runnable);
+        t.start();
+        while (t.getState() != awaitState) {
+            Thread.sleep(1);
+        }
+        return t;
+    }
+
+    @Test
+    public void testContendedMonitor() throws Exception {
+        final LockContention contention = new LockContention(10);
+        final Object lock = new Object();
+        final Thread t;
+        synchronized (lock) {
+            t = startThread(new Runnable() {
+
+                public void run() {
+                    synchronized (lock) {
+                        // just enter the monitor
+                    }
+                }
+            }, Thread.State.BLOCKED);
+            contention.sample(1000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+            contention.sample(3000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+        }
+        t.join();
+        contention.sample(4000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+        final LockContention.Report report = contention.getReport();
+        assertEquals(3000, report.spanMillis);
+        final LockContention.Entry entry = report.locks.get(0);
+        assertEquals(Object.class.getName(), entry.className);
+        assertFalse(entry.synchronizer);
+        assertEquals(2000, entry.blockedMillis);
+        assertEquals(2, entry.samples);
+        assertEquals(1, entry.maxBlockedThreads);
+        assertTrue(entry.topOwner, entry.topOwner.contains(Thread.currentThread().getName()));
+        assertTrue(entry.topOwner, entry.topOwner.contains("\n  at "));
+    }
+
+    @Test
+    public void testContendedReentrantLock() throws Exception {
+        final LockContention contention = new LockContention(2);
+        contention.setIntervalMillis(500);
+        final ReentrantLock lock = new ReentrantLock();
+        final Runnable locker = new Runnable() {
+
+            public void run() {
+                lock.lock();
+                lock.unlock();
+            }
+        };
+        lock.lock();
+        try {
+            final Thread t1 = startThread(locker, Thread.State.WAITING);
+            final Thread t2 = startThread(locker, Thread.State.WAITING);
+            contention.sample(1000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+            contention.sample(1500, WaitingThreads.read(ThreadMap.takeSnapshot()));
+            lock.unlock();
+            t1.join();
+            t2.join();
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+        LockContention.Entry entry = contention.getReport().locks.get(0);
+        assertTrue(entry.synchronizer);
+        assertEquals(1000, entry.blockedMillis);
+        assertEquals(2, entry.maxBlockedThreads);
+        // older samples fall out of the history
+        contention.sample(2000, null);
+        contention.sample(2500, null);
+        assertTrue(contention.getReport().locks.isEmpty());
+    }
+
+    @Test
+    public void testStaleStateIsNotRead() throws Exception {
+        final ThreadSampler sampler = new ThreadSampler(1000, 0);
+        final LockContention contention = new LockContention(10);
+        final Object lock = new Object();
+        final AtomicBoolean enter = new AtomicBoolean();
+        final Thread t = startThread(new Runnable() {
+
+            public void run() {
+                while (!enter.get()) {
+                    // spin, so that the full refresh sees the thread runnable
+                }
+                synchronized (lock) {
+                    // just enter the monitor
+                }
+            }
+        }, Thread.State.RUNNABLE);
+        try {
+            // the full refresh tick
+            sampler.takeSnapshot();
+            synchronized (lock) {
+                enter.set(true);
+                while (t.getState() != Thread.State.BLOCKED) {
+                    Thread.sleep(1);
+                }
+                final ThreadMap snapshot = sampler.takeSnapshot();
+                contention.sample(1000, WaitingThreads.read(snapshot));
+                contention.sample(2000, WaitingThreads.read(snapshot));
+                if (ThreadSampler.isBatchSupported()) {
+                    assertFalse(snapshot.isStateFresh(snapshot.indexOf(t.getId())));
+                    assertTrue(contention.getReport().locks.isEmpty());
+                }
+                // the next full refresh picks the thread up
+                contention.sample(3000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+            }
+        } finally {
+            enter.set(true);
+            t.join();
+        }
+        final LockContention.Entry entry = contention.getReport().locks.get(0);
+        assertEquals(Object.class.getName(), entry.className);
+    }
+
+    @Test
+    public void testInterval() {
+        final LockContention contention = new LockContention(10);
+        contention.setIntervalMillis(1000);
+        contention.sample(1000, null);
+        // too early
+        contention.sample(1200, null);
+        contention.sample(1950, null);
+        assertEquals(950, contention.getReport().spanMillis);
+        contention.setIntervalMillis(0);
+        contention.sample(5000, null);
+        assertEquals(950, contention.getReport().spanMillis);
+        // the time the sampling was off is not accounted
+        contention.setIntervalMillis(1000);
+        contention.sample(9000, null);
+        contention.sample(10000, null);
+        assertEquals(1950, contention.getReport().spanMillis);
+    }
+}
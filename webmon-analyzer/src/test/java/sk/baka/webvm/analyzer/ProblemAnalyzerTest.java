@@ -18,8 +18,19 @@
  */
 package sk.baka.webvm.analyzer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.apache.commons.lang.SystemUtils;
 import org.junit.Test;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.hostos.CPUUsage;
+import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.metrics.BufferPoolSource;
+import sk.baka.webvm.analyzer.metrics.GcRateSource;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.utils.MemoryUsage2;
 import static org.junit.Assert.*;
 
 /**
@@ -53,4 +64,100 @@ public class ProblemAnalyzerTest {
             d.cancel();
         }
     }
+
+    @Test
+    public void testCpuUsageDurationUsesSampleTimes() {
+        final Config config = new Config();
+        final ProblemAnalyzer analyzer = new ProblemAnalyzer(config, Memory.getOSMemoryInfoProvider());
+        // bursting at 200ms: cpuTresholdSamples samples do not cover cpuTresholdSamples seconds
+        final List<HistorySample> history = new ArrayList<HistorySample>();
+        for (int i = 0; i < config.cpuTresholdSamples * 2; i++) {
+            history.add(sample(10000 + i * 200, 100));
+        }
+        assertFalse(analyzer.getCPUUsageReport(history).isProblem);
+        for (int i = 1; i <= config.cpuTresholdSamples; i++) {
+            history.add(sample(10000 + config.cpuTresholdSamples * 400 + i * 1000, 100));
+        }
+        assertTrue(analyzer.getCPUUsageReport(history).isProblem);
+    }
+
+    @Test
+    public void testPromotionRate() {
+        final Config config = new Config();
+        final ProblemAnalyzer analyzer = new ProblemAnalyzer(config, Memory.getOSMemoryInfoProvider());
+        final MetricHistory history = new MetricHistory(Arrays.asList(new Metric(GcRateSource.PROMOTION_RATE, "Promotion rate", "KB/s", Metric.Kind.COUNTER)), 10);
+        history.add(1000, new long[]{-1});
+        history.add(2000, new long[]{1000});
+        history.add(3000, new long[]{3000});
+        // 2000KB/s average: 1200000KB is filled in 10 minutes
+        assertFalse(analyzer.getPromotionRateReport(history.view(), 1200000).isProblem);
+        assertTrue(analyzer.getPromotionRateReport(history.view(), 1100000).isProblem);
+        assertFalse(analyzer.getPromotionRateReport(history.view(), -1).isProblem);
+        config.promotionFullGcMinutes = 0;
+        assertFalse(analyzer.getPromotionRateReport(history.view(), 1100000).isProblem);
+    }
+
+    @Test
+    public void testDirectMemoryGrowth() {
+        final Config config = new Config();
+        final ProblemAnalyzer analyzer = new ProblemAnalyzer(config, Memory.getOSMemoryInfoProvider());
+        final MetricHistory history = new MetricHistory(Arrays.asList(new Metric(BufferPoolSource.getUsedMetric("direct"), "direct buffers used", "KB", Metric.Kind.GAUGE)), 10);
+        history.add(1000, new long[]{-1});
+        history.add(2000, new long[]{100});
+        history.add(3000, new long[]{150});
+        history.add(4000, new long[]{200});
+        // grew by 100KB: 10% of 1000KB
+        assertTrue(analyzer.getDirectMemoryReport(history.view(), 1000).isProblem);
+        assertFalse(analyzer.getDirectMemoryReport(history.view(), 2000).isProblem);
+        assertFalse(analyzer.getDirectMemoryReport(history.view(), -1).isProblem);
+        // the buffers were partially released: the growth is not sustained
+        history.add(5000, new long[]{300});
+        history.add(6000, new long[]{250});
+        assertFalse(analyzer.getDirectMemoryReport(history.view(), 1000).isProblem);
+    }
+
+    @Test
+    public void testCodeCache() {
+        final ProblemAnalyzer analyzer = new ProblemAnalyzer(new Config(), Memory.getOSMemoryInfoProvider());
+        assertTrue(analyzer.getCodeCacheReport(new MemoryUsage2(-1, 95, 96, 100)).isProblem);
+        assertFalse(analyzer.getCodeCacheReport(new MemoryUsage2(-1, 50, 96, 100)).isProblem);
+        assertFalse(analyzer.getCodeCacheReport(new MemoryUsage2(-1, 50, 96, -1)).isProblem);
+        assertFalse(analyzer.getCodeCacheReport(null).isProblem);
+        // the code cache is present on every HotSpot JVM
+        assertNotNull(Memory.getCodeCacheSummary());
+    }
+
+    @Test
+    public void testFedCpuUsageRule() {
+        final Config config = new Config();
+        final ProblemAnalyzer analyzer = new ProblemAnalyzer(config, Memory.getOSMemoryInfoProvider());
+        final List<HistorySample> history = new ArrayList<HistorySample>();
+        for (int i = 0; i < config.cpuTresholdSamples - 1; i++) {
+            history.add(sample(10000 + i * 1000, 100));
+            assertFalse(analyzer.sample(new HistorySample.Builder().copy(history.get(i))));
+        }
+        history.add(sample(10000 + config.cpuTresholdSamples * 1000, 100));
+        // the rule has been triggered by the last sample
+        assertTrue(analyzer.sample(new HistorySample.Builder().copy(history.get(history.size() - 1))));
+        assertEquals(analyzer.getCPUUsageReport(history), getReport(analyzer.getProblems(null, null, null), ProblemAnalyzer.CLASS_CPU_USAGE));
+        assertTrue(getReport(analyzer.getProblems(null, null, null), ProblemAnalyzer.CLASS_CPU_USAGE).isProblem);
+        assertFalse(analyzer.sample(new HistorySample.Builder().copy(sample(20000 + config.cpuTresholdSamples * 1000, 100))));
+        assertTrue(analyzer.sample(new HistorySample.Builder().copy(sample(21000 + config.cpuTresholdSamples * 1000, 0))));
+        assertFalse(getReport(analyzer.getProblems(null, null, null), ProblemAnalyzer.CLASS_CPU_USAGE).isProblem);
+    }
+
+    private static ProblemReport getReport(List<ProblemReport> reports, String pclass) {
+        for (ProblemReport report : reports) {
+            if (report.pclass.equals(pclass)) {
+                return report;
+            }
+        }
+        throw new AssertionError(pclass + " not found in " + reports);
+    }
+
+    private static HistorySample sample(long time, int cpuMaxCoreUsage) {
+        final HistorySample.Builder b = new HistorySample.Builder().setCpuUsage(new CPUUsage(cpuMaxCoreUsage, cpuMaxCoreUsage));
+        b.sampleTime = time;
+        return b.build();
+    }
 }
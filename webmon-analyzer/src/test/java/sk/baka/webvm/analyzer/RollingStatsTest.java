@@ -0,0 +1,95 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RollingStats} class.
+ * @author Martin Vysny
+ */
+public class RollingStatsTest {
+
+    @Test
+    public void testStreak() {
+        final RollingStats stats = new RollingStats(3, 1000, 50);
+        stats.add(1000, 60);
+        stats.add(3000, 70);
+        assertEquals(3000, stats.getStreakMillis());
+        assertEquals((60 * 1000 + 70 * 2000) / 3000, stats.getStreakAvg());
+        stats.add(4000, 10);
+        assertEquals(0, stats.getStreakMillis());
+        assertEquals((60 * 1000 + 70 * 2000 + 10 * 1000) / 4000, stats.getAvg());
+        // the 60 is evicted, the 70 becomes the oldest sample and covers the nominal interval
+        stats.add(5000, 80);
+        assertEquals(3000, stats.getTotalMillis());
+        assertEquals((70 + 10 + 80) / 3, stats.getAvg());
+        assertEquals(1000, stats.getStreakMillis());
+        stats.setThreshold(0);
+        assertEquals(3000, stats.getStreakMillis());
+    }
+
+    /**
+     * Compares the incremental statistics with a full scan of the window.
+     */
+    @Test
+    public void testMatchesFullScan() {
+        final Random random = new Random(42);
+        final int window = 10;
+        final RollingStats stats = new RollingStats(window, 1000, 50);
+        final long[] times = new long[200];
+        final int[] values = new int[200];
+        long time = 0;
+        for (int i = 0; i < times.length; i++) {
+            time += random.nextInt(3) == 0 ? 0 : 200 + random.nextInt(2000);
+            times[i] = time;
+            values[i] = random.nextInt(100);
+            stats.add(times[i], values[i]);
+            if (i % 50 == 49) {
+                stats.setThreshold(25 + random.nextInt(50));
+            }
+            long total = 0;
+            long totalMillis = 0;
+            long streakTotal = 0;
+            long streakMillis = 0;
+            for (int j = Math.max(0, i - window + 1); j <= i; j++) {
+                long interval = times[j] - (j > 0 ? times[j - 1] : 0);
+                if (j == Math.max(0, i - window + 1) || interval <= 0) {
+                    interval = 1000;
+                }
+                total += values[j] * interval;
+                totalMillis += interval;
+                if (values[j] >= stats.getThreshold()) {
+                    streakTotal += values[j] * interval;
+                    streakMillis += interval;
+                } else {
+                    streakTotal = 0;
+                    streakMillis = 0;
+                }
+            }
+            assertEquals(totalMillis, stats.getTotalMillis());
+            assertEquals(total / totalMillis, stats.getAvg());
+            assertEquals(streakMillis, stats.getStreakMillis());
+            assertEquals(streakMillis == 0 ? 0 : streakTotal / streakMillis, stats.getStreakAvg());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import sk.baka.webvm.analyzer.config.Config;
+import sk.baka.webvm.analyzer.dump.TextDump;
+import sk.baka.webvm.analyzer.hostos.Memory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link SamplerOverhead} class.
+ * @author Martin Vysny
+ */
+public class SamplerOverheadTest {
+
+    @Test
+    public void testHistogram() {
+        final SamplerOverhead overhead = new SamplerOverhead();
+        final SamplerOverhead.Stage stage = overhead.getStage("stage");
+        assertSame(stage, overhead.getStage("stage"));
+        for (int i = 0; i < 99; i++) {
+            stage.record(3000, 100);
+        }
+        stage.record(100000, 100);
+        final SamplerOverhead.StageStats stats = overhead.getReport().stages.get(0);
+        assertEquals(100, stats.count);
+        assertEquals(100000, stats.maxNanos);
+        assertEquals(100, stats.getAvgAllocatedBytes());
+        assertEquals(3, stats.latency.getPercentile(50));
+        assertEquals(3, stats.latency.getPercentile(99));
+        assertEquals(100, stats.latency.getPercentile(100));
+        assertEquals(0, stats.window.count);
+        stage.record(1000, -1);
+        assertEquals(-1, overhead.getReport().stages.get(0).allocatedBytes);
+        overhead.rotateWindow();
+        stage.record(7000, 0);
+        final SamplerOverhead.StageStats rotated = overhead.getReport().stages.get(0);
+        assertEquals(101, rotated.window.count);
+        assertEquals(100, rotated.window.max);
+        assertEquals(102, rotated.latency.count);
+    }
+
+    @Test
+    public void testSummaryStageIsNotCounted() {
+        final SamplerOverhead overhead = new SamplerOverhead();
+        overhead.getStage("stage").record(1000, 0);
+        overhead.getSummaryStage("tick").record(5000, 0);
+        final SamplerOverhead.Report report = overhead.getReport();
+        assertEquals(2, report.stages.size());
+        assertTrue(report.stages.get(1).summary);
+        assertEquals(1000, report.getTotalNanos());
+    }
+
+    @Test
+    public void testProblemReportsAreMeasured() {
+        final SamplerOverhead overhead = new SamplerOverhead();
+        final SamplerOverhead.Stopwatch stopwatch = overhead.newStopwatch();
+        stopwatch.start();
+        final List<HistorySample> history = new ArrayList<HistorySample>();
+        history.add(new HistorySample.Builder().autodetectMemClassesThreads(Memory.getOSMemoryInfoProvider()).build());
+        new ProblemAnalyzer(new Config(), Memory.getOSMemoryInfoProvider()).getProblems(history, null, overhead, stopwatch);
+        final SamplerOverhead.Report report = overhead.getReport();
+        assertEquals(8, report.stages.size());
+        for (SamplerOverhead.StageStats stage : report.stages) {
+            assertTrue(stage.name.startsWith("problems: "));
+            assertEquals(1, stage.count);
+        }
+        final String dump = new TextDump().dumpOverhead(report);
+        assertTrue(dump, dump.contains("problems: " + ProblemAnalyzer.CLASS_CPU_USAGE));
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ThreadHistory} class.
+ * @author Martin Vysny
+ */
+public class ThreadHistoryTest {
+
+    private static ThreadHistory.Row find(ThreadHistory.Table table, long threadId) {
+        for (ThreadHistory.Row row : table.rows) {
+            if (row.threadId == threadId) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testCurrentThreadIsRunnable() {
+        final ThreadHistory history = new ThreadHistory(5);
+        for (int i = 0; i < 8; i++) {
+            history.add(ThreadMap.takeSnapshot());
+        }
+        final ThreadHistory.Table table = history.getTable();
+        assertEquals(5, table.columns);
+        final ThreadHistory.Row row = find(table, Thread.currentThread().getId());
+        assertEquals(Thread.currentThread().getName(), row.name);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Thread.State.RUNNABLE, row.getState(i));
+        }
+        for (int i = 1; i < table.rows.size(); i++) {
+            assertTrue(table.rows.get(i - 1).threadId < table.rows.get(i).threadId);
+        }
+    }
+
+    @Test
+    public void testDeadThreadIsDropped() throws Exception {
+        final ThreadHistory history = new ThreadHistory(3);
+        final Thread t = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException ex) {
+                    // terminate
+                }
+            }
+        };
+        t.start();
+        history.add(ThreadMap.takeSnapshot());
+        t.interrupt();
+        t.join();
+        history.add(ThreadMap.takeSnapshot());
+        ThreadHistory.Row row = find(history.getTable(), t.getId());
+        assertNotNull(row.getState(0));
+        assertNull(row.getState(1));
+        assertNull(row.getNewestState());
+        assertEquals(ThreadHistory.CPU_UNKNOWN, row.getCpuUsage(1));
+        history.add(null);
+        history.add(ThreadMap.takeSnapshot());
+        assertNull(find(history.getTable(), t.getId()));
+        // samples without threads still advance the history
+        assertNull(find(history.getTable(), Thread.currentThread().getId()).getState(1));
+    }
+
+    @Test
+    public void testBlockedThreadIsMeasured() throws Exception {
+        final ThreadHistory history = new ThreadHistory(5);
+        final Object lock = new Object();
+        final Thread t = new Thread() {
+
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    // just enter the monitor
+                }
+            }
+        };
+        synchronized (lock) {
+            t.start();
+            while (t.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(1);
+            }
+            history.add(ThreadMap.takeSnapshot());
+            Thread.sleep(100);
+            history.add(ThreadMap.takeSnapshot());
+        }
+        t.join();
+        final ThreadHistory.Table table = history.getTable();
+        final ThreadHistory.Row row = find(table, t.getId());
+        assertEquals(ThreadHistory.CPU_UNKNOWN, row.getBlockedPercent(0));
+        if (ThreadMap.BEAN.isThreadContentionMonitoringEnabled()) {
+            assertTrue("" + row.getBlockedPercent(1), row.getBlockedPercent(1) >= 50);
+            assertTrue(row.getAvgBlockedPercent() >= 50);
+        }
+        assertEquals(0, row.blockedCount);
+        assertEquals(1, table.getStateCount(Thread.State.BLOCKED, 0));
+        assertEquals(1, table.getStateCount(Thread.State.BLOCKED, 1));
+        assertTrue(table.getStateCount(Thread.State.RUNNABLE, 1) >= 1);
+        history.add(null);
+        assertEquals(-1, history.getTable().getStateCount(Thread.State.RUNNABLE, 2));
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ThreadMap} class.
+ * @author Martin Vysny
+ */
+public class ThreadMapTest {
+
+    @Test
+    public void testSnapshotContainsCurrentThread() {
+        final ThreadMap map = ThreadMap.takeSnapshot();
+        final int index = map.indexOf(Thread.currentThread().getId());
+        assertTrue(index >= 0);
+        assertEquals(Thread.currentThread().getName(), map.getName(index));
+        assertEquals(Thread.State.RUNNABLE, map.getState(index));
+        assertEquals(Thread.currentThread().getId(), map.getThreadInfo(index).getThreadId());
+        assertTrue(map.indexOf(-1) < 0);
+        final long[] ids = map.getThreadIDs();
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i - 1] < ids[i]);
+        }
+    }
+
+    @Test
+    public void testNamesAreShared() {
+        final ThreadMap map1 = ThreadMap.takeSnapshot();
+        final ThreadMap map2 = ThreadMap.takeSnapshot();
+        final long id = Thread.currentThread().getId();
+        assertSame(map1.getName(map1.indexOf(id)), map2.getName(map2.indexOf(id)));
+    }
+
+    @Test
+    public void testAllocatedBytes() throws Exception {
+        final ThreadMap map1 = ThreadMap.takeSnapshot();
+        final int index = map1.indexOf(Thread.currentThread().getId());
+        if (map1.getAllocatedBytes(index) < 0) {
+            // not supported by this JVM
+            assertEquals(-1, map1.getAllocatedBytesSince(map1));
+            return;
+        }
+        final List<byte[]> garbage = new ArrayList<byte[]>();
+        for (int i = 0; i < 100; i++) {
+            garbage.add(new byte[10000]);
+        }
+        Thread.sleep(10);
+        final ThreadMap map2 = ThreadMap.takeSnapshot();
+        assertTrue(map2.getAllocatedBytes(map2.indexOf(Thread.currentThread().getId())) - map1.getAllocatedBytes(index) >= 1000000);
+        assertTrue(map2.getAllocatedBytesSince(map1) >= 1000000);
+        assertEquals(0, map1.getAllocatedBytesSince(map1));
+        final HistorySample.Builder b = new HistorySample.Builder().computeAllocationRate(map1, map2);
+        assertTrue(b.allocationRate > 0);
+        assertEquals(-1, b.computeAllocationRate(null, map2).allocationRate);
+        assertEquals(100, garbage.size());
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the cost of a thread snapshot with an increasing number of parked threads, comparing
+ * {@link ThreadMap#takeSnapshot()} with the {@link ThreadSampler}. Not a unit test; run manually.
+ * @author Martin Vysny
+ */
+public final class ThreadSamplerBenchmark {
+
+    private static final int TICKS = 50;
+
+    public static void main(String[] args) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        try {
+            for (int count : new int[]{100, 1000, 4000, 8000}) {
+                while (threads.size() < count) {
+                    final Thread thread = new Thread("parked-" + threads.size()) {
+
+                        @Override
+                        public void run() {
+                            try {
+                                latch.await();
+                            } catch (InterruptedException ex) {
+                                // exit
+                            }
+                        }
+                    };
+                    thread.setDaemon(true);
+                    thread.start();
+                    threads.add(thread);
+                }
+                final ThreadSampler sampler = new ThreadSampler(10, 50);
+                System.out.println(count + " threads: ThreadMap " + measureLegacy() + "us/tick, ThreadSampler "
+                        + measure(sampler) + "us/tick");
+            }
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    private static long measureLegacy() {
+        ThreadMap.takeSnapshot();
+        final long start = System.nanoTime();
+        for (int i = 0; i < TICKS; i++) {
+            ThreadMap.takeSnapshot();
+        }
+        return (System.nanoTime() - start) / 1000 / TICKS;
+    }
+
+    private static long measure(ThreadSampler sampler) {
+        sampler.takeSnapshot();
+        final long start = System.nanoTime();
+        for (int i = 0; i < TICKS; i++) {
+            sampler.takeSnapshot();
+        }
+        return (System.nanoTime() - start) / 1000 / TICKS;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ThreadSampler} class.
+ * @author Martin Vysny
+ */
+public class ThreadSamplerTest {
+
+    @Test
+    public void testSnapshotContainsCurrentThread() {
+        final ThreadSampler sampler = new ThreadSampler(10, 5);
+        for (int i = 0; i < 3; i++) {
+            final ThreadMap map = sampler.takeSnapshot();
+            final int index = map.indexOf(Thread.currentThread().getId());
+            assertTrue(index >= 0);
+            assertEquals(Thread.currentThread().getName(), map.getName(index));
+            assertEquals(Thread.State.RUNNABLE, map.getState(index));
+            final long[] ids = map.getThreadIDs();
+            for (int j = 1; j < ids.length; j++) {
+                assertTrue(ids[j - 1] < ids[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testNewAndDeadThreadsAreDetected() throws Exception {
+        final ThreadSampler sampler = new ThreadSampler(1000, 0);
+        sampler.takeSnapshot();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread thread = new Thread("ThreadSamplerTest") {
+
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        thread.start();
+        try {
+            // the new thread must be picked up even though the full refresh is far away
+            ThreadMap map = sampler.takeSnapshot();
+            final int index = map.indexOf(thread.getId());
+            assertTrue(index >= 0);
+            assertEquals("ThreadSamplerTest", map.getName(index));
+        } finally {
+            latch.countDown();
+            thread.join();
+        }
+        final ThreadMap map = sampler.takeSnapshot();
+        assertTrue(map.indexOf(thread.getId()) < 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRefreshTicks() {
+        new ThreadSampler(0, 5);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link WaitProfile} class.
+ * @author Martin Vysny
+ */
+public class WaitProfileTest {
+
+    @Test
+    public void testJdkFrame() {
+        assertTrue(WaitProfile.isJdkFrame(new StackTraceElement("java.lang.Object", "wait", null, -1)));
+        assertTrue(WaitProfile.isJdkFrame(new StackTraceElement("jdk.internal.misc.Unsafe", "park", null, -1)));
+        assertFalse(WaitProfile.isJdkFrame(new StackTraceElement("org.postgresql.core.PGStream", "receiveChar", null, -1)));
+    }
+
+    @Test
+    public void testWaitsAreKeyedByApplicationFrame() throws Exception {
+        final WaitProfile profile = new WaitProfile(10);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread t = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        t.start();
+        while (t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        try {
+            profile.sample(1000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+            profile.sample(3000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+        } finally {
+            latch.countDown();
+            t.join();
+        }
+        final WaitProfile.Report report = profile.getReport();
+        assertEquals(2000, report.spanMillis);
+        WaitProfile.Entry entry = null;
+        for (WaitProfile.Entry e : report.sites) {
+            if (e.callSite.startsWith(WaitProfileTest.class.getName())) {
+                entry = e;
+            }
+        }
+        assertNotNull(report.sites.toString(), entry);
+        assertTrue(entry.application);
+        assertEquals(Thread.State.WAITING, entry.state);
+        assertEquals("java.util.concurrent.CountDownLatch$Sync", entry.lockClassName);
+        assertTrue(entry.waitFrame, entry.waitFrame.endsWith(".park"));
+        assertEquals(2000, entry.waitMillis);
+        assertEquals(2, entry.samples);
+        assertEquals(1, entry.maxThreads);
+        // older samples fall out of the history
+        for (int i = 0; i < 10; i++) {
+            profile.sample(4000 + i * 1000, null);
+        }
+        assertTrue(profile.getReport().sites.isEmpty());
+    }
+
+    @Test
+    public void testInterval() {
+        final WaitProfile profile = new WaitProfile(10);
+        profile.setIntervalMillis(1000);
+        profile.sample(1000, null);
+        // too early
+        profile.sample(1200, null);
+        profile.sample(1950, null);
+        assertEquals(950, profile.getReport().spanMillis);
+        profile.setIntervalMillis(0);
+        profile.sample(5000, null);
+        assertEquals(950, profile.getReport().spanMillis);
+        // the time the profile was off is not accounted
+        profile.setIntervalMillis(1000);
+        profile.sample(9000, null);
+        profile.sample(10000, null);
+        assertEquals(1950, profile.getReport().spanMillis);
+    }
+
+    @Test
+    public void testBusyThreadsAreNotSampled() throws Exception {
+        final WaitProfile profile = new WaitProfile(10);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Thread t = new Thread(new Runnable() {
+
+            public void run() {
+                spin(stop);
+            }
+        });
+        t.start();
+        try {
+            profile.sample(1000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+            profile.sample(2000, WaitingThreads.read(ThreadMap.takeSnapshot()));
+        } finally {
+            stop.set(true);
+            t.join();
+        }
+        for (WaitProfile.Entry e : profile.getReport().sites) {
+            assertFalse(e.toString(), e.callSite.contains(".spin("));
+        }
+    }
+
+    private static void spin(AtomicBoolean stop) {
+        while (!stop.get()) {
+            // burn the CPU
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer;
+
+import java.lang.management.ThreadInfo;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link WaitingThreads} class.
+ * @author Martin Vysny
+ */
+public class WaitingThreadsTest {
+
+    @Test
+    public void testNoSnapshot() {
+        assertSame(WaitingThreads.EMPTY, WaitingThreads.read(null));
+    }
+
+    @Test
+    public void testWaitingThreadIsRead() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread t = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        t.start();
+        while (t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        final WaitingThreads waiting;
+        try {
+            waiting = WaitingThreads.read(ThreadMap.takeSnapshot());
+        } finally {
+            latch.countDown();
+            t.join();
+        }
+        ThreadInfo found = null;
+        for (ThreadInfo info : waiting.infos) {
+            assertFalse(info.getThreadId() == Thread.currentThread().getId());
+            // read without the stack traces
+            assertEquals(0, info.getStackTrace().length);
+            if (info.getThreadId() == t.getId()) {
+                found = info;
+            }
+        }
+        assertNotNull(found);
+        assertEquals(Thread.State.WAITING, found.getThreadState());
+    }
+
+    @Test
+    public void testCandidate() {
+        assertTrue(WaitingThreads.isCandidate(Thread.State.BLOCKED, false));
+        assertTrue(WaitingThreads.isCandidate(Thread.State.TIMED_WAITING, false));
+        assertTrue(WaitingThreads.isCandidate(Thread.State.RUNNABLE, true));
+        assertFalse(WaitingThreads.isCandidate(Thread.State.RUNNABLE, false));
+        assertFalse(WaitingThreads.isCandidate(Thread.State.TERMINATED, false));
+    }
+}
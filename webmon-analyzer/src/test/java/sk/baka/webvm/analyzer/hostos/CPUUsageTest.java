@@ -0,0 +1,39 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.hostos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link CPUUsage} class.
+ * @author Martin Vysny
+ */
+public class CPUUsageTest {
+
+    @Test
+    public void testOfClampsTheUsage() {
+        assertSame(CPUUsage.ZERO, CPUUsage.of(0));
+        assertSame(CPUUsage.ZERO, CPUUsage.of(-3));
+        assertEquals(new CPUUsage(100, 100), CPUUsage.of(100));
+        assertEquals(new CPUUsage(100, 100), CPUUsage.of(130));
+        assertEquals(new CPUUsage(42, 42), CPUUsage.of(42));
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.hostos.linux;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests the {@link PerfData} class.
+ * @author Martin Vysny
+ */
+public class PerfDataTest {
+
+    private static void putEntry(ByteBuffer buffer, String name, byte type, byte units, long value) {
+        final int start = buffer.position();
+        final int nameOffset = 20;
+        final int dataOffset = 40;
+        buffer.putInt(48).putInt(nameOffset).putInt(0).put(type).put((byte) 0).put(units).put((byte) 0).putInt(dataOffset);
+        buffer.put(name.getBytes()).put((byte) 0);
+        buffer.position(start + dataOffset);
+        buffer.putLong(value);
+    }
+
+    private static ByteBuffer newPerfData(boolean accessible, int entries) {
+        final ByteBuffer buffer = ByteBuffer.allocate(32 + 3 * 48).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0xcafec0c0).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 1).put((byte) 2).put((byte) 0).put((byte) (accessible ? 1 : 0));
+        buffer.putInt(0).putInt(0).putLong(0).putInt(32).putInt(entries);
+        putEntry(buffer, "sun.os.hrt.frequency", (byte) 'J', (byte) 6, 1000000000L);
+        putEntry(buffer, "sun.rt.safepointTime", (byte) 'J', (byte) PerfData.UNITS_TICKS, 2500000000L);
+        putEntry(buffer, "java.property", (byte) 'B', (byte) 5, 0);
+        return buffer;
+    }
+
+    private static void write(File file, ByteBuffer buffer) throws Exception {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testDecodesEntryTable() throws Exception {
+        final File file = File.createTempFile("hsperfdata", null);
+        try {
+            write(file, newPerfData(true, 3));
+            assertTrue(PerfData.isAccessible(file));
+            final PerfData data = new PerfData(file);
+            assertEquals(2, data.getNames().size());
+            assertEquals(-1, data.indexOf("java.property"));
+            final int safepointTime = data.indexOf("sun.rt.safepointTime");
+            assertEquals(PerfData.UNITS_TICKS, data.getUnits(safepointTime));
+            assertEquals(1000000000L, data.getTickFrequency());
+            assertEquals(2500, data.ticksToMillis(data.getLong(safepointTime)));
+            assertFalse(data.hasNewEntries());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInitialization() throws Exception {
+        final File file = File.createTempFile("hsperfdata", null);
+        try {
+            write(file, newPerfData(false, 0));
+            assertFalse(PerfData.isAccessible(file));
+            try {
+                new PerfData(file);
+                fail("Expected IOException");
+            } catch (IOException ex) {
+                // okay
+            }
+            write(file, newPerfData(true, 1));
+            final PerfData data = new PerfData(file);
+            assertEquals(1, data.getNames().size());
+            // the JVM adds an entry; the file is updated in place, as the mapping shares it
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(28);
+                raf.write(new byte[]{3, 0, 0, 0});
+            } finally {
+                raf.close();
+            }
+            assertTrue(data.hasNewEntries());
+            assertEquals(2, new PerfData(file).getNames().size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testReadsOwnCounters() {
+        final PerfData data = PerfData.openSelf();
+        assumeNotNull(data);
+        assertTrue(data.getTickFrequency() > 0);
+        final int safepoints = data.indexOf("sun.rt.safepoints");
+        assertTrue(safepoints >= 0);
+        final long before = data.getLong(safepoints);
+        System.gc();
+        assertTrue(data.getLong(safepoints) >= before);
+        assertNotNull(data.getString("sun.rt.javaCommand"));
+        assertTrue(PerfData.discover().containsKey(PerfData.getOwnPid()));
+    }
+}
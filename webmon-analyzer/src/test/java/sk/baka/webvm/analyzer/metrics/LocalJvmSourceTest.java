@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.Collections;
+import org.junit.Test;
+import sk.baka.webvm.analyzer.hostos.linux.PerfData;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests the {@link LocalJvmSource} class.
+ * @author Martin Vysny
+ */
+public class LocalJvmSourceTest {
+
+    @Test
+    public void testSamplesOwnJvmFromOutside() {
+        final PerfData perfData = PerfData.openSelf();
+        assumeNotNull(perfData);
+        final MetricRegistry registry = new MetricRegistry(Collections.<IMetricSource>singletonList(new LocalJvmSource(PerfData.getOwnPid(), perfData)), 10);
+        registry.sample(1000, null, null);
+        registry.sample(2000, null, null);
+        final MetricHistory.View history = registry.getHistory();
+        assertEquals(2, history.size());
+        final int heapUsed = history.indexOf("heap.used");
+        assertTrue(history.getNewest(heapUsed) > 0);
+        assertTrue(history.getNewest(history.indexOf("heap.max")) >= history.getNewest(heapUsed));
+        assertTrue(history.getNewest(history.indexOf("threads.live")) > 0);
+        // counters are converted to rates from the second sample on
+        assertTrue(history.getNewest(history.indexOf("classes.loaded")) >= 0);
+    }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.ProblemAnalyzer;
+import sk.baka.webvm.analyzer.ProblemReport;
+import sk.baka.webvm.analyzer.SamplerOverhead;
+import sk.baka.webvm.analyzer.config.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link MetricRegistry} class.
+ * @author Martin Vysny
+ */
+public class MetricRegistryTest {
+
+    /**
+     * Provides a counter and a gauge with values set by the test.
+     */
+    private static class TestSource implements IMetricSource {
+
+        private final String name;
+        long counter;
+        long gauge;
+        boolean fail;
+
+        TestSource(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Metric> getMetrics() {
+            return Arrays.asList(new Metric(name + ".counter", "Counter", "1/s", Metric.Kind.COUNTER),
+                    new Metric(name + ".gauge", "Gauge", "items", Metric.Kind.GAUGE, 10));
+        }
+
+        public void sample(long[] values) {
+            if (fail) {
+                throw new IllegalStateException("Simulated failure");
+            }
+            values[0] = counter;
+            values[1] = gauge;
+        }
+    }
+
+    /**
+     * Counts the lifecycle calls.
+     */
+    private static class ManagedSource extends TestSource implements IManagedMetricSource {
+
+        int starts;
+        int stops;
+        boolean refuseStart;
+
+        ManagedSource(String name) {
+            super(name);
+        }
+
+        public boolean start() {
+            starts++;
+            return !refuseStart;
+        }
+
+        public void stop() {
+            stops++;
+        }
+
+        public String getReport() {
+            return "report";
+        }
+    }
+
+    @Test
+    public void testManagedSourceLifecycle() {
+        final ManagedSource source = new ManagedSource("managed");
+        final MetricRegistry registry = new MetricRegistry(Collections.<IMetricSource>singletonList(source), 10);
+        assertEquals(0, source.starts);
+        final Config cfg = new Config();
+        cfg.metricsDisabled = "managed";
+        registry.configChanged(cfg);
+        registry.sample(1000, null, null);
+        assertEquals(0, source.starts);
+        assertTrue(registry.getReports().isEmpty());
+        cfg.metricsDisabled = null;
+        registry.configChanged(cfg);
+        registry.sample(2000, null, null);
+        registry.sample(3000, null, null);
+        assertEquals(1, source.starts);
+        assertEquals("report", registry.getReports().get("managed"));
+        cfg.metricsDisabled = "managed";
+        registry.configChanged(cfg);
+        registry.sample(4000, null, null);
+        assertEquals(1, source.stops);
+        registry.stop();
+        assertEquals(1, source.stops);
+        cfg.metricsDisabled = null;
+        registry.configChanged(cfg);
+        registry.sample(5000, null, null);
+        registry.stop();
+        assertEquals(2, source.starts);
+        assertEquals(2, source.stops);
+    }
+
+    @Test
+    public void testEveryPathIsMeasured() {
+        final ManagedSource managed = new ManagedSource("managed");
+        managed.refuseStart = true;
+        final TestSource other = new TestSource("other");
+        final MetricRegistry registry = new MetricRegistry(Arrays.<IMetricSource>asList(managed, other), 10);
+        final SamplerOverhead overhead = new SamplerOverhead();
+        final SamplerOverhead.Stopwatch stopwatch = overhead.newStopwatch();
+        stopwatch.start();
+        registry.sample(1000, overhead, stopwatch);
+        final Config cfg = new Config();
+        cfg.metricsDisabled = "managed";
+        registry.configChanged(cfg);
+        registry.sample(2000, overhead, stopwatch);
+        assertEquals(2, overhead.getReport().stages.size());
+        for (SamplerOverhead.StageStats stats : overhead.getReport().stages) {
+            assertEquals(stats.name, 2, stats.count);
+        }
+    }
+
+    @Test
+    public void testCounterIsConvertedToRate() {
+        final TestSource source = new TestSource("test");
+        final MetricRegistry registry = new MetricRegistry(Collections.<IMetricSource>singletonList(source), 10);
+        source.counter = 100;
+        source.gauge = 5;
+        registry.sample(1000, null, null);
+        source.counter = 300;
+        source.gauge = 7;
+        registry.sample(3000, null, null);
+        final MetricHistory.View h = registry.getHistory();
+        assertEquals(2, h.size());
+        assertEquals(0, h.indexOf("test.counter"));
+        assertEquals(HistoryBuffer.NOT_AVAILABLE, h.get(0, 0));
+        assertEquals(100, h.get(0, 1));
+        assertEquals(5, h.get(1, 0));
+        assertEquals(7, h.get(1, 1));
+        assertEquals(3000, h.getSampleTime(1));
+        // counter reset
+        source.counter = 0;
+        registry.sample(4000, null, null);
+        assertEquals(HistoryBuffer.NOT_AVAILABLE, registry.getHistory().getNewest(0));
+    }
+
+    @Test
+    public void testDisabledAndFailingSources() {
+        final TestSource a = new TestSource("a");
+        final TestSource b = new TestSource("b");
+        final MetricRegistry registry = new MetricRegistry(Arrays.<IMetricSource>asList(a, b), 10);
+        final Config config = new Config();
+        config.metricsDisabled = " a ";
+        registry.configChanged(config);
+        a.gauge = 3;
+        b.gauge = 4;
+        registry.sample(1000, null, null);
+        MetricHistory.View h = registry.getHistory();
+        assertEquals(HistoryBuffer.NOT_AVAILABLE, h.getNewest(h.indexOf("a.gauge")));
+        assertEquals(4, h.getNewest(h.indexOf("b.gauge")));
+        b.fail = true;
+        registry.sample(2000, null, null);
+        h = registry.getHistory();
+        assertEquals(HistoryBuffer.NOT_AVAILABLE, h.getNewest(h.indexOf("b.gauge")));
+    }
+
+    @Test
+    public void testHistoryIsBounded() {
+        final TestSource source = new TestSource("test");
+        final MetricRegistry registry = new MetricRegistry(Collections.<IMetricSource>singletonList(source), 3);
+        for (int i = 0; i < 100; i++) {
+            source.gauge = i;
+            registry.sample(i * 1000, null, null);
+        }
+        final MetricHistory.View h = registry.getHistory();
+        assertEquals(3, h.size());
+        assertEquals(97, h.get(1, 0));
+        assertEquals(99, h.getMax(1));
+    }
+
+    @Test
+    public void testHistoryViewIsSnapshot() {
+        final TestSource source = new TestSource("test");
+        final MetricRegistry registry = new MetricRegistry(Collections.<IMetricSource>singletonList(source), 3);
+        source.gauge = 1;
+        registry.sample(1000, null, null);
+        final MetricHistory.View h = registry.getHistory();
+        for (int i = 2; i < 10; i++) {
+            source.gauge = i;
+            registry.sample(i * 1000, null, null);
+        }
+        assertEquals(1, h.size());
+        assertEquals(1, h.getNewest(1));
+        assertEquals(1000, h.getSampleTime(0));
+        assertEquals(2, registry.getHistory().since(8000).size());
+    }
+
+    @Test
+    public void testThresholdProblem() {
+        final TestSource source = new TestSource("test");
+        final MetricRegistry registry = new MetricRegistry(Collections.<IMetricSource>singletonList(source), 10);
+        source.gauge = 9;
+        registry.sample(1000, null, null);
+        List<ProblemReport> reports = ProblemAnalyzer.getMetricReports(registry.getHistory());
+        assertEquals(1, reports.size());
+        assertFalse(reports.get(0).isProblem);
+        source.gauge = 10;
+        registry.sample(2000, null, null);
+        reports = ProblemAnalyzer.getMetricReports(registry.getHistory());
+        assertTrue(reports.get(0).isProblem);
+    }
+
+    @Test
+    public void testBuiltinSourcesAreDiscovered() {
+        final MetricRegistry registry = new MetricRegistry(MetricRegistry.discover(), 10);
+        assertTrue(registry.getSourceNames().contains("gc"));
+        assertTrue(registry.getSourceNames().contains("os"));
+        assertTrue(registry.getSourceNames().contains("pools"));
+        registry.sample(System.currentTimeMillis(), null, null);
+        final MetricHistory.View h = registry.getHistory();
+        assertTrue(h.getNewest(h.indexOf("os.loadAverage")) >= HistoryBuffer.NOT_AVAILABLE);
+        boolean poolSampled = false;
+        for (int i = 0; i < h.getMetrics().size(); i++) {
+            final Metric metric = h.getMetrics().get(i);
+            if (metric.name.startsWith("pool.") && metric.name.endsWith(".committed")) {
+                assertNotNull(metric.group);
+                poolSampled |= h.getNewest(i) > 0;
+            }
+        }
+        assertTrue(poolSampled);
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.util.Random;
+import org.junit.Test;
+import sk.baka.webvm.analyzer.HistoryArchive;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link CompressedBlock} class.
+ * @author Martin Vysny
+ */
+public class CompressedBlockTest {
+
+    @Test
+    public void testRoundTrip() {
+        final Random r = new Random(1);
+        final int columns = 70;
+        final long[][] rows = new long[500][columns];
+        final long[] times = new long[rows.length];
+        final CompressedBlock.Encoder encoder = new CompressedBlock.Encoder(columns);
+        for (int i = 0; i < rows.length; i++) {
+            times[i] = 1000000L + i * 1000 + r.nextInt(5);
+            for (int j = 0; j < columns; j++) {
+                rows[i][j] = r.nextInt(4) == 0 ? r.nextLong() : (i == 0 ? j : rows[i - 1][j]);
+            }
+            rows[i][0] = Long.MIN_VALUE;
+            rows[i][1] = Long.MAX_VALUE;
+            encoder.add(times[i], rows[i]);
+        }
+        final CompressedBlock block = encoder.seal();
+        assertEquals(0, encoder.size());
+        assertEquals(rows.length, block.count);
+        assertEquals(times[0], block.firstTime);
+        assertEquals(times[rows.length - 1], block.lastTime);
+        final CompressedBlock.Decoder decoder = block.decoder();
+        final long[] row = new long[columns];
+        for (int i = 0; i < rows.length; i++) {
+            assertTrue(decoder.hasNext());
+            assertEquals(times[i], decoder.next(row));
+            assertArrayEquals(rows[i], row);
+        }
+        assertFalse(decoder.hasNext());
+    }
+
+    @Test
+    public void testSteadySamplesCompressWell() {
+        final CompressedBlock.Encoder encoder = new CompressedBlock.Encoder(HistoryBuffer.COLUMNS);
+        final long[] row = new long[HistoryBuffer.COLUMNS];
+        for (int i = 0; i < 1000; i++) {
+            row[HistoryBuffer.Column.HEAP_USED.ordinal()] = 100 + i % 7;
+            row[HistoryBuffer.Column.CPU_AVG_USAGE.ordinal()] = i % 13;
+            row[HistoryBuffer.Column.HEAP_MAX.ordinal()] = 1024;
+            encoder.add(1000L * i, row);
+        }
+        // a raw sample takes 8 bytes per column plus the timestamp
+        final int raw = 1000 * 8 * (HistoryBuffer.COLUMNS + 1);
+        assertTrue("" + encoder.getByteSize(), encoder.getByteSize() * 20 < raw);
+    }
+
+    @Test
+    public void testArchiveDropsOldBlocks() {
+        final HistoryArchive archive = new HistoryArchive(100, 16);
+        final long[] row = new long[HistoryBuffer.COLUMNS];
+        for (int i = 0; i < 1000; i++) {
+            row[HistoryBuffer.Column.CLASSES_LOADED.ordinal()] = i;
+            archive.add(i, row);
+        }
+        final HistoryBuffer.View view = archive.view();
+        assertEquals(100, view.size());
+        assertEquals(900, view.get(HistoryBuffer.Column.CLASSES_LOADED, 0));
+        assertEquals(999, view.getSampleTime(99));
+        assertTrue(archive.getByteSize() < 100 * 8 * HistoryBuffer.COLUMNS / 10);
+    }
+}
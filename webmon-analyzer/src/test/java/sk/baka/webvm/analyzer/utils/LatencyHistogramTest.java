@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LatencyHistogram} class.
+ * @author Martin Vysny
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverTheWholeRange() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            final long lower = LatencyHistogram.getLowerBound(bucket);
+            final long upper = LatencyHistogram.getUpperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.getBucket(lower));
+            assertEquals(bucket, LatencyHistogram.getBucket(upper));
+            if (bucket > 0) {
+                assertEquals(LatencyHistogram.getUpperBound(bucket - 1) + 1, lower);
+            }
+            // the relative error is bounded
+            assertTrue(upper - lower <= Math.max(0, lower / LatencyHistogram.SUB_BUCKETS));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(LatencyHistogram.BUCKETS - 1));
+        assertEquals(0, LatencyHistogram.getBucket(-5));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        final LatencyHistogram.Snapshot s = h.getSnapshot();
+        assertEquals(1000, s.count);
+        assertEquals(500500, s.sum);
+        assertEquals(500, s.getMean());
+        assertEquals(1000, s.max);
+        assertEquals(500, s.getPercentile(50), 500 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990, s.getPercentile(99), 990 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000, s.getPercentile(99.9), 1000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000, s.getPercentile(100));
+        assertEquals(0, LatencyHistogram.Snapshot.EMPTY.getPercentile(99));
+    }
+
+    @Test
+    public void testIntervalSnapshots() {
+        final LatencyHistogram h = new LatencyHistogram();
+        h.record(10);
+        h.record(1000);
+        LatencyHistogram.Snapshot interval = h.getIntervalSnapshot();
+        assertEquals(2, interval.count);
+        assertEquals(1000, interval.max);
+        h.record(20);
+        interval = h.getIntervalSnapshot();
+        assertEquals(1, interval.count);
+        assertEquals(20, interval.sum);
+        assertEquals(20, interval.max);
+        assertEquals(20, interval.getPercentile(99));
+        assertEquals(0, h.getIntervalSnapshot().count);
+        assertEquals(3, h.getSnapshot().count);
+        assertEquals(1000, h.getSnapshot().max);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        h.record(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, h.getSnapshot().count);
+        assertEquals(9999, h.getSnapshot().max);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LongIntMap} class.
+ * @author Martin Vysny
+ */
+public class LongIntMapTest {
+
+    @Test
+    public void testAgainstHashMap() {
+        final Random r = new Random(2);
+        final LongIntMap map = new LongIntMap(4);
+        final Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < 20000; i++) {
+            final long key = r.nextInt(500) - 100;
+            if (r.nextBoolean()) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = -100; key < 400; key++) {
+            final Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value.intValue(), map.get(key, -1));
+        }
+    }
+}
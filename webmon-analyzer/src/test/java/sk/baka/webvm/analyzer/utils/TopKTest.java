@@ -0,0 +1,57 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.analyzer.utils;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TopK} class.
+ * @author Martin Vysny
+ */
+public class TopKTest {
+
+    @Test
+    public void testSelectsGreatestKeys() {
+        final TopK topK = new TopK(3);
+        final long[] keys = {5, 1, 9, 3, 7, 2, 8};
+        for (int i = 0; i < keys.length; i++) {
+            topK.offer(keys[i], i);
+        }
+        assertEquals(3, topK.size());
+        final long[] kept = new long[3];
+        for (int i = 0; i < 3; i++) {
+            kept[i] = topK.getKey(i);
+            assertEquals(kept[i], keys[topK.getValue(i)]);
+        }
+        Arrays.sort(kept);
+        assertArrayEquals(new long[]{7, 8, 9}, kept);
+        topK.clear();
+        assertEquals(0, topK.size());
+    }
+
+    @Test
+    public void testZeroK() {
+        final TopK topK = new TopK(0);
+        topK.offer(1, 1);
+        assertEquals(0, topK.size());
+    }
+}
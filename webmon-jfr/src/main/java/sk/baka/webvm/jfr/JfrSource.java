@@ -0,0 +1,85 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.jfr;
+
+import java.util.ArrayList;
+import java.util.List;
+import sk.baka.webvm.analyzer.metrics.IManagedMetricSource;
+import sk.baka.webvm.analyzer.metrics.Metric;
+
+/**
+ * Feeds the counters of the {@link JfrStream#getDefault() shared JFR stream} into the metric history. Registered via
+ * {@link java.util.ServiceLoader}: just put the webmon-jfr jar on the classpath of a JDK 14+ JVM. Provides no metrics if JFR
+ * is not available. The recording runs only while the source is enabled; the top-N tables are available as the source
+ * report.
+ * @author Martin Vysny
+ */
+public final class JfrSource implements IManagedMetricSource {
+
+    /**
+     * Number of rows of every top-N table in the report.
+     */
+    public static final int REPORT_ROWS = 20;
+    private JfrStream stream;
+
+    public String getName() {
+        return "jfr";
+    }
+
+    public List<Metric> getMetrics() {
+        stream = JfrStream.getDefault();
+        final List<Metric> result = new ArrayList<>(7);
+        if (stream == null) {
+            return result;
+        }
+        result.add(new Metric("jfr.allocated", "Allocated (sampled)", "KB/s", Metric.Kind.COUNTER));
+        result.add(new Metric("jfr.monitorEnters", "Contended monitor enters", "1/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, "JFR events (1/s)"));
+        result.add(new Metric("jfr.parks", "Thread parks", "1/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, "JFR events (1/s)"));
+        result.add(new Metric("jfr.exceptions", "Throwables created", "1/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, "JFR events (1/s)"));
+        result.add(new Metric("jfr.monitorTime", "Contended monitor wait", "ms/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, "JFR wait time (ms/s)"));
+        result.add(new Metric("jfr.parkTime", "Parked", "ms/s", Metric.Kind.COUNTER, Metric.NO_THRESHOLD, "JFR wait time (ms/s)"));
+        result.add(new Metric("jfr.executionSamples", "Execution samples", "1/s", Metric.Kind.COUNTER));
+        return result;
+    }
+
+    public boolean start() {
+        return stream.start();
+    }
+
+    public void stop() {
+        stream.stop();
+    }
+
+    public String getReport() {
+        return stream.isStarted() ? stream.getReport(REPORT_ROWS).toString() : null;
+    }
+
+    public void sample(long[] values) {
+        if (!stream.isStarted()) {
+            return;
+        }
+        values[0] = stream.getAllocatedBytes() / 1024;
+        values[1] = stream.getMonitorEnters();
+        values[2] = stream.getParks();
+        values[3] = stream.getThrowables();
+        values[4] = stream.getMonitorNanos() / 1000000;
+        values[5] = stream.getParkNanos() / 1000000;
+        values[6] = stream.getExecutionSamples();
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.jfr;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Consumes a JFR {@link RecordingStream} of this JVM and aggregates the events into cumulative counters and bounded top-N
+ * tables. The events are aggregated as they arrive; nothing is retained per event, so the memory usage does not grow with the
+ * event rate.
+ * <p></p>
+ * Monitor enters and thread parks are only recorded when longer than {@link #THRESHOLD}, to keep the overhead low. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class JfrStream {
+
+    private static final Logger log = Logger.getLogger(JfrStream.class.getName());
+    /**
+     * Monitor enters and parks shorter than this are not recorded.
+     */
+    public static final Duration THRESHOLD = Duration.ofMillis(10);
+    /**
+     * The execution sampling period.
+     */
+    public static final Duration SAMPLING_PERIOD = Duration.ofMillis(20);
+    /**
+     * Maximum number of distinct keys of a top-N table.
+     */
+    public static final int MAX_KEYS = 1024;
+    static final String OBJECT_ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    static final String JAVA_MONITOR_ENTER = "jdk.JavaMonitorEnter";
+    static final String THREAD_PARK = "jdk.ThreadPark";
+    static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    static final String EXCEPTION_STATISTICS = "jdk.ExceptionStatistics";
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong monitorEnters = new AtomicLong();
+    private final AtomicLong monitorNanos = new AtomicLong();
+    private final AtomicLong parks = new AtomicLong();
+    private final AtomicLong parkNanos = new AtomicLong();
+    private final AtomicLong executionSamples = new AtomicLong();
+    /**
+     * Throwables created since the JVM start, -1 if not yet known.
+     */
+    private final AtomicLong throwables = new AtomicLong(-1);
+    private final TopN allocations = new TopN(MAX_KEYS);
+    private final TopN monitors = new TopN(MAX_KEYS);
+    private final TopN parkBlockers = new TopN(MAX_KEYS);
+    private final TopN methods = new TopN(MAX_KEYS);
+    private RecordingStream stream;
+
+    /**
+     * Starts the recording stream, unless already started.
+     * @return true if the stream is running, false if JFR is not available in this JVM.
+     */
+    public synchronized boolean start() {
+        if (stream != null) {
+            return true;
+        }
+        try {
+            final RecordingStream s = new RecordingStream();
+            // the event is only available since JDK 16; enabling an unknown event is a no-op
+            s.enable(OBJECT_ALLOCATION_SAMPLE);
+            s.enable(JAVA_MONITOR_ENTER).withThreshold(THRESHOLD).withoutStackTrace();
+            s.enable(THREAD_PARK).withThreshold(THRESHOLD).withoutStackTrace();
+            s.enable(EXECUTION_SAMPLE).withPeriod(SAMPLING_PERIOD);
+            s.enable(EXCEPTION_STATISTICS).withPeriod(Duration.ofSeconds(1));
+            s.setMaxAge(Duration.ofMinutes(1));
+            s.onEvent(OBJECT_ALLOCATION_SAMPLE, this::onAllocation);
+            s.onEvent(JAVA_MONITOR_ENTER, this::onMonitorEnter);
+            s.onEvent(THREAD_PARK, this::onPark);
+            s.onEvent(EXECUTION_SAMPLE, this::onExecutionSample);
+            s.onEvent(EXCEPTION_STATISTICS, this::onExceptionStatistics);
+            s.onError(t -> log.log(Level.INFO, "JFR stream failed", t));
+            s.startAsync();
+            stream = s;
+            return true;
+        } catch (Exception | Error ex) {
+            log.log(Level.INFO, "JFR streaming is not available", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Stops the recording stream. The aggregated values are retained.
+     */
+    public synchronized void stop() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    /**
+     * Checks whether the stream is running.
+     * @return true if running.
+     */
+    public synchronized boolean isStarted() {
+        return stream != null;
+    }
+
+    void onAllocation(@NotNull RecordedEvent event) {
+        final long weight = event.getLong("weight");
+        allocatedBytes.addAndGet(weight);
+        allocations.add(getClassName(event.getClass("objectClass")), weight);
+    }
+
+    void onMonitorEnter(@NotNull RecordedEvent event) {
+        final long nanos = event.getDuration().toNanos();
+        monitorEnters.incrementAndGet();
+        monitorNanos.addAndGet(nanos);
+        monitors.add(getClassName(event.getClass("monitorClass")), nanos);
+    }
+
+    void onPark(@NotNull RecordedEvent event) {
+        final long nanos = event.getDuration().toNanos();
+        parks.incrementAndGet();
+        parkNanos.addAndGet(nanos);
+        parkBlockers.add(getClassName(event.getClass("parkedClass")), nanos);
+    }
+
+    void onExecutionSample(@NotNull RecordedEvent event) {
+        executionSamples.incrementAndGet();
+        final RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return;
+        }
+        final RecordedFrame top = stackTrace.getFrames().get(0);
+        methods.add(getClassName(top.getMethod().getType()) + "." + top.getMethod().getName(), 1);
+    }
+
+    void onExceptionStatistics(@NotNull RecordedEvent event) {
+        throwables.set(event.getLong("throwables"));
+    }
+
+    @NotNull
+    private static String getClassName(@Nullable RecordedClass clazz) {
+        return clazz == null ? "(none)" : clazz.getName();
+    }
+
+    /**
+     * Returns the sum of allocation sample weights, i.e. an estimate of the bytes allocated since the stream started.
+     * @return the allocated bytes.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Returns the number of recorded contended monitor enters.
+     * @return the number of monitor enters longer than {@link #THRESHOLD}.
+     */
+    public long getMonitorEnters() {
+        return monitorEnters.get();
+    }
+
+    /**
+     * Returns the total time threads spent waiting to enter a contended monitor.
+     * @return the time in nanoseconds, only counting enters longer than {@link #THRESHOLD}.
+     */
+    public long getMonitorNanos() {
+        return monitorNanos.get();
+    }
+
+    /**
+     * Returns the number of recorded thread parks.
+     * @return the number of parks longer than {@link #THRESHOLD}.
+     */
+    public long getParks() {
+        return parks.get();
+    }
+
+    /**
+     * Returns the total time threads spent parked.
+     * @return the time in nanoseconds, only counting parks longer than {@link #THRESHOLD}.
+     */
+    public long getParkNanos() {
+        return parkNanos.get();
+    }
+
+    /**
+     * Returns the number of execution samples taken.
+     * @return the number of samples.
+     */
+    public long getExecutionSamples() {
+        return executionSamples.get();
+    }
+
+    /**
+     * Returns the number of throwables created since the JVM start.
+     * @return the number of throwables, -1 if not yet known.
+     */
+    public long getThrowables() {
+        return throwables.get();
+    }
+
+    /**
+     * Returns a snapshot of the aggregated values.
+     * @param n the maximum number of rows of every top-N table.
+     * @return the report, never null.
+     */
+    @NotNull
+    public Report getReport(int n) {
+        return new Report(this, n);
+    }
+    private static JfrStream instance;
+
+    /**
+     * Returns the stream shared by the whole JVM. The stream is not started.
+     * @return the stream, null if JFR is not available in this JVM.
+     */
+    @Nullable
+    public static synchronized JfrStream getDefault() {
+        if (instance == null) {
+            try {
+                if (!FlightRecorder.isAvailable()) {
+                    return null;
+                }
+            } catch (LinkageError ex) {
+                log.log(Level.INFO, "JFR is not available", ex);
+                return null;
+            }
+            instance = new JfrStream();
+        }
+        return instance;
+    }
+
+    /**
+     * An immutable snapshot of the aggregated values.
+     */
+    public static final class Report implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        public final long allocatedBytes;
+        public final long monitorEnters;
+        public final long monitorNanos;
+        public final long parks;
+        public final long parkNanos;
+        public final long executionSamples;
+        public final long throwables;
+        /**
+         * Allocated bytes per class, estimated from the allocation samples.
+         */
+        public final List<TopN.Entry> allocations;
+        /**
+         * Contended monitor enter time in nanoseconds, per monitor class.
+         */
+        public final List<TopN.Entry> monitors;
+        /**
+         * Park time in nanoseconds, per the class of the object the thread parked on.
+         */
+        public final List<TopN.Entry> parkBlockers;
+        /**
+         * Execution samples per the top-most method.
+         */
+        public final List<TopN.Entry> methods;
+
+        private Report(JfrStream stream, int n) {
+            allocatedBytes = stream.getAllocatedBytes();
+            monitorEnters = stream.getMonitorEnters();
+            monitorNanos = stream.getMonitorNanos();
+            parks = stream.getParks();
+            parkNanos = stream.getParkNanos();
+            executionSamples = stream.getExecutionSamples();
+            throwables = stream.getThrowables();
+            allocations = stream.allocations.getTop(n);
+            monitors = stream.monitors.getTop(n);
+            parkBlockers = stream.parkBlockers.getTop(n);
+            methods = stream.methods.getTop(n);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("Allocated: ").append(allocatedBytes / 1024).append("K; monitor enters: ").append(monitorEnters);
+            sb.append(" (").append(monitorNanos / 1000000).append("ms); parks: ").append(parks);
+            sb.append(" (").append(parkNanos / 1000000).append("ms); execution samples: ").append(executionSamples);
+            sb.append("; throwables: ").append(throwables).append('\n');
+            append(sb, "Top allocations (bytes)", allocations);
+            append(sb, "Top contended monitors (ns)", monitors);
+            append(sb, "Top park blockers (ns)", parkBlockers);
+            append(sb, "Top methods (samples)", methods);
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, String title, List<TopN.Entry> entries) {
+            sb.append(title).append(":\n");
+            for (TopN.Entry entry : entries) {
+                sb.append("  ").append(entry).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.jfr;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sums values per key and reports the keys with the highest totals. The number of distinct keys is bounded: once full, values
+ * of new keys are summed under {@link #OTHER}. Thread-safe.
+ * @author Martin Vysny
+ */
+public final class TopN {
+
+    /**
+     * Collects the values of keys which did not fit into the table.
+     */
+    public static final String OTHER = "(other)";
+    private final int maxKeys;
+    /**
+     * Maps the key to the count and the total.
+     */
+    private final Map<String, long[]> entries = new HashMap<>();
+
+    /**
+     * Creates new table.
+     * @param maxKeys maximum number of distinct keys, at least 1.
+     */
+    public TopN(int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("Parameter maxKeys: invalid value " + maxKeys + ": must be 1 or greater");
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Adds a value to given key.
+     * @param key the key, not null.
+     * @param value the value, e.g. allocated bytes or a duration.
+     */
+    public synchronized void add(@NotNull String key, long value) {
+        long[] entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxKeys) {
+                key = OTHER;
+                entry = entries.get(key);
+            }
+            if (entry == null) {
+                entry = new long[2];
+                entries.put(key, entry);
+            }
+        }
+        entry[0]++;
+        entry[1] += value;
+    }
+
+    /**
+     * Returns the keys with the highest totals.
+     * @param n maximum number of keys to return.
+     * @return the entries, highest total first. Never null.
+     */
+    @NotNull
+    public synchronized List<Entry> getTop(int n) {
+        final List<Entry> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, long[]> e : entries.entrySet()) {
+            result.add(new Entry(e.getKey(), e.getValue()[0], e.getValue()[1]));
+        }
+        Collections.sort(result, BY_TOTAL);
+        return Collections.unmodifiableList(result.subList(0, Math.min(n, result.size())));
+    }
+    private static final Comparator<Entry> BY_TOTAL = new Comparator<Entry>() {
+
+        public int compare(Entry o1, Entry o2) {
+            return Long.compare(o2.total, o1.total);
+        }
+    };
+
+    /**
+     * An immutable table row.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        public final String key;
+        /**
+         * Number of values added.
+         */
+        public final long count;
+        /**
+         * Sum of the values.
+         */
+        public final long total;
+
+        Entry(String key, long count, long total) {
+            this.key = key;
+            this.count = count;
+            this.total = total;
+        }
+
+        @Override
+        public String toString() {
+            return key + ": " + total + " (" + count + "x)";
+        }
+    }
+}
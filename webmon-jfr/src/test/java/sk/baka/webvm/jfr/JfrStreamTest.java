@@ -0,0 +1,88 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.jfr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link JfrStream} class.
+ * @author Martin Vysny
+ */
+public class JfrStreamTest {
+
+    private final Object lock = new Object();
+
+    @Test(timeout = 30000)
+    public void testContendedMonitorIsRecorded() throws Exception {
+        final JfrStream stream = new JfrStream();
+        assertTrue(stream.start());
+        try {
+            while (stream.getMonitorEnters() == 0) {
+                contend();
+            }
+            final JfrStream.Report report = stream.getReport(5);
+            assertTrue(report.monitorNanos >= JfrStream.THRESHOLD.toNanos());
+            assertEquals(Object.class.getName(), report.monitors.get(0).key);
+        } finally {
+            stream.stop();
+        }
+    }
+
+    private void contend() throws InterruptedException {
+        final Thread holder = new Thread() {
+
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ex) {
+                        // ignore
+                    }
+                }
+            }
+        };
+        synchronized (lock) {
+            holder.start();
+            Thread.sleep(50);
+        }
+        holder.join();
+        Thread.sleep(200);
+    }
+
+    @Test
+    public void testSourceLifecycle() {
+        final JfrSource source = new JfrSource();
+        final long[] values = new long[source.getMetrics().size()];
+        assertEquals(7, values.length);
+        assertFalse("listing the metrics must not start the recording", JfrStream.getDefault().isStarted());
+        assertTrue(source.start());
+        try {
+            source.sample(values);
+            assertTrue(values[0] >= 0);
+            assertTrue(source.getReport(), source.getReport().contains("Top methods"));
+        } finally {
+            source.stop();
+        }
+        assertFalse(JfrStream.getDefault().isStarted());
+        assertNull(source.getReport());
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm.jfr;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TopN} class.
+ * @author Martin Vysny
+ */
+public class TopNTest {
+
+    @Test
+    public void testTopN() {
+        final TopN top = new TopN(2);
+        top.add("a", 10);
+        top.add("b", 30);
+        top.add("a", 5);
+        top.add("c", 1);
+        top.add("d", 100);
+        final List<TopN.Entry> entries = top.getTop(10);
+        assertEquals(3, entries.size());
+        assertEquals(TopN.OTHER, entries.get(0).key);
+        assertEquals(101, entries.get(0).total);
+        assertEquals(2, entries.get(0).count);
+        assertEquals("b", entries.get(1).key);
+        assertEquals("a", entries.get(2).key);
+        assertEquals(15, entries.get(2).total);
+        assertEquals(1, top.getTop(1).size());
+    }
+}
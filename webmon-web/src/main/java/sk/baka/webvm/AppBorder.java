@@ -74,7 +74,7 @@ public class AppBorder extends Border {
 
             @Override
             public void onClick() {
-                final String vmdump = new TextDump().dump(history.getVmstatHistory());
+                final String vmdump = new TextDump().dump(history, history.getVmstatHistory());
                 RequestCycle.get().scheduleRequestHandlerAfterCurrent(new ResourceStreamRequestHandler(new StringResourceStream(vmdump, "text/plain"), "vmdump.txt"));
             }
         });
@@ -22,15 +22,30 @@ import java.lang.management.ClassLoadingMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
 import java.lang.management.ThreadMXBean;
-import sk.baka.webvm.analyzer.HistorySample;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import sk.baka.webvm.analyzer.GcEvents;
+import sk.baka.webvm.analyzer.HistoryBuffer;
+import sk.baka.webvm.analyzer.HistorySample;
+import org.apache.wicket.AttributeModifier;
+import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
-import sk.baka.webvm.analyzer.HistorySampler;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import sk.baka.webvm.analyzer.HistoryRollup;
 import sk.baka.webvm.analyzer.IHistorySampler;
 import sk.baka.webvm.analyzer.hostos.*;
 import sk.baka.webvm.analyzer.hostos.Memory;
+import sk.baka.webvm.analyzer.metrics.Metric;
+import sk.baka.webvm.analyzer.metrics.MetricHistory;
+import sk.baka.webvm.analyzer.utils.Duration;
+import sk.baka.webvm.analyzer.utils.LatencyHistogram;
 import sk.baka.webvm.analyzer.utils.MemoryUsage2;
 import sk.baka.webvm.misc.AbstractGraph;
 import sk.baka.webvm.misc.BluffGraph;
@@ -64,19 +79,67 @@ public class Graphs extends WebVMPage {
     public static final String COLOR_GREY = "#999999";
     @Inject
     private IHistorySampler historySampler;
-    private final IModel<List<HistorySample>> history;
+    /**
+     * The history of the selected range. Views copy the history: every model takes one per request.
+     */
+    private final IModel<HistoryBuffer.View> history;
+    /**
+     * The recent raw history, for the current values.
+     */
+    private final IModel<HistoryBuffer.View> recent;
+
+    private static final Logger LOG = Logger.getLogger(Graphs.class.getName());
+
+    /**
+     * Selectable time ranges, see {@link Duration#parse(java.lang.String)}.
+     */
+    private static final String[] RANGES = {"1h", "1d", "1w"};
+
+    /**
+     * Parses the <code>range</code> page parameter. The parameter comes straight from the URL, so an invalid value just selects the
+     * recent raw history instead of failing the page.
+     * @param range the parameter value, may be null.
+     * @return the range in milliseconds, 0 for the recent raw history.
+     */
+    static long parseRange(final String range) {
+        if (range == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Duration.parse(range).millis);
+        } catch (IllegalArgumentException ex) {
+            LOG.log(Level.FINE, "Ignoring invalid range " + range, ex);
+            return 0;
+        }
+    }
 
     /**
      * Creates the page instance.
+     *
+     * @param parameters optional <code>range</code> parameter selects the time range to show, e.g. <code>1d</code>. The recent
+     * raw history is shown if missing or invalid.
      */
-    public Graphs() {
-        history = register(new LoadableDetachableModel<List<HistorySample>>() {
+    public Graphs(final PageParameters parameters) {
+        super(parameters);
+        final long rangeMillis = parseRange(parameters.get("range").toOptionalString());
+        history = register(new LoadableDetachableModel<HistoryBuffer.View>() {
 
             @Override
-            protected List<HistorySample> load() {
+            protected HistoryBuffer.View load() {
+                return rangeMillis == 0 ? historySampler.getVmstatHistory() : historySampler.getVmstatHistory(rangeMillis, HistoryRollup.Aggregate.AVG);
+            }
+        });
+        recent = rangeMillis == 0 ? history : register(new LoadableDetachableModel<HistoryBuffer.View>() {
+
+            @Override
+            protected HistoryBuffer.View load() {
                 return historySampler.getVmstatHistory();
             }
         });
+        border.add(new BookmarkablePageLink<Graphs>("rangeRecent", Graphs.class));
+        for (final String r : RANGES) {
+            border.add(new BookmarkablePageLink<Graphs>("range" + r, Graphs.class, new PageParameters().add("range", r)));
+        }
         drawGcCpuUsage();
         drawHeap();
         drawNonHeap();
@@ -85,6 +148,8 @@ public class Graphs extends WebVMPage {
         drawPhysMem();
         drawSwap();
         drawHostCpuUsage();
+        drawMetrics(rangeMillis);
+        drawGcPauses();
     }
 
     /**
@@ -108,18 +173,13 @@ public class Graphs extends WebVMPage {
             protected String load() {
                 final GraphStyle gs = newDefaultStyle();
                 gs.colors = new String[]{COLOR_BROWN};
-                int maxClasses = 0;
-                for (final HistorySample hs : history.getObject()) {
-                    if (maxClasses < hs.classesLoaded) {
-                        maxClasses = hs.classesLoaded;
-                    }
-                }
-                maxClasses = maxClasses * 5 / 4;
+                final HistoryBuffer.View h = history.getObject();
+                final int maxClasses = (int) h.getMax(HistoryBuffer.Column.CLASSES_LOADED) * 5 / 4;
                 final BluffGraph dg = new BluffGraph(maxClasses, gs);
-                for (final HistorySample hs : history.getObject()) {
-                    dg.add(new int[]{hs.classesLoaded});
+                for (int i = 0; i < h.size(); i++) {
+                    dg.add(new int[]{h.getInt(HistoryBuffer.Column.CLASSES_LOADED, i)});
                 }
-                dg.fillWithZero(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), false);
+                dg.fillWithZero(h.getHistoryLength(), false);
                 return dg.draw();
             }
         });
@@ -165,10 +225,11 @@ public class Graphs extends WebVMPage {
                     gs.colors = new String[]{COLOR_BLUE, COLOR_BROWN, COLOR_DARKGREY};
                     final AbstractGraph dg = new BluffGraph(100, gs);
                     dg.makeAscending = true;
-                    for (final HistorySample hs : history.getObject()) {
-                        dg.add(new int[]{hs.cpuJavaUsage, hs.cpuUsage.cpuAvgUsage, hs.cpuIOUsage});
+                    final HistoryBuffer.View h = history.getObject();
+                    for (int i = 0; i < h.size(); i++) {
+                        dg.add(new int[]{h.getInt(HistoryBuffer.Column.CPU_JAVA_USAGE, i), h.getInt(HistoryBuffer.Column.CPU_AVG_USAGE, i), h.getInt(HistoryBuffer.Column.CPU_IO_USAGE, i)});
                     }
-                    dg.fillWithZero(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), false);
+                    dg.fillWithZero(h.getHistoryLength(), false);
                     return dg.draw();
                 }
             });
@@ -202,7 +263,8 @@ public class Graphs extends WebVMPage {
     }
 
     private HistorySample getNonEmptyLastSample() {
-        return history.getObject().isEmpty() ? new HistorySample.Builder().autodetectMemClassesThreads(meminfo).build() : history.getObject().get(history.getObject().size() - 1);
+        final HistoryBuffer.View recent = this.recent.getObject();
+        return recent.isEmpty() ? new HistorySample.Builder().autodetectMemClassesThreads(meminfo).build() : recent.getNewest();
     }
 
     private static String printValue(final boolean enabled, final int value) {
@@ -217,10 +279,11 @@ public class Graphs extends WebVMPage {
                 final GraphStyle gs = newDefaultStyle();
                 gs.colors = new String[]{COLOR_BLUE};
                 final AbstractGraph dg = new BluffGraph(100, gs);
-                for (final HistorySample hs : history.getObject()) {
-                    dg.add(new int[]{hs.gcCpuUsage});
+                final HistoryBuffer.View h = history.getObject();
+                for (int i = 0; i < h.size(); i++) {
+                    dg.add(new int[]{h.getInt(HistoryBuffer.Column.GC_CPU_USAGE, i)});
                 }
-                dg.fillWithZero(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), false);
+                dg.fillWithZero(h.getHistoryLength(), false);
                 return dg.draw();
             }
         });
@@ -355,18 +418,13 @@ public class Graphs extends WebVMPage {
             protected String load() {
                 final GraphStyle gs = newDefaultStyle();
                 gs.colors = new String[]{COLOR_BLUE, COLOR_BROWN};
-                int maxThreads = 0;
-                for (final HistorySample hs : history.getObject()) {
-                    if (maxThreads < hs.threads.threadCount) {
-                        maxThreads = hs.threads.threadCount;
-                    }
-                }
-                maxThreads = maxThreads * 5 / 4;
+                final HistoryBuffer.View h = history.getObject();
+                final int maxThreads = (int) h.getMax(HistoryBuffer.Column.THREAD_COUNT) * 5 / 4;
                 final AbstractGraph dg = new BluffGraph(maxThreads, gs);
-                for (final HistorySample hs : history.getObject()) {
-                    dg.add(new int[]{hs.threads.daemonThreadCount, hs.threads.threadCount});
+                for (int i = 0; i < h.size(); i++) {
+                    dg.add(new int[]{h.getInt(HistoryBuffer.Column.DAEMON_THREAD_COUNT, i), h.getInt(HistoryBuffer.Column.THREAD_COUNT, i)});
                 }
-                dg.fillWithZero(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), false);
+                dg.fillWithZero(h.getHistoryLength(), false);
                 return dg.draw();
             }
         });
@@ -408,25 +466,169 @@ public class Graphs extends WebVMPage {
             protected String load() {
                 final GraphStyle gs = Graphs.newDefaultStyle();
                 gs.colors = new String[]{Graphs.COLOR_BLUE, Graphs.COLOR_BROWN};
-                long maxMem = history.getObject().isEmpty() ? -1 : history.getObject().get(0).memPoolUsage.get(pool).getMax();
+                final HistoryBuffer.View h = history.getObject();
+                long maxMem = h.isEmpty() ? -1 : h.get(HistoryBuffer.Column.max(pool), 0);
                 if (maxMem == -1) {
-                    maxMem = 0;
-                    for (final HistorySample hs : history.getObject()) {
-                        final MemoryUsage2 usage = hs.memPoolUsage.get(pool);
-                        if (maxMem < usage.getCommitted()) {
-                            maxMem = usage.getCommitted();
-                        }
-                    }
-                    maxMem = maxMem * 5 / 4;
+                    maxMem = h.getMax(HistoryBuffer.Column.committed(pool)) * 5 / 4;
                 }
                 final BluffGraph dg = new BluffGraph((int) maxMem, gs);
-                for (final HistorySample hs : history.getObject()) {
-                    final MemoryUsage2 usage = hs.memPoolUsage.get(pool);
-                    dg.add(new int[]{(int) usage.getUsed(), (int) usage.getCommitted()});
+                for (int i = 0; i < h.size(); i++) {
+                    dg.add(new int[]{h.getInt(HistoryBuffer.Column.used(pool), i), h.getInt(HistoryBuffer.Column.committed(pool), i)});
                 }
-                dg.fillWithZero(HistorySampler.HISTORY_VMSTAT.getHistoryLength(), false);
+                dg.fillWithZero(h.getHistoryLength(), false);
                 return dg.draw();
             }
         });
     }
+
+    /**
+     * Draws a graph for every metric provided by the pluggable metric sources; consecutive metrics of the same
+     * {@link Metric#group} share a graph.
+     * @param rangeMillis the time range to show, 0 for the recent raw history.
+     */
+    private void drawMetrics(final long rangeMillis) {
+        final IModel<MetricHistory.View> metrics = register(new LoadableDetachableModel<MetricHistory.View>() {
+
+            @Override
+            protected MetricHistory.View load() {
+                return rangeMillis == 0 ? historySampler.getMetricHistory() : historySampler.getMetricHistory(rangeMillis, HistoryRollup.Aggregate.AVG);
+            }
+        });
+        border.add(new ListView<int[]>("metrics", groupMetrics(metrics.getObject().getMetrics())) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void populateItem(ListItem<int[]> item) {
+                final int[] group = item.getModelObject();
+                final Metric first = metrics.getObject().getMetrics().get(group[0]);
+                item.add(new Label("metricName", first.group != null ? first.group : first.toString()));
+                final Label graph = new Label("metricGraph", new LoadableDetachableModel<String>() {
+
+                    @Override
+                    protected String load() {
+                        final GraphStyle gs = newDefaultStyle();
+                        gs.colors = new String[group.length];
+                        long max = 1;
+                        final MetricHistory.View h = metrics.getObject();
+                        for (int i = 0; i < group.length; i++) {
+                            gs.colors[i] = METRIC_COLORS[i % METRIC_COLORS.length];
+                            max = Math.max(max, h.getMax(group[i]) * 5 / 4);
+                        }
+                        final BluffGraph dg = new BluffGraph((int) Math.min(Integer.MAX_VALUE, max), gs);
+                        dg.makeAscending = true;
+                        for (int i = 0; i < h.size(); i++) {
+                            final int[] values = new int[group.length];
+                            for (int j = 0; j < group.length; j++) {
+                                values[j] = (int) Math.min(Integer.MAX_VALUE, Math.max(0, h.get(group[j], i)));
+                            }
+                            dg.add(values);
+                        }
+                        dg.fillWithZero(h.getHistoryLength(), false);
+                        return dg.draw();
+                    }
+                });
+                graph.setEscapeModelStrings(false);
+                item.add(graph);
+                final List<Integer> members = new ArrayList<Integer>(group.length);
+                for (int i = 0; i < group.length; i++) {
+                    members.add(i);
+                }
+                item.add(new ListView<Integer>("metricValues", members) {
+
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected void populateItem(ListItem<Integer> valueItem) {
+                        final int index = valueItem.getModelObject();
+                        final int metric = group[index];
+                        final WebMarkupContainer legend = new WebMarkupContainer("metricLegend");
+                        legend.add(AttributeModifier.replace("class", METRIC_LEGENDS[index % METRIC_LEGENDS.length]));
+                        valueItem.add(legend);
+                        valueItem.add(new Label("metricValueName", metrics.getObject().getMetrics().get(metric).displayName));
+                        valueItem.add(new Label("metricValue", new LoadableDetachableModel<String>() {
+
+                            @Override
+                            protected String load() {
+                                final long value = metrics.getObject().getNewest(metric);
+                                return value < 0 ? "?" : value + " " + metrics.getObject().getMetrics().get(metric).unit;
+                            }
+                        }));
+                    }
+                });
+            }
+        });
+    }
+    private static final String[] METRIC_COLORS = {COLOR_BLUE, COLOR_BROWN, COLOR_DARKGREY};
+    private static final String[] METRIC_LEGENDS = {"legendBlue", "legendBrown", "legendGrey"};
+
+    /**
+     * Groups consecutive metrics with the same {@link Metric#group}.
+     * @param metrics the metrics.
+     * @return indices of the metrics of every graph.
+     */
+    private static ArrayList<int[]> groupMetrics(List<Metric> metrics) {
+        final ArrayList<int[]> result = new ArrayList<int[]>();
+        int start = 0;
+        while (start < metrics.size()) {
+            int end = start + 1;
+            final String group = metrics.get(start).group;
+            while (group != null && end < metrics.size() && group.equals(metrics.get(end).group)) {
+                end++;
+            }
+            final int[] indices = new int[end - start];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = start + i;
+            }
+            result.add(indices);
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Draws the pause time distribution of every garbage collector: bar i counts pauses shorter than 2^i milliseconds.
+     */
+    private void drawGcPauses() {
+        border.add(new ListView<GcEvents.PauseStats>("gcPauses", new LoadableDetachableModel<List<GcEvents.PauseStats>>() {
+
+            @Override
+            protected List<GcEvents.PauseStats> load() {
+                return historySampler.getGcEvents().collectors;
+            }
+        }) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void populateItem(ListItem<GcEvents.PauseStats> item) {
+                final GcEvents.PauseStats stats = item.getModelObject();
+                item.add(new Label("gcName", stats.gcName));
+                final LatencyHistogram.Snapshot pauses = stats.pauses;
+                // one bar per power of two, to keep the graph readable
+                final long[] bars = new long[64];
+                int last = 0;
+                long max = 1;
+                for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                    if (pauses.getCount(i) > 0) {
+                        final int bar = 64 - Long.numberOfLeadingZeros(LatencyHistogram.getLowerBound(i));
+                        bars[bar] += pauses.getCount(i);
+                        last = Math.max(last, bar);
+                        max = Math.max(max, bars[bar]);
+                    }
+                }
+                final GraphStyle gs = newDefaultStyle();
+                gs.colors = new String[]{COLOR_BROWN};
+                final BluffGraph dg = new BluffGraph((int) Math.min(Integer.MAX_VALUE, max * 5 / 4 + 1), gs);
+                for (int i = 0; i <= last; i++) {
+                    dg.add(new int[]{(int) Math.min(Integer.MAX_VALUE, bars[i])});
+                }
+                final Label graph = new Label("gcPauseGraph", dg.draw());
+                graph.setEscapeModelStrings(false);
+                item.add(graph);
+                item.add(new Label("gcPauseStats", pauses.count + " pauses, avg " + pauses.getMean() + "ms, p50 " + pauses.getPercentile(50)
+                        + "ms, p99 " + pauses.getPercentile(99) + "ms, p999 " + pauses.getPercentile(99.9) + "ms, max " + pauses.max + "ms"));
+            }
+        });
+    }
 }
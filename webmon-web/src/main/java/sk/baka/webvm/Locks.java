@@ -0,0 +1,106 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm;
+
+import com.google.inject.Inject;
+import java.util.List;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import sk.baka.webvm.analyzer.IHistorySampler;
+import sk.baka.webvm.analyzer.LockContention;
+
+/**
+ * Shows the most contended locks.
+ * @author Martin Vysny
+ */
+public class Locks extends WebVMPage {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new instance
+     */
+    public Locks() {
+        final IModel<LockContention.Report> model = new LockContentionModel();
+        border.add(new LockListView("locks", new LoadableDetachableModel<List<LockContention.Entry>>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<LockContention.Entry> load() {
+                return model.getObject().locks;
+            }
+
+            @Override
+            protected void onDetach() {
+                model.detach();
+            }
+        }));
+        border.add(new Label("span", new LoadableDetachableModel<String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String load() {
+                return Long.toString(model.getObject().spanMillis / 1000);
+            }
+        }));
+    }
+    @Inject
+    private IHistorySampler history;
+
+    /**
+     * Provides the lock contention report.
+     */
+    private class LockContentionModel extends LoadableDetachableModel<LockContention.Report> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected LockContention.Report load() {
+            return history.getLockContention();
+        }
+    }
+
+    /**
+     * Shows a list of contended locks.
+     */
+    private static class LockListView extends ListView<LockContention.Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        public LockListView(String id, IModel<? extends List<? extends LockContention.Entry>> model) {
+            super(id, model);
+        }
+
+        @Override
+        protected void populateItem(ListItem<LockContention.Entry> item) {
+            final LockContention.Entry lock = item.getModelObject();
+            item.add(new Label("lock", lock.lock));
+            item.add(new Label("kind", lock.synchronizer ? "j.u.c" : "monitor"));
+            item.add(new Label("blocked", Long.toString(lock.blockedMillis)));
+            item.add(new Label("samples", Integer.toString(lock.samples)));
+            item.add(new Label("maxBlocked", Integer.toString(lock.maxBlockedThreads)));
+            item.add(new Label("owner", lock.topOwner == null ? "?" : lock.topOwner));
+        }
+    }
+}
@@ -35,7 +35,9 @@ import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
+import sk.baka.webvm.analyzer.hostos.BufferPool;
 import sk.baka.webvm.analyzer.hostos.IMemoryInfoProvider;
+import sk.baka.webvm.analyzer.utils.Constants;
 import sk.baka.webvm.analyzer.utils.MemoryUsage2;
 import sk.baka.webvm.misc.DivGraph;
 import sk.baka.webvm.analyzer.utils.MemoryUsages;
@@ -85,6 +87,7 @@ public final class Memory extends WebVMPage {
         addMemoryPoolInfo(border, new MemoryBeansProducer(false), "memoryManagers", "memManName", "memManValid", "memManProperties");
         addMemoryPoolInfo(border, new MemoryBeansProducer(true), "gc", "gcName", "gcValid", "gcProperties");
         addDetailedMemoryPoolInfo(border);
+        addBufferPoolInfo(border);
         addGCStats();
     }
 
@@ -136,6 +139,57 @@ public final class Memory extends WebVMPage {
         border.add(new MemoryPoolDetailListView("memoryPool", model));
     }
 
+    private static void addBufferPoolInfo(final AppBorder border) {
+        final long maxDirect = sk.baka.webvm.analyzer.hostos.Memory.getMaxDirectMemory();
+        border.add(new Label("maxDirectMemory", maxDirect < 0 ? "?" : Long.toString(maxDirect / Constants.MEBIBYTES)));
+        final IModel<List<BufferPool>> model = new LoadableDetachableModel<List<BufferPool>>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<BufferPool> load() {
+                return sk.baka.webvm.analyzer.hostos.Memory.getBufferPools();
+            }
+        };
+        border.add(new BufferPoolListView("bufferPool", model, maxDirect));
+    }
+
+    /**
+     * Shows the NIO buffer pools.
+     */
+    private static class BufferPoolListView extends ListView<BufferPool> {
+
+        private static final long serialVersionUID = 1L;
+        private final long maxDirect;
+
+        public BufferPoolListView(String id, IModel<? extends List<? extends BufferPool>> model, long maxDirect) {
+            super(id, model);
+            this.maxDirect = maxDirect;
+        }
+
+        @Override
+        protected void populateItem(ListItem<BufferPool> item) {
+            final BufferPool pool = item.getModelObject();
+            item.add(new Label("bufferName", pool.name));
+            item.add(new Label("bufferCount", Long.toString(pool.count)));
+            if (pool.memoryUsed < 0 || pool.totalCapacity < 0) {
+                item.add(new Label("bufferUsage", "?"));
+                item.add(new Label("bufferUsagePerc", "?"));
+                return;
+            }
+            // the memory used may exceed the capacity because of page alignment
+            final long used = Math.min(pool.memoryUsed, pool.totalCapacity);
+            final long reserved = Math.max(pool.memoryUsed, pool.totalCapacity);
+            // only the direct buffers are limited, by MaxDirectMemorySize
+            final long max = "direct".equals(pool.name) && maxDirect >= reserved ? maxDirect : -1;
+            final MemoryUsage2 usage = new MemoryUsage2(-1, used, reserved, max).getInMB();
+            final Label label = new Label("bufferUsage", DivGraph.drawMemoryStatus(usage, MemoryPoolDetailListView.MEMSTAT_GRAPH_WIDTH) + MemoryUsages.toString(usage, true));
+            label.setEscapeModelStrings(false);
+            item.add(label);
+            item.add(new Label("bufferUsagePerc", MemoryUsages.getUsagePerc(usage)));
+        }
+    }
+
     private static void addMemoryPoolInfo(final AppBorder border, final Provider<? extends List<? extends MemoryManagerMXBean>> memoryBeansProducer, final String listId, final String nameId, final String validId, final String propsId) {
         final IModel<List<MemoryManagerMXBean>> model = new LoadableDetachableModel<List<MemoryManagerMXBean>>() {
 
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm;
+
+import com.google.inject.Inject;
+import java.util.List;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import sk.baka.webvm.analyzer.IHistorySampler;
+import sk.baka.webvm.analyzer.SamplerOverhead;
+
+/**
+ * Shows the cost of the sampler itself, per sampling stage.
+ * @author Martin Vysny
+ */
+public class Overhead extends WebVMPage {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new instance
+     */
+    public Overhead() {
+        final IModel<SamplerOverhead.Report> model = new OverheadModel();
+        border.add(new StageListView("stages", model));
+        border.add(new Label("total", new LoadableDetachableModel<String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String load() {
+                final SamplerOverhead.Report report = model.getObject();
+                return report.getMicrosPerSecond(report.getTotalNanos()) + " us of sampler time per second, measured over "
+                        + (report.elapsedMillis / 1000) + " seconds";
+            }
+        }));
+    }
+    @Inject
+    private IHistorySampler history;
+
+    /**
+     * Provides the overhead report.
+     */
+    private class OverheadModel extends LoadableDetachableModel<SamplerOverhead.Report> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected SamplerOverhead.Report load() {
+            return history.getOverhead();
+        }
+    }
+
+    /**
+     * Shows a list of sampling stages.
+     */
+    private static class StageListView extends ListView<SamplerOverhead.StageStats> {
+
+        private static final long serialVersionUID = 1L;
+        private final IModel<SamplerOverhead.Report> report;
+
+        public StageListView(String id, final IModel<SamplerOverhead.Report> report) {
+            super(id, new LoadableDetachableModel<List<SamplerOverhead.StageStats>>() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected List<SamplerOverhead.StageStats> load() {
+                    return report.getObject().stages;
+                }
+            });
+            this.report = report;
+        }
+
+        @Override
+        protected void populateItem(ListItem<SamplerOverhead.StageStats> item) {
+            final SamplerOverhead.StageStats stage = item.getModelObject();
+            final SamplerOverhead.Report r = report.getObject();
+            item.add(new Label("name", stage.name));
+            item.add(new Label("count", Long.toString(stage.count)));
+            item.add(new Label("avg", Long.toString(stage.getAvgNanos() / 1000)));
+            item.add(new Label("p50", Long.toString(stage.latency.getPercentile(50))));
+            item.add(new Label("p99", Long.toString(stage.latency.getPercentile(99))));
+            item.add(new Label("p999", Long.toString(stage.latency.getPercentile(99.9))));
+            item.add(new Label("max", Long.toString(stage.maxNanos / 1000)));
+            item.add(new Label("windowP99", Long.toString(stage.window.getPercentile(99))));
+            item.add(new Label("windowMax", Long.toString(stage.window.max)));
+            item.add(new Label("perSecond", Long.toString(r.getMicrosPerSecond(stage.totalNanos))));
+            item.add(new Label("alloc", stage.allocatedBytes < 0 ? "?" : Long.toString(stage.getAvgAllocatedBytes())));
+            item.add(new Label("allocPerSecond", stage.allocatedBytes < 0 ? "?" : Long.toString(r.getAllocatedKbPerSecond(stage.allocatedBytes))));
+        }
+
+        @Override
+        protected void onDetach() {
+            report.detach();
+            super.onDetach();
+        }
+    }
+}
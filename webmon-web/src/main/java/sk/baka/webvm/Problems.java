@@ -62,7 +62,7 @@ public class Problems extends WebVMPage {
 
         @Override
         protected List<ProblemReport> load() {
-            return analyzer.getProblems(history.getVmstatHistory());
+            return analyzer.getProblems(history.getVmstatHistory(), history.getMetricHistory(), null, null);
         }
     }
 
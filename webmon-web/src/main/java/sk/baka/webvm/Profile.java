@@ -0,0 +1,143 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm;
+
+import java.io.UnsupportedEncodingException;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.link.ResourceLink;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.apache.wicket.util.string.Strings;
+import sk.baka.webvm.analyzer.CallTree;
+import sk.baka.webvm.analyzer.StackProfiler;
+
+/**
+ * Shows the stacks sampled by the {@link StackProfiler} as a flame graph, the bottom-most frame on top (an icicle graph).
+ * @author Martin Vysny
+ */
+public class Profile extends WebVMPage {
+
+    private static final long serialVersionUID = 1L;
+    /**
+     * Frames with a smaller share of the samples are not shown, to keep the page small.
+     */
+    private static final int MIN_PERMILLE = 2;
+
+    /**
+     * Creates new instance
+     */
+    public Profile() {
+        border.add(new Label("status", new LoadableDetachableModel<String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String load() {
+                final StackProfiler profiler = getProfiler();
+                if (!profiler.isEnabled()) {
+                    return "The profiler is off. Set profiler.hz in the configuration to turn it on.";
+                }
+                final CallTree tree = profiler.getCallTree();
+                return "Sampling runnable threads " + profiler.getHz() + " times per second, " + profiler.getAvgTickMicros()
+                        + " us per sample. " + tree.getSamples() + " stacks, " + tree.getNodeCount() + "/" + tree.maxNodes
+                        + " nodes, " + tree.getTruncatedSamples() + " stacks truncated.";
+            }
+        }));
+        final Label flame = new Label("flame", new LoadableDetachableModel<String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String load() {
+                final CallTree tree = getProfiler().getCallTree();
+                final CallTree.Node root = tree.getRoot(Math.max(1, tree.getSamples() * MIN_PERMILLE / 1000));
+                final StringBuilder sb = new StringBuilder();
+                appendChildren(sb, root);
+                return sb.toString();
+            }
+        });
+        flame.setEscapeModelStrings(false);
+        border.add(flame);
+        border.add(new ResourceLink<Void>("collapsed", new CollapsedStacks()));
+        border.add(new Link<Void>("reset") {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void onClick() {
+                getProfiler().getCallTree().clear();
+            }
+        });
+    }
+
+    /**
+     * Looks up the profiler. Not injected: the injected fields are proxied by subclassing, which does not work for a final class.
+     */
+    private static StackProfiler getProfiler() {
+        return WicketApplication.getInjector().getInstance(StackProfiler.class);
+    }
+
+    /**
+     * Serves the sampled stacks in the collapsed format consumed by the flame graph tools.
+     */
+    private static class CollapsedStacks extends AbstractResource {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected ResourceResponse newResourceResponse(Attributes attributes) {
+            final ResourceResponse response = new ResourceResponse();
+            response.setContentType("text/plain");
+            response.setTextEncoding("UTF-8");
+            response.setFileName("webmon-profile.collapsed");
+            response.disableCaching();
+            final String collapsed = getProfiler().getCallTree().toCollapsed();
+            response.setWriteCallback(new WriteCallback() {
+
+                @Override
+                public void writeData(Attributes attributes) {
+                    try {
+                        attributes.getResponse().write(collapsed.getBytes("UTF-8"));
+                    } catch (UnsupportedEncodingException ex) {
+                        throw new AssertionError(ex);
+                    }
+                }
+            });
+            return response;
+        }
+    }
+
+    private static void appendChildren(StringBuilder sb, CallTree.Node node) {
+        if (node.children.isEmpty()) {
+            return;
+        }
+        sb.append("<div class=\"flameChildren\">");
+        for (CallTree.Node child : node.children) {
+            final String name = Strings.escapeMarkup(child.name).toString();
+            sb.append("<div class=\"flameFrame\" style=\"width: ").append(child.total * 100.0 / node.total).append("%\">");
+            sb.append("<div class=\"flameLabel\" style=\"background-color: hsl(").append(Math.abs(child.name.hashCode() % 50));
+            sb.append(", 90%, 65%)\" title=\"").append(name).append(": ").append(child.total).append(" samples, ");
+            sb.append(child.self).append(" self\">").append(name).append("</div>");
+            appendChildren(sb, child);
+            sb.append("</div>");
+        }
+        sb.append("</div>");
+    }
+}
@@ -19,10 +19,7 @@ package sk.baka.webvm;
 
 import com.google.inject.Inject;
 import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadInfo;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedMap;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.list.ListItem;
@@ -30,7 +27,8 @@ import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.LoadableDetachableModel;
 import sk.baka.webvm.analyzer.IHistorySampler;
-import sk.baka.webvm.analyzer.ThreadMap;
+import sk.baka.webvm.analyzer.ThreadHistory;
+import sk.baka.webvm.analyzer.utils.MemoryUsages;
 
 /**
  * Shows the thread history.
@@ -46,26 +44,32 @@ public class Threads extends WebVMPage {
      * Constructor.
      */
     public Threads() {
+        // the table is a copy of the thread history: take it once per request
+        table = register(new LoadableDetachableModel<ThreadHistory.Table>() {
+
+            @Override
+            protected ThreadHistory.Table load() {
+                return historySampler.getThreadHistory();
+            }
+        });
         border.add(new ThreadListView("threads", new ThreadListModel()));
+        border.add(new Label("stateCounts", new StateCountsModel()));
     }
+    private final IModel<ThreadHistory.Table> table;
     @Inject
     private IHistorySampler historySampler;
 
-    private SortedMap<Long, List<ThreadMap.Item>> analyzeThreads() {
-        return ThreadMap.historyToTable(historySampler.getVmstatHistory());
-    }
-
     /**
      * Returns an ASCII-graphic character representing the thread state.
      *
-     * @param info the thread.
+     * @param state the thread state, null if the thread was not present.
      * @return the thread character.
      */
-    private static char getStateChar(final ThreadInfo info) {
-        if (info == null) {
+    private static char getStateChar(final Thread.State state) {
+        if (state == null) {
             return ' ';
         }
-        switch (info.getThreadState()) {
+        switch (state) {
             case NEW:
                 return '.';
             case BLOCKED:
@@ -81,40 +85,54 @@ public class Threads extends WebVMPage {
         throw new AssertionError();
     }
 
-    private class ThreadListModel extends LoadableDetachableModel<List<List<ThreadMap.Item>>> {
+    private class ThreadListModel extends LoadableDetachableModel<List<ThreadHistory.Row>> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected List<ThreadHistory.Row> load() {
+            return table.getObject().rows;
+        }
+    }
+
+    /**
+     * Shows the number of threads per state, in the newest snapshot.
+     */
+    private class StateCountsModel extends LoadableDetachableModel<String> {
 
         private static final long serialVersionUID = 1L;
 
         @Override
-        protected List<List<ThreadMap.Item>> load() {
-            final List<List<ThreadMap.Item>> result = new ArrayList<List<ThreadMap.Item>>(analyzeThreads().values());
-            return result;
+        protected String load() {
+            final ThreadHistory.Table table = Threads.this.table.getObject();
+            final StringBuilder sb = new StringBuilder();
+            for (Thread.State state : STATES) {
+                final int count = table.columns == 0 ? -1 : table.getStateCount(state, table.columns - 1);
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(state).append(": ").append(count < 0 ? "?" : Integer.toString(count));
+            }
+            return sb.toString();
         }
     }
+    private static final Thread.State[] STATES = {Thread.State.RUNNABLE, Thread.State.BLOCKED, Thread.State.WAITING, Thread.State.TIMED_WAITING};
 
     /**
      * Wicket ListView showing thread names and thread states.
      */
-    private static class ThreadListView extends ListView<List<ThreadMap.Item>> {
+    private static class ThreadListView extends ListView<ThreadHistory.Row> {
 
         private static final long serialVersionUID = 1L;
 
-        public ThreadListView(String id, IModel<? extends List<? extends List<ThreadMap.Item>>> model) {
+        public ThreadListView(String id, IModel<? extends List<? extends ThreadHistory.Row>> model) {
             super(id, model);
         }
 
         @Override
-        protected void populateItem(ListItem<List<ThreadMap.Item>> item) {
-            final List<ThreadMap.Item> infos = item.getModelObject();
-            ThreadMap.Item ti = null;
-            for (final ThreadMap.Item info : infos) {
-                if (info != null) {
-                    ti = info;
-                    break;
-                }
-            }
-            final ThreadMap.Item last = infos.get(infos.size() - 1);
-            String name = ti.info.getThreadName();
+        protected void populateItem(ListItem<ThreadHistory.Row> item) {
+            final ThreadHistory.Row row = item.getModelObject();
+            String name = row.name;
             String title = name;
             if (name.length() > MAX_THREAD_NAME_LENGTH) {
                 name = name.substring(0, MAX_THREAD_NAME_LENGTH) + "...";
@@ -122,30 +140,53 @@ public class Threads extends WebVMPage {
             final Label l = new Label("threadName", name);
             item.add(l);
             l.add(AttributeModifier.replace("title", title));
-            final String state = last == null ? "dead" : last.info.getThreadState().toString();
+            final Thread.State last = row.getNewestState();
+            final String state = last == null ? "dead" : last.toString();
             item.add(new Label("threadState", state));
-            final StringBuilder sb = new StringBuilder();
-            for (final ThreadMap.Item info : infos) {
-                sb.append(getStateChar(info == null ? null : info.info));
+            item.add(new Label("threadAllocation", MemoryUsages.getRatePerSec(row.allocationRate)));
+            item.add(new Label("threadBlocked", getPercent(row.getAvgBlockedPercent())));
+            item.add(new Label("threadWaited", getPercent(row.getAvgWaitedPercent())));
+            final int columns = row.size();
+            final StringBuilder sb = new StringBuilder(columns * 2 + 32);
+            for (int i = 0; i < columns; i++) {
+                sb.append(getStateChar(row.getState(i)));
             }
-            final long threadCPUTimeNanos = ti.threadId < 0 ? -1 : ManagementFactory.getThreadMXBean().getThreadCpuTime(ti.threadId);
+            final long threadCPUTimeNanos = row.threadId < 0 ? -1 : ManagementFactory.getThreadMXBean().getThreadCpuTime(row.threadId);
             sb.append("  Total CPU: ").append(threadCPUTimeNanos / 1000000).append(" ms");
             sb.append("\n");
-            for (final ThreadMap.Item info : infos) {
-                sb.append(getCPUChar(info));
+            for (int i = 0; i < columns; i++) {
+                sb.append(getCPUChar(row, i));
+            }
+            sb.append("  CPU");
+            sb.append("\n");
+            for (int i = 0; i < columns; i++) {
+                sb.append(getPercentChar(row.getBlockedPercent(i)));
             }
+            sb.append("  Blocked");
             item.add(new Label("threadHistory", sb.toString()));
         }
     }
 
-    private static char getCPUChar(ThreadMap.Item info) {
-        if (info == null || info.lastCpuUsagePerc == null) {
+    private static char getCPUChar(ThreadHistory.Row row, int index) {
+        if (row.getState(index) == null) {
             return ' ';
         }
-        int cpuusage = info.lastCpuUsagePerc;
-        if (cpuusage > 99) {
-            cpuusage = 99;
+        return getPercentChar(row.getCpuUsage(index));
+    }
+
+    /**
+     * Returns a single digit representing the percentage: 0 for 0-9%, 9 for 90% and more.
+     * @param percent the percentage, {@link ThreadHistory#CPU_UNKNOWN} if not known.
+     * @return the digit character, space if not known.
+     */
+    private static char getPercentChar(int percent) {
+        if (percent == ThreadHistory.CPU_UNKNOWN) {
+            return ' ';
         }
-        return (char) ('0' + (cpuusage / 10));
+        return (char) ('0' + (Math.min(percent, 99) / 10));
+    }
+
+    private static String getPercent(int percent) {
+        return percent == ThreadHistory.CPU_UNKNOWN ? "?" : percent + "%";
     }
 }
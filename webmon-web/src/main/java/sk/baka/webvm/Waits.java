@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009 Martin Vysny.
+ *
+ * This file is part of WebMon.
+ *
+ * WebMon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WebMon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WebMon.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package sk.baka.webvm;
+
+import com.google.inject.Inject;
+import java.util.List;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import sk.baka.webvm.analyzer.IHistorySampler;
+import sk.baka.webvm.analyzer.WaitProfile;
+
+/**
+ * Shows the call sites threads wait in the most.
+ * @author Martin Vysny
+ */
+public class Waits extends WebVMPage {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates new instance
+     */
+    public Waits() {
+        final IModel<WaitProfile.Report> model = new WaitProfileModel();
+        border.add(new WaitListView("sites", new LoadableDetachableModel<List<WaitProfile.Entry>>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<WaitProfile.Entry> load() {
+                return model.getObject().sites;
+            }
+
+            @Override
+            protected void onDetach() {
+                model.detach();
+            }
+        }));
+        border.add(new Label("span", new LoadableDetachableModel<String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String load() {
+                return Long.toString(model.getObject().spanMillis / 1000);
+            }
+        }));
+    }
+    @Inject
+    private IHistorySampler history;
+
+    /**
+     * Provides the wait profile report.
+     */
+    private class WaitProfileModel extends LoadableDetachableModel<WaitProfile.Report> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected WaitProfile.Report load() {
+            return history.getWaitProfile();
+        }
+    }
+
+    /**
+     * Shows a list of call sites.
+     */
+    private static class WaitListView extends ListView<WaitProfile.Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        public WaitListView(String id, IModel<? extends List<? extends WaitProfile.Entry>> model) {
+            super(id, model);
+        }
+
+        @Override
+        protected void populateItem(ListItem<WaitProfile.Entry> item) {
+            final WaitProfile.Entry site = item.getModelObject();
+            item.add(new Label("callSite", (site.application ? "" : "(jdk) ") + site.callSite));
+            item.add(new Label("waitFrame", site.waitFrame));
+            item.add(new Label("kind", site.getKind()));
+            item.add(new Label("lockClass", site.lockClassName == null ? "-" : site.lockClassName));
+            item.add(new Label("waited", Long.toString(site.waitMillis)));
+            item.add(new Label("samples", Integer.toString(site.samples)));
+            item.add(new Label("maxThreads", Integer.toString(site.maxThreads)));
+        }
+    }
+}
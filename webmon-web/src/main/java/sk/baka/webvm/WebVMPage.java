@@ -24,6 +24,7 @@ import java.util.List;
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.model.IModel;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
 import sk.baka.webvm.analyzer.utils.MiscUtils;
 
 /**
@@ -47,6 +48,17 @@ public class WebVMPage extends WebPage {
         add(border);
     }
 
+    /**
+     * Creates new WebMon page.
+     *
+     * @param parameters the page parameters.
+     */
+    public WebVMPage(final PageParameters parameters) {
+        super(parameters);
+        border = new AppBorder("appBorder");
+        add(border);
+    }
+
     /**
      * Shows given string unescaped.
      *
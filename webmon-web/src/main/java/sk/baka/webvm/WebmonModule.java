@@ -29,10 +29,13 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import sk.baka.webvm.analyzer.AdaptiveSampling;
 import sk.baka.webvm.analyzer.HistorySampler;
 import sk.baka.webvm.analyzer.IHistorySampler;
+import sk.baka.webvm.analyzer.StackProfiler;
 import sk.baka.webvm.analyzer.IProblemAnalyzer;
 import sk.baka.webvm.analyzer.ProblemAnalyzer;
+import sk.baka.webvm.analyzer.ThreadSampler;
 import sk.baka.webvm.analyzer.hostos.IMemoryInfoProvider;
 import sk.baka.webvm.analyzer.config.Binder;
 import sk.baka.webvm.analyzer.config.Config;
@@ -110,9 +113,25 @@ public class WebmonModule extends AbstractModule {
     @Singleton
     public IHistorySampler newHistorySampler(Config cfg, IProblemAnalyzer a) {
         final INotificationDelivery d = new NotificationDelivery(cfg);
-        return new HistorySampler(a, d);
+        final HistorySampler result = new HistorySampler(a, d);
+        result.setThreadSampler(ThreadSampler.fromConfig(cfg));
+        result.setAdaptiveSampling(AdaptiveSampling.fromConfig(cfg, HistorySampler.HISTORY_VMSTAT.getHistorySampleDelayMs()));
+        if (cfg.historyFile != null) {
+            try {
+                result.setHistoryFile(new File(cfg.historyFile), cfg.historyFileSamples);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Failed to open " + cfg.historyFile + ", the history will not be persisted", ex);
+            }
+        }
+        return result;
     }
     
+    @Provides
+    @Singleton
+    public StackProfiler newStackProfiler(Config cfg) {
+        return new StackProfiler(cfg);
+    }
+
     @Provides
     @Singleton
     public IProblemAnalyzer newProblemAnalyzer(Config cfg, IMemoryInfoProvider meminfo) {
@@ -23,6 +23,7 @@ import com.google.inject.Injector;
 import org.apache.wicket.guice.GuiceComponentInjector;
 import org.apache.wicket.protocol.http.WebApplication;
 import sk.baka.webvm.analyzer.IHistorySampler;
+import sk.baka.webvm.analyzer.StackProfiler;
 import sk.baka.webvm.analyzer.config.Config;
 
 /**
@@ -44,6 +45,9 @@ public final class WicketApplication extends WebApplication {
         injector.getInstance(IHistorySampler.class).stop();
         injector.getInstance(IHistorySampler.class).configChanged(injector.getInstance(Config.class));
         injector.getInstance(IHistorySampler.class).start();
+        injector.getInstance(StackProfiler.class).stop();
+        injector.getInstance(StackProfiler.class).configChanged(injector.getInstance(Config.class));
+        injector.getInstance(StackProfiler.class).start();
     }
     private static Injector injector;
 
@@ -59,6 +63,7 @@ public final class WicketApplication extends WebApplication {
         super.init();
         injector = Guice.createInjector(new WebmonModule(getInitParameter("configFile")));
         injector.getInstance(IHistorySampler.class).start();
+        injector.getInstance(StackProfiler.class).start();
         getComponentInstantiationListeners().add(new GuiceComponentInjector(this, injector));
         getMarkupSettings().setDefaultBeforeDisabledLink("<a href=\"#\" class=\"current_page_item\">");
         getMarkupSettings().setDefaultAfterDisabledLink("</a>");
@@ -66,6 +71,7 @@ public final class WicketApplication extends WebApplication {
 
     @Override
     protected void onDestroy() {
+        injector.getInstance(StackProfiler.class).stop();
         injector.getInstance(IHistorySampler.class).stop();
         super.onDestroy();
     }
@@ -18,8 +18,11 @@
  */
 package sk.baka.webvm;
 
+import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 /**
  * Simple test using the WicketTester
  * @author Martin Vysny
@@ -30,4 +33,22 @@ public class GraphsTest extends AbstractWicket{
     public void testRenderPage() {
         startPage(Graphs.class);
     }
+
+    @Test
+    public void testRenderRange() {
+        startPage(new Graphs(new PageParameters().add("range", "1d")));
+    }
+
+    @Test
+    public void testRenderInvalidRange() {
+        startPage(new Graphs(new PageParameters().add("range", "bogus")));
+    }
+
+    @Test
+    public void testParseRange() {
+        assertEquals(0, Graphs.parseRange(null));
+        assertEquals(0, Graphs.parseRange("bogus"));
+        assertEquals(0, Graphs.parseRange("-1h"));
+        assertEquals(3600000, Graphs.parseRange("1h"));
+    }
 }